@@ -6,6 +6,15 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
+import com.ibizabroker.lms.service.ActiveLoanIndex;
+import com.ibizabroker.lms.service.DailyRollupService;
+import com.ibizabroker.lms.service.DashboardCounters;
+import com.ibizabroker.lms.service.DistinctBorrowerService;
+import com.ibizabroker.lms.service.DueDateEventService;
+import com.ibizabroker.lms.service.DurationDigestService;
+import com.ibizabroker.lms.service.LedgerService;
+import com.ibizabroker.lms.service.StatisticsViewService;
+import com.ibizabroker.lms.service.TrendingService;
 import com.ibizabroker.lms.service.UserService;
 
 /**
@@ -23,6 +32,33 @@ public class LmsApplication implements CommandLineRunner {
 	@Autowired
 	private UserService userService;
 
+	@Autowired
+	private ActiveLoanIndex activeLoanIndex;
+
+	@Autowired
+	private DueDateEventService dueDateEventService;
+
+	@Autowired
+	private LedgerService ledgerService;
+
+	@Autowired
+	private DashboardCounters dashboardCounters;
+
+	@Autowired
+	private StatisticsViewService statisticsViewService;
+
+	@Autowired
+	private TrendingService trendingService;
+
+	@Autowired
+	private DailyRollupService dailyRollupService;
+
+	@Autowired
+	private DurationDigestService durationDigestService;
+
+	@Autowired
+	private DistinctBorrowerService distinctBorrowerService;
+
 	/**
 	 * The main method that starts the Spring Boot application.
 	 *
@@ -34,12 +70,26 @@ public class LmsApplication implements CommandLineRunner {
 
 	/**
 	 * Executes after the application context is loaded.
-	 * Performs initialization tasks such as creating the admin user if it doesn't exist.
+	 * Performs initialization tasks such as creating the admin user if it doesn't exist,
+	 * recording opening balances for users created before the ledger,
+	 * loading dashboard counters, in-memory indexes and the due-date wheel,
+	 * creating the statistics views, loading trending scores,
+	 * backfilling the daily rollup if it is empty, loading the duration digests
+	 * and backfilling the distinct borrower sketches if there are none.
 	 *
 	 * @param args Command line arguments passed to the application
 	 */
 	@Override
 	public void run(String... args) {
+		dashboardCounters.load();
 		userService.createAdminUserIfNotExists(); // ✅ Auto-create admin user
+		ledgerService.recordMissingOpeningBalances();
+		activeLoanIndex.rebuild();
+		dueDateEventService.load();
+		statisticsViewService.createViews();
+		trendingService.load();
+		dailyRollupService.load();
+		durationDigestService.load();
+		distinctBorrowerService.load();
 	}
 }
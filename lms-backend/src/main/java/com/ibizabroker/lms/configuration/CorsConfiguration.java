@@ -21,6 +21,7 @@ public class CorsConfiguration {
                 registry.addMapping("/**")
                         .allowedMethods(GET, POST, PUT, DELETE)
                         .allowedHeaders("*")
+                        .exposedHeaders("X-Stats-Refreshed-At")
                         .allowedOriginPatterns("*")
                         .allowCredentials(true);
             }
@@ -0,0 +1,66 @@
+package com.ibizabroker.lms.configuration;
+
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Creates database indexes that JPA annotations cannot describe, such as partial indexes.
+ * Runs after Hibernate has updated the schema, so the indexed columns exist.
+ * Each statement is idempotent; a failure is logged and does not stop the application.
+ * Most indexes only affect performance; code relying on a unique index checks that it exists.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class DatabaseIndexInitializer {
+
+    /**
+     * Index statements, run in order at startup.
+     */
+    private static final List<String> STATEMENTS = Arrays.asList(
+            // Unreturned loans only, so the nightly fine job does not scan the loan history
+            "CREATE INDEX IF NOT EXISTS idx_borrow_unreturned ON borrow (borrow_id, due_date, fine_accrued_through) "
+                    + "WHERE return_status IN ('BORROWED', 'OVERDUE')",
+            // At most one opening balance per user, even if several nodes backfill at startup
+            "CREATE UNIQUE INDEX IF NOT EXISTS uq_ledger_opening_balance ON ledger_entries (user_id) "
+                    + "WHERE entry_type = 'OPENING_BALANCE'",
+            // At most one active loan per user and book, even when checkouts for them reach different nodes
+            "CREATE UNIQUE INDEX IF NOT EXISTS uq_borrow_open_loan ON borrow (user_id, book_id) "
+                    + "WHERE return_request_status IN ('NONE', 'PENDING', 'REJECTED')"
+    );
+
+    /**
+     * JDBC template used to run the statements.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Constructs a new DatabaseIndexInitializer.
+     *
+     * @param jdbcTemplate JDBC template used to run the statements
+     */
+    public DatabaseIndexInitializer(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Creates any missing indexes.
+     */
+    @PostConstruct
+    public void createIndexes() {
+        for (String statement : STATEMENTS) {
+            try {
+                jdbcTemplate.execute(statement);
+            } catch (RuntimeException e) {
+                System.out.println("Could not create index: " + statement + " (" + e.getMessage() + ")");
+            }
+        }
+    }
+}
@@ -2,11 +2,12 @@ package com.ibizabroker.lms.controller;
 
 import com.ibizabroker.lms.dao.BorrowRepository;
 import com.ibizabroker.lms.dao.RequestedBookRepository;
-import com.ibizabroker.lms.dao.RoleRepository;
 import com.ibizabroker.lms.dao.UsersRepository;
-import com.ibizabroker.lms.entity.Role;
 import com.ibizabroker.lms.entity.Users;
+import com.ibizabroker.lms.enums.DashboardMetric;
 import com.ibizabroker.lms.exceptions.NotFoundException;
+import com.ibizabroker.lms.service.DashboardCounters;
+import com.ibizabroker.lms.service.LedgerService;
 import com.ibizabroker.lms.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -35,12 +36,6 @@ public class AdminController {
     @Autowired
     private UsersRepository usersRepository;
 
-    /**
-     * Repository for performing database operations on roles.
-     */
-    @Autowired
-    private RoleRepository roleRepository;
-
     /**
      * Encoder for securely hashing user passwords.
      */
@@ -65,6 +60,18 @@ public class AdminController {
     @Autowired
     private RequestedBookRepository requestedBookRepository;
 
+    /**
+     * Service for balance changes, which are recorded in the ledger.
+     */
+    @Autowired
+    private LedgerService ledgerService;
+
+    /**
+     * In-memory counts shown on the admin dashboard.
+     */
+    @Autowired
+    private DashboardCounters dashboardCounters;
+
     /**
      * Retrieves details of a specific user.
      *
@@ -89,33 +96,26 @@ public class AdminController {
     @PostMapping("/users")
     @PreAuthorize("hasRole('Admin')")
     public Users addUserByAdmin(@RequestBody Users user) {
-        // Fetch or create the "User" role
-        Role userRole = roleRepository.findByRoleName("User")
-                .orElseGet(() -> {
-                    Role newRole = new Role();
-                    newRole.setRoleName("User");
-                    return roleRepository.save(newRole);
-                });
-
-        // Create and save the new user
-        Users newUser = new Users();
-        newUser.setUsername(user.getUsername());
-        newUser.setName(user.getName());
-        newUser.setPassword(passwordEncoder.encode(user.getPassword())); // Encode the password
-        newUser.setRole(Collections.singleton(userRole));
-        newUser.setAddress(user.getAddress());
-        newUser.setAccountBalance(500.0);
-        usersRepository.save(newUser);
-        return newUser;
+        return userService.addUser(user);
     }
 
+    /**
+     * Adds funds to a user's account.
+     * The balance is updated atomically and the top-up is recorded in the ledger.
+     *
+     * @param userId The ID of the user
+     * @param amount Amount to add; must be positive
+     * @return ResponseEntity containing the user with the new balance
+     */
     @PutMapping("/{userId}/add-balance")
     public ResponseEntity<Users> addBalance(@PathVariable int userId, @RequestParam double amount) {
         Users user = usersRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("User not found"));
+        if (amount <= 0) {
+            return ResponseEntity.badRequest().build();
+        }
 
-        user.setAccountBalance(user.getAccountBalance() + amount);
-        usersRepository.save(user);
+        user.setAccountBalance(ledgerService.topUp(userId, amount));
 
         return ResponseEntity.ok(user);
     }
@@ -160,10 +160,12 @@ public class AdminController {
         }
 
         // Delete requested books by this user
-        requestedBookRepository.deleteByRequestedById(userId);
+        int deletedRequests = requestedBookRepository.deleteByRequestedById(userId);
 
         // Delete the user
         usersRepository.delete(user);
+        dashboardCounters.add(DashboardMetric.REQUESTED_BOOKS, -deletedRequests);
+        dashboardCounters.add(DashboardMetric.TOTAL_USERS, -1);
 
         return ResponseEntity.ok("User deleted successfully.");
     }
@@ -2,7 +2,10 @@ package com.ibizabroker.lms.controller;
 
 import com.ibizabroker.lms.dao.BooksRepository;
 import com.ibizabroker.lms.entity.Books;
+import com.ibizabroker.lms.enums.DashboardMetric;
 import com.ibizabroker.lms.exceptions.NotFoundException;
+import com.ibizabroker.lms.service.DashboardCounters;
+import com.ibizabroker.lms.service.TrendingService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -31,14 +34,32 @@ public class BooksController {
     @Autowired
     private BooksRepository booksRepository;
 
+    /**
+     * In-memory counts shown on the admin dashboard.
+     */
+    @Autowired
+    private DashboardCounters dashboardCounters;
+
+    /**
+     * Service ranking books by recent borrowing.
+     */
+    @Autowired
+    private TrendingService trendingService;
+
     /**
      * Retrieves all books in the library.
+     * With sort=trending the books being borrowed most right now come first.
      *
+     * @param sort Optional sort order; "trending" is supported
      * @return List of all books
      */
     @GetMapping("/books")
-    public List<Books> getAllBooks(){
-        return booksRepository.findAll();
+    public List<Books> getAllBooks(@RequestParam(required = false) String sort){
+        List<Books> books = booksRepository.findAll();
+        if ("trending".equalsIgnoreCase(sort)) {
+            return trendingService.sortByTrending(books);
+        }
+        return books;
     }
 
     /**
@@ -66,7 +87,9 @@ public class BooksController {
     @PreAuthorize("hasRole('Admin')")
     @PostMapping("/books")
     public Books createBook(@RequestBody Books book) {
-        return booksRepository.save(book);
+        Books savedBook = booksRepository.save(book);
+        dashboardCounters.add(DashboardMetric.TOTAL_BOOKS, 1);
+        return savedBook;
     }
 
     /**
@@ -118,6 +141,7 @@ public class BooksController {
         Books book = booksRepository.findById(id).orElseThrow(() -> new NotFoundException("Book with id "+ id +" does not exist."));
 
         booksRepository.delete(book);
+        dashboardCounters.add(DashboardMetric.TOTAL_BOOKS, -1);
         Map<String, Boolean> response = new HashMap<>();
         response.put("deleted", Boolean.TRUE);
         return ResponseEntity.ok(response);
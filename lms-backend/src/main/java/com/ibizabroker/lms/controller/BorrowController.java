@@ -1,7 +1,14 @@
 package com.ibizabroker.lms.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.ibizabroker.lms.dao.BooksRepository;
+import com.ibizabroker.lms.dto.BorrowFilter;
 import com.ibizabroker.lms.dto.PendingReturnDTO;
+import com.ibizabroker.lms.dto.ReturnBatchRequest;
+import com.ibizabroker.lms.dto.ReturnBatchResult;
 import com.ibizabroker.lms.dao.BorrowRepository;
 import com.ibizabroker.lms.dao.UsersRepository;
 import com.ibizabroker.lms.entity.Books;
@@ -10,12 +17,19 @@ import com.ibizabroker.lms.entity.Users;
 import com.ibizabroker.lms.enums.ReturnReqStatus;
 import com.ibizabroker.lms.exceptions.NotFoundException;
 import com.ibizabroker.lms.service.BorrowService;
+import com.ibizabroker.lms.service.DashboardCounters;
+import com.ibizabroker.lms.service.IdempotencyService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Repository;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 import java.util.stream.Collectors;
@@ -51,12 +65,50 @@ public class BorrowController {
     @Autowired
     private BorrowService borrowService;
 
+    /**
+     * Service answering retried requests from stored responses.
+     */
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    /**
+     * In-memory counts shown on the admin dashboard.
+     */
+    @Autowired
+    private DashboardCounters dashboardCounters;
+
     /**
      * Repository for performing database operations on books.
      */
     @Autowired
     private BooksRepository booksRepository;
 
+    /**
+     * Mapper used to serialize streamed borrow records.
+     */
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Media type for newline-delimited JSON responses.
+     */
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    /**
+     * Header carrying the client-generated key that identifies retries of the same request.
+     */
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    /**
+     * Maximum number of borrow records accepted by a single batch return request.
+     */
+    private static final int MAX_RETURN_BATCH_SIZE = 1000;
+
+    /**
+     * Largest page of borrow records a streaming request may ask for with {@code limit}.
+     */
+    private static final int MAX_STREAM_LIMIT = 10000;
+
     /**
      * Retrieves all overdue books.
      * Requires admin privileges.
@@ -72,85 +124,99 @@ public class BorrowController {
     /**
      * Processes a book borrowing request.
      * Checks user balance, book availability, and existing borrows before processing.
+     * Retries carrying the same Idempotency-Key header are answered with the original
+     * response instead of borrowing (and charging) again.
      *
      * @param borrow The borrow request details
+     * @param idempotencyKey Optional client-generated key identifying this request
      * @return String message indicating success or failure reason
      * @throws NotFoundException if user or book is not found
      */
     @PostMapping
-    public String borrowBook(@RequestBody Borrow borrow) {
-        Users user = usersRepository.findById(borrow.getUserId())
-                .orElseThrow(() -> new NotFoundException("User not found with ID: " + borrow.getUserId()));
-
-        Books book = booksRepository.findById(borrow.getBookId())
-                .orElseThrow(() -> new NotFoundException("Book not found with ID: " + borrow.getBookId()));
-
-        if (user.getAccountBalance() < 20) {
-            return "Insufficient balance. Please add funds.";
-        }
-        // Check if the user has already borrowed this book and not returned it
-        List<ReturnReqStatus> activeStatuses = Arrays.asList(ReturnReqStatus.NONE, ReturnReqStatus.PENDING, ReturnReqStatus.REJECTED);
-        boolean alreadyBorrowed = borrowRepository.existsByUserIdAndBookIdAndReturnRequestStatusIn(
-                borrow.getUserId(), borrow.getBookId(), activeStatuses
-        );
-
-        if (alreadyBorrowed) {
-            return "You have already borrowed this book and must return it before borrowing again.";
-        }
-
-        if (book.getNoOfCopies() < 1) {
-            return "The book \"" + book.getBookName() + "\" is out of stock!";
-        }
-
-        // Reduce the available copies
-        book.borrowBook();
-        booksRepository.save(book);
-
-        // Set issue and due dates
-        Date currentDate = new Date();
-        Calendar c = Calendar.getInstance();
-        c.setTime(currentDate);
-        c.add(Calendar.DATE, 7);
-        Date dueDate = c.getTime();
-
-        // Save borrow record
-        borrow.setIssueDate(currentDate);
-        borrow.setDueDate(dueDate);
-        borrow.setReturnRequestStatus(ReturnReqStatus.NONE);
-        borrow.setReturnStatus("BORROWED");
-        user.setAccountBalance(user.getAccountBalance() - 20); // Deduct balance
-        usersRepository.save(user);
-        borrowRepository.save(borrow);
-
-        return user.getName() + " has borrowed one copy of \"" + book.getBookName() + "\"!";
+    public String borrowBook(@RequestBody Borrow borrow,
+                             @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return idempotencyService.execute(idempotencyKey, "borrow", () -> borrowService.checkout(borrow));
     }
 
     /**
-     * Retrieves all borrow records.
+     * Streams borrow records matching the given filters, ordered by borrowId.
+     * Records are written as they are read from a database cursor, either as a JSON array
+     * (default) or as newline-delimited JSON when {@code format=ndjson} or an
+     * {@code application/x-ndjson} Accept header is given.
+     * For cursor pagination pass {@code limit}, then the borrowId of the last record as {@code after};
+     * a limit above 10000 is lowered to 10000.
      *
-     * @return List of all borrow records
+     * @param filter Optional filters: status, returnRequestStatus, userId, bookId, from, to, after, limit
+     * @param format Output format, "json" or "ndjson"
+     * @param accept The request's Accept header
+     * @return ResponseEntity containing either:
+     *         - The matching borrow records, streamed (200 OK)
+     *         - Error message if the limit is less than 1 (400 Bad Request)
      */
     @GetMapping
-    public List<Borrow> getAllBorrow() {
-        return borrowRepository.findAll();
+    public ResponseEntity<?> getAllBorrow(BorrowFilter filter,
+                                          @RequestParam(defaultValue = "json") String format,
+                                          @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        if (filter.getLimit() != null) {
+            if (filter.getLimit() < 1) {
+                return ResponseEntity.badRequest().body("limit must be at least 1.");
+            }
+            filter.setLimit(Math.min(filter.getLimit(), MAX_STREAM_LIMIT));
+        }
+        boolean ndjson = "ndjson".equalsIgnoreCase(format) || (accept != null && accept.contains(NDJSON.toString()));
+
+        StreamingResponseBody body = out -> {
+            ObjectWriter writer = objectMapper.writer()
+                    .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            try (SequenceWriter sequence = ndjson
+                    ? writer.withRootValueSeparator("\n").writeValues(out)
+                    : writer.writeValuesAsArray(out)) {
+                borrowService.streamBorrows(filter, borrow -> {
+                    try {
+                        sequence.write(borrow);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(ndjson ? NDJSON : MediaType.APPLICATION_JSON)
+                .body(body);
     }
 
     /**
      * Submits a request to return a borrowed book.
      * Sets the return request status to PENDING for admin approval.
+     * Retries carrying the same Idempotency-Key header are answered with the original response.
      *
      * @param borrow The borrow record to update
+     * @param idempotencyKey Optional client-generated key identifying this request
      * @return String message indicating success or failure reason
      * @throws NotFoundException if borrow record is not found
      */
     @PutMapping("/request-return")
-    public String requestBookReturn(@RequestBody Borrow borrow) {
+    public String requestBookReturn(@RequestBody Borrow borrow,
+                                    @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return idempotencyService.execute(idempotencyKey, "request-return", () -> requestReturn(borrow));
+    }
+
+    /**
+     * Performs the return request behind {@link #requestBookReturn}.
+     *
+     * @param borrow The borrow record to update
+     * @return String message indicating success or failure reason
+     */
+    private String requestReturn(Borrow borrow) {
         Borrow borrowBook = borrowRepository.findById(borrow.getBorrowId())
                 .orElseThrow(() -> new NotFoundException("Borrow record not found"));
 
         if (borrowBook.getReturnRequestStatus() != ReturnReqStatus.PENDING) {
+            ReturnReqStatus previousStatus = borrowBook.getReturnRequestStatus();
             borrowBook.setReturnRequestStatus(ReturnReqStatus.PENDING);
             borrowRepository.save(borrowBook);
+            dashboardCounters.loanChanged(borrowBook.getDueDate(), previousStatus, ReturnReqStatus.PENDING);
             return "Return request sent to admin for approval.";
         } else {
             return "Return request is already pending.";
@@ -159,7 +225,8 @@ public class BorrowController {
 
     /**
      * Approves a book return request.
-     * Updates book availability and borrow record status.
+     * Updates book availability and borrow record status; the returned copy
+     * is reserved for the first waiting hold on the book, if any.
      * Requires admin privileges.
      *
      * @param borrowId The ID of the borrow record to approve
@@ -168,20 +235,7 @@ public class BorrowController {
      */
     @PutMapping("/admin/approve-return/{borrowId}")
     public String approveReturn(@PathVariable Integer borrowId) {
-        Borrow borrow = borrowRepository.findById(borrowId)
-                .orElseThrow(() -> new NotFoundException("Borrow record not found"));
-        Users user = usersRepository.findById(borrow.getUserId()).get();
-        Books book = booksRepository.findById(borrow.getBookId()).get();
-        book.returnBook();
-        booksRepository.save(book);
-
-        borrow.setReturnDate(new Date());
-        borrow.setReturnRequestStatus(ReturnReqStatus.APPROVED);
-        borrow.setReturnStatus("RETURNED");
-
-        borrowRepository.save(borrow);
-
-        return "Return request approved. The book has been returned.";
+        return borrowService.approveReturn(borrowId);
     }
 
     /**
@@ -197,12 +251,34 @@ public class BorrowController {
         Borrow borrow = borrowRepository.findById(borrowId)
                 .orElseThrow(() -> new NotFoundException("Borrow record not found"));
 
+        ReturnReqStatus previousStatus = borrow.getReturnRequestStatus();
         borrow.setReturnRequestStatus(ReturnReqStatus.REJECTED);
         borrowRepository.save(borrow);
+        dashboardCounters.loanChanged(borrow.getDueDate(), previousStatus, ReturnReqStatus.REJECTED);
 
         return "Return request rejected.";
     }
 
+    /**
+     * Approves or rejects several return requests in one transaction.
+     * Requires admin privileges.
+     *
+     * @param request The borrow IDs and the decision (APPROVE or REJECT)
+     * @return ResponseEntity containing one result per borrow ID, or an error message if the request is invalid
+     */
+    @PreAuthorize("hasRole('Admin')")
+    @PostMapping("/admin/returns/batch")
+    public ResponseEntity<?> processReturnBatch(@RequestBody ReturnBatchRequest request) {
+        if (request.getDecision() == null || request.getBorrowIds() == null || request.getBorrowIds().isEmpty()) {
+            return ResponseEntity.badRequest().body("A decision and at least one borrowId are required.");
+        }
+        if (request.getBorrowIds().size() > MAX_RETURN_BATCH_SIZE) {
+            return ResponseEntity.badRequest().body("At most " + MAX_RETURN_BATCH_SIZE + " borrowIds can be processed per batch.");
+        }
+        List<ReturnBatchResult> results = borrowService.processReturnBatch(request);
+        return ResponseEntity.ok(results);
+    }
+
     /**
      * Retrieves all pending return requests.
      * Includes detailed information about users and books.
@@ -0,0 +1,138 @@
+package com.ibizabroker.lms.controller;
+
+import com.ibizabroker.lms.dao.UsersRepository;
+import com.ibizabroker.lms.entity.BookHold;
+import com.ibizabroker.lms.service.HoldQueueService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Controller handling holds on out-of-stock books.
+ * Patrons join a book's waitlist instead of retrying checkout; returned copies are
+ * reserved for the head of the queue automatically.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@CrossOrigin("http://localhost:4200/")
+@RestController
+@RequestMapping("/borrow/holds")
+public class HoldController {
+
+    /**
+     * Service managing hold queues.
+     */
+    private final HoldQueueService holdQueueService;
+
+    /**
+     * Repository used to identify the calling user.
+     */
+    private final UsersRepository usersRepository;
+
+    /**
+     * Constructs a new HoldController with the specified service and repository.
+     *
+     * @param holdQueueService The service managing hold queues
+     * @param usersRepository Repository used to identify the calling user
+     */
+    public HoldController(HoldQueueService holdQueueService, UsersRepository usersRepository) {
+        this.holdQueueService = holdQueueService;
+        this.usersRepository = usersRepository;
+    }
+
+    /**
+     * Places a hold on an out-of-stock book.
+     * Only admins may set a priority; for other users it is always 0.
+     *
+     * @param hold The hold details (userId, bookId and optional priority)
+     * @param authentication The authentication object containing user details
+     * @return ResponseEntity containing either:
+     *         - The saved hold (200 OK)
+     *         - Error message if the hold cannot be placed (400 Bad Request)
+     */
+    @PostMapping
+    public ResponseEntity<?> placeHold(@RequestBody BookHold hold, Authentication authentication) {
+        try {
+            BookHold saved = holdQueueService.placeHold(hold.getUserId(), hold.getBookId(),
+                    isAdmin(authentication) ? hold.getPriority() : 0);
+            return ResponseEntity.ok(saved);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * Retrieves the waiting holds on a book in queue order.
+     * Requires admin privileges.
+     *
+     * @param bookId The ID of the book
+     * @return List of waiting holds
+     */
+    @PreAuthorize("hasRole('Admin')")
+    @GetMapping("/book/{bookId}")
+    public List<BookHold> getBookQueue(@PathVariable Integer bookId) {
+        return holdQueueService.getQueue(bookId);
+    }
+
+    /**
+     * Retrieves all holds placed by a user.
+     * Users may only list their own holds; admins may list anyone's.
+     *
+     * @param userId The ID of the user
+     * @param authentication The authentication object containing user details
+     * @return ResponseEntity containing either:
+     *         - List of the user's holds, newest first (200 OK)
+     *         - Error message if the holds belong to another user (403 Forbidden)
+     */
+    @GetMapping("/user/{userId}")
+    public ResponseEntity<?> getUserHolds(@PathVariable Integer userId, Authentication authentication) {
+        if (!isSelfOrAdmin(userId, authentication)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You can only view your own holds.");
+        }
+        List<BookHold> holds = holdQueueService.getUserHolds(userId);
+        return ResponseEntity.ok(holds);
+    }
+
+    /**
+     * Cancels a hold.
+     * Users may only cancel their own holds; admins may cancel anyone's.
+     *
+     * @param holdId The ID of the hold
+     * @param authentication The authentication object containing user details
+     * @return ResponseEntity containing either:
+     *         - The cancelled hold (200 OK)
+     *         - Error message if the hold is already closed (400 Bad Request)
+     *         - Error message if the hold belongs to another user (403 Forbidden)
+     */
+    @DeleteMapping("/{holdId}")
+    public ResponseEntity<?> cancelHold(@PathVariable Long holdId, Authentication authentication) {
+        if (!isSelfOrAdmin(holdQueueService.getHold(holdId).getUserId(), authentication)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("You can only cancel your own holds.");
+        }
+        try {
+            return ResponseEntity.ok(holdQueueService.cancelHold(holdId));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    private static boolean isAdmin(Authentication authentication) {
+        return authentication != null
+                && authentication.getAuthorities().contains(new SimpleGrantedAuthority("ROLE_Admin"));
+    }
+
+    private boolean isSelfOrAdmin(Integer userId, Authentication authentication) {
+        if (isAdmin(authentication)) {
+            return true;
+        }
+        return authentication != null && userId != null && usersRepository.findByUsername(authentication.getName())
+                .map(user -> userId.equals(user.getUserId()))
+                .orElse(false);
+    }
+}
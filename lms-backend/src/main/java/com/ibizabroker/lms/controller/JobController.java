@@ -0,0 +1,74 @@
+package com.ibizabroker.lms.controller;
+
+import com.ibizabroker.lms.entity.JobRun;
+import com.ibizabroker.lms.service.ScheduledJobRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Controller for inspecting and triggering background jobs.
+ * All endpoints require admin privileges.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@CrossOrigin("http://localhost:4200/")
+@RestController
+@RequestMapping("/api/admin/jobs")
+@PreAuthorize("hasRole('Admin')")
+public class JobController {
+
+    /**
+     * Runner that executes and records jobs.
+     */
+    private final ScheduledJobRunner scheduledJobRunner;
+
+    /**
+     * Constructs a new JobController with the specified runner.
+     *
+     * @param scheduledJobRunner Runner that executes and records jobs
+     */
+    public JobController(ScheduledJobRunner scheduledJobRunner) {
+        this.scheduledJobRunner = scheduledJobRunner;
+    }
+
+    /**
+     * Lists the names of all registered jobs.
+     *
+     * @return Job names
+     */
+    @GetMapping
+    public Set<String> getJobs() {
+        return scheduledJobRunner.getJobNames();
+    }
+
+    /**
+     * Retrieves recent job runs.
+     *
+     * @param jobName Optional job name to filter by
+     * @return Up to 50 runs, newest first
+     */
+    @GetMapping("/runs")
+    public List<JobRun> getRecentRuns(@RequestParam(required = false) String jobName) {
+        return scheduledJobRunner.getRecentRuns(jobName);
+    }
+
+    /**
+     * Starts a job immediately, ignoring its minimum interval.
+     * The run takes the same cluster-wide lock as scheduled runs, so it is skipped
+     * if the job is already running on any node. Check /runs for the outcome.
+     *
+     * @param jobName Name of the job
+     * @return 202 Accepted once the run has been started
+     */
+    @PostMapping("/{jobName}/run")
+    public ResponseEntity<String> runJob(@PathVariable String jobName) {
+        scheduledJobRunner.trigger(jobName);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body("Job " + jobName + " started.");
+    }
+}
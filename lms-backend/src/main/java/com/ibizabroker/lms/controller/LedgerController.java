@@ -0,0 +1,68 @@
+package com.ibizabroker.lms.controller;
+
+import com.ibizabroker.lms.service.LedgerService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Controller exposing the balance ledger: per-user statements and fine reports.
+ * All endpoints require admin privileges.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@CrossOrigin("http://localhost:4200/")
+@RestController
+@RequestMapping("/api/admin/ledger")
+@PreAuthorize("hasRole('Admin')")
+public class LedgerController {
+
+    /**
+     * Service managing balances and the ledger.
+     */
+    private final LedgerService ledgerService;
+
+    /**
+     * Constructs a new LedgerController with the specified service.
+     *
+     * @param ledgerService Service managing balances and the ledger
+     */
+    public LedgerController(LedgerService ledgerService) {
+        this.ledgerService = ledgerService;
+    }
+
+    /**
+     * Retrieves a user's recent ledger entries and their balance according to the ledger.
+     *
+     * @param userId The ID of the user
+     * @return Map containing ledgerBalance and entries (newest first)
+     */
+    @GetMapping("/users/{userId}")
+    public ResponseEntity<Map<String, Object>> getStatement(@PathVariable Integer userId) {
+        Map<String, Object> statement = new LinkedHashMap<>();
+        statement.put("userId", userId);
+        statement.put("ledgerBalance", ledgerService.getLedgerBalance(userId));
+        statement.put("entries", ledgerService.getStatement(userId));
+        return ResponseEntity.ok(statement);
+    }
+
+    /**
+     * Reports fines charged within a date range, per day and per user.
+     *
+     * @param from Inclusive start date (yyyy-MM-dd)
+     * @param to Exclusive end date (yyyy-MM-dd)
+     * @return Map containing the fine report
+     */
+    @GetMapping("/fines")
+    public ResponseEntity<Map<String, Object>> getFineReport(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date to) {
+        return ResponseEntity.ok(ledgerService.getFineReport(from, to));
+    }
+}
@@ -0,0 +1,107 @@
+package com.ibizabroker.lms.controller;
+
+import com.ibizabroker.lms.entity.ReportJob;
+import com.ibizabroker.lms.enums.ReportType;
+import com.ibizabroker.lms.service.ReportService;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Controller for exporting large reports as compressed CSV files.
+ * A report is requested, exported in the background, polled until it is complete and then
+ * downloaded. All endpoints require admin privileges.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@CrossOrigin("http://localhost:4200/")
+@RestController
+@RequestMapping("/api/admin/reports")
+@PreAuthorize("hasRole('Admin')")
+public class ReportController {
+
+    /**
+     * Media type of the report files.
+     */
+    private static final MediaType GZIP = MediaType.parseMediaType("application/gzip");
+
+    /**
+     * Service running the exports.
+     */
+    private final ReportService reportService;
+
+    /**
+     * Constructs a new ReportController with the specified service.
+     *
+     * @param reportService Service running the exports
+     */
+    public ReportController(ReportService reportService) {
+        this.reportService = reportService;
+    }
+
+    /**
+     * Requests a report. The export runs in the background; poll /{id} until its status is COMPLETED.
+     *
+     * @param type The report: LOAN_HISTORY, FINES_PER_USER or OVERDUE_LIST
+     * @return 202 Accepted with the queued job, or 503 if too many exports are waiting
+     */
+    @PostMapping
+    public ResponseEntity<ReportJob> requestReport(@RequestParam ReportType type) {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(reportService.submit(type));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    /**
+     * Retrieves recently requested reports.
+     *
+     * @return Up to 50 jobs, newest first
+     */
+    @GetMapping
+    public List<ReportJob> getReports() {
+        return reportService.getRecentJobs();
+    }
+
+    /**
+     * Retrieves the status of a report.
+     *
+     * @param id ID of the job
+     * @return The job, with its row count and file size once complete
+     */
+    @GetMapping("/{id}")
+    public ReportJob getReport(@PathVariable Long id) {
+        return reportService.getJob(id);
+    }
+
+    /**
+     * Downloads a completed report as a gzip-compressed CSV file.
+     * Files are kept on the node that exported them, so the download must reach that node.
+     *
+     * @param id ID of the job
+     * @return The file, 409 if the report is not complete or is stored on another node,
+     *         or 404 if it has expired
+     */
+    @GetMapping("/{id}/download")
+    public ResponseEntity<Resource> downloadReport(@PathVariable Long id) {
+        ReportJob job = reportService.getJob(id);
+        Path file = reportService.getFile(job);
+        return ResponseEntity.ok()
+                .contentType(GZIP)
+                .contentLength(job.getSizeBytes())
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(job.getFileName()).build().toString())
+                .body(new FileSystemResource(file));
+    }
+}
@@ -5,7 +5,9 @@ import com.ibizabroker.lms.dao.RequestedBookRepository;
 import com.ibizabroker.lms.dao.UsersRepository;
 import com.ibizabroker.lms.entity.RequestedBook;
 import com.ibizabroker.lms.entity.Users;
+import com.ibizabroker.lms.enums.DashboardMetric;
 import com.ibizabroker.lms.exceptions.NotFoundException;
+import com.ibizabroker.lms.service.DashboardCounters;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -44,6 +46,12 @@ public class RequestedBookController {
     @Autowired
     private UsersRepository userRepository;
 
+    /**
+     * In-memory counts shown on the admin dashboard.
+     */
+    @Autowired
+    private DashboardCounters dashboardCounters;
+
     /**
      * Submits a request for a new book to be added to the library.
      * Only accessible to users with the 'User' role.
@@ -73,6 +81,7 @@ public class RequestedBookController {
         newRequest.setRequestedAt(new java.util.Date());
 
         RequestedBook savedRequest = repository.save(newRequest);
+        dashboardCounters.add(DashboardMetric.REQUESTED_BOOKS, 1);
         return ResponseEntity.ok(savedRequest);
     }
 
@@ -99,6 +108,7 @@ public class RequestedBookController {
     @DeleteMapping("/{id}")
     public ResponseEntity<?> deleteRequest(@PathVariable Long id) {
         repository.deleteById(id);
+        dashboardCounters.add(DashboardMetric.REQUESTED_BOOKS, -1);
         return ResponseEntity.ok("Book request deleted");
     }
 }
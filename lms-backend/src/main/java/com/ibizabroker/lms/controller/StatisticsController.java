@@ -1,24 +1,41 @@
 package com.ibizabroker.lms.controller;
 
 import com.ibizabroker.lms.entity.Books;
+import com.ibizabroker.lms.enums.DurationMetric;
+import com.ibizabroker.lms.enums.SketchScope;
 
+import com.ibizabroker.lms.service.AnalyticsService;
 import com.ibizabroker.lms.service.BookService;
-import com.ibizabroker.lms.service.BorrowService;
-import com.ibizabroker.lms.service.RequestService;
-import com.ibizabroker.lms.service.UserService;
+import com.ibizabroker.lms.service.DailyRollupService;
+import com.ibizabroker.lms.service.DashboardCounters;
+import com.ibizabroker.lms.service.DashboardStreamService;
+import com.ibizabroker.lms.service.DistinctBorrowerService;
+import com.ibizabroker.lms.service.DurationDigestService;
+import com.ibizabroker.lms.service.StatisticsCache;
+import com.ibizabroker.lms.service.StatisticsSummaryService;
+import com.ibizabroker.lms.service.StatisticsViewService;
+import com.ibizabroker.lms.service.TopBorrowedService;
+import com.ibizabroker.lms.service.TrendingService;
 import lombok.RequiredArgsConstructor;
 
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 /**
  * Controller handling statistical operations in the library management system.
  * Provides endpoints for retrieving various statistics and analytics about
  * books, users, borrowings, and other library activities.
- * All endpoints are accessible only to administrators.
+ * All endpoints are accessible only to administrators. Results that require a database
+ * query are shared between concurrent requests through {@link StatisticsCache}.
  *
  * @author codematrix
  * @version 1.0
@@ -28,43 +45,115 @@ import java.util.*;
 @RequestMapping("/api/admin/statistics")
 @RequiredArgsConstructor
 public class StatisticsController {
+    /**
+     * Response header stating when statistics served from materialized views were last refreshed.
+     */
+    private static final String REFRESHED_AT_HEADER = "X-Stats-Refreshed-At";
+
     /**
      * Service for handling book-related operations.
      */
     private final BookService bookService;
 
     /**
-     * Service for handling user-related operations.
+     * Service that runs the summary count queries concurrently.
+     */
+    private final StatisticsSummaryService statisticsSummaryService;
+
+    /**
+     * In-memory counts that answer the summary without querying the database.
+     */
+    private final DashboardCounters dashboardCounters;
+
+    /**
+     * Service that serves the borrowing statistics from materialized views.
+     */
+    private final StatisticsViewService statisticsViewService;
+
+    /**
+     * Service tracking the most borrowed books and most active users in bounded sketches.
+     */
+    private final TopBorrowedService topBorrowedService;
+
+    /**
+     * Service ranking books by recent borrowing.
+     */
+    private final TrendingService trendingService;
+
+    /**
+     * Service reading borrowing activity from the daily rollup.
+     */
+    private final DailyRollupService dailyRollupService;
+
+    /**
+     * Cache that shares statistics queries between concurrent requests.
+     */
+    private final StatisticsCache statisticsCache;
+
+    /**
+     * Service pushing live dashboard changes to subscribers.
+     */
+    private final DashboardStreamService dashboardStreamService;
+
+    /**
+     * Service estimating loan duration and overdue age percentiles.
      */
-    private final UserService userService;
+    private final DurationDigestService durationDigestService;
 
     /**
-     * Service for handling borrow-related operations.
+     * Service estimating unique borrowers from HyperLogLog sketches.
      */
-    private final BorrowService borrowService;
+    private final DistinctBorrowerService distinctBorrowerService;
 
     /**
-     * Service for handling request-related operations.
+     * Service answering ad-hoc group-bys from an in-memory snapshot of the loans.
      */
-    private final RequestService requestService;
+    private final AnalyticsService analyticsService;
 
     /**
      * Retrieves summary statistics of the library system.
      * Includes total books, users, borrowed books, overdue books,
-     * requested books, and return requests.
+     * requested books, and return requests. By default the counts come from in-memory
+     * counters that are reconciled with the database every few minutes. With mode=exact they
+     * are queried concurrently; any that cannot be computed in time are listed under "unavailable".
+     * With mode=approximate, large tables are estimated from planner statistics and sampling
+     * instead of counted; "sources" tells how each count was obtained.
      *
+     * @param mode "counters" for the in-memory counters, "exact" to query the database,
+     *             or "approximate" for estimates on large tables
+     * @param consistent With mode=exact, whether all counts should come from one database snapshot
      * @return ResponseEntity containing a map of summary statistics
      */
     @GetMapping("/summary")
-    public ResponseEntity<Map<String, Object>> getSummaryStats() {
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("totalBooks", bookService.getTotalBooks());
-        stats.put("totalUsers", userService.getTotalUsers());
-        stats.put("borrowedBooks", borrowService.getTotalBorrowedBooks());
-        stats.put("overdueBooks", borrowService.getTotalOverdueBooks());
-        stats.put("requestedBooks", requestService.getTotalRequestedBooks());
-        stats.put("returnRequests", requestService.getTotalReturnRequests());
-        return ResponseEntity.ok(stats);
+    public ResponseEntity<Map<String, Object>> getSummaryStats(
+            @RequestParam(defaultValue = "counters") String mode,
+            @RequestParam(defaultValue = "false") boolean consistent) {
+        if ("exact".equalsIgnoreCase(mode)) {
+            return ResponseEntity.ok(statisticsSummaryService.getSummary(consistent));
+        }
+        if ("approximate".equalsIgnoreCase(mode)) {
+            return ResponseEntity.ok(statisticsSummaryService.getApproximateSummary());
+        }
+        if (!"counters".equalsIgnoreCase(mode)) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(dashboardCounters.getSummary());
+    }
+
+    /**
+     * Streams live dashboard statistics as Server-Sent Events.
+     * The first event, "snapshot", holds the summary counts and the top-N lists; each later
+     * "delta" event holds only the counts and lists that changed, at most one per second.
+     *
+     * @return ResponseEntity containing the event stream, or 503 if this node has too many subscribers
+     */
+    @GetMapping(path = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamStats() {
+        SseEmitter emitter = dashboardStreamService.subscribe();
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(emitter);
     }
 
     /**
@@ -74,27 +163,43 @@ public class StatisticsController {
      */
     @GetMapping("/books-by-genre")
     public ResponseEntity<List<Map<String, Object>>> getBooksByGenre() {
-        return ResponseEntity.ok(bookService.getBooksByGenre());
+        return ResponseEntity.ok(statisticsCache.get("books-by-genre", bookService::getBooksByGenre));
     }
 
     /**
-     * Retrieves a list of most active users based on borrowing activity.
+     * Retrieves the most active users based on borrowing activity.
+     * By default the top users come from an in-memory sketch; each count is an upper bound
+     * on the loans in the last refresh plus this node's checkouts since, exceeding them by
+     * at most its "error"; loans on other nodes are added at the next refresh. With
+     * exact=true every user is
+     * returned from the statistics view, which may be up to one refresh interval old; see
+     * the X-Stats-Refreshed-At header.
      *
+     * @param limit Maximum number of users to return from the sketch
+     * @param exact Whether to return exact counts for every user
      * @return ResponseEntity containing a list of user activity statistics
      */
     @GetMapping("/most-active-users")
-    public ResponseEntity<List<Map<String, Object>>> getMostActiveUsers() {
-        return ResponseEntity.ok(borrowService.getMostActiveUsers());
+    public ResponseEntity<List<Map<String, Object>>> getMostActiveUsers(
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(defaultValue = "false") boolean exact) {
+        if (!exact && topBorrowedService.isReady()) {
+            return ResponseEntity.ok(topBorrowedService.getTopUsers(clampLimit(limit)));
+        }
+        Date refreshedAt = statisticsViewService.getRefreshedAt();
+        return withFreshness(statisticsCache.get(viewKey("most-active-users", refreshedAt), statisticsViewService::getMostActiveUsers), refreshedAt);
     }
 
     /**
      * Retrieves statistics about most frequently borrowed book genres.
+     * The data may be up to one refresh interval old; see the X-Stats-Refreshed-At header.
      *
      * @return ResponseEntity containing a list of genre borrowing statistics
      */
     @GetMapping("/most-borrowed-genres")
     public ResponseEntity<List<Map<String, Object>>> getMostBorrowedGenres() {
-        return ResponseEntity.ok(borrowService.getMostBorrowedGenres());
+        Date refreshedAt = statisticsViewService.getRefreshedAt();
+        return withFreshness(statisticsCache.get(viewKey("most-borrowed-genres", refreshedAt), statisticsViewService::getMostBorrowedGenres), refreshedAt);
     }
 
     /**
@@ -104,27 +209,264 @@ public class StatisticsController {
      */
     @GetMapping("/top-rated-books")
     public ResponseEntity<List<Books>> getTopRatedBooks() {
-        return ResponseEntity.ok(bookService.getTopRatedBooks());
+        return ResponseEntity.ok(statisticsCache.get("top-rated-books", bookService::getTopRatedBooks));
     }
 
     /**
      * Retrieves statistics about most frequently borrowed books.
+     * By default the top books come from an in-memory sketch; each count is an upper bound
+     * on the loans in the last refresh plus this node's checkouts since, exceeding them by
+     * at most its "error"; loans on other nodes are added at the next refresh. With
+     * exact=true every book is
+     * returned from the statistics view, which may be up to one refresh interval old; see
+     * the X-Stats-Refreshed-At header.
      *
+     * @param limit Maximum number of books to return from the sketch
+     * @param exact Whether to return exact counts for every book
      * @return ResponseEntity containing a list of book borrowing statistics
      */
     @GetMapping("/most-borrowed-books")
-    public ResponseEntity<List<Map<String, Object>>> getMostBorrowedBooks() {
-        return ResponseEntity.ok(borrowService.getMostBorrowedBooks());
+    public ResponseEntity<List<Map<String, Object>>> getMostBorrowedBooks(
+            @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(defaultValue = "false") boolean exact) {
+        if (!exact && topBorrowedService.isReady()) {
+            return ResponseEntity.ok(topBorrowedService.getTopBooks(clampLimit(limit)));
+        }
+        Date refreshedAt = statisticsViewService.getRefreshedAt();
+        return withFreshness(statisticsCache.get(viewKey("most-borrowed-books", refreshedAt), statisticsViewService::getMostBorrowedBooks), refreshedAt);
+    }
+
+    /**
+     * Retrieves the books being borrowed most right now.
+     * Books are ranked by their borrow count with each loan's weight halving every half-life,
+     * so the ranking reflects recent activity rather than all-time totals.
+     *
+     * @param limit Maximum number of books to return
+     * @return ResponseEntity containing a list of trending books with their scores
+     */
+    @GetMapping("/trending")
+    public ResponseEntity<List<Map<String, Object>>> getTrendingBooks(@RequestParam(defaultValue = "10") int limit) {
+        return ResponseEntity.ok(trendingService.getTrending(Math.max(1, Math.min(limit, 100))));
     }
 
     /**
      * Retrieves monthly book borrowing statistics.
+     * The data may be up to one refresh interval old; see the X-Stats-Refreshed-At header.
      *
      * @return ResponseEntity containing a list of monthly borrowing statistics
      */
     @GetMapping("/books-borrowed-per-month")
     public ResponseEntity<List<Map<String, Object>>> getBooksBorrowedPerMonth() {
-        return ResponseEntity.ok(borrowService.getBooksBorrowedPerMonth());
+        Date refreshedAt = statisticsViewService.getRefreshedAt();
+        return withFreshness(statisticsCache.get(viewKey("books-borrowed-per-month", refreshedAt), statisticsViewService::getBooksBorrowedPerMonth), refreshedAt);
     }
-}
 
+    /**
+     * Retrieves borrows, returns, overdues and fines per period over a range of days.
+     * Served from the daily rollup, so the cost depends on the length of the range rather
+     * than on the size of the loan history.
+     *
+     * @param from First day of the range (yyyy-MM-dd)
+     * @param to Last day of the range, inclusive (yyyy-MM-dd)
+     * @param granularity Period length: day, week, month, quarter or year
+     * @param genre Optional genre to restrict the series to
+     * @return ResponseEntity containing one row per period with activity, or 400 if the parameters are invalid
+     */
+    @GetMapping("/timeseries")
+    public ResponseEntity<List<Map<String, Object>>> getTimeseries(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date to,
+            @RequestParam(defaultValue = "day") String granularity,
+            @RequestParam(required = false) String genre) {
+        try {
+            String key = "timeseries:" + from.getTime() + ":" + to.getTime() + ":" + granularity + ":" + genre;
+            return ResponseEntity.ok(statisticsCache.get(key,
+                    () -> dailyRollupService.getTimeseries(from, to, granularity, genre)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Retrieves percentiles of loan duration, the days from issue to approved return.
+     * The values are estimated from t-digests and are within a fraction of a percent of rank.
+     *
+     * @param genre Optional genre to restrict the percentiles to
+     * @param byGenre Whether to return the percentiles of every genre instead
+     * @return ResponseEntity containing count, min, p50, p90, p99 and max in days, per genre if requested
+     */
+    @GetMapping("/loan-duration")
+    public ResponseEntity<Object> getLoanDurationPercentiles(
+            @RequestParam(required = false) String genre,
+            @RequestParam(defaultValue = "false") boolean byGenre) {
+        return ResponseEntity.ok(percentiles(DurationMetric.LOAN_DURATION, genre, byGenre));
+    }
+
+    /**
+     * Retrieves percentiles of overdue age, the days since the due date of each loan that
+     * is overdue and not yet returned. Recomputed by the nightly overdue job.
+     *
+     * @param genre Optional genre to restrict the percentiles to
+     * @param byGenre Whether to return the percentiles of every genre instead
+     * @return ResponseEntity containing count, min, p50, p90, p99 and max in days, per genre if requested
+     */
+    @GetMapping("/overdue-age")
+    public ResponseEntity<Object> getOverdueAgePercentiles(
+            @RequestParam(required = false) String genre,
+            @RequestParam(defaultValue = "false") boolean byGenre) {
+        return ResponseEntity.ok(percentiles(DurationMetric.OVERDUE_AGE, genre, byGenre));
+    }
+
+    /**
+     * Retrieves the estimated number of different users who borrowed a book, a genre or
+     * any book over a range of months. Estimates are within about 3%.
+     *
+     * @param bookId Optional book to count the borrowers of
+     * @param genre Optional genre to count the borrowers of, if no book is given
+     * @param from Any day of the first month (yyyy-MM-dd); defaults to eleven months before to
+     * @param to Any day of the last month (yyyy-MM-dd); defaults to today
+     * @param byMonth Whether to include an estimate for each month
+     * @return ResponseEntity containing the estimate, or 400 if the range is invalid
+     */
+    @GetMapping("/unique-borrowers")
+    public ResponseEntity<Map<String, Object>> getUniqueBorrowers(
+            @RequestParam(required = false) Integer bookId,
+            @RequestParam(required = false) String genre,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date to,
+            @RequestParam(defaultValue = "false") boolean byMonth) {
+        Date end = to == null ? new Date() : to;
+        Date start = from == null ? monthsBefore(end, 11) : from;
+        SketchScope scope = bookId != null ? SketchScope.BOOK : genre != null ? SketchScope.GENRE : SketchScope.ALL;
+        String key = bookId != null ? bookId.toString() : genre;
+        try {
+            return ResponseEntity.ok(distinctBorrowerService.getUniqueBorrowers(scope, key, start, end, byMonth));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Retrieves the estimated number of different users who borrowed in each genre over a range of months.
+     *
+     * @param from Any day of the first month (yyyy-MM-dd); defaults to eleven months before to
+     * @param to Any day of the last month (yyyy-MM-dd); defaults to today
+     * @return ResponseEntity containing genre and uniqueBorrowers per genre, highest first, or 400 if the range is invalid
+     */
+    @GetMapping("/unique-borrowers/by-genre")
+    public ResponseEntity<List<Map<String, Object>>> getUniqueBorrowersByGenre(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date to) {
+        Date end = to == null ? new Date() : to;
+        Date start = from == null ? monthsBefore(end, 11) : from;
+        try {
+            return ResponseEntity.ok(distinctBorrowerService.getUniqueBorrowersByGenre(start, end));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * Groups loans by any combination of up to three dimensions and aggregates each group.
+     * Answered from an in-memory columnar snapshot of the loans that is refreshed every few
+     * minutes, without querying the database; see snapshotAt in the response.
+     *
+     * @param groupBy Comma-separated dimensions: genre, month, weekday, cohort (month of the borrower's first loan), status, book or user
+     * @param from Optional first issue date (yyyy-MM-dd)
+     * @param to Optional last issue date (yyyy-MM-dd)
+     * @param status Optional return status to filter by
+     * @param genre Optional genre to filter by
+     * @param limit Maximum number of groups returned, largest first
+     * @return ResponseEntity containing loans, returned, overdue, fines and avgLoanDays per group,
+     *         400 if the query is invalid, or 503 if the snapshot has not been loaded yet
+     */
+    @GetMapping("/query")
+    public ResponseEntity<Map<String, Object>> queryLoans(
+            @RequestParam(defaultValue = "") List<String> groupBy,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date to,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) String genre,
+            @RequestParam(defaultValue = "100") int limit) {
+        try {
+            return ResponseEntity.ok(analyticsService.query(groupBy, from, to, status, genre,
+                    Math.max(1, Math.min(limit, 10000))));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+    }
+
+    /**
+     * Retrieves the statistics cache's counters: hits, misses, misses that waited on a
+     * concurrent load, background refreshes and the average load time.
+     *
+     * @return ResponseEntity containing a map of counter name to value
+     */
+    @GetMapping("/cache")
+    public ResponseEntity<Map<String, Object>> getCacheStats() {
+        return ResponseEntity.ok(statisticsCache.getStats());
+    }
+
+    /**
+     * Drops every cached statistic, so the next requests query the database.
+     *
+     * @return ResponseEntity with no content
+     */
+    @DeleteMapping("/cache")
+    @PreAuthorize("hasRole('Admin')")
+    public ResponseEntity<Void> clearCache() {
+        statisticsCache.invalidateAll();
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Limits a requested top-K size to what the sketches can answer.
+     */
+    private int clampLimit(int limit) {
+        return Math.max(1, Math.min(limit, topBorrowedService.getCapacity()));
+    }
+
+    /**
+     * Gets the percentiles of a duration metric overall, for one genre, or for every genre.
+     */
+    private Object percentiles(DurationMetric metric, String genre, boolean byGenre) {
+        return byGenre
+                ? durationDigestService.getPercentilesByGenre(metric)
+                : durationDigestService.getPercentiles(metric, genre);
+    }
+
+    /**
+     * Gets the same time a number of months earlier.
+     */
+    private static Date monthsBefore(Date date, int months) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        calendar.add(Calendar.MONTH, -months);
+        return calendar.getTime();
+    }
+
+    /**
+     * Builds the cache key for a view-backed statistic, so a view refresh is served at once.
+     */
+    private static String viewKey(String statistic, Date refreshedAt) {
+        return statistic + "@" + (refreshedAt == null ? "live" : refreshedAt.getTime());
+    }
+
+    /**
+     * Wraps statistics in a response stating when they were last refreshed.
+     *
+     * @param body The statistics
+     * @param refreshedAt Time of the last refresh, or null if the statistics were computed live
+     * @return ResponseEntity containing the statistics
+     */
+    private static ResponseEntity<List<Map<String, Object>>> withFreshness(List<Map<String, Object>> body, Date refreshedAt) {
+        if (refreshedAt == null) {
+            return ResponseEntity.ok(body);
+        }
+        return ResponseEntity.ok()
+                .header(REFRESHED_AT_HEADER, DateTimeFormatter.ISO_INSTANT.format(refreshedAt.toInstant()))
+                .body(body);
+    }
+}
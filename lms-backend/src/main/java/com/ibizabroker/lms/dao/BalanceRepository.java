@@ -0,0 +1,161 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.entity.LedgerEntry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Repository for atomic account balance updates and ledger inserts.
+ * Balances are only ever changed with a single {@code UPDATE ... SET account_balance =
+ * account_balance + ?}, never by reading a balance into Java and writing it back, so
+ * concurrent charges and top-ups cannot overwrite each other.
+ * Statements join any surrounding Spring-managed transaction.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class BalanceRepository {
+
+    /**
+     * Latest snapshot per user.
+     */
+    private static final String LATEST_SNAPSHOTS = "(SELECT DISTINCT ON (user_id) user_id, last_entry_id, balance "
+            + "FROM balance_snapshots ORDER BY user_id, last_entry_id DESC)";
+
+    /**
+     * JDBC template bound to the application's data source.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Constructs a new BalanceRepository.
+     *
+     * @param jdbcTemplate JDBC template for balance statements
+     */
+    public BalanceRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Adds an amount to a user's balance.
+     *
+     * @param userId The ID of the user
+     * @param amount Amount to add
+     * @return The new balance, or null if the user does not exist
+     */
+    public Double credit(Integer userId, double amount) {
+        return jdbcTemplate.query(
+                "UPDATE users SET account_balance = account_balance + ? WHERE user_id = ? RETURNING account_balance",
+                resultSet -> resultSet.next() ? resultSet.getDouble(1) : null, amount, userId);
+    }
+
+    /**
+     * Deducts an amount from a user's balance if the balance covers it.
+     *
+     * @param userId The ID of the user
+     * @param amount Amount to deduct
+     * @return The new balance, or null if the balance was insufficient or the user does not exist
+     */
+    public Double debitIfSufficient(Integer userId, double amount) {
+        return jdbcTemplate.query(
+                "UPDATE users SET account_balance = account_balance - ? WHERE user_id = ? AND account_balance >= ? "
+                        + "RETURNING account_balance",
+                resultSet -> resultSet.next() ? resultSet.getDouble(1) : null, amount, userId, amount);
+    }
+
+    /**
+     * Deducts amounts from user balances with one conditional UPDATE per user, sent as a
+     * single JDBC batch. A user is only charged if their balance covers the full amount.
+     *
+     * @param amountByUserId Amount to deduct, keyed by user ID
+     * @return IDs of the users that were charged
+     */
+    public Set<Integer> debitBalances(Map<Integer, Double> amountByUserId) {
+        Set<Integer> charged = new HashSet<>();
+        if (amountByUserId.isEmpty()) {
+            return charged;
+        }
+        List<Integer> userIds = new ArrayList<>(amountByUserId.keySet());
+        List<Object[]> args = new ArrayList<>(userIds.size());
+        for (Integer userId : userIds) {
+            Double amount = amountByUserId.get(userId);
+            args.add(new Object[]{amount, userId, amount});
+        }
+        int[] updated = jdbcTemplate.batchUpdate(
+                "UPDATE users SET account_balance = account_balance - ? WHERE user_id = ? AND account_balance >= ?", args);
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] > 0) {
+                charged.add(userIds.get(i));
+            }
+        }
+        return charged;
+    }
+
+    /**
+     * Appends entries to the ledger in a single JDBC batch.
+     *
+     * @param entries The entries to append
+     */
+    public void insertEntries(List<LedgerEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> args = new ArrayList<>(entries.size());
+        for (LedgerEntry entry : entries) {
+            args.add(new Object[]{entry.getUserId(), entry.getType().name(), entry.getAmount(), entry.getBorrowId(), now});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO ledger_entries (id, user_id, entry_type, amount, borrow_id, created_at) "
+                + "VALUES (nextval('ledger_entries_seq'), ?, ?, ?, ?, ?)", args);
+    }
+
+    /**
+     * Records an opening balance entry for every user who has no ledger entries yet,
+     * using the user's current balance.
+     *
+     * @return Number of entries added
+     */
+    public int insertMissingOpeningBalances() {
+        return jdbcTemplate.update("INSERT INTO ledger_entries (id, user_id, entry_type, amount, created_at) "
+                + "SELECT nextval('ledger_entries_seq'), u.user_id, 'OPENING_BALANCE', u.account_balance, now() FROM users u "
+                + "WHERE NOT EXISTS (SELECT 1 FROM ledger_entries e WHERE e.user_id = u.user_id) "
+                + "ON CONFLICT (user_id) WHERE entry_type = 'OPENING_BALANCE' DO NOTHING");
+    }
+
+    /**
+     * Takes a snapshot for every user with ledger entries after their latest snapshot,
+     * covering entries recorded before the given time.
+     *
+     * @param before Only entries up to the last one recorded before this time are included
+     * @return Number of snapshots taken
+     */
+    public int insertSnapshots(Date before) {
+        Long maxEntryId = jdbcTemplate.queryForObject(
+                "SELECT MAX(id) FROM ledger_entries WHERE created_at < ?", Long.class, new Timestamp(before.getTime()));
+        if (maxEntryId == null) {
+            return 0;
+        }
+        return jdbcTemplate.update("INSERT INTO balance_snapshots (id, user_id, last_entry_id, balance, taken_at) "
+                + "SELECT nextval('balance_snapshots_seq'), e.user_id, MAX(e.id), COALESCE(s.balance, 0) + SUM(e.amount), now() "
+                + "FROM ledger_entries e LEFT JOIN " + LATEST_SNAPSHOTS + " s ON s.user_id = e.user_id "
+                + "WHERE e.id > COALESCE(s.last_entry_id, 0) AND e.id <= ? "
+                + "GROUP BY e.user_id, s.balance", maxEntryId);
+    }
+
+    /**
+     * Finds users whose stored balance differs from the balance in the ledger.
+     *
+     * @return List of maps containing userId, balance and ledgerBalance
+     */
+    public List<Map<String, Object>> findBalanceDrift() {
+        return jdbcTemplate.queryForList("SELECT * FROM (SELECT u.user_id AS userId, u.account_balance AS balance, "
+                + "COALESCE(s.balance, 0) + COALESCE((SELECT SUM(e.amount) FROM ledger_entries e "
+                + "WHERE e.user_id = u.user_id AND e.id > COALESCE(s.last_entry_id, 0)), 0) AS ledgerBalance "
+                + "FROM users u LEFT JOIN " + LATEST_SNAPSHOTS + " s ON s.user_id = u.user_id) balances "
+                + "WHERE ABS(balance - ledgerBalance) > 0.005");
+    }
+}
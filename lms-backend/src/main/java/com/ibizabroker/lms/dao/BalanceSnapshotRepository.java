@@ -0,0 +1,26 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.entity.BalanceSnapshot;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+/**
+ * Repository interface for managing BalanceSnapshot entities in the database.
+ * Extends JpaRepository to inherit basic CRUD operations.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public interface BalanceSnapshotRepository extends JpaRepository<BalanceSnapshot, Long> {
+
+    /**
+     * Finds the most recent snapshot of a user's balance.
+     *
+     * @param userId The ID of the user
+     * @return Optional containing the snapshot if found, empty otherwise
+     */
+    Optional<BalanceSnapshot> findFirstByUserIdOrderByLastEntryIdDesc(Integer userId);
+}
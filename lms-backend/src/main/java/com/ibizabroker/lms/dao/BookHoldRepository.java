@@ -0,0 +1,104 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.entity.BookHold;
+import com.ibizabroker.lms.enums.HoldStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.LockModeType;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository interface for managing BookHold entities in the database.
+ * Extends JpaRepository to inherit basic CRUD operations and pagination functionality.
+ * Provides queries for loading hold queues and finding holds awaiting pickup, and locking
+ * variants for the transactions that change a hold's status, so that concurrent changes
+ * on any node are serialized by the database.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public interface BookHoldRepository extends JpaRepository<BookHold, Long> {
+
+    /**
+     * Finds the holds on a book with a given status in queue order.
+     *
+     * @param bookId The ID of the book
+     * @param status The hold status to filter by
+     * @return List of holds, highest priority and earliest request first
+     */
+    List<BookHold> findByBookIdAndStatusOrderByPriorityDescRequestedAtAscHoldIdAsc(Integer bookId, HoldStatus status);
+
+    /**
+     * Finds a user's hold on a book with any of the specified statuses.
+     *
+     * @param userId The ID of the user
+     * @param bookId The ID of the book
+     * @param statuses Hold statuses to match
+     * @return Optional containing the hold if found, empty otherwise
+     */
+    Optional<BookHold> findFirstByUserIdAndBookIdAndStatusIn(Integer userId, Integer bookId, Collection<HoldStatus> statuses);
+
+    /**
+     * Finds all holds placed by a user, newest first.
+     *
+     * @param userId The ID of the user
+     * @return List of the user's holds
+     */
+    List<BookHold> findByUserIdOrderByRequestedAtDesc(Integer userId);
+
+    /**
+     * Finds and locks the first waiting holds on a book in queue order.
+     * Holds locked by another transaction, such as a concurrent allocation or cancellation,
+     * are skipped rather than waited for.
+     *
+     * @param bookId The ID of the book
+     * @param limit Maximum number of holds to lock
+     * @return List of locked holds, highest priority and earliest request first
+     */
+    @Query(value = "SELECT * FROM book_holds WHERE book_id = :bookId AND status = 'WAITING' " +
+            "ORDER BY priority DESC, requested_at, hold_id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<BookHold> lockNextWaiting(@Param("bookId") Integer bookId, @Param("limit") int limit);
+
+    /**
+     * Finds and locks a hold, waiting for any transaction that holds its lock.
+     *
+     * @param holdId The ID of the hold
+     * @return Optional containing the locked hold if found, empty otherwise
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT h FROM BookHold h WHERE h.holdId = :holdId")
+    Optional<BookHold> lockById(@Param("holdId") Long holdId);
+
+    /**
+     * Finds and locks a user's holds on a book with a given status.
+     *
+     * @param userId The ID of the user
+     * @param bookId The ID of the book
+     * @param status The hold status to match
+     * @return List of locked holds
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT h FROM BookHold h WHERE h.userId = :userId AND h.bookId = :bookId AND h.status = :status")
+    List<BookHold> lockByUserIdAndBookIdAndStatus(@Param("userId") Integer userId, @Param("bookId") Integer bookId,
+                                                  @Param("status") HoldStatus status);
+
+    /**
+     * Finds and locks ready holds whose pickup deadline has passed.
+     * Holds being claimed by a checkout are skipped; they are no longer ready once it commits.
+     *
+     * @param deadline Holds with a pickup deadline before this time are returned
+     * @return List of locked holds
+     */
+    @Query(value = "SELECT * FROM book_holds WHERE status = 'READY' AND pickup_deadline < :deadline " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<BookHold> lockExpiredReady(@Param("deadline") Date deadline);
+}
@@ -0,0 +1,116 @@
+package com.ibizabroker.lms.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repository for set-based and JDBC-batched updates on borrow records and book stock.
+ * Used where loading and saving entities one at a time would cost a round trip per row.
+ * Statements join any surrounding Spring-managed transaction.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class BorrowBatchRepository {
+
+    /**
+     * JDBC template bound to the application's data source.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Constructs a new BorrowBatchRepository.
+     *
+     * @param jdbcTemplate JDBC template for batch statements
+     */
+    public BorrowBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Limits how long the current transaction waits for a row lock before failing.
+     * Must be called inside a transaction; the setting ends with it.
+     *
+     * @param millis Longest wait for a lock, in milliseconds
+     */
+    public void setLockTimeout(long millis) {
+        jdbcTemplate.execute("SET LOCAL lock_timeout = " + Math.max(1, millis));
+    }
+
+    /**
+     * Marks borrow records as returned, skipping any already approved.
+     *
+     * @param borrowIds IDs of the borrow records to approve
+     * @param returnDate Return date to record
+     * @return Update count per borrow ID, in order; 0 means the record was already approved
+     */
+    public int[] approveReturns(List<Integer> borrowIds, Date returnDate) {
+        Timestamp returnedAt = new Timestamp(returnDate.getTime());
+        List<Object[]> args = new ArrayList<>(borrowIds.size());
+        for (Integer borrowId : borrowIds) {
+            args.add(new Object[]{returnedAt, borrowId});
+        }
+        return jdbcTemplate.batchUpdate(
+                "UPDATE borrow SET return_request_status = 'APPROVED', return_status = 'RETURNED', return_date = ? " +
+                        "WHERE borrow_id = ? AND return_request_status <> 'APPROVED'", args);
+    }
+
+    /**
+     * Marks return requests as rejected, skipping any already approved.
+     *
+     * @param borrowIds IDs of the borrow records to reject
+     * @return Update count per borrow ID, in order; 0 means the record was already approved
+     */
+    public int[] rejectReturns(List<Integer> borrowIds) {
+        List<Object[]> args = new ArrayList<>(borrowIds.size());
+        for (Integer borrowId : borrowIds) {
+            args.add(new Object[]{borrowId});
+        }
+        return jdbcTemplate.batchUpdate(
+                "UPDATE borrow SET return_request_status = 'REJECTED' " +
+                        "WHERE borrow_id = ? AND return_request_status <> 'APPROVED'", args);
+    }
+
+    /**
+     * Adds returned copies back to stock with one UPDATE per book.
+     *
+     * @param copiesByBookId Number of copies to add, keyed by book ID
+     */
+    public void incrementCopies(Map<Integer, Integer> copiesByBookId) {
+        if (copiesByBookId.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(copiesByBookId.size());
+        for (Map.Entry<Integer, Integer> entry : copiesByBookId.entrySet()) {
+            args.add(new Object[]{entry.getValue(), entry.getKey()});
+        }
+        jdbcTemplate.batchUpdate("UPDATE books SET no_of_copies = no_of_copies + ? WHERE book_id = ?", args);
+    }
+
+    /**
+     * Records fines on borrow records, advances their accrual watermark and marks them
+     * OVERDUE in a single JDBC batch.
+     *
+     * @param fineByBorrowId New total fine, keyed by borrow ID
+     * @param accruedThroughByBorrowId New accrual watermark, keyed by borrow ID
+     */
+    public void markOverdue(Map<Integer, Double> fineByBorrowId, Map<Integer, Date> accruedThroughByBorrowId) {
+        if (fineByBorrowId.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(fineByBorrowId.size());
+        for (Map.Entry<Integer, Double> entry : fineByBorrowId.entrySet()) {
+            Timestamp accruedThrough = new Timestamp(accruedThroughByBorrowId.get(entry.getKey()).getTime());
+            args.add(new Object[]{entry.getValue(), accruedThrough, entry.getKey()});
+        }
+        jdbcTemplate.batchUpdate(
+                "UPDATE borrow SET fine = ?, fine_accrued_through = ?, return_status = 'OVERDUE' WHERE borrow_id = ?", args);
+    }
+}
@@ -4,9 +4,11 @@ import com.ibizabroker.lms.entity.Borrow;
 import com.ibizabroker.lms.enums.ReturnReqStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -125,6 +127,32 @@ public interface BorrowRepository extends JpaRepository<Borrow, Integer> {
      */
     List<Borrow> findByDueDateBeforeAndReturnStatus(Date dueDate, String returnStatus);
 
+    /**
+     * Finds and locks the next chunk of unreturned overdue borrow records (BORROWED or OVERDUE)
+     * that have at least one whole day of fines not yet charged, within one partition of users,
+     * using keyset pagination on borrowId. Served by the partial index idx_borrow_unreturned,
+     * so the cost depends on the number of unreturned loans rather than on the loan history.
+     * Users are partitioned by user_id modulo the partition count, so all loans of a user
+     * fall in the same partition. The rows stay locked until the calling transaction ends.
+     * Rows locked by another transaction are waited for, not skipped, so that the keyset never
+     * moves past a loan that was not fined; bound the wait with the transaction's lock_timeout.
+     *
+     * @param cutoff Records due before this time are overdue
+     * @param accruedBefore Records fined through this time or earlier have a new day to charge
+     * @param partitions Total number of partitions
+     * @param partition Partition to read, from 0 to partitions - 1
+     * @param afterId Only records with a borrowId greater than this value are returned
+     * @param limit Maximum number of records to return
+     * @return List of overdue borrow records ordered by borrowId
+     */
+    @Query(value = "SELECT * FROM borrow WHERE return_status IN ('BORROWED', 'OVERDUE') AND due_date < :cutoff " +
+            "AND (fine_accrued_through IS NULL OR fine_accrued_through <= :accruedBefore) " +
+            "AND MOD(user_id, :partitions) = :partition AND borrow_id > :afterId " +
+            "ORDER BY borrow_id LIMIT :limit FOR UPDATE", nativeQuery = true)
+    List<Borrow> lockOverdueChunk(@Param("cutoff") Date cutoff, @Param("accruedBefore") Date accruedBefore,
+                                  @Param("partitions") int partitions, @Param("partition") int partition,
+                                  @Param("afterId") int afterId, @Param("limit") int limit);
+
     /**
      * Finds the number of books borrowed per month.
      * Returns month number and borrow count, ordered by month.
@@ -143,4 +171,51 @@ public interface BorrowRepository extends JpaRepository<Borrow, Integer> {
      * @return true if a matching borrow record exists, false otherwise
      */
     boolean existsByUserIdAndBookIdAndReturnRequestStatusIn(Integer userId, Integer bookId, List<ReturnReqStatus> statuses);
+
+    /**
+     * Counts a user's borrow records with any of the specified return request statuses.
+     *
+     * @param userId The ID of the user
+     * @param statuses List of return request statuses to count
+     * @return Number of matching borrow records
+     */
+    long countByUserIdAndReturnRequestStatusIn(Integer userId, List<ReturnReqStatus> statuses);
+
+    /**
+     * Checks whether the unique index allowing one active loan per user and book exists.
+     *
+     * @return true if uq_borrow_open_loan exists
+     */
+    @Query(value = "SELECT to_regclass('uq_borrow_open_loan') IS NOT NULL", nativeQuery = true)
+    boolean hasOpenLoanUniqueIndex();
+
+    /**
+     * Finds the user and book IDs of all borrow records with any of the specified return request statuses.
+     * Used to load the in-memory active loan index without materializing full entities.
+     *
+     * @param statuses List of return request statuses to match
+     * @return List of [userId, bookId] pairs
+     */
+    @Query("SELECT b.userId, b.bookId FROM Borrow b WHERE b.returnRequestStatus IN :statuses")
+    List<Object[]> findUserAndBookIdsByReturnRequestStatusIn(@Param("statuses") List<ReturnReqStatus> statuses);
+
+    /**
+     * Finds and locks the given borrow records that are still in "BORROWED" status.
+     * Rows already locked by another transaction are skipped rather than waited for.
+     *
+     * @param borrowIds IDs of the borrow records
+     * @return List of matching borrow records ordered by borrowId
+     */
+    @Query(value = "SELECT * FROM borrow WHERE borrow_id IN (:borrowIds) AND return_status = 'BORROWED' " +
+            "ORDER BY borrow_id FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Borrow> lockBorrowedByIds(@Param("borrowIds") Collection<Integer> borrowIds);
+
+    /**
+     * Retrieves the ID and due date of every loan still in "BORROWED" status,
+     * without loading full entities.
+     *
+     * @return List of [borrowId, dueDate] pairs
+     */
+    @Query("SELECT b.borrowId, b.dueDate FROM Borrow b WHERE b.returnStatus = 'BORROWED'")
+    List<Object[]> findBorrowedDueDates();
 }
@@ -0,0 +1,67 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.util.BorrowSnapshot;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.sql.Date;
+
+/**
+ * Repository that reads the borrow table, joined with book genres, into a columnar snapshot.
+ * Rows are streamed through a cursor straight into the snapshot's columns, so no entity
+ * or row object is kept per loan.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class BorrowSnapshotRepository {
+
+    /**
+     * Number of rows fetched per round trip.
+     */
+    private static final int FETCH_SIZE = 5000;
+
+    /**
+     * JDBC template that reads large results through a cursor, a batch of rows at a time.
+     */
+    private final JdbcTemplate streamingTemplate;
+
+    /**
+     * Constructs a new BorrowSnapshotRepository.
+     *
+     * @param dataSource Data source for the streaming template
+     */
+    public BorrowSnapshotRepository(DataSource dataSource) {
+        this.streamingTemplate = new JdbcTemplate(dataSource);
+        streamingTemplate.setFetchSize(FETCH_SIZE);
+    }
+
+    /**
+     * Reads the most recently issued loans into a snapshot builder.
+     *
+     * @param maxRows Maximum number of loans read
+     * @param builder Builder receiving each loan
+     * @return Number of loans read
+     */
+    @Transactional(readOnly = true)
+    public int readInto(int maxRows, BorrowSnapshot.Builder builder) {
+        int[] read = new int[1];
+        streamingTemplate.query("SELECT br.book_id, br.user_id, b.book_genre, br.return_status, br.fine, "
+                + "CAST(br.issue_date AS date) AS issued, CAST(br.due_date AS date) AS due, "
+                + "CAST(br.return_date AS date) AS returned "
+                + "FROM borrow br JOIN books b ON b.book_id = br.book_id "
+                + "WHERE br.issue_date IS NOT NULL ORDER BY br.issue_date DESC LIMIT ?", rs -> {
+            Date due = rs.getDate("due");
+            Date returned = rs.getDate("returned");
+            builder.add(rs.getInt("book_id"), rs.getInt("user_id"), rs.getString("book_genre"),
+                    rs.getString("return_status"), rs.getDate("issued").toLocalDate(),
+                    due == null ? null : due.toLocalDate(), returned == null ? null : returned.toLocalDate(),
+                    rs.getDouble("fine"));
+            read[0]++;
+        }, maxRows);
+        return read[0];
+    }
+}
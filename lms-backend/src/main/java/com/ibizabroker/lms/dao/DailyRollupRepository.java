@@ -0,0 +1,251 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.entity.Borrow;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Repository for the daily borrowing rollup.
+ * Activity is added to the row for its day and the book's genre with an upsert, so callers
+ * can record it in the same transaction as the change itself. A range of days can also be
+ * rebuilt from the borrow table and the ledger, to backfill history or repair drift.
+ *
+ * Live additions hold a shared transaction-level advisory lock and a rebuild holds it
+ * exclusively, so a rebuild waits for the transactions already adding activity and its
+ * recount sees all of their changes, while additions that start later wait for it and
+ * add to the rebuilt rows.
+ *
+ * A loan counts as overdue, on its due date, once the fine job has marked it OVERDUE.
+ * The fine job adds it when it marks it, and a rebuild recognizes such loans by their fine
+ * watermark, or for loans fined before the watermark existed by their status or fine.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class DailyRollupRepository {
+
+    /**
+     * Key of the advisory lock between live additions and rebuilds.
+     */
+    private static final long LOCK_KEY = 0x4C4D5352L;
+
+    /**
+     * Adds to an existing row instead of failing on the (day, genre) constraint.
+     */
+    private static final String ON_CONFLICT_ADD = "ON CONFLICT (day, genre) DO UPDATE SET "
+            + "borrows = daily_borrow_rollup.borrows + EXCLUDED.borrows, "
+            + "returns = daily_borrow_rollup.returns + EXCLUDED.returns, "
+            + "overdues = daily_borrow_rollup.overdues + EXCLUDED.overdues, "
+            + "fines = daily_borrow_rollup.fines + EXCLUDED.fines";
+
+    /**
+     * Adds activity for a book, looking up its genre.
+     * Parameters: day, borrows, returns, overdues, fines, book ID.
+     */
+    private static final String ADD_FOR_BOOK = "INSERT INTO daily_borrow_rollup (id, day, genre, borrows, returns, overdues, fines) "
+            + "SELECT nextval('daily_borrow_rollup_seq'), CAST(? AS date), COALESCE(b.book_genre, ''), ?, ?, ?, ? "
+            + "FROM books b WHERE b.book_id = ? " + ON_CONFLICT_ADD;
+
+    /**
+     * Adds activity for a loan, looking up its book's genre.
+     * Parameters: day, borrows, returns, overdues, fines, borrow ID.
+     */
+    private static final String ADD_FOR_LOAN = "INSERT INTO daily_borrow_rollup (id, day, genre, borrows, returns, overdues, fines) "
+            + "SELECT nextval('daily_borrow_rollup_seq'), CAST(? AS date), COALESCE(b.book_genre, ''), ?, ?, ?, ? "
+            + "FROM borrow br JOIN books b ON b.book_id = br.book_id WHERE br.borrow_id = ? " + ON_CONFLICT_ADD;
+
+    /**
+     * Recomputes the rows for a range of days from the borrow table and the ledger.
+     * A loan counts as overdue on its due date if the fine job marked it overdue.
+     * Rows added concurrently are replaced rather than conflicting with the insert.
+     * Parameters: each source's range start and end.
+     */
+    private static final String REBUILD = "INSERT INTO daily_borrow_rollup (id, day, genre, borrows, returns, overdues, fines) "
+            + "SELECT nextval('daily_borrow_rollup_seq'), day, genre, SUM(borrows), SUM(returns), SUM(overdues), SUM(fines) FROM ("
+            + "SELECT CAST(br.issue_date AS date) AS day, COALESCE(b.book_genre, '') AS genre, "
+            + "1 AS borrows, 0 AS returns, 0 AS overdues, 0.0 AS fines "
+            + "FROM borrow br JOIN books b ON b.book_id = br.book_id WHERE br.issue_date >= ? AND br.issue_date < ? "
+            + "UNION ALL SELECT CAST(br.return_date AS date), COALESCE(b.book_genre, ''), 0, 1, 0, 0.0 "
+            + "FROM borrow br JOIN books b ON b.book_id = br.book_id WHERE br.return_date >= ? AND br.return_date < ? "
+            + "UNION ALL SELECT CAST(br.due_date AS date), COALESCE(b.book_genre, ''), 0, 0, 1, 0.0 "
+            + "FROM borrow br JOIN books b ON b.book_id = br.book_id WHERE br.due_date >= ? AND br.due_date < ? "
+            + "AND (br.fine_accrued_through IS NOT NULL OR br.return_status = 'OVERDUE' OR br.fine > 0) "
+            + "UNION ALL SELECT CAST(le.created_at AS date), COALESCE(b.book_genre, ''), 0, 0, 0, -le.amount "
+            + "FROM ledger_entries le JOIN borrow br ON br.borrow_id = le.borrow_id JOIN books b ON b.book_id = br.book_id "
+            + "WHERE le.entry_type = 'FINE' AND le.created_at >= ? AND le.created_at < ?"
+            + ") activity GROUP BY day, genre "
+            + "ON CONFLICT (day, genre) DO UPDATE SET borrows = EXCLUDED.borrows, returns = EXCLUDED.returns, "
+            + "overdues = EXCLUDED.overdues, fines = EXCLUDED.fines";
+
+    /**
+     * Finds the months whose rollup borrows or returns differ from the borrow table.
+     * Joins books as the rollup does, so loans of deleted books are left out of both sides.
+     */
+    private static final String INCOMPLETE_MONTHS = "SELECT COALESCE(s.month, r.month) AS month FROM ("
+            + "SELECT month, SUM(borrows) AS borrows, SUM(returns) AS returns FROM ("
+            + "SELECT CAST(date_trunc('month', br.issue_date) AS date) AS month, 1 AS borrows, 0 AS returns "
+            + "FROM borrow br JOIN books b ON b.book_id = br.book_id WHERE br.issue_date IS NOT NULL "
+            + "UNION ALL SELECT CAST(date_trunc('month', br.return_date) AS date), 0, 1 "
+            + "FROM borrow br JOIN books b ON b.book_id = br.book_id WHERE br.return_date IS NOT NULL"
+            + ") source GROUP BY month) s "
+            + "FULL JOIN (SELECT CAST(date_trunc('month', day) AS date) AS month, SUM(borrows) AS borrows, "
+            + "SUM(returns) AS returns FROM daily_borrow_rollup GROUP BY 1) r ON r.month = s.month "
+            + "WHERE COALESCE(s.borrows, 0) <> COALESCE(r.borrows, 0) OR COALESCE(s.returns, 0) <> COALESCE(r.returns, 0) "
+            + "ORDER BY 1";
+
+    /**
+     * Period lengths accepted by {@link #sumByPeriod}, as understood by date_trunc.
+     */
+    public static final Set<String> GRANULARITIES = new HashSet<>(Arrays.asList("day", "week", "month", "quarter", "year"));
+
+    /**
+     * JDBC template bound to the application's data source.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Constructs a new DailyRollupRepository.
+     *
+     * @param jdbcTemplate JDBC template for rollup statements
+     */
+    public DailyRollupRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Counts a new loan.
+     *
+     * @param day Day the loan was issued
+     * @param bookId ID of the borrowed book
+     */
+    public void addBorrow(Date day, Integer bookId) {
+        lockShared();
+        jdbcTemplate.update(ADD_FOR_BOOK, new Timestamp(day.getTime()), 1, 0, 0, 0.0, bookId);
+    }
+
+    /**
+     * Counts approved returns.
+     *
+     * @param day Day the returns were approved
+     * @param returnsByBook Number of returned copies, keyed by book ID
+     */
+    public void addReturns(Date day, Map<Integer, Integer> returnsByBook) {
+        if (returnsByBook.isEmpty()) {
+            return;
+        }
+        Timestamp timestamp = new Timestamp(day.getTime());
+        List<Object[]> args = new ArrayList<>(returnsByBook.size());
+        for (Map.Entry<Integer, Integer> entry : returnsByBook.entrySet()) {
+            args.add(new Object[]{timestamp, 0, entry.getValue(), 0, 0.0, entry.getKey()});
+        }
+        lockShared();
+        jdbcTemplate.batchUpdate(ADD_FOR_BOOK, args);
+    }
+
+    /**
+     * Counts loans that the fine job has just marked overdue, each on its due date.
+     *
+     * @param loans The loans marked overdue
+     */
+    public void addOverdues(Collection<Borrow> loans) {
+        if (loans.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(loans.size());
+        for (Borrow loan : loans) {
+            args.add(new Object[]{new Timestamp(loan.getDueDate().getTime()), 0, 0, 1, 0.0, loan.getBookId()});
+        }
+        lockShared();
+        jdbcTemplate.batchUpdate(ADD_FOR_BOOK, args);
+    }
+
+    /**
+     * Adds charged fines.
+     *
+     * @param day Day the fines were charged
+     * @param fineByBorrowId Fine charged, keyed by borrow ID
+     */
+    public void addFines(Date day, Map<Integer, Double> fineByBorrowId) {
+        if (fineByBorrowId.isEmpty()) {
+            return;
+        }
+        Timestamp timestamp = new Timestamp(day.getTime());
+        List<Object[]> args = new ArrayList<>(fineByBorrowId.size());
+        for (Map.Entry<Integer, Double> entry : fineByBorrowId.entrySet()) {
+            args.add(new Object[]{timestamp, 0, 0, 0, entry.getValue(), entry.getKey()});
+        }
+        lockShared();
+        jdbcTemplate.batchUpdate(ADD_FOR_LOAN, args);
+    }
+
+    /**
+     * Replaces the rows for a range of days with values recomputed from the source tables.
+     * Call within a transaction; live additions wait until it ends.
+     *
+     * @param from Inclusive start of the range, at midnight
+     * @param to Exclusive end of the range, at midnight
+     * @return Number of rows written
+     */
+    public int rebuild(Date from, Date to) {
+        Timestamp start = new Timestamp(from.getTime());
+        Timestamp end = new Timestamp(to.getTime());
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock(?)", rs -> null, LOCK_KEY);
+        jdbcTemplate.update("DELETE FROM daily_borrow_rollup WHERE day >= CAST(? AS date) AND day < CAST(? AS date)", start, end);
+        return jdbcTemplate.update(REBUILD, start, end, start, end, start, end, start, end);
+    }
+
+    /**
+     * Finds the months whose borrows or returns in the rollup do not match the borrow table,
+     * such as months before the rollup existed or only partly covered by it.
+     *
+     * @return First day of each such month, oldest first
+     */
+    public List<Date> findIncompleteMonths() {
+        return new ArrayList<>(jdbcTemplate.queryForList(INCOMPLETE_MONTHS, java.sql.Date.class));
+    }
+
+    /**
+     * Finds the earliest issue date in the borrow table.
+     *
+     * @return The earliest issue date, or null if there are no loans
+     */
+    public Date findFirstIssueDate() {
+        return jdbcTemplate.queryForObject("SELECT MIN(issue_date) FROM borrow", Timestamp.class);
+    }
+
+    /**
+     * Takes the shared side of the rebuild lock until the current transaction ends.
+     */
+    private void lockShared() {
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock_shared(?)", rs -> null, LOCK_KEY);
+    }
+
+    /**
+     * Sums the rollup over periods of a range of days.
+     *
+     * @param granularity Period length, one of {@link #GRANULARITIES}
+     * @param from Inclusive first day
+     * @param to Exclusive last day
+     * @param genre Only this genre if not null
+     * @return List of maps containing period, borrows, returns, overdues and fines, ordered by period
+     */
+    public List<Map<String, Object>> sumByPeriod(String granularity, Date from, Date to, String genre) {
+        if (!GRANULARITIES.contains(granularity)) {
+            throw new IllegalArgumentException("Unsupported granularity: " + granularity);
+        }
+        String sql = "SELECT CAST(date_trunc('" + granularity + "', day) AS date) AS period, "
+                + "SUM(borrows) AS borrows, SUM(returns) AS returns, SUM(overdues) AS overdues, SUM(fines) AS fines "
+                + "FROM daily_borrow_rollup WHERE day >= CAST(? AS date) AND day < CAST(? AS date) "
+                + (genre == null ? "" : "AND genre = ? ")
+                + "GROUP BY period ORDER BY period";
+        Timestamp start = new Timestamp(from.getTime());
+        Timestamp end = new Timestamp(to.getTime());
+        return genre == null
+                ? jdbcTemplate.queryForList(sql, start, end)
+                : jdbcTemplate.queryForList(sql, start, end, genre);
+    }
+}
@@ -0,0 +1,16 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.entity.DashboardCounter;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository interface for managing DashboardCounter entities in the database.
+ * Extends JpaRepository to inherit basic CRUD operations.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public interface DashboardCounterRepository extends JpaRepository<DashboardCounter, String> {
+}
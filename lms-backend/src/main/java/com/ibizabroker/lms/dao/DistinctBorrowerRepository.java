@@ -0,0 +1,211 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.enums.SketchScope;
+import com.ibizabroker.lms.util.HyperLogLog;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Repository for the monthly HyperLogLog sketches of distinct borrowers.
+ * Sketches are only ever merged into, never overwritten: merging is idempotent, so a
+ * backfill can run while nodes flush their own sketches without losing or double counting
+ * any borrower.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class DistinctBorrowerRepository {
+
+    /**
+     * Number of rows fetched per round trip when streaming loans.
+     */
+    private static final int FETCH_SIZE = 1000;
+
+    /**
+     * JDBC template bound to the application's data source.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * JDBC template that reads large results through a cursor, a batch of rows at a time.
+     */
+    private final JdbcTemplate streamingTemplate;
+
+    /**
+     * Constructs a new DistinctBorrowerRepository.
+     *
+     * @param jdbcTemplate JDBC template for sketch statements
+     * @param dataSource Data source for the streaming template
+     */
+    public DistinctBorrowerRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingTemplate = new JdbcTemplate(dataSource);
+        streamingTemplate.setFetchSize(FETCH_SIZE);
+    }
+
+    /**
+     * Merges sketches into the saved ones, creating any that are missing.
+     * Each saved row is locked while it is merged, so concurrent merges from other nodes are kept.
+     *
+     * @param sketches Sketch of new borrowers per scope, key and month
+     */
+    @Transactional
+    public void merge(Map<SketchKey, HyperLogLog> sketches) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        for (Map.Entry<SketchKey, HyperLogLog> entry : sketches.entrySet()) {
+            SketchKey key = entry.getKey();
+            Timestamp month = new Timestamp(key.getMonth().getTime());
+            byte[] empty = new HyperLogLog(entry.getValue().getPrecision()).toBytes();
+            jdbcTemplate.update("INSERT INTO distinct_borrower_sketches (id, scope, scope_key, month, sketch, updated_at) "
+                    + "VALUES (nextval('distinct_borrower_sketches_seq'), ?, ?, CAST(? AS date), ?, ?) "
+                    + "ON CONFLICT (scope, scope_key, month) DO NOTHING",
+                    key.getScope().name(), key.getKey(), month, empty, now);
+            byte[] saved = jdbcTemplate.queryForObject("SELECT sketch FROM distinct_borrower_sketches "
+                    + "WHERE scope = ? AND scope_key = ? AND month = CAST(? AS date) FOR UPDATE",
+                    byte[].class, key.getScope().name(), key.getKey(), month);
+            HyperLogLog merged = HyperLogLog.fromBytes(saved);
+            merged.merge(entry.getValue());
+            jdbcTemplate.update("UPDATE distinct_borrower_sketches SET sketch = ?, updated_at = ? "
+                    + "WHERE scope = ? AND scope_key = ? AND month = CAST(? AS date)",
+                    merged.toBytes(), now, key.getScope().name(), key.getKey(), month);
+        }
+    }
+
+    /**
+     * Loads the saved sketches of a scope for a range of months.
+     *
+     * @param scope The scope
+     * @param key Only sketches of this key if not null
+     * @param fromMonth First day of the first month
+     * @param toMonth First day of the last month, inclusive
+     * @return Sketch per key and month
+     */
+    public Map<SketchKey, HyperLogLog> find(SketchScope scope, String key, Date fromMonth, Date toMonth) {
+        Map<SketchKey, HyperLogLog> sketches = new HashMap<>();
+        String sql = "SELECT scope_key, month, sketch FROM distinct_borrower_sketches "
+                + "WHERE scope = ? AND month >= CAST(? AS date) AND month <= CAST(? AS date)"
+                + (key == null ? "" : " AND scope_key = ?");
+        List<Object> args = new ArrayList<>(Arrays.asList(scope.name(),
+                new Timestamp(fromMonth.getTime()), new Timestamp(toMonth.getTime())));
+        if (key != null) {
+            args.add(key);
+        }
+        jdbcTemplate.query(sql, rs -> {
+            SketchKey sketchKey = new SketchKey(scope, rs.getString("scope_key"), new Date(rs.getDate("month").getTime()));
+            sketches.put(sketchKey, HyperLogLog.fromBytes(rs.getBytes("sketch")));
+        }, args.toArray());
+        return sketches;
+    }
+
+    /**
+     * Streams the borrower, book, genre and issue date of every loan issued in a range.
+     *
+     * @param from Inclusive start of the range
+     * @param to Exclusive end of the range
+     * @param consumer Receives each loan
+     */
+    @Transactional(readOnly = true)
+    public void forEachLoan(Date from, Date to, LoanConsumer consumer) {
+        streamingTemplate.query("SELECT br.user_id, br.book_id, COALESCE(b.book_genre, '') AS genre, br.issue_date "
+                + "FROM borrow br JOIN books b ON b.book_id = br.book_id "
+                + "WHERE br.issue_date >= ? AND br.issue_date < ?", rs -> {
+            consumer.accept(rs.getInt("user_id"), rs.getInt("book_id"), rs.getString("genre"),
+                    new Date(rs.getTimestamp("issue_date").getTime()));
+        }, new Timestamp(from.getTime()), new Timestamp(to.getTime()));
+    }
+
+    /**
+     * Finds the earliest issue date in the borrow table.
+     *
+     * @return The earliest issue date, or null if there are no loans
+     */
+    public Date findFirstIssueDate() {
+        return jdbcTemplate.queryForObject("SELECT MIN(issue_date) FROM borrow", Timestamp.class);
+    }
+
+    /**
+     * Checks whether any sketch has been saved.
+     *
+     * @return true if there are no sketches
+     */
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("SELECT 1 FROM distinct_borrower_sketches LIMIT 1").isEmpty();
+    }
+
+    /**
+     * Receives the loans streamed by {@link #forEachLoan}.
+     */
+    @FunctionalInterface
+    public interface LoanConsumer {
+
+        /**
+         * Accepts one loan.
+         *
+         * @param userId ID of the borrower
+         * @param bookId ID of the book
+         * @param genre Genre of the book, empty if it has none
+         * @param issueDate Time the loan was issued
+         */
+        void accept(int userId, int bookId, String genre, Date issueDate);
+    }
+
+    /**
+     * Identifies one sketch: a scope, a key within it and a month.
+     */
+    public static final class SketchKey {
+
+        private final SketchScope scope;
+
+        private final String key;
+
+        private final Date month;
+
+        /**
+         * Creates a sketch key.
+         *
+         * @param scope What the sketch counts the borrowers of
+         * @param key Book ID or genre within the scope
+         * @param month First day of the month
+         */
+        public SketchKey(SketchScope scope, String key, Date month) {
+            this.scope = scope;
+            this.key = key;
+            this.month = month;
+        }
+
+        public SketchScope getScope() {
+            return scope;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public Date getMonth() {
+            return month;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SketchKey)) {
+                return false;
+            }
+            SketchKey other = (SketchKey) o;
+            return scope == other.scope && key.equals(other.key) && month.getTime() == other.month.getTime();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scope, key, month.getTime());
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.enums.DurationMetric;
+import com.ibizabroker.lms.util.TDigest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.function.ObjDoubleConsumer;
+
+/**
+ * Repository for the serialized t-digests of loan durations and overdue ages.
+ * Digests from several nodes are combined by merging rather than overwriting, so no node's
+ * samples are lost. The durations can also be streamed from the borrow table to rebuild the
+ * digests from scratch.
+ *
+ * Merges and loan duration rebuilds exclude each other through a transaction-level advisory
+ * lock. A rebuild records the time its count runs up to, and a merge drops the samples of
+ * returns before that time, which the rebuild has already counted.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class DurationDigestRepository {
+
+    /**
+     * Length of one day in milliseconds; durations are reported in days.
+     */
+    private static final double DAY_MILLIS = 24 * 60 * 60 * 1000.0;
+
+    /**
+     * Number of rows fetched per round trip when streaming loans.
+     */
+    private static final int FETCH_SIZE = 1000;
+
+    /**
+     * Key of the advisory lock between merges and rebuilds.
+     */
+    private static final long LOCK_KEY = 0x4C4D4444L;
+
+    /**
+     * JDBC template bound to the application's data source.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * JDBC template that reads large results through a cursor, a batch of rows at a time.
+     */
+    private final JdbcTemplate streamingTemplate;
+
+    /**
+     * Constructs a new DurationDigestRepository.
+     *
+     * @param jdbcTemplate JDBC template for digest statements
+     * @param dataSource Data source for the streaming template
+     */
+    public DurationDigestRepository(JdbcTemplate jdbcTemplate, DataSource dataSource) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.streamingTemplate = new JdbcTemplate(dataSource);
+        streamingTemplate.setFetchSize(FETCH_SIZE);
+    }
+
+    /**
+     * Loads the saved digests of a metric.
+     *
+     * @param metric The metric
+     * @return Digest per genre
+     */
+    public Map<String, TDigest> findByMetric(DurationMetric metric) {
+        Map<String, TDigest> digests = new HashMap<>();
+        jdbcTemplate.query("SELECT genre, digest FROM duration_digests WHERE metric = ?", rs -> {
+            digests.put(rs.getString("genre"), TDigest.fromBytes(rs.getBytes("digest")));
+        }, metric.name());
+        return digests;
+    }
+
+    /**
+     * Merges digests into the saved ones, creating any that are missing. Samples are grouped
+     * in periods by the time of their return, and periods starting before the last rebuild's
+     * cutoff are dropped because the rebuild counted them. Nothing is merged while a rebuild
+     * holds the lock.
+     *
+     * @param metric The metric
+     * @param periods Digest of the new samples per genre, keyed by the start of their period in milliseconds
+     * @param periodMillis Length of a period in milliseconds
+     * @param compression Compression of digests created here
+     * @return true if merged, false if a rebuild is running and the samples should be kept for later
+     */
+    @Transactional
+    public boolean merge(DurationMetric metric, NavigableMap<Long, Map<String, TDigest>> periods,
+                         long periodMillis, double compression) {
+        Boolean locked = jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, LOCK_KEY);
+        if (!Boolean.TRUE.equals(locked)) {
+            return false;
+        }
+        Date rebuiltThrough = findRebuiltThrough(metric);
+        Map<String, TDigest> deltas = new HashMap<>();
+        long mergedThrough = Long.MIN_VALUE;
+        for (Map.Entry<Long, Map<String, TDigest>> period : periods.entrySet()) {
+            if (rebuiltThrough != null && period.getKey() < rebuiltThrough.getTime()) {
+                continue;
+            }
+            mergedThrough = period.getKey() + periodMillis;
+            for (Map.Entry<String, TDigest> digest : period.getValue().entrySet()) {
+                deltas.computeIfAbsent(digest.getKey(), genre -> new TDigest(compression)).add(digest.getValue());
+            }
+        }
+
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Timestamp cutoff = rebuiltThrough == null ? null : new Timestamp(rebuiltThrough.getTime());
+        byte[] empty = new TDigest(compression).toBytes();
+        for (Map.Entry<String, TDigest> delta : deltas.entrySet()) {
+            jdbcTemplate.update("INSERT INTO duration_digests (id, metric, genre, digest, sample_count, updated_at, rebuilt_through) "
+                    + "VALUES (nextval('duration_digests_seq'), ?, ?, ?, 0, ?, ?) ON CONFLICT (metric, genre) DO NOTHING",
+                    metric.name(), delta.getKey(), empty, now, cutoff);
+            byte[] saved = jdbcTemplate.queryForObject("SELECT digest FROM duration_digests "
+                    + "WHERE metric = ? AND genre = ?", byte[].class, metric.name(), delta.getKey());
+            TDigest merged = TDigest.fromBytes(saved);
+            merged.add(delta.getValue());
+            // GREATEST ignores a null merged_through
+            jdbcTemplate.update("UPDATE duration_digests SET digest = ?, sample_count = ?, updated_at = ?, "
+                    + "merged_through = GREATEST(merged_through, ?) WHERE metric = ? AND genre = ?",
+                    merged.toBytes(), merged.size(), now, new Timestamp(mergedThrough), metric.name(), delta.getKey());
+        }
+        return true;
+    }
+
+    /**
+     * Waits for merges in progress and keeps new ones out until the current transaction ends.
+     * A loan duration rebuild takes it before reading the borrow table.
+     */
+    public void lock() {
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock(?)", rs -> null, LOCK_KEY);
+    }
+
+    /**
+     * Replaces every saved digest of a metric.
+     *
+     * @param metric The metric
+     * @param digests Digest per genre
+     * @param rebuiltThrough Time up to which the digests count every sample, or null if they are not rebuilt from returns
+     */
+    @Transactional
+    public void replace(DurationMetric metric, Map<String, TDigest> digests, Date rebuiltThrough) {
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Timestamp cutoff = rebuiltThrough == null ? null : new Timestamp(rebuiltThrough.getTime());
+        List<Object[]> args = new ArrayList<>(digests.size());
+        for (Map.Entry<String, TDigest> digest : digests.entrySet()) {
+            args.add(new Object[]{metric.name(), digest.getKey(), digest.getValue().toBytes(), digest.getValue().size(), now,
+                    cutoff, cutoff});
+        }
+        jdbcTemplate.update("DELETE FROM duration_digests WHERE metric = ?", metric.name());
+        jdbcTemplate.batchUpdate("INSERT INTO duration_digests "
+                + "(id, metric, genre, digest, sample_count, updated_at, rebuilt_through, merged_through) "
+                + "VALUES (nextval('duration_digests_seq'), ?, ?, ?, ?, ?, ?, ?)", args);
+    }
+
+    /**
+     * Gets the time up to which the last rebuild of a metric counted every sample.
+     *
+     * @param metric The metric
+     * @return The cutoff of the last rebuild, or null if there was none
+     */
+    public Date findRebuiltThrough(DurationMetric metric) {
+        return jdbcTemplate.queryForObject("SELECT MAX(rebuilt_through) FROM duration_digests WHERE metric = ?",
+                Timestamp.class, metric.name());
+    }
+
+    /**
+     * Gets the end of the latest period of samples merged into the digests of a metric.
+     *
+     * @param metric The metric
+     * @return The end of the latest merged period, or null if none was merged
+     */
+    public Date findMergedThrough(DurationMetric metric) {
+        return jdbcTemplate.queryForObject("SELECT MAX(merged_through) FROM duration_digests WHERE metric = ?",
+                Timestamp.class, metric.name());
+    }
+
+    /**
+     * Streams the duration in days of every loan returned before a time, with the genre of its book.
+     *
+     * @param before Exclusive upper bound of the return dates
+     * @param consumer Receives the genre (empty if none) and the duration of each loan
+     */
+    @Transactional(readOnly = true)
+    public void forEachLoanDuration(Date before, ObjDoubleConsumer<String> consumer) {
+        streamingTemplate.query("SELECT COALESCE(b.book_genre, '') AS genre, br.issue_date, br.return_date "
+                + "FROM borrow br JOIN books b ON b.book_id = br.book_id "
+                + "WHERE br.return_date < ? AND br.issue_date IS NOT NULL", rs -> {
+            long millis = rs.getTimestamp("return_date").getTime() - rs.getTimestamp("issue_date").getTime();
+            if (millis >= 0) {
+                consumer.accept(rs.getString("genre"), millis / DAY_MILLIS);
+            }
+        }, new Timestamp(before.getTime()));
+    }
+
+    /**
+     * Streams the overdue age in days of every unreturned loan that is past its due date.
+     *
+     * @param now Time the ages are measured at
+     * @param consumer Receives the genre (empty if none) and the age of each loan
+     */
+    @Transactional(readOnly = true)
+    public void forEachOverdueAge(Date now, ObjDoubleConsumer<String> consumer) {
+        Timestamp timestamp = new Timestamp(now.getTime());
+        streamingTemplate.query("SELECT COALESCE(b.book_genre, '') AS genre, br.due_date "
+                + "FROM borrow br JOIN books b ON b.book_id = br.book_id "
+                + "WHERE br.return_date IS NULL AND br.due_date < ?", rs -> {
+            consumer.accept(rs.getString("genre"), (now.getTime() - rs.getTimestamp("due_date").getTime()) / DAY_MILLIS);
+        }, timestamp);
+    }
+
+    /**
+     * Checks whether any loan has been returned.
+     *
+     * @return true if at least one loan has a return date
+     */
+    public boolean hasReturnedLoans() {
+        return !jdbcTemplate.queryForList("SELECT 1 FROM borrow WHERE return_date IS NOT NULL LIMIT 1").isEmpty();
+    }
+}
@@ -0,0 +1,63 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.entity.IdempotencyRecord;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+
+/**
+ * Repository interface for managing IdempotencyRecord entities in the database.
+ * Extends JpaRepository to inherit basic CRUD operations.
+ * Provides atomic claiming and completion of keys and a bulk delete for expiring old keys.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public interface IdempotencyRecordRepository extends JpaRepository<IdempotencyRecord, String> {
+
+    /**
+     * Claims a key for a request in the current transaction.
+     * Inserts a pending record, or takes over one that expired before the cutoff. While the
+     * transaction is open, a concurrent claim of the same key waits for it on the unique key.
+     *
+     * @param key The scoped idempotency key
+     * @param createdAt Time of the claim
+     * @param cutoff Records created before this time have expired
+     * @return 1 if the key was claimed, 0 if a live record already holds it
+     */
+    @Modifying
+    @Query(value = "INSERT INTO idempotency_keys (idempotency_key, response, status, created_at) "
+            + "VALUES (:key, '', 'PENDING', :createdAt) "
+            + "ON CONFLICT (idempotency_key) DO UPDATE SET response = '', status = 'PENDING', created_at = EXCLUDED.created_at "
+            + "WHERE idempotency_keys.created_at < :cutoff", nativeQuery = true)
+    int claim(@Param("key") String key, @Param("createdAt") Date createdAt, @Param("cutoff") Date cutoff);
+
+    /**
+     * Stores the response of a claimed key and marks it completed.
+     *
+     * @param key The scoped idempotency key
+     * @param response The response body
+     * @return Number of updated records
+     */
+    @Modifying
+    @Query(value = "UPDATE idempotency_keys SET response = :response, status = 'COMPLETED' "
+            + "WHERE idempotency_key = :key", nativeQuery = true)
+    int complete(@Param("key") String key, @Param("response") String response);
+
+    /**
+     * Deletes all records created before the given time in a single statement.
+     *
+     * @param cutoff Records created before this time are deleted
+     * @return Number of deleted records
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM IdempotencyRecord r WHERE r.createdAt < :cutoff")
+    int deleteCreatedBefore(@Param("cutoff") Date cutoff);
+}
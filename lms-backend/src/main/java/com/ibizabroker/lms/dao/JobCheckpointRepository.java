@@ -0,0 +1,26 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.entity.JobCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Repository interface for managing JobCheckpoint entities in the database.
+ * Extends JpaRepository to inherit basic CRUD operations.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public interface JobCheckpointRepository extends JpaRepository<JobCheckpoint, String> {
+
+    /**
+     * Finds the checkpoints whose name starts with a prefix, such as all partitions of a job.
+     *
+     * @param prefix The name prefix
+     * @return List of matching checkpoints
+     */
+    List<JobCheckpoint> findByJobNameStartingWith(String prefix);
+}
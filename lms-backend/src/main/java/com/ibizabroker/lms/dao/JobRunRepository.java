@@ -0,0 +1,45 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.entity.JobRun;
+import com.ibizabroker.lms.enums.JobOutcome;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository interface for managing JobRun entities in the database.
+ * Extends JpaRepository to inherit basic CRUD operations.
+ * Provides queries for job run history.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public interface JobRunRepository extends JpaRepository<JobRun, Long> {
+
+    /**
+     * Retrieves the 50 most recent runs of all jobs.
+     *
+     * @return List of runs, newest first
+     */
+    List<JobRun> findTop50ByOrderByStartedAtDesc();
+
+    /**
+     * Retrieves the 50 most recent runs of a job.
+     *
+     * @param jobName The name of the job
+     * @return List of runs, newest first
+     */
+    List<JobRun> findTop50ByJobNameOrderByStartedAtDesc(String jobName);
+
+    /**
+     * Finds the most recent run of a job with a given outcome.
+     *
+     * @param jobName The name of the job
+     * @param outcome The outcome to match
+     * @return Optional containing the run if found, empty otherwise
+     */
+    Optional<JobRun> findFirstByJobNameAndOutcomeOrderByStartedAtDesc(String jobName, JobOutcome outcome);
+}
@@ -0,0 +1,68 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.entity.LedgerEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repository interface for reading LedgerEntry records.
+ * Entries are written through {@link BalanceRepository} together with the balance change.
+ * Provides queries for account statements and fine reports.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public interface LedgerEntryRepository extends JpaRepository<LedgerEntry, Long> {
+
+    /**
+     * Retrieves the 100 most recent entries of a user.
+     *
+     * @param userId The ID of the user
+     * @return List of entries, newest first
+     */
+    List<LedgerEntry> findTop100ByUserIdOrderByIdDesc(Integer userId);
+
+    /**
+     * Sums a user's entries recorded after a given entry.
+     *
+     * @param userId The ID of the user
+     * @param afterId Only entries with a greater ID are summed
+     * @return Sum of the amounts, 0 if there are none
+     */
+    @Query("SELECT COALESCE(SUM(e.amount), 0) FROM LedgerEntry e WHERE e.userId = :userId AND e.id > :afterId")
+    double sumAmountAfter(@Param("userId") Integer userId, @Param("afterId") long afterId);
+
+    /**
+     * Summarizes fines charged per day within a time range.
+     * Returns day, number of fines and total amount, ordered by day.
+     *
+     * @param from Inclusive start of the range
+     * @param to Exclusive end of the range
+     * @return List of maps containing day, count and total
+     */
+    @Query(value = "SELECT CAST(created_at AS date) AS day, COUNT(*) AS count, -SUM(amount) AS total " +
+            "FROM ledger_entries WHERE entry_type = 'FINE' AND created_at >= :from AND created_at < :to " +
+            "GROUP BY CAST(created_at AS date) ORDER BY day", nativeQuery = true)
+    List<Map<String, Object>> summarizeFinesPerDay(@Param("from") Date from, @Param("to") Date to);
+
+    /**
+     * Summarizes fines charged per user within a time range.
+     * Returns username, number of fines and total amount, ordered by total in descending order.
+     *
+     * @param from Inclusive start of the range
+     * @param to Exclusive end of the range
+     * @return List of maps containing userId, username, count and total
+     */
+    @Query(value = "SELECT e.user_id AS userId, u.username AS username, COUNT(*) AS count, -SUM(e.amount) AS total " +
+            "FROM ledger_entries e JOIN users u ON e.user_id = u.user_id " +
+            "WHERE e.entry_type = 'FINE' AND e.created_at >= :from AND e.created_at < :to " +
+            "GROUP BY e.user_id, u.username ORDER BY total DESC", nativeQuery = true)
+    List<Map<String, Object>> summarizeFinesPerUser(@Param("from") Date from, @Param("to") Date to);
+}
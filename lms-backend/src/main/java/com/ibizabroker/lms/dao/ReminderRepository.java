@@ -0,0 +1,162 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.dto.Reminder;
+import com.ibizabroker.lms.enums.ReminderType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.*;
+
+/**
+ * Repository for selecting loans that need reminders and recording sent reminders.
+ * Loans are read together with the user and book details needed for the message in one
+ * query per batch. Reminders are claimed in the "reminder_log" table before they are sent,
+ * so each (loan, reminder type) pair is sent at most once.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class ReminderRepository {
+
+    /**
+     * Columns and joins shared by the reminder queries.
+     */
+    private static final String SELECT_REMINDERS = "SELECT br.borrow_id, br.user_id, br.due_date, u.username, u.name, b.book_name "
+            + "FROM borrow br JOIN users u ON u.user_id = br.user_id JOIN books b ON b.book_id = br.book_id ";
+
+    /**
+     * Excludes loans that already have a reminder of the given type.
+     */
+    private static final String NOT_SENT = "AND NOT EXISTS (SELECT 1 FROM reminder_log r "
+            + "WHERE r.borrow_id = br.borrow_id AND r.reminder_type = ?) ";
+
+    /**
+     * JDBC template bound to the application's data source.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Constructs a new ReminderRepository.
+     *
+     * @param jdbcTemplate JDBC template for reminder statements
+     */
+    public ReminderRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Finds borrowed loans due within a time range that have not had a DUE_SOON reminder,
+     * using keyset pagination on borrowId.
+     *
+     * @param from Inclusive start of the due date range
+     * @param to Exclusive end of the due date range
+     * @param afterId Only loans with a greater borrowId are returned
+     * @param limit Maximum number of loans to return
+     * @return Reminders without message text, ordered by borrowId
+     */
+    public List<Reminder> findDueBetween(Date from, Date to, int afterId, int limit) {
+        return jdbcTemplate.query(SELECT_REMINDERS
+                        + "WHERE br.return_status = 'BORROWED' AND br.due_date >= ? AND br.due_date < ? AND br.borrow_id > ? "
+                        + NOT_SENT + "ORDER BY br.borrow_id LIMIT ?",
+                mapper(ReminderType.DUE_SOON), new Timestamp(from.getTime()), new Timestamp(to.getTime()), afterId,
+                ReminderType.DUE_SOON.name(), limit);
+    }
+
+    /**
+     * Finds unreturned loans past their due date that have not had an OVERDUE reminder,
+     * using keyset pagination on borrowId.
+     *
+     * @param now Loans due before this time are overdue
+     * @param afterId Only loans with a greater borrowId are returned
+     * @param limit Maximum number of loans to return
+     * @return Reminders without message text, ordered by borrowId
+     */
+    public List<Reminder> findOverdue(Date now, int afterId, int limit) {
+        return jdbcTemplate.query(SELECT_REMINDERS
+                        + "WHERE br.return_status IN ('BORROWED', 'OVERDUE') AND br.due_date < ? AND br.borrow_id > ? "
+                        + NOT_SENT + "ORDER BY br.borrow_id LIMIT ?",
+                mapper(ReminderType.OVERDUE), new Timestamp(now.getTime()), afterId, ReminderType.OVERDUE.name(), limit);
+    }
+
+    /**
+     * Finds specific unreturned loans that have not had a reminder of the given type.
+     *
+     * @param borrowIds IDs of the loans
+     * @param type Kind of reminder
+     * @return Reminders without message text, ordered by borrowId
+     */
+    public List<Reminder> findByIds(Collection<Integer> borrowIds, ReminderType type) {
+        if (borrowIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Object> args = new ArrayList<>(borrowIds);
+        args.add(type.name());
+        return jdbcTemplate.query(SELECT_REMINDERS
+                        + "WHERE br.return_status IN ('BORROWED', 'OVERDUE') AND br.borrow_id IN ("
+                        + String.join(",", Collections.nCopies(borrowIds.size(), "?")) + ") "
+                        + NOT_SENT + "ORDER BY br.borrow_id",
+                mapper(type), args.toArray());
+    }
+
+    /**
+     * Claims reminders for sending in a single JDBC batch. A reminder already claimed,
+     * by this or another node, is not claimed again.
+     *
+     * @param borrowIds IDs of the loans
+     * @param type Kind of reminder
+     * @return IDs of the loans whose reminder this call claimed
+     */
+    public Set<Integer> claim(List<Integer> borrowIds, ReminderType type) {
+        Set<Integer> claimed = new HashSet<>();
+        if (borrowIds.isEmpty()) {
+            return claimed;
+        }
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> args = new ArrayList<>(borrowIds.size());
+        for (Integer borrowId : borrowIds) {
+            args.add(new Object[]{borrowId, type.name(), now});
+        }
+        int[] inserted = jdbcTemplate.batchUpdate("INSERT INTO reminder_log (id, borrow_id, reminder_type, sent_at) "
+                + "VALUES (nextval('reminder_log_seq'), ?, ?, ?) ON CONFLICT (borrow_id, reminder_type) DO NOTHING", args);
+        for (int i = 0; i < inserted.length; i++) {
+            if (inserted[i] > 0) {
+                claimed.add(borrowIds.get(i));
+            }
+        }
+        return claimed;
+    }
+
+    /**
+     * Releases claims on reminders that could not be sent, so they are tried again on the next run.
+     *
+     * @param borrowIds IDs of the loans
+     * @param type Kind of reminder
+     */
+    public void release(List<Integer> borrowIds, ReminderType type) {
+        if (borrowIds.isEmpty()) {
+            return;
+        }
+        List<Object[]> args = new ArrayList<>(borrowIds.size());
+        for (Integer borrowId : borrowIds) {
+            args.add(new Object[]{borrowId, type.name()});
+        }
+        jdbcTemplate.batchUpdate("DELETE FROM reminder_log WHERE borrow_id = ? AND reminder_type = ?", args);
+    }
+
+    private static RowMapper<Reminder> mapper(ReminderType type) {
+        return (resultSet, rowNum) -> {
+            Reminder reminder = new Reminder();
+            reminder.setBorrowId(resultSet.getInt("borrow_id"));
+            reminder.setType(type);
+            reminder.setUserId(resultSet.getInt("user_id"));
+            reminder.setUsername(resultSet.getString("username"));
+            reminder.setName(resultSet.getString("name"));
+            reminder.setBookName(resultSet.getString("book_name"));
+            reminder.setDueDate(resultSet.getTimestamp("due_date"));
+            return reminder;
+        };
+    }
+}
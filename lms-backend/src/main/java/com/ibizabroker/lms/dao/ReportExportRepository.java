@@ -0,0 +1,105 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.enums.ReportType;
+import com.ibizabroker.lms.util.CsvWriter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.ResultSetMetaData;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Repository streaming the rows of exported reports.
+ * Each report is one query read through a database cursor, a batch of rows at a time, and
+ * written straight to a CSV writer, so a report of any size is exported in constant memory.
+ * The column labels of the query become the CSV header.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class ReportExportRepository {
+
+    /**
+     * Number of rows fetched per round trip.
+     */
+    private static final int FETCH_SIZE = 5000;
+
+    /**
+     * Query of each report.
+     */
+    private static final Map<ReportType, String> QUERIES = new EnumMap<>(ReportType.class);
+
+    static {
+        QUERIES.put(ReportType.LOAN_HISTORY, "SELECT br.borrow_id, br.user_id, u.username, br.book_id, b.book_name, "
+                + "b.book_genre, CAST(br.issue_date AS date) AS issue_date, CAST(br.due_date AS date) AS due_date, "
+                + "CAST(br.return_date AS date) AS return_date, br.return_status, br.return_request_status, br.fine "
+                + "FROM borrow br JOIN users u ON u.user_id = br.user_id JOIN books b ON b.book_id = br.book_id "
+                + "ORDER BY br.borrow_id");
+        QUERIES.put(ReportType.FINES_PER_USER, "SELECT u.user_id, u.username, u.name, COUNT(*) AS loans, "
+                + "COUNT(*) FILTER (WHERE br.fine > 0) AS fined_loans, SUM(br.fine) AS total_fines "
+                + "FROM borrow br JOIN users u ON u.user_id = br.user_id "
+                + "GROUP BY u.user_id, u.username, u.name HAVING SUM(br.fine) > 0 "
+                + "ORDER BY total_fines DESC, u.user_id");
+        QUERIES.put(ReportType.OVERDUE_LIST, "SELECT br.borrow_id, br.user_id, u.username, br.book_id, b.book_name, "
+                + "CAST(br.issue_date AS date) AS issue_date, CAST(br.due_date AS date) AS due_date, "
+                + "CURRENT_DATE - CAST(br.due_date AS date) AS days_overdue, br.return_status, br.fine "
+                + "FROM borrow br JOIN users u ON u.user_id = br.user_id JOIN books b ON b.book_id = br.book_id "
+                + "WHERE br.due_date < CURRENT_DATE AND br.return_request_status <> 'APPROVED' "
+                + "ORDER BY br.due_date, br.borrow_id");
+    }
+
+    /**
+     * JDBC template that reads results through a cursor, a batch of rows at a time.
+     */
+    private final JdbcTemplate streamingTemplate;
+
+    /**
+     * Constructs a new ReportExportRepository.
+     *
+     * @param dataSource Data source for the streaming template
+     */
+    public ReportExportRepository(DataSource dataSource) {
+        this.streamingTemplate = new JdbcTemplate(dataSource);
+        streamingTemplate.setFetchSize(FETCH_SIZE);
+    }
+
+    /**
+     * Writes a report, header first, to a CSV writer.
+     * Runs in a read-only transaction so the cursor streams rather than loading every row.
+     *
+     * @param type The report
+     * @param csv Writer receiving the header and rows
+     * @return Number of data rows written
+     * @throws UncheckedIOException if the writer fails
+     */
+    @Transactional(readOnly = true)
+    public long export(ReportType type, CsvWriter csv) {
+        return streamingTemplate.query(QUERIES.get(type), rs -> {
+            ResultSetMetaData metaData = rs.getMetaData();
+            Object[] values = new Object[metaData.getColumnCount()];
+            long rows = 0;
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = metaData.getColumnLabel(i + 1);
+                }
+                csv.writeRow(values);
+                while (rs.next()) {
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = rs.getObject(i + 1);
+                    }
+                    csv.writeRow(values);
+                    rows++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return rows;
+        });
+    }
+}
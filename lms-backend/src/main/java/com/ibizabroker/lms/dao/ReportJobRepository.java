@@ -0,0 +1,47 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.entity.ReportJob;
+import com.ibizabroker.lms.enums.ReportStatus;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Repository interface for managing ReportJob entities in the database.
+ * Extends JpaRepository to inherit basic CRUD operations.
+ * Provides queries for report job history and cleanup.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public interface ReportJobRepository extends JpaRepository<ReportJob, Long> {
+
+    /**
+     * Retrieves the 50 most recently requested report jobs.
+     *
+     * @return List of jobs, newest first
+     */
+    List<ReportJob> findTop50ByOrderByRequestedAtDesc();
+
+    /**
+     * Finds the jobs of a node that are in any of the given states.
+     *
+     * @param nodeName Name of the node running the jobs
+     * @param statuses The states to match
+     * @return List of matching jobs
+     */
+    List<ReportJob> findByNodeNameAndStatusIn(String nodeName, Collection<ReportStatus> statuses);
+
+    /**
+     * Finds the jobs of a node that finished before a given time.
+     *
+     * @param nodeName Name of the node that ran the jobs
+     * @param finishedAt Cut-off time
+     * @return List of matching jobs
+     */
+    List<ReportJob> findByNodeNameAndFinishedAtBefore(String nodeName, Date finishedAt);
+}
@@ -44,9 +44,10 @@ public interface RequestedBookRepository extends JpaRepository<RequestedBook, Lo
      * Uses a JPQL query to perform the deletion based on user ID.
      *
      * @param userId The ID of the user whose requests should be deleted
+     * @return Number of requests deleted
      */
     @Modifying
     @Transactional
     @Query("DELETE FROM RequestedBook r WHERE r.requestedBy.id = :userId")
-    void deleteByRequestedById(Integer userId);
+    int deleteByRequestedById(Integer userId);
 }
@@ -0,0 +1,146 @@
+package com.ibizabroker.lms.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Repository for the materialized views behind the borrowing statistics.
+ * Each view holds the result of one of the statistics group-bys over the borrow table and
+ * has a unique index, so it can be refreshed concurrently without blocking readers.
+ * The views return the same columns as the live queries in {@link BorrowRepository}.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class StatisticsViewRepository {
+
+    /**
+     * Names of the views, in refresh order.
+     */
+    public static final List<String> VIEWS = Arrays.asList(
+            "mv_most_active_users", "mv_most_borrowed_genres", "mv_most_borrowed_books", "mv_books_borrowed_per_month");
+
+    /**
+     * Statements creating the views and their unique indexes; each is idempotent.
+     */
+    private static final List<String> CREATE_STATEMENTS = Arrays.asList(
+            "CREATE MATERIALIZED VIEW IF NOT EXISTS mv_most_active_users AS "
+                    + "SELECT u.username AS username, COUNT(br.user_id) AS borrow_count "
+                    + "FROM borrow br JOIN users u ON br.user_id = u.user_id GROUP BY u.username",
+            "CREATE UNIQUE INDEX IF NOT EXISTS uq_mv_most_active_users ON mv_most_active_users (username)",
+            "CREATE MATERIALIZED VIEW IF NOT EXISTS mv_most_borrowed_genres AS "
+                    + "SELECT b.book_genre AS genre, COUNT(br.book_id) AS borrow_count "
+                    + "FROM borrow br JOIN books b ON br.book_id = b.book_id GROUP BY b.book_genre",
+            "CREATE UNIQUE INDEX IF NOT EXISTS uq_mv_most_borrowed_genres ON mv_most_borrowed_genres (genre)",
+            "CREATE MATERIALIZED VIEW IF NOT EXISTS mv_most_borrowed_books AS "
+                    + "SELECT b.book_name AS title, COUNT(br.book_id) AS borrow_count "
+                    + "FROM borrow br JOIN books b ON br.book_id = b.book_id GROUP BY b.book_name",
+            "CREATE UNIQUE INDEX IF NOT EXISTS uq_mv_most_borrowed_books ON mv_most_borrowed_books (title)",
+            "CREATE MATERIALIZED VIEW IF NOT EXISTS mv_books_borrowed_per_month AS "
+                    + "SELECT EXTRACT(MONTH FROM issue_date) AS month, COUNT(*) AS borrow_count "
+                    + "FROM borrow GROUP BY month",
+            "CREATE UNIQUE INDEX IF NOT EXISTS uq_mv_books_borrowed_per_month ON mv_books_borrowed_per_month (month)"
+    );
+
+    /**
+     * JDBC template bound to the application's data source.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Constructs a new StatisticsViewRepository.
+     *
+     * @param jdbcTemplate JDBC template for view statements
+     */
+    public StatisticsViewRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Creates any missing views, populating them.
+     */
+    public void createViews() {
+        for (String statement : CREATE_STATEMENTS) {
+            jdbcTemplate.execute(statement);
+        }
+    }
+
+    /**
+     * Recomputes a view without blocking queries that read it.
+     *
+     * @param view Name of the view, one of {@link #VIEWS}
+     */
+    public void refreshConcurrently(String view) {
+        if (!VIEWS.contains(view)) {
+            throw new IllegalArgumentException("Unknown statistics view: " + view);
+        }
+        jdbcTemplate.execute("REFRESH MATERIALIZED VIEW CONCURRENTLY " + view);
+    }
+
+    /**
+     * Reads the most active users from the view.
+     *
+     * @return List of maps containing username and borrowCount
+     */
+    public List<Map<String, Object>> findMostActiveUsers() {
+        return jdbcTemplate.queryForList("SELECT username, borrow_count AS borrowCount FROM mv_most_active_users "
+                + "ORDER BY borrow_count DESC");
+    }
+
+    /**
+     * Reads the users with the most loans from the view.
+     *
+     * @param limit Maximum number of users to return
+     * @return List of maps containing username and borrowCount, highest first
+     */
+    public List<Map<String, Object>> findTopActiveUsers(int limit) {
+        return jdbcTemplate.queryForList("SELECT username, borrow_count AS borrowCount FROM mv_most_active_users "
+                + "ORDER BY borrow_count DESC LIMIT ?", limit);
+    }
+
+    /**
+     * Reads the books with the most loans from the view.
+     *
+     * @param limit Maximum number of books to return
+     * @return List of maps containing title and count, highest first
+     */
+    public List<Map<String, Object>> findTopBorrowedBooks(int limit) {
+        return jdbcTemplate.queryForList("SELECT title, borrow_count AS count FROM mv_most_borrowed_books "
+                + "ORDER BY borrow_count DESC LIMIT ?", limit);
+    }
+
+    /**
+     * Reads the most borrowed genres from the view.
+     *
+     * @return List of maps containing genre and count
+     */
+    public List<Map<String, Object>> findMostBorrowedGenres() {
+        return jdbcTemplate.queryForList("SELECT genre, borrow_count AS count FROM mv_most_borrowed_genres "
+                + "ORDER BY borrow_count DESC");
+    }
+
+    /**
+     * Reads the most borrowed books from the view.
+     *
+     * @return List of maps containing title and count
+     */
+    public List<Map<String, Object>> findMostBorrowedBooks() {
+        return jdbcTemplate.queryForList("SELECT title, borrow_count AS count FROM mv_most_borrowed_books "
+                + "ORDER BY borrow_count DESC");
+    }
+
+    /**
+     * Reads the number of books borrowed per month from the view.
+     *
+     * @return List of maps containing month and count
+     */
+    public List<Map<String, Object>> findBooksBorrowedPerMonth() {
+        return jdbcTemplate.queryForList("SELECT month, borrow_count AS count FROM mv_books_borrowed_per_month "
+                + "ORDER BY month");
+    }
+}
@@ -0,0 +1,118 @@
+package com.ibizabroker.lms.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Repository estimating row counts without counting every row.
+ * Table sizes come from the planner statistics in pg_class, scaled to the table's current
+ * size on disk the way the planner does, so they stay close between ANALYZE runs. Filtered
+ * counts on the borrow table come from a block sample of the table.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class TableEstimateRepository {
+
+    /**
+     * JDBC template bound to the application's data source.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Constructs a new TableEstimateRepository.
+     *
+     * @param jdbcTemplate JDBC template for the estimate queries
+     */
+    public TableEstimateRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Estimates the number of rows in a table from its planner statistics.
+     * The rows per page seen by the last ANALYZE or VACUUM are multiplied by the number of
+     * pages the table has now.
+     *
+     * @param table Name of the table
+     * @return The estimated row count, or -1 if the table does not exist or has never been analyzed
+     */
+    public long estimateRows(String table) {
+        return jdbcTemplate.query("SELECT c.reltuples, c.relpages, "
+                + "pg_relation_size(c.oid) / current_setting('block_size')::int AS pages "
+                + "FROM pg_class c WHERE c.oid = to_regclass(?)", rs -> {
+            if (!rs.next()) {
+                return -1L;
+            }
+            double tuples = rs.getDouble("reltuples");
+            long relPages = rs.getLong("relpages");
+            long pages = rs.getLong("pages");
+            if (tuples < 0 || (tuples == 0 && relPages == 0 && pages > 0)) {
+                // Never analyzed: the planner statistics say nothing about the table
+                return -1L;
+            }
+            return relPages > 0 ? Math.round(tuples / relPages * pages) : Math.round(tuples);
+        }, table);
+    }
+
+    /**
+     * Counts the loans matching each summary filter in a random sample of the borrow table's pages.
+     *
+     * @param percent Percentage of the table's pages to read, between 0 and 100
+     * @return The number of sampled loans and of those matching each filter
+     */
+    public BorrowSample sampleBorrow(double percent) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) AS sampled, "
+                + "COUNT(*) FILTER (WHERE return_request_status <> 'APPROVED') AS unreturned, "
+                + "COUNT(*) FILTER (WHERE due_date < CURRENT_DATE AND return_request_status <> 'APPROVED') AS overdue, "
+                + "COUNT(*) FILTER (WHERE return_request_status = 'PENDING') AS pending_returns "
+                + "FROM borrow TABLESAMPLE SYSTEM (CAST(? AS real))", (rs, rowNum) -> new BorrowSample(
+                rs.getLong("sampled"), rs.getLong("unreturned"), rs.getLong("overdue"), rs.getLong("pending_returns")),
+                percent);
+    }
+
+    /**
+     * Counts taken from a sample of the borrow table.
+     */
+    public static final class BorrowSample {
+
+        private final long sampled;
+
+        private final long unreturned;
+
+        private final long overdue;
+
+        private final long pendingReturns;
+
+        /**
+         * Creates a sample result.
+         *
+         * @param sampled Number of loans in the sample
+         * @param unreturned Sampled loans whose return has not been approved
+         * @param overdue Sampled loans past their due date whose return has not been approved
+         * @param pendingReturns Sampled loans with a pending return request
+         */
+        public BorrowSample(long sampled, long unreturned, long overdue, long pendingReturns) {
+            this.sampled = sampled;
+            this.unreturned = unreturned;
+            this.overdue = overdue;
+            this.pendingReturns = pendingReturns;
+        }
+
+        public long getSampled() {
+            return sampled;
+        }
+
+        public long getUnreturned() {
+            return unreturned;
+        }
+
+        public long getOverdue() {
+            return overdue;
+        }
+
+        public long getPendingReturns() {
+            return pendingReturns;
+        }
+    }
+}
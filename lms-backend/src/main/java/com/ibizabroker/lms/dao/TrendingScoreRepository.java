@@ -0,0 +1,81 @@
+package com.ibizabroker.lms.dao;
+
+import com.ibizabroker.lms.util.IntDoubleHashMap;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Repository for saving and loading the trending scores of books.
+ * The scores are written as one batch that replaces the previous checkpoint.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Repository
+public class TrendingScoreRepository {
+
+    /**
+     * JDBC template bound to the application's data source.
+     */
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Constructs a new TrendingScoreRepository.
+     *
+     * @param jdbcTemplate JDBC template for trending score statements
+     */
+    public TrendingScoreRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Loads the saved scores, each decayed to the current time.
+     *
+     * @param halfLifeMillis Half-life of the scores in milliseconds
+     * @param now Current time
+     * @param scores Map receiving the decayed score per book ID
+     */
+    public void loadInto(long halfLifeMillis, Date now, IntDoubleHashMap scores) {
+        jdbcTemplate.query("SELECT book_id, score, scored_at FROM trending_scores", rs -> {
+            long age = now.getTime() - rs.getTimestamp("scored_at").getTime();
+            scores.addTo(rs.getInt("book_id"), rs.getDouble("score") * Math.pow(2, -(double) age / halfLifeMillis));
+        });
+    }
+
+    /**
+     * Adds one unit of score per loan issued since a given time, decayed to the current time.
+     * Used to seed the scores when no checkpoint exists.
+     *
+     * @param since Only loans issued at or after this time are read
+     * @param halfLifeMillis Half-life of the scores in milliseconds
+     * @param now Current time
+     * @param scores Map receiving the score per book ID
+     */
+    public void loadFromLoans(Date since, long halfLifeMillis, Date now, IntDoubleHashMap scores) {
+        jdbcTemplate.query("SELECT book_id, issue_date FROM borrow WHERE issue_date >= ?", rs -> {
+            long age = Math.max(0, now.getTime() - rs.getTimestamp("issue_date").getTime());
+            scores.addTo(rs.getInt("book_id"), Math.pow(2, -(double) age / halfLifeMillis));
+        }, new Timestamp(since.getTime()));
+    }
+
+    /**
+     * Replaces the saved scores with new ones.
+     *
+     * @param scores Score per book ID
+     * @param scoredAt Time the scores were taken
+     */
+    @Transactional
+    public void replaceAll(IntDoubleHashMap scores, Date scoredAt) {
+        Timestamp timestamp = new Timestamp(scoredAt.getTime());
+        List<Object[]> args = new ArrayList<>(scores.size());
+        scores.forEach((bookId, score) -> args.add(new Object[]{bookId, score, timestamp}));
+        jdbcTemplate.update("DELETE FROM trending_scores");
+        jdbcTemplate.batchUpdate("INSERT INTO trending_scores (book_id, score, scored_at) VALUES (?, ?, ?)", args);
+    }
+}
@@ -0,0 +1,62 @@
+package com.ibizabroker.lms.dto;
+
+import com.ibizabroker.lms.enums.ReturnReqStatus;
+import lombok.Data;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.util.Date;
+
+/**
+ * Query parameters for listing borrow records.
+ * Every field is optional; unset fields do not constrain the result.
+ * Results are always ordered by borrowId, so the borrowId of the last record
+ * received can be passed back as {@code after} to fetch the next page.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+public class BorrowFilter {
+
+    /**
+     * Loan status to match (BORROWED, OVERDUE, RETURNED).
+     */
+    private String status;
+
+    /**
+     * Return request status to match.
+     */
+    private ReturnReqStatus returnRequestStatus;
+
+    /**
+     * ID of the borrowing user.
+     */
+    private Integer userId;
+
+    /**
+     * ID of the borrowed book.
+     */
+    private Integer bookId;
+
+    /**
+     * Inclusive lower bound on the issue date (yyyy-MM-dd).
+     */
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private Date from;
+
+    /**
+     * Exclusive upper bound on the issue date (yyyy-MM-dd).
+     */
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private Date to;
+
+    /**
+     * Cursor: only records with a borrowId greater than this value are returned.
+     */
+    private Integer after;
+
+    /**
+     * Maximum number of records to return. Unlimited when not set.
+     */
+    private Integer limit;
+}
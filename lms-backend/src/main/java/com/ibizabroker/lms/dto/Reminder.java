@@ -0,0 +1,56 @@
+package com.ibizabroker.lms.dto;
+
+import com.ibizabroker.lms.enums.ReminderType;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * A reminder message about one loan, ready to be handed to a ReminderSink.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+public class Reminder {
+
+    /**
+     * ID of the loan.
+     */
+    private Integer borrowId;
+
+    /**
+     * Kind of reminder.
+     */
+    private ReminderType type;
+
+    /**
+     * ID of the borrowing user.
+     */
+    private Integer userId;
+
+    /**
+     * Username of the borrowing user, used as the recipient address.
+     */
+    private String username;
+
+    /**
+     * Full name of the borrowing user.
+     */
+    private String name;
+
+    /**
+     * Title of the borrowed book.
+     */
+    private String bookName;
+
+    /**
+     * Due date of the loan.
+     */
+    private Date dueDate;
+
+    /**
+     * Message text.
+     */
+    private String message;
+}
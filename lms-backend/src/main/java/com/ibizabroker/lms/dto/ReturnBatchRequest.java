@@ -0,0 +1,26 @@
+package com.ibizabroker.lms.dto;
+
+import com.ibizabroker.lms.enums.ReturnDecision;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Request payload for approving or rejecting several return requests at once.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+public class ReturnBatchRequest {
+
+    /**
+     * IDs of the borrow records to process.
+     */
+    private List<Integer> borrowIds;
+
+    /**
+     * Decision applied to every borrow record in the batch.
+     */
+    private ReturnDecision decision;
+}
@@ -0,0 +1,30 @@
+package com.ibizabroker.lms.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Outcome of one borrow record within a batch return decision.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@AllArgsConstructor
+public class ReturnBatchResult {
+
+    /**
+     * ID of the processed borrow record.
+     */
+    private Integer borrowId;
+
+    /**
+     * Outcome: APPROVED, REJECTED, NOT_FOUND, ALREADY_RETURNED or CONFLICT.
+     */
+    private String outcome;
+
+    /**
+     * Human-readable explanation of the outcome.
+     */
+    private String message;
+}
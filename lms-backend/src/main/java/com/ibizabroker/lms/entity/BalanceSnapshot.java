@@ -0,0 +1,56 @@
+package com.ibizabroker.lms.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class representing a user's balance as of a point in the ledger.
+ * This class maps to the "balance_snapshots" table in the database. A balance can be
+ * rebuilt from the latest snapshot plus the ledger entries after it, without summing
+ * the user's whole history.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "balance_snapshots", // Lowercase for PostgreSQL compatibility
+        indexes = @Index(name = "idx_balance_snapshots_user", columnList = "user_id, last_entry_id"))
+public class BalanceSnapshot {
+
+    /**
+     * Unique identifier for the snapshot.
+     * Generated using a sequence generator for PostgreSQL compatibility.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "balance_snapshots_seq")
+    @SequenceGenerator(name = "balance_snapshots_seq", sequenceName = "balance_snapshots_seq", allocationSize = 1)
+    private Long id;
+
+    /**
+     * ID of the user.
+     */
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    /**
+     * ID of the last ledger entry included in the balance.
+     */
+    @Column(name = "last_entry_id", nullable = false)
+    private long lastEntryId;
+
+    /**
+     * Sum of the user's ledger entries up to and including lastEntryId.
+     */
+    @Column(nullable = false)
+    private double balance;
+
+    /**
+     * Time the snapshot was taken.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "taken_at", nullable = false)
+    private Date takenAt;
+}
@@ -0,0 +1,94 @@
+package com.ibizabroker.lms.entity;
+
+import com.ibizabroker.lms.enums.HoldStatus;
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class representing a hold (waitlist entry) on an out-of-stock book.
+ * This class maps to the "book_holds" table in the database. Holds on a book are
+ * served in order of priority, then request time; when a copy is returned it is
+ * reserved for the first waiting hold until the pickup deadline.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "book_holds", // Lowercase for PostgreSQL compatibility
+        indexes = {
+                @Index(name = "idx_book_holds_queue", columnList = "book_id, status, priority, requested_at"),
+                @Index(name = "idx_book_holds_user_book", columnList = "user_id, book_id"),
+                @Index(name = "idx_book_holds_pickup", columnList = "status, pickup_deadline")
+        })
+public class BookHold {
+
+    /**
+     * Unique identifier for the hold.
+     * Generated using a sequence generator for PostgreSQL compatibility.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_holds_seq")
+    @SequenceGenerator(name = "book_holds_seq", sequenceName = "book_holds_seq", allocationSize = 1)
+    @Column(name = "hold_id")
+    private Long holdId;
+
+    /**
+     * ID of the book being waited for.
+     * This field cannot be null.
+     */
+    @Column(name = "book_id", nullable = false)
+    private Integer bookId;
+
+    /**
+     * ID of the user waiting for the book.
+     * This field cannot be null.
+     */
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    /**
+     * Queue priority; higher values are served first. Defaults to 0.
+     */
+    @Column(name = "priority", nullable = false)
+    private int priority;
+
+    /**
+     * Current state of the hold.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false)
+    private HoldStatus status = HoldStatus.WAITING;
+
+    /**
+     * Timestamp when the hold was placed.
+     * This field cannot be null and cannot be updated after creation.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "requested_at", nullable = false, updatable = false)
+    private Date requestedAt;
+
+    /**
+     * Timestamp when a copy was reserved for this hold.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "ready_at")
+    private Date readyAt;
+
+    /**
+     * Time by which the reserved copy must be borrowed.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "pickup_deadline")
+    private Date pickupDeadline;
+
+    /**
+     * Automatically sets the request timestamp when a new hold is persisted.
+     */
+    @PrePersist
+    protected void onCreate() {
+        this.requestedAt = new Date();
+    }
+}
@@ -19,7 +19,13 @@ import java.util.Date;
 @Data
 @Entity
 @EntityListeners(AuditingEntityListener.class)
-@Table(name = "borrow") // Lowercase table name for PostgreSQL compatibility
+@Table(name = "borrow", // Lowercase table name for PostgreSQL compatibility
+        indexes = {
+                @Index(name = "idx_borrow_user_book", columnList = "user_id, book_id"),
+                @Index(name = "idx_borrow_book_id", columnList = "book_id"),
+                @Index(name = "idx_borrow_issue_date", columnList = "issue_date"),
+                @Index(name = "idx_borrow_due_date", columnList = "due_date")
+        })
 public class Borrow {
 
     /**
@@ -58,10 +64,19 @@ public class Borrow {
     @Column(nullable = true)
     private double fine;
 
+    /**
+     * Time up to which fines have been charged for this loan: the due date plus the
+     * number of whole overdue days already fined. Null until the loan is first fined.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "fine_accrued_through")
+    private Date fineAccruedThrough;
+
     /**
      * Date and time when the book was issued to the user.
      */
     @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "issue_date")
     private Date issueDate;
 
     /**
@@ -74,6 +89,7 @@ public class Borrow {
      * Date and time by which the book should be returned.
      */
     @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "due_date")
     private Date dueDate;
 
     /**
@@ -0,0 +1,68 @@
+package com.ibizabroker.lms.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class holding one day's borrowing activity for one genre.
+ * This class maps to the "daily_borrow_rollup" table in the database. Rows are updated in
+ * the same transaction as the loans, returns and fines they count, so date-range statistics
+ * are summed from at most one row per day and genre instead of scanning the loan history.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "daily_borrow_rollup", // Lowercase for PostgreSQL compatibility
+        uniqueConstraints = @UniqueConstraint(name = "uq_daily_borrow_rollup_day_genre", columnNames = {"day", "genre"}))
+public class DailyBorrowRollup {
+
+    /**
+     * Unique identifier for the row.
+     * Generated using a sequence generator for PostgreSQL compatibility.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "daily_borrow_rollup_seq")
+    @SequenceGenerator(name = "daily_borrow_rollup_seq", sequenceName = "daily_borrow_rollup_seq", allocationSize = 1)
+    private Long id;
+
+    /**
+     * The day counted.
+     */
+    @Temporal(TemporalType.DATE)
+    @Column(name = "day", nullable = false)
+    private Date day;
+
+    /**
+     * Genre of the books counted; empty for books without a genre.
+     */
+    @Column(name = "genre", nullable = false)
+    private String genre;
+
+    /**
+     * Loans issued on the day.
+     */
+    @Column(name = "borrows", nullable = false)
+    private long borrows;
+
+    /**
+     * Returns approved on the day.
+     */
+    @Column(name = "returns", nullable = false)
+    private long returns;
+
+    /**
+     * Loans that fell due on the day and were not returned in time.
+     */
+    @Column(name = "overdues", nullable = false)
+    private long overdues;
+
+    /**
+     * Total fines charged on the day.
+     */
+    @Column(name = "fines", nullable = false)
+    private double fines;
+}
@@ -0,0 +1,49 @@
+package com.ibizabroker.lms.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class holding the last saved value of a dashboard counter.
+ * This class maps to the "dashboard_counters" table in the database. The counters are
+ * kept in memory and saved here periodically so they are available straight after a restart.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "dashboard_counters") // Lowercase for PostgreSQL compatibility
+public class DashboardCounter {
+
+    /**
+     * Name of the metric, one of the DashboardMetric values.
+     */
+    @Id
+    @Column(name = "metric", length = 50)
+    private String metric;
+
+    /**
+     * Value of the counter when it was saved.
+     */
+    @Column(name = "value", nullable = false)
+    private long value;
+
+    /**
+     * Timestamp of the last save.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "updated_at")
+    private Date updatedAt;
+
+    /**
+     * Automatically refreshes the update timestamp whenever the counter is saved.
+     */
+    @PrePersist
+    @PreUpdate
+    protected void onSave() {
+        this.updatedAt = new Date();
+    }
+}
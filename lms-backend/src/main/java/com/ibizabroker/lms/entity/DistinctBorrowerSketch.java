@@ -0,0 +1,64 @@
+package com.ibizabroker.lms.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class holding a HyperLogLog sketch of the users who borrowed within one scope in one month.
+ * This class maps to the "distinct_borrower_sketches" table in the database. Sketches of
+ * several months, or of several nodes, merge into the sketch of their union, so the number
+ * of unique borrowers over any range of months is estimated without COUNT(DISTINCT user_id).
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "distinct_borrower_sketches", // Lowercase for PostgreSQL compatibility
+        uniqueConstraints = @UniqueConstraint(name = "uq_distinct_borrower_sketches",
+                columnNames = {"scope", "scope_key", "month"}))
+public class DistinctBorrowerSketch {
+
+    /**
+     * Unique identifier for the row.
+     * Generated using a sequence generator for PostgreSQL compatibility.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "distinct_borrower_sketches_seq")
+    @SequenceGenerator(name = "distinct_borrower_sketches_seq", sequenceName = "distinct_borrower_sketches_seq", allocationSize = 1)
+    private Long id;
+
+    /**
+     * What the sketch counts the borrowers of, a {@link com.ibizabroker.lms.enums.SketchScope}.
+     */
+    @Column(name = "scope", nullable = false)
+    private String scope;
+
+    /**
+     * Book ID or genre within the scope; empty for books without a genre and "*" for all books.
+     */
+    @Column(name = "scope_key", nullable = false)
+    private String scopeKey;
+
+    /**
+     * First day of the month counted.
+     */
+    @Temporal(TemporalType.DATE)
+    @Column(name = "month", nullable = false)
+    private Date month;
+
+    /**
+     * The sketch in the binary form of {@link com.ibizabroker.lms.util.HyperLogLog#toBytes()}.
+     */
+    @Column(name = "sketch", nullable = false, columnDefinition = "bytea")
+    private byte[] sketch;
+
+    /**
+     * Time the sketch was last written.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "updated_at", nullable = false)
+    private Date updatedAt;
+}
@@ -0,0 +1,77 @@
+package com.ibizabroker.lms.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class holding a serialized t-digest of one duration metric for one genre.
+ * This class maps to the "duration_digests" table in the database. Each digest summarizes
+ * every duration recorded for the metric in a few hundred bytes, so percentiles are read
+ * without scanning and sorting the borrow table.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "duration_digests", // Lowercase for PostgreSQL compatibility
+        uniqueConstraints = @UniqueConstraint(name = "uq_duration_digests_metric_genre", columnNames = {"metric", "genre"}))
+public class DurationDigest {
+
+    /**
+     * Unique identifier for the row.
+     * Generated using a sequence generator for PostgreSQL compatibility.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "duration_digests_seq")
+    @SequenceGenerator(name = "duration_digests_seq", sequenceName = "duration_digests_seq", allocationSize = 1)
+    private Long id;
+
+    /**
+     * Name of the metric, a {@link com.ibizabroker.lms.enums.DurationMetric}.
+     */
+    @Column(name = "metric", nullable = false)
+    private String metric;
+
+    /**
+     * Genre of the loans summarized; "*" for all genres and empty for books without a genre.
+     */
+    @Column(name = "genre", nullable = false)
+    private String genre;
+
+    /**
+     * The digest in the binary form of {@link com.ibizabroker.lms.util.TDigest#toBytes()}.
+     */
+    @Column(name = "digest", nullable = false, columnDefinition = "bytea")
+    private byte[] digest;
+
+    /**
+     * Number of durations summarized.
+     */
+    @Column(name = "sample_count", nullable = false)
+    private long sampleCount;
+
+    /**
+     * Time the digest was last written.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "updated_at", nullable = false)
+    private Date updatedAt;
+
+    /**
+     * Returns before this time were counted by the last rebuild, so samples of them still
+     * waiting on a node are not merged again. Null if the metric was never rebuilt this way.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "rebuilt_through")
+    private Date rebuiltThrough;
+
+    /**
+     * End of the latest period of samples merged into the digest, or null if none was.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "merged_through")
+    private Date mergedThrough;
+}
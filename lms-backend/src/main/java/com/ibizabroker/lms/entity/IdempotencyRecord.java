@@ -0,0 +1,59 @@
+package com.ibizabroker.lms.entity;
+
+import com.ibizabroker.lms.enums.IdempotencyStatus;
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class representing a request made with an Idempotency-Key header.
+ * This class maps to the "idempotency_keys" table in the database. The key is claimed in
+ * the same transaction as the request and completed with the response that was returned,
+ * so that retries of the same request can be answered without executing it again.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "idempotency_keys", // Lowercase for PostgreSQL compatibility
+        indexes = @Index(name = "idx_idempotency_keys_created_at", columnList = "created_at"))
+public class IdempotencyRecord {
+
+    /**
+     * The client-supplied key, prefixed with the endpoint and user it was used for.
+     */
+    @Id
+    @Column(name = "idempotency_key", length = 300)
+    private String idempotencyKey;
+
+    /**
+     * The response body returned for the original request; empty while it is pending.
+     */
+    @Column(name = "response", nullable = false, columnDefinition = "TEXT")
+    private String response;
+
+    /**
+     * State of the request. Records written before states were tracked have none and are complete.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", length = 20)
+    private IdempotencyStatus status;
+
+    /**
+     * Timestamp when the key was claimed.
+     * This field cannot be null and cannot be updated after creation.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private Date createdAt;
+
+    /**
+     * Automatically sets the creation timestamp when a new record is persisted.
+     */
+    @PrePersist
+    protected void onCreate() {
+        this.createdAt = new Date();
+    }
+}
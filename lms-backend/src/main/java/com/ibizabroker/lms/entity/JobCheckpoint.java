@@ -0,0 +1,64 @@
+package com.ibizabroker.lms.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class representing the progress of a chunked batch job.
+ * This class maps to the "job_checkpoints" table in the database. A job updates its
+ * checkpoint in the same transaction as each chunk it commits, so a run that crashes
+ * can resume after the last committed chunk instead of starting over.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "job_checkpoints") // Lowercase for PostgreSQL compatibility
+public class JobCheckpoint {
+
+    /**
+     * Name of the job (or job partition) this checkpoint belongs to.
+     */
+    @Id
+    @Column(name = "job_name", length = 100)
+    private String jobName;
+
+    /**
+     * Reference time of the run, fixed when the run starts so a resumed run
+     * selects the same rows.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "run_cutoff", nullable = false)
+    private Date runCutoff;
+
+    /**
+     * Highest key processed and committed so far.
+     */
+    @Column(name = "last_key", nullable = false)
+    private long lastKey;
+
+    /**
+     * State of the run: RUNNING or COMPLETED.
+     */
+    @Column(name = "status", nullable = false)
+    private String status;
+
+    /**
+     * Timestamp of the last update.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "updated_at")
+    private Date updatedAt;
+
+    /**
+     * Automatically refreshes the update timestamp whenever the checkpoint is saved.
+     */
+    @PrePersist
+    @PreUpdate
+    protected void onSave() {
+        this.updatedAt = new Date();
+    }
+}
@@ -0,0 +1,88 @@
+package com.ibizabroker.lms.entity;
+
+import com.ibizabroker.lms.enums.JobOutcome;
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class representing one execution of a background job.
+ * This class maps to the "job_runs" table in the database and records which node ran
+ * the job, how long it took, how many rows it processed and how it ended.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "job_runs", // Lowercase for PostgreSQL compatibility
+        indexes = @Index(name = "idx_job_runs_job_started", columnList = "job_name, started_at"))
+public class JobRun {
+
+    /**
+     * Unique identifier for the run.
+     * Generated using a sequence generator for PostgreSQL compatibility.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "job_runs_seq")
+    @SequenceGenerator(name = "job_runs_seq", sequenceName = "job_runs_seq", allocationSize = 1)
+    private Long id;
+
+    /**
+     * Name of the job.
+     */
+    @Column(name = "job_name", nullable = false, length = 100)
+    private String jobName;
+
+    /**
+     * Host name (or configured name) of the node that handled the trigger.
+     */
+    @Column(name = "node_name", length = 100)
+    private String nodeName;
+
+    /**
+     * What started the run: SCHEDULED or MANUAL.
+     */
+    @Column(name = "trigger_type", length = 20)
+    private String triggerType;
+
+    /**
+     * Time the run started.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "started_at", nullable = false)
+    private Date startedAt;
+
+    /**
+     * Time the run finished.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "finished_at")
+    private Date finishedAt;
+
+    /**
+     * Wall-clock duration of the run in milliseconds.
+     */
+    @Column(name = "duration_ms")
+    private Long durationMs;
+
+    /**
+     * Number of rows the job reported as processed.
+     */
+    @Column(name = "rows_processed")
+    private Long rowsProcessed;
+
+    /**
+     * How the run ended.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "outcome", nullable = false, length = 20)
+    private JobOutcome outcome;
+
+    /**
+     * Error or skip reason, if any.
+     */
+    @Column(name = "message", length = 1000)
+    private String message;
+}
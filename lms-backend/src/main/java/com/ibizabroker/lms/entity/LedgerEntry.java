@@ -0,0 +1,77 @@
+package com.ibizabroker.lms.entity;
+
+import com.ibizabroker.lms.enums.LedgerEntryType;
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class representing one movement of money on a user's account.
+ * This class maps to the "ledger_entries" table in the database. Entries are only ever
+ * inserted, never updated or deleted, so the ledger is a complete audit trail of charges,
+ * top-ups and fines. Credits are positive amounts and debits negative.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "ledger_entries", // Lowercase for PostgreSQL compatibility
+        indexes = {
+                @Index(name = "idx_ledger_user_entry", columnList = "user_id, id"),
+                @Index(name = "idx_ledger_type_created", columnList = "entry_type, created_at")
+        })
+public class LedgerEntry {
+
+    /**
+     * Unique identifier for the entry, increasing in insertion order.
+     * Generated using a sequence generator for PostgreSQL compatibility.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "ledger_entries_seq")
+    @SequenceGenerator(name = "ledger_entries_seq", sequenceName = "ledger_entries_seq", allocationSize = 1)
+    private Long id;
+
+    /**
+     * ID of the user whose account moved.
+     */
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    /**
+     * Kind of movement.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "entry_type", nullable = false, length = 30)
+    private LedgerEntryType type;
+
+    /**
+     * Signed amount: positive for credits, negative for debits.
+     */
+    @Column(nullable = false)
+    private double amount;
+
+    /**
+     * ID of the loan the entry relates to, for borrow charges and fines.
+     */
+    @Column(name = "borrow_id")
+    private Integer borrowId;
+
+    /**
+     * Time the entry was recorded.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "created_at", nullable = false)
+    private Date createdAt;
+
+    /**
+     * Sets the creation time before the entry is first saved.
+     */
+    @PrePersist
+    protected void onCreate() {
+        if (createdAt == null) {
+            createdAt = new Date();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.ibizabroker.lms.entity;
+
+import com.ibizabroker.lms.enums.ReminderType;
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class recording that a reminder of a given type has been sent for a loan.
+ * This class maps to the "reminder_log" table in the database. The unique constraint on
+ * (borrow_id, reminder_type) ensures each reminder is sent at most once, even when several
+ * nodes try to send it; a row is claimed before sending and removed if sending fails.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "reminder_log", // Lowercase for PostgreSQL compatibility
+        uniqueConstraints = @UniqueConstraint(name = "uq_reminder_log_borrow_type", columnNames = {"borrow_id", "reminder_type"}))
+public class ReminderLog {
+
+    /**
+     * Unique identifier for the log entry.
+     * Generated using a sequence generator for PostgreSQL compatibility.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "reminder_log_seq")
+    @SequenceGenerator(name = "reminder_log_seq", sequenceName = "reminder_log_seq", allocationSize = 1)
+    private Long id;
+
+    /**
+     * ID of the loan the reminder is about.
+     */
+    @Column(name = "borrow_id", nullable = false)
+    private Integer borrowId;
+
+    /**
+     * Kind of reminder.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "reminder_type", nullable = false, length = 20)
+    private ReminderType type;
+
+    /**
+     * Time the reminder was claimed for sending.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "sent_at", nullable = false)
+    private Date sentAt;
+}
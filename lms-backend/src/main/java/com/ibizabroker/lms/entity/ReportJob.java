@@ -0,0 +1,103 @@
+package com.ibizabroker.lms.entity;
+
+import com.ibizabroker.lms.enums.ReportStatus;
+import com.ibizabroker.lms.enums.ReportType;
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class representing a request to export a report as a compressed CSV file.
+ * This class maps to the "report_jobs" table in the database and records the state of the
+ * export, the node whose local disk holds the file and how large the file is.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "report_jobs", // Lowercase for PostgreSQL compatibility
+        indexes = @Index(name = "idx_report_jobs_requested_at", columnList = "requested_at"))
+public class ReportJob {
+
+    /**
+     * Unique identifier for the job.
+     * Generated using a sequence generator for PostgreSQL compatibility.
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "report_jobs_seq")
+    @SequenceGenerator(name = "report_jobs_seq", sequenceName = "report_jobs_seq", allocationSize = 1)
+    private Long id;
+
+    /**
+     * Report being exported.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "report_type", nullable = false, length = 30)
+    private ReportType reportType;
+
+    /**
+     * Current state of the export.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 20)
+    private ReportStatus status;
+
+    /**
+     * Username of the admin who requested the report.
+     */
+    @Column(name = "requested_by", length = 100)
+    private String requestedBy;
+
+    /**
+     * Node that runs the export and keeps the file.
+     */
+    @Column(name = "node_name", length = 100)
+    private String nodeName;
+
+    /**
+     * Name of the file in the node's report directory.
+     */
+    @Column(name = "file_name")
+    private String fileName;
+
+    /**
+     * Number of data rows written, excluding the header.
+     */
+    @Column(name = "row_count")
+    private Long rowCount;
+
+    /**
+     * Size of the compressed file in bytes.
+     */
+    @Column(name = "size_bytes")
+    private Long sizeBytes;
+
+    /**
+     * Time the report was requested.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "requested_at", nullable = false)
+    private Date requestedAt;
+
+    /**
+     * Time the export started writing rows.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "started_at")
+    private Date startedAt;
+
+    /**
+     * Time the export completed or failed.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "finished_at")
+    private Date finishedAt;
+
+    /**
+     * Error message if the export failed.
+     */
+    @Column(name = "message", length = 1000)
+    private String message;
+}
@@ -0,0 +1,40 @@
+package com.ibizabroker.lms.entity;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Entity class holding the saved trending score of a book.
+ * This class maps to the "trending_scores" table in the database. The scores are kept in
+ * memory and saved here periodically so the trending ranking survives a restart.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Data
+@Entity
+@Table(name = "trending_scores") // Lowercase for PostgreSQL compatibility
+public class TrendingScore {
+
+    /**
+     * ID of the book.
+     */
+    @Id
+    @Column(name = "book_id")
+    private Integer bookId;
+
+    /**
+     * Decayed borrow count of the book at the time it was saved.
+     */
+    @Column(name = "score", nullable = false)
+    private double score;
+
+    /**
+     * Time at which the score was saved; it keeps decaying from here.
+     */
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "scored_at", nullable = false)
+    private Date scoredAt;
+}
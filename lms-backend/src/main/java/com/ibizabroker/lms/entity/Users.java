@@ -51,9 +51,10 @@ public class Users {
     /**
      * Current balance in the user's account.
      * Default value is 500.
-     * This field cannot be null.
+     * This field cannot be null. It is written only on insert; afterwards it is changed
+     * exclusively through LedgerService, so saving a stale entity cannot overwrite it.
      */
-    @Column(nullable = false)
+    @Column(nullable = false, updatable = false)
     private double accountBalance = 500;
 
     /**
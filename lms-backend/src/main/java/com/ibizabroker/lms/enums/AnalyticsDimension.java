@@ -0,0 +1,30 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration of the dimensions the analytics snapshot can group loans by.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum AnalyticsDimension {
+    /** Genre of the borrowed book */
+    GENRE,
+
+    /** Month the loan was issued, as yyyy-MM */
+    MONTH,
+
+    /** Day of the week the loan was issued */
+    WEEKDAY,
+
+    /** Month of the borrower's first loan, as yyyy-MM */
+    COHORT,
+
+    /** Return status of the loan: BORROWED, OVERDUE or RETURNED */
+    STATUS,
+
+    /** ID of the borrowed book */
+    BOOK,
+
+    /** ID of the borrower */
+    USER
+}
@@ -0,0 +1,45 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration of the counts shown in the admin dashboard summary.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum DashboardMetric {
+    /** Number of book titles in the catalogue */
+    TOTAL_BOOKS("totalBooks"),
+
+    /** Number of registered users */
+    TOTAL_USERS("totalUsers"),
+
+    /** Number of loans whose return has not been approved */
+    BORROWED_BOOKS("borrowedBooks"),
+
+    /** Number of unreturned loans due before today */
+    OVERDUE_BOOKS("overdueBooks"),
+
+    /** Number of requests for books not yet in the library */
+    REQUESTED_BOOKS("requestedBooks"),
+
+    /** Number of return requests waiting for approval */
+    RETURN_REQUESTS("returnRequests");
+
+    /**
+     * Key of the metric in the summary response.
+     */
+    private final String key;
+
+    DashboardMetric(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Gets the key of the metric in the summary response.
+     *
+     * @return The response key
+     */
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,16 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration of the durations whose percentiles are tracked with t-digests.
+ * Durations are measured in days.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum DurationMetric {
+    /** Time from issue to approved return, for returned loans */
+    LOAN_DURATION,
+
+    /** Time since the due date, for loans that are overdue and not yet returned */
+    OVERDUE_AGE
+}
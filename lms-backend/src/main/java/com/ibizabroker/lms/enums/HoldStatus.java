@@ -0,0 +1,24 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration representing the lifecycle of a hold placed on an out-of-stock book.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum HoldStatus {
+    /** Waiting in the queue for a copy to be returned */
+    WAITING,
+
+    /** A returned copy has been set aside and awaits pickup */
+    READY,
+
+    /** The reserved copy was borrowed by the patron */
+    FULFILLED,
+
+    /** The patron did not borrow the reserved copy before the pickup deadline */
+    EXPIRED,
+
+    /** The hold was withdrawn */
+    CANCELLED
+}
@@ -0,0 +1,15 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration representing the state of a request made with an Idempotency-Key header.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum IdempotencyStatus {
+    /** The key has been claimed and the request is running */
+    PENDING,
+
+    /** The request finished and its response is stored */
+    COMPLETED
+}
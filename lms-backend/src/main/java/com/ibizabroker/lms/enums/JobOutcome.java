@@ -0,0 +1,21 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration representing the result of a background job run.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum JobOutcome {
+    /** The run is still in progress */
+    RUNNING,
+
+    /** The run finished without errors */
+    SUCCEEDED,
+
+    /** The run stopped with an error */
+    FAILED,
+
+    /** The run did not start because another node held the lock or the job ran recently */
+    SKIPPED
+}
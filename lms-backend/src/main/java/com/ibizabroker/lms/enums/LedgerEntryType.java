@@ -0,0 +1,21 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration representing the kind of money movement recorded in the balance ledger.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum LedgerEntryType {
+    /** Balance the account held when it was opened or when the ledger was introduced */
+    OPENING_BALANCE,
+
+    /** Funds added to the account */
+    TOP_UP,
+
+    /** Fee charged for borrowing a book */
+    BORROW_CHARGE,
+
+    /** Fine charged for an overdue book */
+    FINE
+}
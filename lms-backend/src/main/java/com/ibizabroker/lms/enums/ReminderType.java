@@ -0,0 +1,15 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration representing the kinds of reminder sent about a loan.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum ReminderType {
+    /** The loan is due within the next few days */
+    DUE_SOON,
+
+    /** The loan is past its due date */
+    OVERDUE
+}
@@ -0,0 +1,21 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration representing the lifecycle of a report export job.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum ReportStatus {
+    /** Waiting for a free export thread */
+    QUEUED,
+
+    /** Rows are being written to the file */
+    RUNNING,
+
+    /** The file is complete and can be downloaded */
+    COMPLETED,
+
+    /** The export stopped with an error or was interrupted by a restart */
+    FAILED
+}
@@ -0,0 +1,18 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration of the reports that can be exported as CSV files.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum ReportType {
+    /** Every loan with its borrower, book, dates, status and fine */
+    LOAN_HISTORY,
+
+    /** Loan count and total fines of every user who has been fined */
+    FINES_PER_USER,
+
+    /** Loans past their due date whose return has not been approved */
+    OVERDUE_LIST
+}
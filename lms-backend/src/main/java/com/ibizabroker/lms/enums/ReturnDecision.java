@@ -0,0 +1,15 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration representing an admin's decision on a book return request.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum ReturnDecision {
+    /** Accept the return and put the copy back in stock */
+    APPROVE,
+
+    /** Refuse the return; the loan stays active */
+    REJECT
+}
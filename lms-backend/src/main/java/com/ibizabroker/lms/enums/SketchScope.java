@@ -0,0 +1,18 @@
+package com.ibizabroker.lms.enums;
+
+/**
+ * Enumeration of what a distinct-borrower sketch counts the borrowers of.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public enum SketchScope {
+    /** Borrowers of one book, keyed by book ID */
+    BOOK,
+
+    /** Borrowers of any book in one genre, keyed by genre */
+    GENRE,
+
+    /** Borrowers of any book, under the key "*" */
+    ALL
+}
@@ -0,0 +1,144 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.BorrowRepository;
+import com.ibizabroker.lms.enums.ReturnReqStatus;
+import com.ibizabroker.lms.util.LongHashSet;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-process index of active loans, used to answer "has this user already borrowed this book?"
+ * without querying the borrow table. A loan is active while its return request status is
+ * NONE, PENDING or REJECTED.
+ *
+ * The index is rebuilt from the database at startup and maintained on checkout and on
+ * return approval. It only sees changes made by this process, so the database remains the
+ * final authority: a hit is confirmed against it, and a miss is only provisional. The unique
+ * index uq_borrow_open_loan allows one active loan per user and book across all nodes, so a
+ * checkout that passes on a stale miss is rejected when the loan is inserted. If that index
+ * could not be created, for example because old data holds duplicate loans, misses are
+ * confirmed against the database as well.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class ActiveLoanIndex {
+
+    /**
+     * Return request statuses for which a loan is still active.
+     */
+    public static final List<ReturnReqStatus> ACTIVE_STATUSES =
+            Arrays.asList(ReturnReqStatus.NONE, ReturnReqStatus.PENDING, ReturnReqStatus.REJECTED);
+
+    /**
+     * Repository for loading active loans and confirming index hits.
+     */
+    private final BorrowRepository borrowRepository;
+
+    /**
+     * Active (userId, bookId) pairs packed into a single long.
+     */
+    private final LongHashSet activePairs = new LongHashSet(1024);
+
+    /**
+     * Whether the database enforces one active loan per user and book, checked on each rebuild.
+     */
+    private volatile boolean enforcedByDatabase;
+
+    /**
+     * Constructs a new ActiveLoanIndex.
+     *
+     * @param borrowRepository Repository for borrow operations
+     */
+    public ActiveLoanIndex(BorrowRepository borrowRepository) {
+        this.borrowRepository = borrowRepository;
+    }
+
+    /**
+     * Reloads the index from all active loans in the database.
+     */
+    public synchronized void rebuild() {
+        enforcedByDatabase = borrowRepository.hasOpenLoanUniqueIndex();
+        activePairs.clear();
+        for (Object[] row : borrowRepository.findUserAndBookIdsByReturnRequestStatusIn(ACTIVE_STATUSES)) {
+            add((Integer) row[0], (Integer) row[1]);
+        }
+        System.out.println("Active loan index loaded with " + activePairs.size() + " loans"
+                + (enforcedByDatabase ? "" : "; misses are confirmed against the database"));
+    }
+
+    /**
+     * Checks whether the user currently holds a copy of the book.
+     * A hit is confirmed against the database and dropped from the index if the database
+     * disagrees. A miss is answered from memory while uq_borrow_open_loan rejects duplicate
+     * loans, so a loan made on another node is caught when the new loan is inserted;
+     * otherwise the miss is confirmed against the database too.
+     *
+     * @param userId The ID of the user
+     * @param bookId The ID of the book
+     * @return true if the user has an active loan of the book
+     */
+    public boolean isBorrowed(Integer userId, Integer bookId) {
+        boolean hit;
+        synchronized (this) {
+            hit = activePairs.contains(key(userId, bookId));
+        }
+        if (!hit && enforcedByDatabase) {
+            return false;
+        }
+        boolean borrowed = borrowRepository.existsByUserIdAndBookIdAndReturnRequestStatusIn(userId, bookId, ACTIVE_STATUSES);
+        if (hit && !borrowed) {
+            remove(userId, bookId);
+        } else if (!hit && borrowed) {
+            add(userId, bookId);
+        }
+        return borrowed;
+    }
+
+    /**
+     * Counts the books the user currently holds.
+     * Counted in the database, since loans made or returned on other nodes change the count.
+     *
+     * @param userId The ID of the user
+     * @return Number of active loans
+     */
+    public long activeLoanCount(Integer userId) {
+        return borrowRepository.countByUserIdAndReturnRequestStatusIn(userId, ACTIVE_STATUSES);
+    }
+
+    /**
+     * Records a new active loan.
+     *
+     * @param userId The ID of the user
+     * @param bookId The ID of the book
+     */
+    public synchronized void add(Integer userId, Integer bookId) {
+        activePairs.add(key(userId, bookId));
+    }
+
+    /**
+     * Removes a loan that has been returned.
+     *
+     * @param userId The ID of the user
+     * @param bookId The ID of the book
+     */
+    public synchronized void remove(Integer userId, Integer bookId) {
+        activePairs.remove(key(userId, bookId));
+    }
+
+    /**
+     * Gets the number of active loans in the index.
+     *
+     * @return Number of active loans
+     */
+    public synchronized int size() {
+        return activePairs.size();
+    }
+
+    private static long key(int userId, int bookId) {
+        return ((long) userId << 32) | (bookId & 0xFFFFFFFFL);
+    }
+}
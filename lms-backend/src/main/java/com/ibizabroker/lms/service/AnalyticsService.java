@@ -0,0 +1,117 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.BorrowSnapshotRepository;
+import com.ibizabroker.lms.enums.AnalyticsDimension;
+import com.ibizabroker.lms.util.BorrowSnapshot;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.ZoneId;
+import java.util.*;
+
+/**
+ * Service answering ad-hoc admin analytics from an in-memory columnar snapshot of the loans.
+ * The snapshot is read from the database in one streamed scan every few minutes and then
+ * queried without touching the database, so exploratory group-bys over the loan history
+ * put no load on the transactional workload. Results are as old as the snapshot, which is
+ * reported with every result.
+ *
+ * Each node keeps its own snapshot. The most recently issued loans are loaded, up to a
+ * configured maximum, which bounds the memory used.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class AnalyticsService {
+
+    /**
+     * Largest number of dimensions a query may group by.
+     */
+    private static final int MAX_DIMENSIONS = 3;
+
+    private final BorrowSnapshotRepository borrowSnapshotRepository;
+
+    /**
+     * Maximum number of loans kept in the snapshot.
+     */
+    private final int maxRows;
+
+    /**
+     * Current snapshot, or null until the first one has been read.
+     */
+    private volatile BorrowSnapshot snapshot;
+
+    /**
+     * Constructs a new AnalyticsService.
+     *
+     * @param borrowSnapshotRepository Repository reading the loans into a snapshot
+     * @param maxRows Maximum number of loans kept in the snapshot
+     */
+    public AnalyticsService(BorrowSnapshotRepository borrowSnapshotRepository,
+                            @Value("${lms.analytics.max-rows:5000000}") int maxRows) {
+        this.borrowSnapshotRepository = borrowSnapshotRepository;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Reads a new snapshot and replaces the current one. Runs every ten minutes by default.
+     */
+    @Scheduled(fixedDelayString = "${lms.analytics.refresh-interval-ms:600000}", initialDelay = 20000)
+    public void refresh() {
+        long start = System.currentTimeMillis();
+        BorrowSnapshot current = snapshot;
+        BorrowSnapshot.Builder builder = BorrowSnapshot.builder(current == null ? 1024 : current.size() + 1024);
+        Date takenAt = new Date();
+        int rows = borrowSnapshotRepository.readInto(maxRows, builder);
+        snapshot = builder.build(takenAt);
+        System.out.println("Analytics snapshot loaded " + rows + " loans in " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Groups the loans in the snapshot and aggregates each group.
+     *
+     * @param groupBy Names of the dimensions to group by, at most three
+     * @param from First issue date included, or null
+     * @param to Last issue date included, or null
+     * @param status Only loans with this return status if not null
+     * @param genre Only loans of books in this genre if not null
+     * @param limit Maximum number of groups returned, largest first
+     * @return Map containing snapshotAt, snapshotRows, elapsedMillis, matchedRows, groups and rows
+     * @throws IllegalArgumentException if a dimension is unknown or the query is too large
+     * @throws IllegalStateException if no snapshot has been read yet
+     */
+    public Map<String, Object> query(List<String> groupBy, Date from, Date to, String status, String genre, int limit) {
+        BorrowSnapshot current = snapshot;
+        if (current == null) {
+            throw new IllegalStateException("The analytics snapshot has not been loaded yet");
+        }
+        List<AnalyticsDimension> dimensions = new ArrayList<>();
+        for (String name : groupBy) {
+            if (name.trim().isEmpty()) {
+                continue;
+            }
+            AnalyticsDimension dimension = AnalyticsDimension.valueOf(name.trim().toUpperCase());
+            if (!dimensions.contains(dimension)) {
+                dimensions.add(dimension);
+            }
+        }
+        if (dimensions.size() > MAX_DIMENSIONS) {
+            throw new IllegalArgumentException("Group by at most " + MAX_DIMENSIONS + " dimensions");
+        }
+        long start = System.nanoTime();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("snapshotAt", current.getTakenAt());
+        result.put("snapshotRows", current.size());
+        Map<String, Object> groups = current.query(dimensions, epochDay(from), epochDay(to), status, genre, limit);
+        result.put("elapsedMillis", (System.nanoTime() - start) / 1000000.0);
+        result.putAll(groups);
+        return result;
+    }
+
+    private static Integer epochDay(Date date) {
+        return date == null ? null
+                : (int) date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+}
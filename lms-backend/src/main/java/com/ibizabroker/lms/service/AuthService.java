@@ -6,6 +6,7 @@ import com.ibizabroker.lms.entity.RegisterRequest;
 import com.ibizabroker.lms.entity.JwtResponse;
 import com.ibizabroker.lms.entity.Role;
 import com.ibizabroker.lms.entity.Users;
+import com.ibizabroker.lms.enums.DashboardMetric;
 import com.ibizabroker.lms.util.JwtUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
@@ -13,6 +14,7 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Collections;
 import java.util.Optional;
@@ -52,6 +54,18 @@ public class AuthService {
     @Autowired
     private JwtUtil jwtUtil;
 
+    /**
+     * Service recording opening balances in the ledger.
+     */
+    @Autowired
+    private LedgerService ledgerService;
+
+    /**
+     * In-memory counts shown on the admin dashboard.
+     */
+    @Autowired
+    private DashboardCounters dashboardCounters;
+
     /**
      * Registers a new user in the system.
      * This method performs the following operations:
@@ -61,10 +75,14 @@ public class AuthService {
      * 4. Assigns the default role and initial account balance
      * 5. Generates and returns a JWT token for immediate authentication
      *
+     * The user and its opening ledger entry are saved in one transaction, so a user
+     * never exists without an opening balance.
+     *
      * @param request The registration request containing user details
      * @return JwtResponse containing the new user details and JWT token
      * @throws IllegalArgumentException if the username is already taken
      */
+    @Transactional
     public JwtResponse registerUser(RegisterRequest request) {
         // Check if the user already exists
         Optional<Users> existingUser = usersRepository.findByUsername(request.getUsername());
@@ -90,6 +108,8 @@ public class AuthService {
         newUser.setAccountBalance(500.0);
         newUser.setAddress(request.getAddress());
         usersRepository.save(newUser);
+        ledgerService.openAccount(newUser.getUserId(), newUser.getAccountBalance());
+        dashboardCounters.add(DashboardMetric.TOTAL_USERS, 1);
 
         // Generate JWT Token without re-authenticating
         UserDetails userDetails = new User(
@@ -1,13 +1,41 @@
 package com.ibizabroker.lms.service;
+import com.ibizabroker.lms.dao.BooksRepository;
+import com.ibizabroker.lms.dao.BorrowBatchRepository;
 import com.ibizabroker.lms.dao.BorrowRepository;
+import com.ibizabroker.lms.dao.DailyRollupRepository;
+import com.ibizabroker.lms.dao.UsersRepository;
 
+import com.ibizabroker.lms.dto.BorrowFilter;
+import com.ibizabroker.lms.dto.ReturnBatchRequest;
+import com.ibizabroker.lms.dto.ReturnBatchResult;
+import com.ibizabroker.lms.entity.Books;
 import com.ibizabroker.lms.entity.Borrow;
+import com.ibizabroker.lms.entity.Users;
+import com.ibizabroker.lms.enums.LedgerEntryType;
+import com.ibizabroker.lms.enums.ReturnDecision;
 import com.ibizabroker.lms.enums.ReturnReqStatus;
+import com.ibizabroker.lms.exceptions.ConflictException;
+import com.ibizabroker.lms.exceptions.NotFoundException;
+import com.ibizabroker.lms.util.TransactionHooks;
 import lombok.RequiredArgsConstructor;
+import org.hibernate.annotations.QueryHints;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Service class responsible for managing book borrowing operations in the library system.
@@ -27,6 +55,112 @@ public class BorrowService {
     @Autowired
     private BorrowRepository borrowRepository;
 
+    /**
+     * Repository for performing database operations on users.
+     */
+    @Autowired
+    private UsersRepository usersRepository;
+
+    /**
+     * Repository for performing database operations on books.
+     */
+    @Autowired
+    private BooksRepository booksRepository;
+
+    /**
+     * Service managing hold queues for out-of-stock books.
+     */
+    @Autowired
+    private HoldQueueService holdQueueService;
+
+    /**
+     * Repository for batched updates on borrow records and book stock.
+     */
+    @Autowired
+    private BorrowBatchRepository borrowBatchRepository;
+
+    /**
+     * Repository for the daily borrowing rollup, updated with each loan and return.
+     */
+    @Autowired
+    private DailyRollupRepository dailyRollupRepository;
+
+    /**
+     * Service tracking loan duration percentiles, fed with each approved return.
+     */
+    @Autowired
+    private DurationDigestService durationDigestService;
+
+    /**
+     * Service estimating unique borrowers per book, genre and month, fed with each checkout.
+     */
+    @Autowired
+    private DistinctBorrowerService distinctBorrowerService;
+
+    /**
+     * Entity manager used for streaming borrow records through a database cursor.
+     */
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * In-memory index of active loans, consulted before querying the borrow table.
+     */
+    @Autowired
+    private ActiveLoanIndex activeLoanIndex;
+
+    /**
+     * Fires due-soon and overdue events for active loans.
+     */
+    @Autowired
+    private DueDateEventService dueDateEventService;
+
+    /**
+     * Records balance changes in the ledger.
+     */
+    @Autowired
+    private LedgerService ledgerService;
+
+    /**
+     * In-memory counts shown on the admin dashboard.
+     */
+    @Autowired
+    private DashboardCounters dashboardCounters;
+
+    /**
+     * Service serving the borrowing statistics, told about new loans so it can refresh early.
+     */
+    @Autowired
+    private StatisticsViewService statisticsViewService;
+
+    /**
+     * Service tracking the most borrowed books and most active users.
+     */
+    @Autowired
+    private TopBorrowedService topBorrowedService;
+
+    /**
+     * Service ranking books by recent borrowing.
+     */
+    @Autowired
+    private TrendingService trendingService;
+
+    /**
+     * Maximum number of books a user may hold at once; 0 disables the limit.
+     */
+    @Value("${lms.borrow.max-active-loans:0}")
+    private int maxActiveLoans;
+
+    /**
+     * Number of rows fetched from the database cursor per round trip when streaming.
+     */
+    private static final int STREAM_FETCH_SIZE = 500;
+
+    /**
+     * Fee charged for each checkout.
+     */
+    private static final double BORROW_FEE = 20;
+
     /**
      * Processes a book borrowing request.
      * Checks if the user has already borrowed the book and creates a new borrow record if not.
@@ -34,16 +168,16 @@ public class BorrowService {
      * @param userId The ID of the user borrowing the book
      * @param bookId The ID of the book being borrowed
      * @return Success message if the book is borrowed successfully
-     * @throws IllegalStateException if the user has already borrowed the book
+     * @throws IllegalStateException if the user has already borrowed the book or reached the loan limit
      */
     public String borrowBook(Integer userId, Integer bookId) {
         // Check if the user already has this book and has not returned it
-        List<ReturnReqStatus> activeStatuses = Arrays.asList(ReturnReqStatus.NONE, ReturnReqStatus.PENDING, ReturnReqStatus.REJECTED);
-        boolean alreadyBorrowed = borrowRepository.existsByUserIdAndBookIdAndReturnRequestStatusIn(userId, bookId, activeStatuses);
-
-        if (alreadyBorrowed) {
+        if (activeLoanIndex.isBorrowed(userId, bookId)) {
             throw new IllegalStateException("You have already borrowed this book and must return it before borrowing again.");
         }
+        if (hasReachedLoanLimit(userId)) {
+            throw new IllegalStateException("You have reached the limit of " + maxActiveLoans + " borrowed books.");
+        }
 
         // Proceed with borrowing the book
         Borrow borrow = new Borrow();
@@ -53,10 +187,305 @@ public class BorrowService {
         borrow.setDueDate(calculateDueDate());
         borrow.setReturnRequestStatus(ReturnReqStatus.PENDING);
 
-        borrowRepository.save(borrow);
+        try {
+            borrowRepository.saveAndFlush(borrow);
+        } catch (DataIntegrityViolationException e) {
+            // Another node recorded the same loan since the index was checked
+            throw new IllegalStateException("You have already borrowed this book and must return it before borrowing again.");
+        }
+        activeLoanIndex.add(userId, bookId);
+        dashboardCounters.loanChanged(borrow.getDueDate(), null, ReturnReqStatus.PENDING);
+        statisticsViewService.recordChange();
         return "Book borrowed successfully!";
     }
 
+    /**
+     * Checks out a copy of a book to a user.
+     * Verifies balance, existing loans and the loan limit, then takes a copy from stock,
+     * or the copy reserved for the user's ready hold, charges the borrowing fee and
+     * records the loan, all in one transaction.
+     *
+     * @param borrow The borrow request details (userId and bookId)
+     * @return String message indicating success or failure reason
+     * @throws NotFoundException if user or book is not found
+     * @throws ConflictException if another node recorded the same loan concurrently
+     */
+    @Transactional
+    public String checkout(Borrow borrow) {
+        Users user = usersRepository.findById(borrow.getUserId())
+                .orElseThrow(() -> new NotFoundException("User not found with ID: " + borrow.getUserId()));
+
+        Books book = booksRepository.findById(borrow.getBookId())
+                .orElseThrow(() -> new NotFoundException("Book not found with ID: " + borrow.getBookId()));
+
+        if (user.getAccountBalance() < BORROW_FEE) {
+            return "Insufficient balance. Please add funds.";
+        }
+        // Check if the user has already borrowed this book and not returned it
+        if (activeLoanIndex.isBorrowed(borrow.getUserId(), borrow.getBookId())) {
+            return "You have already borrowed this book and must return it before borrowing again.";
+        }
+
+        if (hasReachedLoanLimit(borrow.getUserId())) {
+            return "You have reached the limit of " + maxActiveLoans + " borrowed books.";
+        }
+
+        // A copy reserved for the user's hold is already out of stock
+        if (!holdQueueService.claimReadyHold(borrow.getUserId(), borrow.getBookId())) {
+            if (book.getNoOfCopies() < 1) {
+                return "The book \"" + book.getBookName() + "\" is out of stock!";
+            }
+
+            // Reduce the available copies
+            book.borrowBook();
+            booksRepository.save(book);
+        }
+
+        // Set issue and due dates
+        Date currentDate = new Date();
+        Calendar c = Calendar.getInstance();
+        c.setTime(currentDate);
+        c.add(Calendar.DATE, 7);
+        Date dueDate = c.getTime();
+
+        // Save borrow record
+        borrow.setIssueDate(currentDate);
+        borrow.setDueDate(dueDate);
+        borrow.setReturnRequestStatus(ReturnReqStatus.NONE);
+        borrow.setReturnStatus("BORROWED");
+        try {
+            borrowRepository.saveAndFlush(borrow);
+        } catch (DataIntegrityViolationException e) {
+            // Another node recorded the same loan since the index was checked; roll back the stock change
+            throw new ConflictException("You have already borrowed this book and must return it before borrowing again.");
+        }
+
+        // Deduct the fee atomically; a concurrent charge may have used the balance since it was read
+        if (!ledgerService.charge(user.getUserId(), BORROW_FEE, LedgerEntryType.BORROW_CHARGE, borrow.getBorrowId())) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return "Insufficient balance. Please add funds.";
+        }
+        dailyRollupRepository.addBorrow(currentDate, borrow.getBookId());
+        TransactionHooks.afterCommit(() -> {
+            activeLoanIndex.add(borrow.getUserId(), borrow.getBookId());
+            dueDateEventService.schedule(borrow.getBorrowId(), dueDate);
+            statisticsViewService.recordChange();
+            topBorrowedService.recordBorrow(user.getUsername(), book.getBookName());
+            trendingService.recordBorrow(borrow.getBookId());
+            distinctBorrowerService.recordBorrow(borrow.getUserId(), borrow.getBookId(), book.getBookGenre(), currentDate);
+        });
+        dashboardCounters.loanChanged(dueDate, null, ReturnReqStatus.NONE);
+
+        return user.getName() + " has borrowed one copy of \"" + book.getBookName() + "\"!";
+    }
+
+    /**
+     * Approves a book return request.
+     * The returned copy is reserved for the first waiting hold on the book if there is one,
+     * otherwise it goes back into stock, in the same transaction as the return.
+     *
+     * @param borrowId The ID of the borrow record to approve
+     * @return String message indicating success
+     * @throws NotFoundException if the borrow record or book is not found
+     */
+    @Transactional
+    public String approveReturn(Integer borrowId) {
+        Borrow borrow = borrowRepository.findById(borrowId)
+                .orElseThrow(() -> new NotFoundException("Borrow record not found"));
+        if (borrow.getReturnRequestStatus() == ReturnReqStatus.APPROVED) {
+            return "The book has already been returned.";
+        }
+        Books book = booksRepository.findById(borrow.getBookId())
+                .orElseThrow(() -> new NotFoundException("Book not found"));
+
+        if (holdQueueService.allocateReturnedCopies(book.getBookId(), 1) == 0) {
+            book.returnBook();
+            booksRepository.save(book);
+        }
+
+        ReturnReqStatus previousStatus = borrow.getReturnRequestStatus();
+        borrow.setReturnDate(new Date());
+        borrow.setReturnRequestStatus(ReturnReqStatus.APPROVED);
+        borrow.setReturnStatus("RETURNED");
+
+        borrowRepository.save(borrow);
+        dailyRollupRepository.addReturns(borrow.getReturnDate(), Collections.singletonMap(borrow.getBookId(), 1));
+        TransactionHooks.afterCommit(() -> {
+            activeLoanIndex.remove(borrow.getUserId(), borrow.getBookId());
+            dueDateEventService.cancel(borrowId);
+            durationDigestService.recordLoanDuration(borrow.getIssueDate(), borrow.getReturnDate(), book.getBookGenre());
+        });
+        dashboardCounters.loanChanged(borrow.getDueDate(), previousStatus, ReturnReqStatus.APPROVED);
+
+        return "Return request approved. The book has been returned.";
+    }
+
+    /**
+     * Checks whether the user already holds the maximum number of books allowed.
+     *
+     * @param userId The ID of the user
+     * @return true if the limit is enabled and reached
+     */
+    public boolean hasReachedLoanLimit(Integer userId) {
+        return maxActiveLoans > 0 && activeLoanIndex.activeLoanCount(userId) >= maxActiveLoans;
+    }
+
+    /**
+     * Gets the configured maximum number of books a user may hold at once.
+     *
+     * @return The loan limit, or 0 if unlimited
+     */
+    public int getMaxActiveLoans() {
+        return maxActiveLoans;
+    }
+
+    /**
+     * Approves or rejects a batch of return requests in a single transaction.
+     * Status changes are applied as one JDBC batch of conditional updates, and returned
+     * copies are added back to stock with one UPDATE per book rather than per loan.
+     * Records that are missing, already returned, or changed concurrently are reported
+     * individually and do not fail the batch.
+     *
+     * @param request The borrow IDs and the decision to apply
+     * @return One result per distinct borrow ID, in request order
+     */
+    @Transactional
+    public List<ReturnBatchResult> processReturnBatch(ReturnBatchRequest request) {
+        List<Integer> borrowIds = new ArrayList<>(new LinkedHashSet<>(request.getBorrowIds()));
+        Map<Integer, Borrow> borrows = new HashMap<>();
+        for (Borrow borrow : borrowRepository.findAllById(borrowIds)) {
+            borrows.put(borrow.getBorrowId(), borrow);
+        }
+
+        Map<Integer, ReturnBatchResult> results = new LinkedHashMap<>();
+        List<Integer> eligible = new ArrayList<>();
+        for (Integer borrowId : borrowIds) {
+            Borrow borrow = borrows.get(borrowId);
+            if (borrow == null) {
+                results.put(borrowId, new ReturnBatchResult(borrowId, "NOT_FOUND", "Borrow record not found"));
+            } else if (borrow.getReturnRequestStatus() == ReturnReqStatus.APPROVED) {
+                results.put(borrowId, new ReturnBatchResult(borrowId, "ALREADY_RETURNED", "The book has already been returned."));
+            } else {
+                results.put(borrowId, null);
+                eligible.add(borrowId);
+            }
+        }
+
+        boolean approve = request.getDecision() == ReturnDecision.APPROVE;
+        Date returnedAt = new Date();
+        int[] updated = eligible.isEmpty() ? new int[0]
+                : approve ? borrowBatchRepository.approveReturns(eligible, returnedAt)
+                : borrowBatchRepository.rejectReturns(eligible);
+
+        Map<Integer, Integer> returnedCopies = new HashMap<>();
+        List<Borrow> returned = new ArrayList<>();
+        for (int i = 0; i < eligible.size(); i++) {
+            Integer borrowId = eligible.get(i);
+            if (updated[i] == 0) {
+                results.put(borrowId, new ReturnBatchResult(borrowId, "CONFLICT", "The borrow record was updated concurrently."));
+                continue;
+            }
+            Borrow borrow = borrows.get(borrowId);
+            dashboardCounters.loanChanged(borrow.getDueDate(), borrow.getReturnRequestStatus(),
+                    approve ? ReturnReqStatus.APPROVED : ReturnReqStatus.REJECTED);
+            if (approve) {
+                returnedCopies.merge(borrow.getBookId(), 1, Integer::sum);
+                returned.add(borrow);
+                results.put(borrowId, new ReturnBatchResult(borrowId, "APPROVED", "Return request approved. The book has been returned."));
+            } else {
+                results.put(borrowId, new ReturnBatchResult(borrowId, "REJECTED", "Return request rejected."));
+            }
+        }
+        // Returned copies go to waiting holds first; only the remainder goes back into stock
+        Map<Integer, Integer> restockedCopies = new HashMap<>();
+        for (Map.Entry<Integer, Integer> entry : returnedCopies.entrySet()) {
+            int allocated = holdQueueService.allocateReturnedCopies(entry.getKey(), entry.getValue());
+            if (allocated < entry.getValue()) {
+                restockedCopies.put(entry.getKey(), entry.getValue() - allocated);
+            }
+        }
+        borrowBatchRepository.incrementCopies(restockedCopies);
+        dailyRollupRepository.addReturns(returnedAt, returnedCopies);
+
+        Map<Integer, String> genres = new HashMap<>();
+        if (!returned.isEmpty()) {
+            for (Books book : booksRepository.findAllById(returnedCopies.keySet())) {
+                genres.put(book.getBookId(), book.getBookGenre());
+            }
+        }
+
+        // Only drop loans from the index once the batch is durable
+        TransactionHooks.afterCommit(() -> {
+            for (Borrow borrow : returned) {
+                activeLoanIndex.remove(borrow.getUserId(), borrow.getBookId());
+                dueDateEventService.cancel(borrow.getBorrowId());
+                durationDigestService.recordLoanDuration(borrow.getIssueDate(), returnedAt, genres.get(borrow.getBookId()));
+            }
+        });
+        return new ArrayList<>(results.values());
+    }
+
+    /**
+     * Streams borrow records matching the given filter to a consumer, ordered by borrowId.
+     * Rows are read through a database cursor and detached once consumed, so memory use
+     * stays constant regardless of how many records match.
+     *
+     * @param filter The filter to apply; unset fields are ignored
+     * @param consumer Callback receiving each matching borrow record
+     * @return Number of records passed to the consumer
+     */
+    @Transactional(readOnly = true)
+    public long streamBorrows(BorrowFilter filter, Consumer<Borrow> consumer) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Borrow> cq = cb.createQuery(Borrow.class);
+        Root<Borrow> root = cq.from(Borrow.class);
+
+        List<Predicate> predicates = new ArrayList<>();
+        if (filter.getStatus() != null) {
+            predicates.add(cb.equal(root.get("returnStatus"), filter.getStatus()));
+        }
+        if (filter.getReturnRequestStatus() != null) {
+            predicates.add(cb.equal(root.get("returnRequestStatus"), filter.getReturnRequestStatus()));
+        }
+        if (filter.getUserId() != null) {
+            predicates.add(cb.equal(root.get("userId"), filter.getUserId()));
+        }
+        if (filter.getBookId() != null) {
+            predicates.add(cb.equal(root.get("bookId"), filter.getBookId()));
+        }
+        if (filter.getFrom() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(root.<Date>get("issueDate"), filter.getFrom()));
+        }
+        if (filter.getTo() != null) {
+            predicates.add(cb.lessThan(root.<Date>get("issueDate"), filter.getTo()));
+        }
+        if (filter.getAfter() != null) {
+            predicates.add(cb.greaterThan(root.<Integer>get("borrowId"), filter.getAfter()));
+        }
+        cq.select(root)
+                .where(predicates.toArray(new Predicate[0]))
+                .orderBy(cb.asc(root.get("borrowId")));
+
+        TypedQuery<Borrow> query = entityManager.createQuery(cq)
+                .setHint(QueryHints.FETCH_SIZE, STREAM_FETCH_SIZE)
+                .setHint(QueryHints.READ_ONLY, true);
+        if (filter.getLimit() != null) {
+            query.setMaxResults(filter.getLimit());
+        }
+
+        long count = 0;
+        try (Stream<Borrow> rows = query.getResultStream()) {
+            Iterator<Borrow> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                Borrow borrow = iterator.next();
+                consumer.accept(borrow);
+                entityManager.detach(borrow); // Keep the persistence context from growing
+                count++;
+            }
+        }
+        return count;
+    }
+
     /**
      * Calculates the due date for a borrowed book.
      * Sets the due date to 14 days from the current date.
@@ -0,0 +1,174 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.DailyRollupRepository;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that serves borrowing time series from the daily rollup table.
+ * Borrows, returns, overdues and fines are added to the row for their day and genre as they
+ * happen, so a chart over months or years reads a few hundred rollup rows instead of
+ * grouping the borrow table and the ledger.
+ *
+ * History that predates the rollup is filled in one month at a time from the source tables.
+ * At startup a gap-filling job compares each month's borrows and returns with the borrow
+ * table and rebuilds the months that differ, such as months before the rollup existed or
+ * only partly covered by it. A full backfill can be triggered from the jobs API to repair
+ * drift.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class DailyRollupService {
+
+    /**
+     * Name of the backfill job.
+     */
+    private static final String JOB_NAME = "daily-rollup-backfill";
+
+    /**
+     * Name of the job rebuilding only the months that do not match the borrow table.
+     */
+    private static final String GAPS_JOB_NAME = "daily-rollup-fill-gaps";
+
+    /**
+     * Widest range a single time series query may cover.
+     */
+    private static final long MAX_RANGE_DAYS = 3660;
+
+    private final DailyRollupRepository dailyRollupRepository;
+
+    private final ScheduledJobRunner scheduledJobRunner;
+
+    /**
+     * Transaction for each month rebuilt by the backfill.
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Constructs a new DailyRollupService.
+     *
+     * @param dailyRollupRepository Repository for the rollup rows
+     * @param scheduledJobRunner Runner for the backfill job
+     * @param transactionManager Transaction manager for the backfill chunks
+     */
+    public DailyRollupService(DailyRollupRepository dailyRollupRepository, ScheduledJobRunner scheduledJobRunner,
+                              PlatformTransactionManager transactionManager) {
+        this.dailyRollupRepository = dailyRollupRepository;
+        this.scheduledJobRunner = scheduledJobRunner;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Registers the backfill jobs with the runner so they can also be triggered manually.
+     */
+    @PostConstruct
+    public void registerJob() {
+        scheduledJobRunner.register(JOB_NAME, TimeUnit.HOURS.toMillis(1), this::backfill);
+        scheduledJobRunner.register(GAPS_JOB_NAME, TimeUnit.HOURS.toMillis(1), this::fillGaps);
+    }
+
+    /**
+     * Starts filling in the months missing from the rollup in the background, if there are loans.
+     */
+    public void load() {
+        if (dailyRollupRepository.findFirstIssueDate() != null) {
+            scheduledJobRunner.trigger(GAPS_JOB_NAME);
+        }
+    }
+
+    /**
+     * Rebuilds the months whose borrows or returns in the rollup differ from the borrow table,
+     * one month per transaction. Call through {@link ScheduledJobRunner}.
+     *
+     * @return Number of rollup rows written
+     */
+    public long fillGaps() {
+        List<Date> months = dailyRollupRepository.findIncompleteMonths();
+        long rows = 0;
+        for (Date month : months) {
+            Calendar cursor = startOfDay(month);
+            Date from = cursor.getTime();
+            cursor.add(Calendar.MONTH, 1);
+            Date to = cursor.getTime();
+            Integer written = transactionTemplate.execute(status -> dailyRollupRepository.rebuild(from, to));
+            rows += written == null ? 0 : written;
+        }
+        if (!months.isEmpty()) {
+            System.out.println("Daily rollup rebuilt " + months.size() + " incomplete months");
+        }
+        return rows;
+    }
+
+    /**
+     * Rebuilds the rollup from the first loan up to and including today, one month per
+     * transaction so that no single statement holds locks on the whole history.
+     * Call through {@link ScheduledJobRunner}.
+     *
+     * @return Number of rollup rows written
+     */
+    public long backfill() {
+        Date first = dailyRollupRepository.findFirstIssueDate();
+        if (first == null) {
+            return 0;
+        }
+        Calendar cursor = startOfDay(first);
+        cursor.set(Calendar.DAY_OF_MONTH, 1);
+        Calendar end = startOfDay(new Date());
+        end.add(Calendar.DAY_OF_MONTH, 1);
+        long rows = 0;
+        while (cursor.before(end)) {
+            Date from = cursor.getTime();
+            cursor.add(Calendar.MONTH, 1);
+            Date to = cursor.before(end) ? cursor.getTime() : end.getTime();
+            Integer written = transactionTemplate.execute(status -> dailyRollupRepository.rebuild(from, to));
+            rows += written == null ? 0 : written;
+        }
+        return rows;
+    }
+
+    /**
+     * Gets borrowing activity per period.
+     *
+     * @param from Inclusive first day
+     * @param to Inclusive last day
+     * @param granularity Period length: day, week, month, quarter or year
+     * @param genre Only this genre if not null
+     * @return List of maps containing period, borrows, returns, overdues and fines, ordered by period
+     * @throws IllegalArgumentException if the range or granularity is invalid
+     */
+    public List<Map<String, Object>> getTimeseries(Date from, Date to, String granularity, String genre) {
+        if (from == null || to == null || from.after(to)) {
+            throw new IllegalArgumentException("from must be on or before to");
+        }
+        if (TimeUnit.MILLISECONDS.toDays(to.getTime() - from.getTime()) > MAX_RANGE_DAYS) {
+            throw new IllegalArgumentException("Range must not exceed " + MAX_RANGE_DAYS + " days");
+        }
+        String period = granularity == null ? "day" : granularity.toLowerCase();
+        if (!DailyRollupRepository.GRANULARITIES.contains(period)) {
+            throw new IllegalArgumentException("granularity must be one of " + DailyRollupRepository.GRANULARITIES);
+        }
+        Calendar end = startOfDay(to);
+        end.add(Calendar.DAY_OF_MONTH, 1);
+        return dailyRollupRepository.sumByPeriod(period, startOfDay(from).getTime(), end.getTime(), genre);
+    }
+
+    private static Calendar startOfDay(Date date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar;
+    }
+}
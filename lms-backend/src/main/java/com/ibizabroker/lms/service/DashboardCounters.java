@@ -0,0 +1,288 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.DashboardCounterRepository;
+import com.ibizabroker.lms.entity.DashboardCounter;
+import com.ibizabroker.lms.enums.DashboardMetric;
+import com.ibizabroker.lms.enums.ReturnReqStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Service that keeps the dashboard summary counts in memory, so the summary is read
+ * without querying the database.
+ * The book, user, request, borrow and return paths report their changes here; each change
+ * is applied once its transaction commits. The counters are reconciled against the exact
+ * counts periodically, which corrects any drift, including changes made on other nodes and
+ * loans that became overdue as the date moved on. They are saved to the "dashboard_counters"
+ * table every minute and loaded from it at startup.
+ *
+ * Reconciliation takes the exact counts from one database snapshot and reads the counters
+ * at the moment that snapshot is taken. A transaction reporting changes holds a shared
+ * commit gate from just before it commits until its changes are applied, and the snapshot
+ * is taken under the exclusive side of the gate, so every change is either in both the
+ * snapshot and the counters or in neither, and is never counted twice.
+ *
+ * Until the counters have been loaded or reconciled, the summary falls back to exact counts.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class DashboardCounters {
+
+    /**
+     * Computes the exact counts used for reconciliation.
+     */
+    private final StatisticsSummaryService statisticsSummaryService;
+
+    /**
+     * Repository for the saved counter values.
+     */
+    private final DashboardCounterRepository dashboardCounterRepository;
+
+    /**
+     * Current value of each metric.
+     */
+    private final Map<DashboardMetric, LongAdder> counters = new EnumMap<>(DashboardMetric.class);
+
+    /**
+     * Incremented whenever a counter changes, so readers can tell whether anything happened.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Held shared by transactions from just before they commit until their changes are applied,
+     * and exclusively while reconciliation takes its snapshot.
+     */
+    private final ReadWriteLock commitGate = new ReentrantReadWriteLock();
+
+    /**
+     * Time of the last reconciliation, or null if none has run yet.
+     */
+    private volatile Date reconciledAt;
+
+    /**
+     * Whether every counter has a starting value, either loaded or reconciled.
+     */
+    private volatile boolean ready;
+
+    /**
+     * Constructs a new DashboardCounters.
+     *
+     * @param statisticsSummaryService Computes the exact counts used for reconciliation
+     * @param dashboardCounterRepository Repository for the saved counter values
+     */
+    public DashboardCounters(StatisticsSummaryService statisticsSummaryService,
+                             DashboardCounterRepository dashboardCounterRepository) {
+        this.statisticsSummaryService = statisticsSummaryService;
+        this.dashboardCounterRepository = dashboardCounterRepository;
+        for (DashboardMetric metric : DashboardMetric.values()) {
+            counters.put(metric, new LongAdder());
+        }
+    }
+
+    /**
+     * Loads the saved counter values. Changes reported before loading are kept.
+     */
+    public void load() {
+        Set<DashboardMetric> found = EnumSet.noneOf(DashboardMetric.class);
+        for (DashboardCounter saved : dashboardCounterRepository.findAll()) {
+            try {
+                DashboardMetric metric = DashboardMetric.valueOf(saved.getMetric());
+                counters.get(metric).add(saved.getValue());
+                found.add(metric);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Ignoring unknown dashboard counter " + saved.getMetric());
+            }
+        }
+        if (found.size() == counters.size()) {
+            ready = true;
+        }
+        System.out.println("Dashboard counters loaded: " + found.size() + " of " + counters.size() + " saved");
+    }
+
+    /**
+     * Adds to a counter once the current transaction commits, or immediately if no
+     * transaction is active.
+     *
+     * @param metric The metric to change
+     * @param delta Amount to add, negative to subtract
+     */
+    public void add(DashboardMetric metric, long delta) {
+        if (delta == 0) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(metric, delta);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            private boolean gated;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                commitGate.readLock().lock();
+                gated = true;
+            }
+
+            @Override
+            public void afterCommit() {
+                apply(metric, delta);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (gated) {
+                    gated = false;
+                    commitGate.readLock().unlock();
+                }
+            }
+        });
+    }
+
+    /**
+     * Updates the loan counters for a loan whose return request status changed.
+     *
+     * @param dueDate Due date of the loan
+     * @param before Status before the change, or null for a new loan
+     * @param after Status after the change
+     */
+    public void loanChanged(Date dueDate, ReturnReqStatus before, ReturnReqStatus after) {
+        boolean overdue = dueDate != null && dueDate.before(startOfToday());
+        add(DashboardMetric.BORROWED_BOOKS, unreturned(after) - unreturned(before));
+        add(DashboardMetric.RETURN_REQUESTS, pending(after) - pending(before));
+        if (overdue) {
+            add(DashboardMetric.OVERDUE_BOOKS, unreturned(after) - unreturned(before));
+        }
+    }
+
+    /**
+     * Gets the summary counts from the counters, or exact counts if the counters are not ready yet.
+     *
+     * @return Map of count per metric and the time of the last reconciliation
+     */
+    public Map<String, Object> getSummary() {
+        if (!ready) {
+            return statisticsSummaryService.getSummary(false);
+        }
+        Map<String, Object> stats = new HashMap<>();
+        for (Map.Entry<DashboardMetric, LongAdder> counter : counters.entrySet()) {
+            stats.put(counter.getKey().getKey(), counter.getValue().sum());
+        }
+        stats.put("reconciledAt", reconciledAt);
+        return stats;
+    }
+
+    /**
+     * Gets a number that changes whenever a counter changes, including through reconciliation.
+     *
+     * @return The current version of the counters
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * Corrects each counter to the exact count from the database.
+     * The counters are read at the moment the counts' snapshot is taken, so changes committed
+     * after the snapshot are kept and changes in it are not added twice. Skipped if no
+     * snapshot can be taken. Runs every five minutes by default.
+     */
+    @Scheduled(fixedDelayString = "${lms.dashboard.reconcile-interval-ms:300000}", initialDelay = 10000)
+    public void reconcile() {
+        Map<DashboardMetric, Long> before = new EnumMap<>(DashboardMetric.class);
+        Map<String, Object> exact = statisticsSummaryService.getSummaryAtSnapshot(commitGate.writeLock(), () -> {
+            for (Map.Entry<DashboardMetric, LongAdder> counter : counters.entrySet()) {
+                before.put(counter.getKey(), counter.getValue().sum());
+            }
+        });
+        if (before.isEmpty()) {
+            System.out.println("Dashboard counters not reconciled: no database snapshot could be taken");
+            return;
+        }
+
+        Map<String, Long> drift = new LinkedHashMap<>();
+        boolean complete = true;
+        for (DashboardMetric metric : DashboardMetric.values()) {
+            Object count = exact.get(metric.getKey());
+            if (!(count instanceof Long)) {
+                complete = false;
+                continue;
+            }
+            long difference = (Long) count - before.get(metric);
+            if (difference != 0) {
+                counters.get(metric).add(difference);
+                drift.put(metric.getKey(), difference);
+            }
+        }
+        if (!drift.isEmpty()) {
+            version.incrementAndGet();
+            System.out.println("Dashboard counters corrected by " + drift);
+        }
+        if (complete) {
+            reconciledAt = new Date();
+            ready = true;
+        }
+    }
+
+    /**
+     * Saves the counter values so they are available after a restart. Runs every minute by default.
+     */
+    @Scheduled(fixedDelayString = "${lms.dashboard.flush-interval-ms:60000}", initialDelay = 60000)
+    public void flush() {
+        if (!ready) {
+            return;
+        }
+        List<DashboardCounter> rows = new ArrayList<>();
+        for (Map.Entry<DashboardMetric, LongAdder> counter : counters.entrySet()) {
+            DashboardCounter row = new DashboardCounter();
+            row.setMetric(counter.getKey().name());
+            row.setValue(counter.getValue().sum());
+            rows.add(row);
+        }
+        dashboardCounterRepository.saveAll(rows);
+    }
+
+    /**
+     * Saves the counter values on shutdown.
+     */
+    @PreDestroy
+    public void close() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            System.out.println("Could not save dashboard counters on shutdown: " + e);
+        }
+    }
+
+    private void apply(DashboardMetric metric, long delta) {
+        counters.get(metric).add(delta);
+        version.incrementAndGet();
+    }
+
+    private static long unreturned(ReturnReqStatus status) {
+        return status != null && status != ReturnReqStatus.APPROVED ? 1 : 0;
+    }
+
+    private static long pending(ReturnReqStatus status) {
+        return status == ReturnReqStatus.PENDING ? 1 : 0;
+    }
+
+    private static Date startOfToday() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTime();
+    }
+}
@@ -0,0 +1,399 @@
+package com.ibizabroker.lms.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service that pushes live dashboard statistics to admin clients over Server-Sent Events.
+ * A new subscriber receives a "snapshot" event with the summary counts and the top-N lists.
+ * After that, once a second at most, it receives a "delta" event with only what changed:
+ * the summary counts that moved and any top-N list that is different. Checkouts, returns
+ * and book requests all move the dashboard counters, so nothing is recomputed while the
+ * counters are unchanged, and the work is the same for one subscriber or many.
+ *
+ * Each subscription is an asynchronous request, so no servlet thread is held while it is open.
+ * Subscriptions time out after a while and the browser's EventSource reconnects.
+ *
+ * Events are computed under this service's monitor but written by a small dedicated pool,
+ * never by the scheduler or under the monitor, so a slow client cannot hold up the other
+ * subscribers or the other scheduled jobs. Each subscriber has its own queue, written in
+ * order by at most one thread at a time. A subscriber whose write takes longer than the send
+ * timeout, or that falls too many events behind, is dropped; its EventSource reconnects and
+ * starts again from a snapshot.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class DashboardStreamService {
+
+    /**
+     * A comment is sent after this long without events, so proxies keep the connection open.
+     */
+    private static final long HEARTBEAT_MILLIS = 15000;
+
+    /**
+     * A subscriber with this many events waiting to be written is dropped.
+     */
+    private static final int MAX_PENDING_EVENTS = 16;
+
+    private final DashboardCounters dashboardCounters;
+
+    private final TopBorrowedService topBorrowedService;
+
+    private final TrendingService trendingService;
+
+    /**
+     * Open subscriptions.
+     */
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Threads writing events to subscribers.
+     */
+    private final ThreadPoolExecutor sender;
+
+    /**
+     * Time after which a subscription is closed, in milliseconds.
+     */
+    private final long timeoutMillis;
+
+    /**
+     * Maximum number of open subscriptions on this node.
+     */
+    private final int maxSubscribers;
+
+    /**
+     * Length of the top-N lists.
+     */
+    private final int topN;
+
+    /**
+     * Time a single write may take before its subscriber is dropped, in milliseconds.
+     */
+    private final long sendTimeoutMillis;
+
+    /**
+     * State last sent to subscribers, or null if there were none. Guarded by this service's monitor.
+     */
+    private Map<String, Object> lastState;
+
+    /**
+     * Counter version the last state was computed at. Guarded by this service's monitor.
+     */
+    private long lastVersion = -1;
+
+    /**
+     * Number of the last event sent. Guarded by this service's monitor.
+     */
+    private long eventId;
+
+    /**
+     * Time the last event or heartbeat was sent. Guarded by this service's monitor.
+     */
+    private long lastSentAt;
+
+    /**
+     * Constructs a new DashboardStreamService.
+     *
+     * @param dashboardCounters Source of the summary counts and of change notifications
+     * @param topBorrowedService Source of the most borrowed books and most active users
+     * @param trendingService Source of the trending books
+     * @param timeoutMillis Time after which a subscription is closed, in milliseconds
+     * @param maxSubscribers Maximum number of open subscriptions on this node
+     * @param topN Length of the top-N lists
+     * @param sendThreads Number of threads writing events to subscribers
+     * @param sendTimeoutMillis Time a single write may take before its subscriber is dropped, in milliseconds
+     */
+    public DashboardStreamService(DashboardCounters dashboardCounters, TopBorrowedService topBorrowedService,
+                                  TrendingService trendingService,
+                                  @Value("${lms.statistics.stream.timeout-ms:1800000}") long timeoutMillis,
+                                  @Value("${lms.statistics.stream.max-subscribers:200}") int maxSubscribers,
+                                  @Value("${lms.statistics.stream.top-n:10}") int topN,
+                                  @Value("${lms.statistics.stream.send-threads:2}") int sendThreads,
+                                  @Value("${lms.statistics.stream.send-timeout-ms:5000}") long sendTimeoutMillis) {
+        this.dashboardCounters = dashboardCounters;
+        this.topBorrowedService = topBorrowedService;
+        this.trendingService = trendingService;
+        this.timeoutMillis = timeoutMillis;
+        this.maxSubscribers = maxSubscribers;
+        this.topN = topN;
+        this.sendTimeoutMillis = sendTimeoutMillis;
+
+        // A subscriber has at most one task queued or running, so the queue never overflows
+        // while the subscriber limit holds
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.sender = new ThreadPoolExecutor(sendThreads, sendThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(maxSubscribers, 1)), runnable -> {
+                    Thread thread = new Thread(runnable, "dashboard-stream-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        sender.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Opens a subscription and queues the current state for it.
+     *
+     * @return The subscription, or null if this node has too many open subscriptions
+     */
+    public SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(timeoutMillis);
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        synchronized (this) {
+            if (subscribers.size() >= maxSubscribers) {
+                return null;
+            }
+            if (lastState == null) {
+                lastVersion = dashboardCounters.getVersion();
+                lastState = currentState();
+            }
+            // Queued under the monitor, so it is ahead of any delta computed after this state
+            subscribers.add(subscriber);
+            subscriber.offer(SseEmitter.event().id(Long.toString(eventId)).name("snapshot").data(lastState));
+        }
+        return emitter;
+    }
+
+    /**
+     * Sends the changes since the last event to every subscriber, or a heartbeat if nothing
+     * changed for a while. Runs every second, which caps the event rate. Subscribers whose
+     * current write has taken longer than the send timeout are dropped first.
+     */
+    @Scheduled(fixedRate = 1000)
+    public void publish() {
+        long now = System.currentTimeMillis();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.isStalled(now)) {
+                subscriber.drop(null);
+            }
+        }
+
+        SseEmitter.SseEventBuilder event;
+        List<Subscriber> recipients;
+        synchronized (this) {
+            if (subscribers.isEmpty()) {
+                lastState = null;
+                return;
+            }
+            event = nextEvent(now);
+            if (event == null) {
+                return;
+            }
+            recipients = new ArrayList<>(subscribers);
+        }
+        // A subscriber that joined after the snapshot above got the new state as its snapshot
+        for (Subscriber subscriber : recipients) {
+            subscriber.offer(event);
+        }
+    }
+
+    /**
+     * Gets the number of open subscriptions on this node.
+     *
+     * @return The number of subscribers
+     */
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Closes every subscription and stops the writers on shutdown.
+     */
+    @PreDestroy
+    public void close() {
+        sender.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.closed = true;
+            subscriber.emitter.complete();
+        }
+        subscribers.clear();
+    }
+
+    /**
+     * Computes the event to send now, if any, and records it as sent. Must be called under
+     * this service's monitor.
+     */
+    private SseEmitter.SseEventBuilder nextEvent(long now) {
+        long version = dashboardCounters.getVersion();
+        if (version != lastVersion) {
+            Map<String, Object> state = currentState();
+            Map<String, Object> delta = diff(lastState, state);
+            lastState = state;
+            lastVersion = version;
+            if (!delta.isEmpty()) {
+                lastSentAt = now;
+                return SseEmitter.event().id(Long.toString(++eventId)).name("delta").data(delta);
+            }
+        }
+        if (now - lastSentAt >= HEARTBEAT_MILLIS) {
+            lastSentAt = now;
+            return SseEmitter.event().comment("heartbeat");
+        }
+        return null;
+    }
+
+    private Map<String, Object> currentState() {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("summary", dashboardCounters.getSummary());
+        if (topBorrowedService.isReady()) {
+            int limit = Math.min(topN, topBorrowedService.getCapacity());
+            state.put("mostBorrowedBooks", topBorrowedService.getTopBooks(limit));
+            state.put("mostActiveUsers", topBorrowedService.getTopUsers(limit));
+        }
+        state.put("trending", trendingService.getTrending(topN));
+        return state;
+    }
+
+    /**
+     * Lists what differs between two states: changed entries of nested maps, and whole
+     * values otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> diff(Map<String, Object> before, Map<String, Object> after) {
+        Map<String, Object> delta = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : after.entrySet()) {
+            Object previous = before == null ? null : before.get(entry.getKey());
+            Object current = entry.getValue();
+            if (previous instanceof Map && current instanceof Map) {
+                Map<String, Object> changed = new LinkedHashMap<>();
+                for (Map.Entry<String, Object> field : ((Map<String, Object>) current).entrySet()) {
+                    if (!Objects.equals(((Map<String, Object>) previous).get(field.getKey()), field.getValue())) {
+                        changed.put(field.getKey(), field.getValue());
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    delta.put(entry.getKey(), changed);
+                }
+            } else if (!Objects.equals(previous, current)) {
+                delta.put(entry.getKey(), current);
+            }
+        }
+        return delta;
+    }
+
+    /**
+     * One subscription and the events waiting to be written to it, in the order they were
+     * offered. At most one pool task writes them at a time.
+     */
+    private final class Subscriber implements Runnable {
+
+        private final SseEmitter emitter;
+
+        private final Queue<SseEmitter.SseEventBuilder> pending = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger pendingCount = new AtomicInteger();
+
+        /**
+         * Whether a task writing this subscriber's events is queued or running.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        /**
+         * Time the write in progress started, or 0 if none is.
+         */
+        private volatile long sendingSince;
+
+        private volatile boolean closed;
+
+        /**
+         * Why the subscriber was dropped, or null if it timed out or fell behind.
+         */
+        private volatile Throwable closeCause;
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        void offer(SseEmitter.SseEventBuilder event) {
+            if (closed) {
+                return;
+            }
+            if (pendingCount.incrementAndGet() > MAX_PENDING_EVENTS) {
+                drop(null);
+                return;
+            }
+            pending.add(event);
+            schedule();
+        }
+
+        boolean isStalled(long now) {
+            long since = sendingSince;
+            return since != 0 && now - since > sendTimeoutMillis;
+        }
+
+        /**
+         * Stops sending to this subscriber. The emitter is completed by the writer task, once
+         * any write in progress returns, so the caller never waits on a slow client.
+         */
+        void drop(Throwable cause) {
+            if (closed) {
+                return;
+            }
+            closeCause = cause;
+            closed = true;
+            subscribers.remove(this);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!scheduled.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                sender.execute(this);
+            } catch (RejectedExecutionException e) {
+                // Pool shut down or saturated: give up on this subscriber, the container times it out
+                closed = true;
+                subscribers.remove(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                SseEmitter.SseEventBuilder event;
+                while (!closed && (event = pending.poll()) != null) {
+                    pendingCount.decrementAndGet();
+                    sendingSince = Math.max(System.currentTimeMillis(), 1);
+                    try {
+                        emitter.send(event);
+                    } catch (IOException | IllegalStateException e) {
+                        // Client went away; the container reports the completion asynchronously
+                        drop(e);
+                    } finally {
+                        sendingSince = 0;
+                    }
+                }
+                if (closed) {
+                    pending.clear();
+                    if (closeCause != null) {
+                        emitter.completeWithError(closeCause);
+                    } else {
+                        emitter.complete();
+                    }
+                    return;
+                }
+                scheduled.set(false);
+                // An event offered after the queue was seen empty but before the flag was cleared
+            } while (!pending.isEmpty() && scheduled.compareAndSet(false, true));
+        }
+    }
+}
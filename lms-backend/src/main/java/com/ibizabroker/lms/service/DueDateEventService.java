@@ -0,0 +1,267 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.BorrowRepository;
+import com.ibizabroker.lms.dao.JobCheckpointRepository;
+import com.ibizabroker.lms.entity.JobCheckpoint;
+import com.ibizabroker.lms.enums.ReminderType;
+import com.ibizabroker.lms.util.HierarchicalTimingWheel;
+import com.ibizabroker.lms.util.HierarchicalTimingWheel.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that fires loan due-date events at the time they happen instead of in one nightly scan.
+ * Every loan in "BORROWED" status has two timeouts in an in-memory hierarchical timing wheel:
+ * a "due soon" event shortly before its due date and an "overdue" event at its due date.
+ * Overdue events mark the loan OVERDUE and apply the fine straight away, spreading that work
+ * across the day; the nightly job remains as a safety net for anything missed. Both events
+ * send the matching reminder, which the reminder log keeps from being sent twice.
+ *
+ * The wheel is loaded from the borrow table at startup and kept up to date on checkout and
+ * return. The time up to which events have been fired is saved as a watermark, so "due soon"
+ * events are not repeated after a restart, while overdue loans are always caught up because
+ * fining only touches loans that are still BORROWED. Each node keeps its own wheel; fining is
+ * safe to repeat across nodes since the loan rows are locked and rechecked.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class DueDateEventService {
+
+    /**
+     * Name of the checkpoint that stores the watermark.
+     */
+    private static final String WATERMARK_NAME = "due-date-events";
+
+    /**
+     * Wheel resolution: events fire within a minute of their time.
+     */
+    private static final long TICK_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Slots per wheel level: 60 minutes, then 60 hours, then 150 days.
+     */
+    private static final int WHEEL_SIZE = 60;
+
+    /**
+     * Repository for loading active loans.
+     */
+    private final BorrowRepository borrowRepository;
+
+    /**
+     * Repository for the watermark.
+     */
+    private final JobCheckpointRepository jobCheckpointRepository;
+
+    /**
+     * Applies fines to loans that become overdue.
+     */
+    private final OverdueBookScheduler overdueBookScheduler;
+
+    /**
+     * Sends due-soon and overdue reminders.
+     */
+    private final ReminderService reminderService;
+
+    /**
+     * How long before the due date the "due soon" event fires, in milliseconds.
+     */
+    private final long dueSoonMillis;
+
+    /**
+     * Pending due-date events.
+     */
+    private final HierarchicalTimingWheel<DueEvent> wheel;
+
+    /**
+     * Pending timeouts per borrow ID, so they can be cancelled on return.
+     */
+    private final Map<Integer, LoanTimeouts> timeoutsByBorrow = new HashMap<>();
+
+    /**
+     * Whether the wheel has been loaded from the database.
+     */
+    private boolean loaded;
+
+    /**
+     * Constructs a new DueDateEventService.
+     *
+     * @param borrowRepository Repository for loading active loans
+     * @param jobCheckpointRepository Repository for the watermark
+     * @param overdueBookScheduler Applies fines to loans that become overdue
+     * @param reminderService Sends due-soon and overdue reminders
+     * @param dueSoonHours How many hours before the due date the "due soon" event fires
+     */
+    public DueDateEventService(BorrowRepository borrowRepository, JobCheckpointRepository jobCheckpointRepository,
+                               OverdueBookScheduler overdueBookScheduler, ReminderService reminderService,
+                               @Value("${lms.due-events.due-soon-hours:24}") long dueSoonHours) {
+        this.borrowRepository = borrowRepository;
+        this.jobCheckpointRepository = jobCheckpointRepository;
+        this.overdueBookScheduler = overdueBookScheduler;
+        this.reminderService = reminderService;
+        this.dueSoonMillis = TimeUnit.HOURS.toMillis(dueSoonHours);
+        this.wheel = new HierarchicalTimingWheel<>(TICK_MILLIS, WHEEL_SIZE, System.currentTimeMillis());
+    }
+
+    /**
+     * Loads the due dates of all borrowed loans into the wheel.
+     * Loans already past their due date fire on the next tick.
+     */
+    public synchronized void load() {
+        long watermark = jobCheckpointRepository.findById(WATERMARK_NAME)
+                .map(JobCheckpoint::getLastKey)
+                .orElse(0L);
+        long now = System.currentTimeMillis();
+        for (Object[] row : borrowRepository.findBorrowedDueDates()) {
+            add((Integer) row[0], ((Date) row[1]).getTime(), watermark, now);
+        }
+        loaded = true;
+        System.out.println("Due-date wheel loaded with " + wheel.size() + " events");
+    }
+
+    /**
+     * Schedules the events of a new loan. Call after the loan has been committed.
+     *
+     * @param borrowId The ID of the borrow record
+     * @param dueDate The due date of the loan
+     */
+    public synchronized void schedule(Integer borrowId, Date dueDate) {
+        cancel(borrowId);
+        long now = System.currentTimeMillis();
+        add(borrowId, dueDate.getTime(), now, now);
+    }
+
+    /**
+     * Cancels the pending events of a loan, for example when it is returned.
+     *
+     * @param borrowId The ID of the borrow record
+     */
+    public synchronized void cancel(Integer borrowId) {
+        LoanTimeouts timeouts = timeoutsByBorrow.remove(borrowId);
+        if (timeouts != null) {
+            if (timeouts.dueSoon != null) {
+                wheel.cancel(timeouts.dueSoon);
+            }
+            wheel.cancel(timeouts.overdue);
+        }
+    }
+
+    /**
+     * Gets the number of pending events.
+     *
+     * @return Number of pending events
+     */
+    public synchronized int pendingEvents() {
+        return wheel.size();
+    }
+
+    /**
+     * Advances the wheel and handles the events that are due.
+     * Runs every minute.
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void tick() {
+        long now = System.currentTimeMillis();
+        List<DueEvent> fired;
+        synchronized (this) {
+            if (!loaded) {
+                return;
+            }
+            fired = wheel.advanceTo(now);
+            for (DueEvent event : fired) {
+                LoanTimeouts timeouts = timeoutsByBorrow.get(event.borrowId);
+                if (timeouts == null) {
+                    continue;
+                }
+                if (event.overdue) {
+                    timeoutsByBorrow.remove(event.borrowId);
+                } else {
+                    timeouts.dueSoon = null;
+                }
+            }
+        }
+        if (fired.isEmpty()) {
+            return;
+        }
+
+        List<Integer> overdue = new ArrayList<>();
+        List<Integer> dueSoon = new ArrayList<>();
+        for (DueEvent event : fired) {
+            (event.overdue ? overdue : dueSoon).add(event.borrowId);
+        }
+        if (!overdue.isEmpty()) {
+            try {
+                int fined = overdueBookScheduler.fineLoans(overdue, new Date(now));
+                System.out.println("Due-date wheel: " + overdue.size() + " loans fell due, " + fined + " fined");
+            } catch (RuntimeException e) {
+                System.out.println("Due-date wheel could not fine " + overdue.size() + " loans, leaving them to the nightly job: " + e);
+            }
+        }
+        sendReminders(dueSoon, ReminderType.DUE_SOON);
+        sendReminders(overdue, ReminderType.OVERDUE);
+        saveWatermark(now);
+    }
+
+    /**
+     * Adds a loan's events, skipping a "due soon" event that was already fired before the watermark.
+     * Callers must hold this service's monitor.
+     */
+    private void add(Integer borrowId, long dueDate, long watermark, long now) {
+        LoanTimeouts timeouts = new LoanTimeouts();
+        long dueSoonAt = dueDate - dueSoonMillis;
+        if (dueSoonAt > watermark && dueDate > now) {
+            timeouts.dueSoon = wheel.add(dueSoonAt, new DueEvent(borrowId, false));
+        }
+        timeouts.overdue = wheel.add(dueDate, new DueEvent(borrowId, true));
+        timeoutsByBorrow.put(borrowId, timeouts);
+    }
+
+    /**
+     * Sends reminders for fired events; any that fail are left to the daily reminder job.
+     */
+    private void sendReminders(List<Integer> borrowIds, ReminderType type) {
+        if (borrowIds.isEmpty()) {
+            return;
+        }
+        try {
+            reminderService.sendReminders(borrowIds, type);
+        } catch (RuntimeException e) {
+            System.out.println("Due-date wheel could not send " + type + " reminders, leaving them to the reminder job: " + e);
+        }
+    }
+
+    private void saveWatermark(long now) {
+        JobCheckpoint checkpoint = jobCheckpointRepository.findById(WATERMARK_NAME).orElseGet(JobCheckpoint::new);
+        checkpoint.setJobName(WATERMARK_NAME);
+        checkpoint.setRunCutoff(new Date(now));
+        checkpoint.setLastKey(Math.max(checkpoint.getLastKey(), now));
+        checkpoint.setStatus("RUNNING");
+        jobCheckpointRepository.save(checkpoint);
+    }
+
+    /**
+     * A due-date event of one loan.
+     */
+    private static final class DueEvent {
+        private final int borrowId;
+        private final boolean overdue;
+
+        private DueEvent(int borrowId, boolean overdue) {
+            this.borrowId = borrowId;
+            this.overdue = overdue;
+        }
+    }
+
+    /**
+     * Pending timeouts of one loan.
+     */
+    private static final class LoanTimeouts {
+        private Timeout<DueEvent> dueSoon;
+        private Timeout<DueEvent> overdue;
+    }
+}
@@ -0,0 +1,388 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.DurationDigestRepository;
+import com.ibizabroker.lms.enums.DurationMetric;
+import com.ibizabroker.lms.util.TDigest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that reports percentiles of loan durations and overdue ages, overall and per genre.
+ * Each distribution is summarized by a t-digest, which answers p50, p90 and p99 within a
+ * fraction of a percent of rank from a few hundred bytes, where the exact answer would
+ * need every loan read and sorted.
+ *
+ * Loan durations are recorded as returns are approved. Each node collects them in pending
+ * digests, one set per minute of return time, and merges each minute into the saved digests
+ * a minute after it ends; digests are mergeable, so the saved ones combine the samples of
+ * every node. A rebuild job recomputes them from the borrow table; it runs at startup when
+ * none are saved. Overdue ages describe the loans that are overdue right now, so they are
+ * recomputed by the nightly overdue job.
+ *
+ * A rebuild counts the returns before a minute boundary and records it as its cutoff. Minutes
+ * before the cutoff that are still pending on any node are then dropped instead of merged, and
+ * minutes after it are merged as usual, so no return is counted twice. Because a minute is
+ * only merged once it has settled, every minute already merged when the rebuild starts lies
+ * before its cutoff and is counted by it.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class DurationDigestService {
+
+    /**
+     * Genre under which the digests of all genres together are kept.
+     */
+    public static final String ALL_GENRES = "*";
+
+    /**
+     * Name of the job rebuilding the loan duration digests.
+     */
+    private static final String JOB_NAME = "loan-duration-digests";
+
+    /**
+     * Length of one day in milliseconds; durations are reported in days.
+     */
+    private static final double DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Length of the periods of return time the pending samples are grouped in.
+     */
+    private static final long PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Time after the end of a period before it is merged, and before now that a rebuild's
+     * cutoff lies. Returns are assumed to commit, and node clocks to agree, within it.
+     */
+    private static final long SETTLE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final DurationDigestRepository durationDigestRepository;
+
+    private final ScheduledJobRunner scheduledJobRunner;
+
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Compression of the digests; higher is more accurate and larger.
+     */
+    private final double compression;
+
+    /**
+     * Saved digests per metric and genre, as last loaded. Guarded by this service's monitor.
+     */
+    private final Map<DurationMetric, Map<String, TDigest>> saved = new EnumMap<>(DurationMetric.class);
+
+    /**
+     * Loan durations recorded on this node and not yet merged, per period of return time.
+     * Guarded by this service's monitor.
+     */
+    private final NavigableMap<Long, Map<String, TDigest>> pending = new TreeMap<>();
+
+    /**
+     * Loan durations being merged by a flush in progress, or null. Guarded by this service's monitor.
+     */
+    private NavigableMap<Long, Map<String, TDigest>> flushing;
+
+    /**
+     * Cutoff of the last loan duration rebuild, as last loaded; pending periods before it
+     * are already counted in the saved digests. Guarded by this service's monitor.
+     */
+    private long rebuiltThrough = Long.MIN_VALUE;
+
+    /**
+     * Constructs a new DurationDigestService.
+     *
+     * @param durationDigestRepository Repository for the saved digests
+     * @param scheduledJobRunner Runner for the rebuild job
+     * @param transactionManager Transaction manager for the rebuild
+     * @param compression Compression of the digests
+     */
+    public DurationDigestService(DurationDigestRepository durationDigestRepository, ScheduledJobRunner scheduledJobRunner,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${lms.statistics.digest.compression:100}") double compression) {
+        this.durationDigestRepository = durationDigestRepository;
+        this.scheduledJobRunner = scheduledJobRunner;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.compression = compression;
+        for (DurationMetric metric : DurationMetric.values()) {
+            saved.put(metric, new HashMap<>());
+        }
+    }
+
+    /**
+     * Registers the rebuild job with the runner so it can also be triggered manually.
+     */
+    @PostConstruct
+    public void registerJob() {
+        scheduledJobRunner.register(JOB_NAME, TimeUnit.HOURS.toMillis(1), this::rebuildLoanDurations);
+    }
+
+    /**
+     * Loads the saved digests, and starts the rebuild job in the background if there are
+     * returned loans but no saved loan durations.
+     */
+    public void load() {
+        reload();
+        boolean empty;
+        synchronized (this) {
+            empty = saved.get(DurationMetric.LOAN_DURATION).isEmpty();
+        }
+        if (empty && durationDigestRepository.hasReturnedLoans()) {
+            System.out.println("No loan duration digests saved, starting rebuild");
+            scheduledJobRunner.trigger(JOB_NAME);
+        }
+    }
+
+    /**
+     * Records the duration of a returned loan. Call after the return has been committed.
+     *
+     * @param issueDate Time the loan was issued
+     * @param returnDate Time the return was approved
+     * @param genre Genre of the book, or null if it has none
+     */
+    public void recordLoanDuration(Date issueDate, Date returnDate, String genre) {
+        if (issueDate == null || returnDate == null || returnDate.before(issueDate)) {
+            return;
+        }
+        double days = (returnDate.getTime() - issueDate.getTime()) / DAY_MILLIS;
+        long period = periodStart(returnDate.getTime());
+        synchronized (this) {
+            add(pending.computeIfAbsent(period, p -> new HashMap<>()), genre == null ? "" : genre, days);
+        }
+    }
+
+    /**
+     * Merges the settled loan durations recorded on this node into the saved digests, then
+     * reloads them to pick up those of other nodes. Runs every minute by default.
+     */
+    @Scheduled(fixedDelayString = "${lms.statistics.digest.flush-interval-ms:60000}", initialDelay = 60000)
+    public void flush() {
+        flush(periodStart(System.currentTimeMillis() - SETTLE_MILLIS));
+    }
+
+    /**
+     * Saves every pending loan duration on shutdown. Periods that have not settled are
+     * merged too; the next rebuild moves its cutoff past them so they are not lost.
+     */
+    @PreDestroy
+    public void close() {
+        try {
+            flush(Long.MAX_VALUE);
+        } catch (RuntimeException e) {
+            System.out.println("Could not save loan duration digests on shutdown: " + e);
+        }
+    }
+
+    /**
+     * Recomputes the loan duration digests from every loan returned before the cutoff, a
+     * settled minute boundary or the end of the latest merged period if that is later.
+     * Merges wait for it, and afterwards drop pending periods before the cutoff.
+     * Call through {@link ScheduledJobRunner}.
+     *
+     * @return Number of loans read
+     */
+    public long rebuildLoanDurations() {
+        Map<String, TDigest> digests = new HashMap<>();
+        transactionTemplate.execute(status -> {
+            durationDigestRepository.lock();
+            long cutoff = periodStart(System.currentTimeMillis() - SETTLE_MILLIS);
+            Date mergedThrough = durationDigestRepository.findMergedThrough(DurationMetric.LOAN_DURATION);
+            if (mergedThrough != null) {
+                cutoff = Math.max(cutoff, mergedThrough.getTime());
+            }
+            Date rebuiltThrough = new Date(cutoff);
+            durationDigestRepository.forEachLoanDuration(rebuiltThrough, (genre, days) -> add(digests, genre, days));
+            durationDigestRepository.replace(DurationMetric.LOAN_DURATION, digests, rebuiltThrough);
+            return null;
+        });
+        reload();
+        return count(digests);
+    }
+
+    /**
+     * Recomputes the overdue age digests from the loans that are overdue now.
+     * Called by the overdue job after it has marked the day's overdue loans.
+     *
+     * @param now Time the ages are measured at
+     * @return Number of overdue loans read
+     */
+    public long rebuildOverdueAges(Date now) {
+        Map<String, TDigest> digests = new HashMap<>();
+        durationDigestRepository.forEachOverdueAge(now, (genre, days) -> add(digests, genre, days));
+        durationDigestRepository.replace(DurationMetric.OVERDUE_AGE, digests, null);
+        reload();
+        return count(digests);
+    }
+
+    /**
+     * Gets the percentiles of a metric.
+     *
+     * @param metric The metric
+     * @param genre The genre, or null for all genres
+     * @return Map containing metric, genre, count, min, p50, p90, p99 and max in days; the values are null if there are no samples
+     */
+    public Map<String, Object> getPercentiles(DurationMetric metric, String genre) {
+        String key = genre == null ? ALL_GENRES : genre;
+        TDigest digest = combined(metric, key);
+        return toRow(metric, key, digest);
+    }
+
+    /**
+     * Gets the percentiles of a metric for each genre.
+     *
+     * @param metric The metric
+     * @return List of maps as returned by {@link #getPercentiles}, one per genre, ordered by genre
+     */
+    public List<Map<String, Object>> getPercentilesByGenre(DurationMetric metric) {
+        Set<String> genres = new TreeSet<>();
+        synchronized (this) {
+            genres.addAll(saved.get(metric).keySet());
+            if (metric == DurationMetric.LOAN_DURATION) {
+                for (Map<String, TDigest> period : unsaved()) {
+                    genres.addAll(period.keySet());
+                }
+            }
+        }
+        genres.remove(ALL_GENRES);
+        List<Map<String, Object>> rows = new ArrayList<>(genres.size());
+        for (String genre : genres) {
+            rows.add(toRow(metric, genre, combined(metric, genre)));
+        }
+        return rows;
+    }
+
+    /**
+     * Merges the pending periods that start before a time, keeping them for the next flush
+     * if the merge fails or a rebuild is running.
+     */
+    private void flush(long before) {
+        NavigableMap<Long, Map<String, TDigest>> toMerge;
+        synchronized (this) {
+            NavigableMap<Long, Map<String, TDigest>> due = pending.headMap(before, false);
+            toMerge = new TreeMap<>(due);
+            due.clear();
+            flushing = toMerge;
+        }
+        try {
+            if (!toMerge.isEmpty()
+                    && !durationDigestRepository.merge(DurationMetric.LOAN_DURATION, toMerge, PERIOD_MILLIS, compression)) {
+                System.out.println("Loan duration digests are being rebuilt, keeping samples for the next flush");
+                restore(toMerge);
+            }
+            reload();
+        } catch (RuntimeException e) {
+            restore(toMerge);
+            throw e;
+        } finally {
+            synchronized (this) {
+                flushing = null;
+            }
+        }
+    }
+
+    /**
+     * Puts periods that could not be merged back with the pending ones.
+     */
+    private synchronized void restore(NavigableMap<Long, Map<String, TDigest>> periods) {
+        for (Map.Entry<Long, Map<String, TDigest>> period : periods.entrySet()) {
+            Map<String, TDigest> target = pending.computeIfAbsent(period.getKey(), p -> new HashMap<>());
+            for (Map.Entry<String, TDigest> digest : period.getValue().entrySet()) {
+                target.computeIfAbsent(digest.getKey(), genre -> new TDigest(compression)).add(digest.getValue());
+            }
+        }
+    }
+
+    /**
+     * Reads the saved digests of every metric, and discards pending periods that a rebuild
+     * has counted since.
+     */
+    private void reload() {
+        Map<DurationMetric, Map<String, TDigest>> loaded = new EnumMap<>(DurationMetric.class);
+        for (DurationMetric metric : DurationMetric.values()) {
+            loaded.put(metric, durationDigestRepository.findByMetric(metric));
+        }
+        Date cutoff = durationDigestRepository.findRebuiltThrough(DurationMetric.LOAN_DURATION);
+        synchronized (this) {
+            saved.putAll(loaded);
+            rebuiltThrough = cutoff == null ? Long.MIN_VALUE : cutoff.getTime();
+            pending.headMap(rebuiltThrough, false).clear();
+        }
+    }
+
+    /**
+     * Lists the pending and flushing periods not counted by the last rebuild. Must be called
+     * under this service's monitor.
+     */
+    private List<Map<String, TDigest>> unsaved() {
+        List<Map<String, TDigest>> periods = new ArrayList<>(pending.tailMap(rebuiltThrough, true).values());
+        if (flushing != null) {
+            periods.addAll(flushing.tailMap(rebuiltThrough, true).values());
+        }
+        return periods;
+    }
+
+    /**
+     * Combines the saved digest with the samples not yet saved.
+     */
+    private synchronized TDigest combined(DurationMetric metric, String genre) {
+        TDigest digest = new TDigest(compression);
+        Map<String, TDigest> savedDigests = saved.get(metric);
+        if (savedDigests != null && savedDigests.containsKey(genre)) {
+            digest.add(savedDigests.get(genre));
+        }
+        if (metric == DurationMetric.LOAN_DURATION) {
+            for (Map<String, TDigest> period : unsaved()) {
+                if (period.containsKey(genre)) {
+                    digest.add(period.get(genre));
+                }
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Adds a sample to the digest of its genre and to the digest of all genres.
+     */
+    private void add(Map<String, TDigest> digests, String genre, double days) {
+        digests.computeIfAbsent(genre, g -> new TDigest(compression)).add(days);
+        digests.computeIfAbsent(ALL_GENRES, g -> new TDigest(compression)).add(days);
+    }
+
+    private static long periodStart(long millis) {
+        return Math.floorDiv(millis, PERIOD_MILLIS) * PERIOD_MILLIS;
+    }
+
+    private static long count(Map<String, TDigest> digests) {
+        TDigest all = digests.get(ALL_GENRES);
+        return all == null ? 0 : all.size();
+    }
+
+    private static Map<String, Object> toRow(DurationMetric metric, String genre, TDigest digest) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("metric", metric.name());
+        row.put("genre", ALL_GENRES.equals(genre) ? null : genre);
+        row.put("count", digest.size());
+        row.put("min", days(digest.getMin()));
+        row.put("p50", days(digest.quantile(0.5)));
+        row.put("p90", days(digest.quantile(0.9)));
+        row.put("p99", days(digest.quantile(0.99)));
+        row.put("max", days(digest.getMax()));
+        return row;
+    }
+
+    /**
+     * Rounds a duration to hundredths of a day, or null if there were no samples.
+     */
+    private static Double days(double value) {
+        return Double.isNaN(value) ? null : Math.round(value * 100) / 100.0;
+    }
+}
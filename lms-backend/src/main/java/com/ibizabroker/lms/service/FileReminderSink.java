@@ -0,0 +1,89 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dto.Reminder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reminder sink that appends reminders to a file, one tab-separated line per reminder.
+ * Lines are buffered and written out when each batch is flushed.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+@ConditionalOnProperty(name = "lms.reminders.sink", havingValue = "file")
+public class FileReminderSink implements ReminderSink {
+
+    /**
+     * File the reminders are appended to.
+     */
+    private final Path file;
+
+    /**
+     * Writer for the current batch, opened lazily.
+     */
+    private BufferedWriter writer;
+
+    /**
+     * Constructs a new FileReminderSink.
+     *
+     * @param file Path of the file the reminders are appended to
+     */
+    public FileReminderSink(@Value("${lms.reminders.file:reminders.log}") String file) {
+        this.file = Paths.get(file);
+    }
+
+    /**
+     * Buffers one reminder line.
+     *
+     * @param reminder The reminder to deliver
+     * @throws IOException if the file cannot be opened or written
+     */
+    @Override
+    public synchronized void send(Reminder reminder) throws IOException {
+        if (writer == null) {
+            writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+        writer.write(reminder.getType() + "\t" + reminder.getBorrowId() + "\t" + reminder.getUsername() + "\t"
+                + reminder.getMessage());
+        writer.newLine();
+    }
+
+    /**
+     * Writes the buffered lines to the file and closes it.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (writer != null) {
+            try {
+                writer.close();
+            } finally {
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * Writes out anything still buffered when the application shuts down.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        flush();
+    }
+}
@@ -0,0 +1,253 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.BookHoldRepository;
+import com.ibizabroker.lms.dao.BooksRepository;
+import com.ibizabroker.lms.dao.BorrowBatchRepository;
+import com.ibizabroker.lms.dao.UsersRepository;
+import com.ibizabroker.lms.entity.BookHold;
+import com.ibizabroker.lms.entity.Books;
+import com.ibizabroker.lms.enums.HoldStatus;
+import com.ibizabroker.lms.exceptions.NotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service class managing hold queues for out-of-stock books.
+ * Patrons place a hold instead of retrying checkout; when a copy is returned it is
+ * reserved for the head of the book's queue in the same transaction as the return,
+ * and the patron has until the pickup deadline to borrow it.
+ *
+ * Holds are stored in the "book_holds" table, which is the only copy of the queues, so
+ * holds placed or cancelled on any node are seen by every other. Returned copies are given
+ * to the head of the queue read under row locks (idx_book_holds_queue serves the read), and
+ * every status change locks the hold it changes, so concurrent returns, cancellations,
+ * checkouts and expiries of the same hold are serialized by the database, book by book,
+ * without any lock in this process.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class HoldQueueService {
+
+    /**
+     * Hold statuses that still occupy a place in line or a reserved copy.
+     */
+    private static final List<HoldStatus> OPEN_STATUSES = Arrays.asList(HoldStatus.WAITING, HoldStatus.READY);
+
+    private final BookHoldRepository bookHoldRepository;
+
+    private final BooksRepository booksRepository;
+
+    private final UsersRepository usersRepository;
+
+    private final BorrowBatchRepository borrowBatchRepository;
+
+    private final ActiveLoanIndex activeLoanIndex;
+
+    /**
+     * How long a reserved copy is held for pickup, in milliseconds.
+     */
+    private final long pickupMillis;
+
+    /**
+     * Constructs a new HoldQueueService.
+     *
+     * @param bookHoldRepository Repository for hold records
+     * @param booksRepository Repository for books
+     * @param usersRepository Repository for users
+     * @param borrowBatchRepository Repository for stock updates
+     * @param activeLoanIndex Index of active loans
+     * @param pickupDays Number of days a reserved copy is held for pickup
+     */
+    public HoldQueueService(BookHoldRepository bookHoldRepository, BooksRepository booksRepository,
+                            UsersRepository usersRepository, BorrowBatchRepository borrowBatchRepository,
+                            ActiveLoanIndex activeLoanIndex,
+                            @Value("${lms.holds.pickup-days:3}") long pickupDays) {
+        this.bookHoldRepository = bookHoldRepository;
+        this.booksRepository = booksRepository;
+        this.usersRepository = usersRepository;
+        this.borrowBatchRepository = borrowBatchRepository;
+        this.activeLoanIndex = activeLoanIndex;
+        this.pickupMillis = TimeUnit.DAYS.toMillis(pickupDays);
+    }
+
+    /**
+     * Places a hold on a book that is currently out of stock.
+     *
+     * @param userId The ID of the user placing the hold
+     * @param bookId The ID of the book
+     * @param priority Queue priority; higher values are served first
+     * @return The saved hold
+     * @throws NotFoundException if the user or book is not found
+     * @throws IllegalStateException if the book is in stock or the user already has it or a hold on it
+     */
+    @Transactional
+    public BookHold placeHold(Integer userId, Integer bookId, int priority) {
+        usersRepository.findById(userId)
+                .orElseThrow(() -> new NotFoundException("User not found with ID: " + userId));
+        Books book = booksRepository.findById(bookId)
+                .orElseThrow(() -> new NotFoundException("Book not found with ID: " + bookId));
+
+        if (book.getNoOfCopies() > 0) {
+            throw new IllegalStateException("The book \"" + book.getBookName() + "\" is in stock and can be borrowed now.");
+        }
+        if (activeLoanIndex.isBorrowed(userId, bookId)) {
+            throw new IllegalStateException("You have already borrowed this book.");
+        }
+        if (bookHoldRepository.findFirstByUserIdAndBookIdAndStatusIn(userId, bookId, OPEN_STATUSES).isPresent()) {
+            throw new IllegalStateException("You already have a hold on this book.");
+        }
+
+        BookHold hold = new BookHold();
+        hold.setUserId(userId);
+        hold.setBookId(bookId);
+        hold.setPriority(priority);
+        hold.setStatus(HoldStatus.WAITING);
+        return bookHoldRepository.save(hold);
+    }
+
+    /**
+     * Cancels a hold. If a copy was reserved for it, the copy passes to the next
+     * waiting hold or goes back into stock. The hold is locked first, so a copy being
+     * reserved for it concurrently is seen and passed on.
+     *
+     * @param holdId The ID of the hold
+     * @return The cancelled hold
+     * @throws NotFoundException if the hold is not found
+     * @throws IllegalStateException if the hold is already closed
+     */
+    @Transactional
+    public BookHold cancelHold(Long holdId) {
+        BookHold hold = bookHoldRepository.lockById(holdId)
+                .orElseThrow(() -> new NotFoundException("Hold not found with ID: " + holdId));
+        if (!OPEN_STATUSES.contains(hold.getStatus())) {
+            throw new IllegalStateException("The hold is already " + hold.getStatus() + ".");
+        }
+        boolean hadCopy = hold.getStatus() == HoldStatus.READY;
+        hold.setStatus(HoldStatus.CANCELLED);
+        bookHoldRepository.save(hold);
+
+        if (hadCopy) {
+            releaseCopies(hold.getBookId(), 1);
+        }
+        return hold;
+    }
+
+    /**
+     * Reserves returned copies of a book for the first waiting holds in its queue.
+     * Must be called inside the transaction that records the return. The holds are read
+     * and locked in queue order; holds locked by a concurrent allocation or cancellation
+     * are passed over, so two returns of the same book reserve copies for different holds.
+     *
+     * @param bookId The ID of the returned book
+     * @param copies Number of copies returned
+     * @return Number of copies reserved for holds; the rest should go back into stock
+     */
+    @Transactional
+    public int allocateReturnedCopies(Integer bookId, int copies) {
+        if (copies < 1) {
+            return 0;
+        }
+        Date now = new Date();
+        List<BookHold> holds = bookHoldRepository.lockNextWaiting(bookId, copies);
+        for (BookHold hold : holds) {
+            hold.setStatus(HoldStatus.READY);
+            hold.setReadyAt(now);
+            hold.setPickupDeadline(new Date(now.getTime() + pickupMillis));
+        }
+        bookHoldRepository.saveAll(holds);
+        return holds.size();
+    }
+
+    /**
+     * Marks the user's ready hold on a book as fulfilled, if there is one.
+     * A fulfilled hold means the copy reserved for it is being borrowed, so the
+     * caller must not take another copy from stock. The hold is locked, so it cannot
+     * be expired or cancelled while it is claimed.
+     *
+     * @param userId The ID of the borrowing user
+     * @param bookId The ID of the book
+     * @return true if a reserved copy was claimed
+     */
+    @Transactional
+    public boolean claimReadyHold(Integer userId, Integer bookId) {
+        List<BookHold> holds = bookHoldRepository.lockByUserIdAndBookIdAndStatus(userId, bookId, HoldStatus.READY);
+        if (holds.isEmpty()) {
+            return false;
+        }
+        BookHold hold = holds.get(0);
+        hold.setStatus(HoldStatus.FULFILLED);
+        bookHoldRepository.save(hold);
+        return true;
+    }
+
+    /**
+     * Gets the waiting holds on a book in queue order.
+     *
+     * @param bookId The ID of the book
+     * @return List of waiting holds
+     */
+    public List<BookHold> getQueue(Integer bookId) {
+        return bookHoldRepository.findByBookIdAndStatusOrderByPriorityDescRequestedAtAscHoldIdAsc(bookId, HoldStatus.WAITING);
+    }
+
+    /**
+     * Gets a hold.
+     *
+     * @param holdId The ID of the hold
+     * @return The hold
+     * @throws NotFoundException if the hold is not found
+     */
+    public BookHold getHold(Long holdId) {
+        return bookHoldRepository.findById(holdId)
+                .orElseThrow(() -> new NotFoundException("Hold not found with ID: " + holdId));
+    }
+
+    /**
+     * Gets all holds placed by a user, newest first.
+     *
+     * @param userId The ID of the user
+     * @return List of the user's holds
+     */
+    public List<BookHold> getUserHolds(Integer userId) {
+        return bookHoldRepository.findByUserIdOrderByRequestedAtDesc(userId);
+    }
+
+    /**
+     * Expires ready holds whose pickup deadline has passed and passes their copies on.
+     * Runs every 15 minutes.
+     */
+    @Scheduled(fixedDelay = 900000)
+    @Transactional
+    public void expireUnclaimedHolds() {
+        List<BookHold> expired = bookHoldRepository.lockExpiredReady(new Date());
+        Map<Integer, Integer> releasedCopies = new HashMap<>();
+        for (BookHold hold : expired) {
+            hold.setStatus(HoldStatus.EXPIRED);
+            releasedCopies.merge(hold.getBookId(), 1, Integer::sum);
+        }
+        bookHoldRepository.saveAll(expired);
+        for (Map.Entry<Integer, Integer> entry : releasedCopies.entrySet()) {
+            releaseCopies(entry.getKey(), entry.getValue());
+        }
+        if (!expired.isEmpty()) {
+            System.out.println("Expired " + expired.size() + " unclaimed holds");
+        }
+    }
+
+    /**
+     * Gives freed copies to the next waiting holds, returning any remainder to stock.
+     */
+    private void releaseCopies(Integer bookId, int copies) {
+        int allocated = allocateReturnedCopies(bookId, copies);
+        if (allocated < copies) {
+            borrowBatchRepository.incrementCopies(Collections.singletonMap(bookId, copies - allocated));
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.IdempotencyRecordRepository;
+import com.ibizabroker.lms.entity.IdempotencyRecord;
+import com.ibizabroker.lms.enums.IdempotencyStatus;
+import com.ibizabroker.lms.exceptions.ConflictException;
+import com.ibizabroker.lms.util.TransactionHooks;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Service class that makes retried requests safe by remembering the responses of
+ * requests sent with an {@code Idempotency-Key} header.
+ * The key is claimed in the "idempotency_keys" table in the same transaction as the
+ * operation and completed with its response before that transaction commits, so the
+ * operation and the record of it are committed together or not at all, on whichever node
+ * the request lands. A duplicate request is answered with the stored response without
+ * running the operation again. Completed responses are also kept in a bounded in-memory
+ * LRU map, which only saves database reads.
+ * Keys are scoped to the endpoint and the authenticated user.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class IdempotencyService {
+
+    /**
+     * Longest key accepted from clients.
+     */
+    private static final int MAX_KEY_LENGTH = 128;
+
+    /**
+     * Repository for persisted idempotency records.
+     */
+    private final IdempotencyRecordRepository idempotencyRecordRepository;
+
+    /**
+     * Transaction shared by the key claim and the operation.
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Maximum number of keys kept in memory.
+     */
+    private final int maxCachedKeys;
+
+    /**
+     * How long a key is remembered, in milliseconds.
+     */
+    private final long ttlMillis;
+
+    /**
+     * Recently completed requests in least-recently-used order.
+     */
+    private final Map<String, CachedResponse> recent;
+
+    /**
+     * Constructs a new IdempotencyService.
+     *
+     * @param idempotencyRecordRepository Repository for persisted idempotency records
+     * @param transactionManager Transaction manager for the claim and the operation
+     * @param maxCachedKeys Maximum number of keys kept in memory
+     * @param ttlHours How long a key is remembered, in hours
+     */
+    public IdempotencyService(IdempotencyRecordRepository idempotencyRecordRepository,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${lms.idempotency.max-cached-keys:10000}") int maxCachedKeys,
+                              @Value("${lms.idempotency.ttl-hours:24}") long ttlHours) {
+        this.idempotencyRecordRepository = idempotencyRecordRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxCachedKeys = maxCachedKeys;
+        this.ttlMillis = TimeUnit.HOURS.toMillis(ttlHours);
+        this.recent = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > IdempotencyService.this.maxCachedKeys;
+            }
+        };
+    }
+
+    /**
+     * Runs an operation at most once per idempotency key.
+     * Without a key the operation always runs. With a key, the operation runs in one
+     * transaction with the claim of the key, and joins it if it is transactional itself.
+     * A duplicate of a completed request is answered with the stored response; a duplicate
+     * arriving while the original is still running waits for its transaction on the key and
+     * is then answered with its response. Operations that throw or roll back their
+     * transaction release the key, so they can be retried.
+     *
+     * @param key The client-supplied Idempotency-Key header, may be null
+     * @param scope Name of the endpoint the key is used for
+     * @param operation The operation to run, returning the response body
+     * @return The response of the first committed execution for this key
+     * @throws ConflictException if the key is claimed but its request has not completed
+     */
+    public String execute(String key, String scope, Supplier<String> operation) {
+        if (key == null || key.trim().isEmpty()) {
+            return operation.get();
+        }
+        if (key.length() > MAX_KEY_LENGTH) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Idempotency-Key must be at most " + MAX_KEY_LENGTH + " characters.");
+        }
+        String storeKey = scope + ":" + currentUsername() + ":" + key;
+
+        String cached = findCached(storeKey);
+        if (cached != null) {
+            return cached;
+        }
+        return transactionTemplate.execute(status -> {
+            long now = System.currentTimeMillis();
+            if (idempotencyRecordRepository.claim(storeKey, new Date(now), new Date(now - ttlMillis)) == 0) {
+                return findCompleted(storeKey);
+            }
+            String response = operation.get();
+            if (status.isRollbackOnly()) {
+                // The operation rolled back its own work; roll back the claim with it
+                status.setRollbackOnly();
+                return response;
+            }
+            idempotencyRecordRepository.complete(storeKey, response);
+            TransactionHooks.afterCommit(() -> cache(storeKey, response, now));
+            return response;
+        });
+    }
+
+    /**
+     * Removes expired keys from memory and from the database.
+     * Runs every hour.
+     */
+    @Scheduled(fixedDelay = 3600000)
+    public void purgeExpiredKeys() {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        synchronized (recent) {
+            recent.values().removeIf(cachedResponse -> cachedResponse.createdAt < cutoff);
+        }
+        int deleted = idempotencyRecordRepository.deleteCreatedBefore(new Date(cutoff));
+        if (deleted > 0) {
+            System.out.println("Purged " + deleted + " expired idempotency keys");
+        }
+    }
+
+    /**
+     * Looks up a completed response in memory.
+     *
+     * @return The stored response, or null if the key is not cached or has expired
+     */
+    private String findCached(String storeKey) {
+        long cutoff = System.currentTimeMillis() - ttlMillis;
+        synchronized (recent) {
+            CachedResponse cachedResponse = recent.get(storeKey);
+            return cachedResponse != null && cachedResponse.createdAt >= cutoff ? cachedResponse.response : null;
+        }
+    }
+
+    /**
+     * Reads the response stored for a key that is held by another request.
+     *
+     * @return The stored response
+     * @throws ConflictException if the other request has not completed
+     */
+    private String findCompleted(String storeKey) {
+        Optional<IdempotencyRecord> record = idempotencyRecordRepository.findById(storeKey);
+        if (!record.isPresent() || record.get().getStatus() == IdempotencyStatus.PENDING) {
+            throw new ConflictException("A request with this Idempotency-Key is already being processed.");
+        }
+        cache(storeKey, record.get().getResponse(), record.get().getCreatedAt().getTime());
+        return record.get().getResponse();
+    }
+
+    private void cache(String storeKey, String response, long createdAt) {
+        synchronized (recent) {
+            recent.put(storeKey, new CachedResponse(response, createdAt));
+        }
+    }
+
+    private String currentUsername() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null ? authentication.getName() : "anonymous";
+    }
+
+    /**
+     * A response held in the in-memory store.
+     */
+    private static final class CachedResponse {
+        private final String response;
+        private final long createdAt;
+
+        private CachedResponse(String response, long createdAt) {
+            this.response = response;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.BalanceRepository;
+import com.ibizabroker.lms.dao.BalanceSnapshotRepository;
+import com.ibizabroker.lms.dao.DailyRollupRepository;
+import com.ibizabroker.lms.dao.LedgerEntryRepository;
+import com.ibizabroker.lms.entity.BalanceSnapshot;
+import com.ibizabroker.lms.entity.LedgerEntry;
+import com.ibizabroker.lms.enums.LedgerEntryType;
+import com.ibizabroker.lms.exceptions.NotFoundException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service class for all changes to user account balances.
+ * Every change is an atomic UPDATE of the user's balance plus an entry in the append-only
+ * "ledger_entries" table, written in the same transaction, so the stored balance always
+ * equals the sum of the user's ledger entries. Balances are read in O(1) from the users
+ * table; the ledger provides the audit trail and fine reports.
+ *
+ * A nightly job snapshots each user's ledger balance, so the ledger balance can be rebuilt
+ * from the latest snapshot plus recent entries, and reports any user whose stored balance
+ * has drifted from the ledger.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class LedgerService {
+
+    /**
+     * Name of the snapshot job.
+     */
+    private static final String SNAPSHOT_JOB_NAME = "balance-snapshots";
+
+    /**
+     * Entries newer than this are left for the next snapshot, so that entries from
+     * transactions still in flight are not skipped.
+     */
+    private static final long SNAPSHOT_LAG_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private final BalanceRepository balanceRepository;
+
+    private final LedgerEntryRepository ledgerEntryRepository;
+
+    private final BalanceSnapshotRepository balanceSnapshotRepository;
+
+    private final ScheduledJobRunner scheduledJobRunner;
+
+    private final DailyRollupRepository dailyRollupRepository;
+
+    /**
+     * Constructs a new LedgerService.
+     *
+     * @param balanceRepository Repository for atomic balance updates and ledger inserts
+     * @param ledgerEntryRepository Repository for reading ledger entries
+     * @param balanceSnapshotRepository Repository for balance snapshots
+     * @param scheduledJobRunner Runner for the snapshot job
+     * @param dailyRollupRepository Repository for the daily borrowing rollup, which totals fines per day
+     */
+    public LedgerService(BalanceRepository balanceRepository, LedgerEntryRepository ledgerEntryRepository,
+                         BalanceSnapshotRepository balanceSnapshotRepository, ScheduledJobRunner scheduledJobRunner,
+                         DailyRollupRepository dailyRollupRepository) {
+        this.balanceRepository = balanceRepository;
+        this.ledgerEntryRepository = ledgerEntryRepository;
+        this.balanceSnapshotRepository = balanceSnapshotRepository;
+        this.scheduledJobRunner = scheduledJobRunner;
+        this.dailyRollupRepository = dailyRollupRepository;
+    }
+
+    /**
+     * Registers the snapshot job with the runner so it can also be triggered manually.
+     */
+    @PostConstruct
+    public void registerJob() {
+        scheduledJobRunner.register(SNAPSHOT_JOB_NAME, TimeUnit.HOURS.toMillis(12), this::takeSnapshots);
+    }
+
+    /**
+     * Records the opening balance of a newly created user.
+     *
+     * @param userId The ID of the user
+     * @param openingBalance The balance the account was created with
+     */
+    @Transactional
+    public void openAccount(Integer userId, double openingBalance) {
+        balanceRepository.insertEntries(Collections.singletonList(entry(userId, LedgerEntryType.OPENING_BALANCE, openingBalance, null)));
+    }
+
+    /**
+     * Records an opening balance for users created before the ledger existed.
+     *
+     * @return Number of users given an opening balance
+     */
+    @Transactional
+    public int recordMissingOpeningBalances() {
+        int added = balanceRepository.insertMissingOpeningBalances();
+        if (added > 0) {
+            System.out.println("Recorded opening balances for " + added + " users");
+        }
+        return added;
+    }
+
+    /**
+     * Adds funds to a user's account.
+     *
+     * @param userId The ID of the user
+     * @param amount Amount to add
+     * @return The new balance
+     * @throws NotFoundException if the user is not found
+     */
+    @Transactional
+    public double topUp(Integer userId, double amount) {
+        Double balance = balanceRepository.credit(userId, amount);
+        if (balance == null) {
+            throw new NotFoundException("User not found with ID: " + userId);
+        }
+        balanceRepository.insertEntries(Collections.singletonList(entry(userId, LedgerEntryType.TOP_UP, amount, null)));
+        return balance;
+    }
+
+    /**
+     * Charges a user if their balance covers the amount.
+     *
+     * @param userId The ID of the user
+     * @param amount Amount to charge
+     * @param type Kind of charge
+     * @param borrowId ID of the loan the charge relates to, may be null
+     * @return true if the user was charged, false if the balance was insufficient
+     */
+    @Transactional
+    public boolean charge(Integer userId, double amount, LedgerEntryType type, Integer borrowId) {
+        if (balanceRepository.debitIfSufficient(userId, amount) == null) {
+            return false;
+        }
+        balanceRepository.insertEntries(Collections.singletonList(entry(userId, type, -amount, borrowId)));
+        return true;
+    }
+
+    /**
+     * Charges fines for many loans with one conditional debit per user, sent as a single batch.
+     * A user is charged only if their balance covers all of their fines.
+     *
+     * @param finesByUser Fine per borrow ID, grouped by user ID
+     * @return IDs of the users that were charged
+     */
+    @Transactional
+    public Set<Integer> chargeFines(Map<Integer, Map<Integer, Double>> finesByUser) {
+        Map<Integer, Double> totalByUser = new LinkedHashMap<>();
+        for (Map.Entry<Integer, Map<Integer, Double>> user : finesByUser.entrySet()) {
+            double total = 0;
+            for (double fine : user.getValue().values()) {
+                total += fine;
+            }
+            totalByUser.put(user.getKey(), total);
+        }
+        Set<Integer> charged = balanceRepository.debitBalances(totalByUser);
+
+        List<LedgerEntry> entries = new ArrayList<>();
+        Map<Integer, Double> fineByBorrow = new HashMap<>();
+        for (Integer userId : charged) {
+            for (Map.Entry<Integer, Double> fine : finesByUser.get(userId).entrySet()) {
+                entries.add(entry(userId, LedgerEntryType.FINE, -fine.getValue(), fine.getKey()));
+                fineByBorrow.put(fine.getKey(), fine.getValue());
+            }
+        }
+        balanceRepository.insertEntries(entries);
+        dailyRollupRepository.addFines(new Date(), fineByBorrow);
+        return charged;
+    }
+
+    /**
+     * Computes a user's balance from the ledger: the latest snapshot plus the entries after it.
+     *
+     * @param userId The ID of the user
+     * @return Balance according to the ledger
+     */
+    public double getLedgerBalance(Integer userId) {
+        Optional<BalanceSnapshot> snapshot = balanceSnapshotRepository.findFirstByUserIdOrderByLastEntryIdDesc(userId);
+        double base = snapshot.map(BalanceSnapshot::getBalance).orElse(0.0);
+        long afterId = snapshot.map(BalanceSnapshot::getLastEntryId).orElse(0L);
+        return base + ledgerEntryRepository.sumAmountAfter(userId, afterId);
+    }
+
+    /**
+     * Gets a user's most recent ledger entries.
+     *
+     * @param userId The ID of the user
+     * @return Up to 100 entries, newest first
+     */
+    public List<LedgerEntry> getStatement(Integer userId) {
+        return ledgerEntryRepository.findTop100ByUserIdOrderByIdDesc(userId);
+    }
+
+    /**
+     * Builds a report of fines charged within a time range, straight from the ledger.
+     *
+     * @param from Inclusive start of the range
+     * @param to Exclusive end of the range
+     * @return Map containing fines per day and per user
+     */
+    public Map<String, Object> getFineReport(Date from, Date to) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("from", from);
+        report.put("to", to);
+        report.put("perDay", ledgerEntryRepository.summarizeFinesPerDay(from, to));
+        report.put("perUser", ledgerEntryRepository.summarizeFinesPerUser(from, to));
+        return report;
+    }
+
+    /**
+     * Scheduled trigger for the snapshot job, runs daily at 00:30.
+     */
+    @Scheduled(cron = "0 30 0 * * ?")
+    public void runNightlySnapshots() {
+        scheduledJobRunner.run(SNAPSHOT_JOB_NAME, ScheduledJobRunner.SCHEDULED);
+    }
+
+    /**
+     * Snapshots every user's ledger balance and reports users whose stored balance
+     * differs from the ledger. Call through {@link ScheduledJobRunner}.
+     *
+     * @return Number of snapshots taken
+     */
+    public long takeSnapshots() {
+        recordMissingOpeningBalances();
+        int taken = balanceRepository.insertSnapshots(new Date(System.currentTimeMillis() - SNAPSHOT_LAG_MILLIS));
+        List<Map<String, Object>> drift = balanceRepository.findBalanceDrift();
+        if (!drift.isEmpty()) {
+            System.out.println("Balance differs from ledger for " + drift.size() + " users: " + drift);
+        }
+        return taken;
+    }
+
+    private static LedgerEntry entry(Integer userId, LedgerEntryType type, double amount, Integer borrowId) {
+        LedgerEntry entry = new LedgerEntry();
+        entry.setUserId(userId);
+        entry.setType(type);
+        entry.setAmount(amount);
+        entry.setBorrowId(borrowId);
+        return entry;
+    }
+}
@@ -0,0 +1,26 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dto.Reminder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * Reminder sink that prints reminders to standard output. Used by default for local development.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+@ConditionalOnProperty(name = "lms.reminders.sink", havingValue = "log", matchIfMissing = true)
+public class LoggingReminderSink implements ReminderSink {
+
+    /**
+     * Prints the reminder.
+     *
+     * @param reminder The reminder to deliver
+     */
+    @Override
+    public void send(Reminder reminder) {
+        System.out.println("Reminder to " + reminder.getUsername() + " [" + reminder.getType() + "]: " + reminder.getMessage());
+    }
+}
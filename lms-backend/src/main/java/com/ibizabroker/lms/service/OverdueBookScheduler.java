@@ -1,16 +1,26 @@
 package com.ibizabroker.lms.service;
 
+import com.ibizabroker.lms.dao.BorrowBatchRepository;
 import com.ibizabroker.lms.dao.BorrowRepository;
+import com.ibizabroker.lms.dao.DailyRollupRepository;
+import com.ibizabroker.lms.dao.JobCheckpointRepository;
 import com.ibizabroker.lms.dao.UsersRepository;
 import com.ibizabroker.lms.entity.Borrow;
+import com.ibizabroker.lms.entity.JobCheckpoint;
 import com.ibizabroker.lms.entity.Users;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -18,12 +28,50 @@ import java.util.concurrent.TimeUnit;
  * Runs scheduled tasks to check for overdue books and apply fines automatically.
  * Uses Spring's @Scheduled annotation for automated execution.
  *
+ * Overdue loans are split into partitions by user_id, which are processed in parallel on a
+ * bounded worker pool. Within a partition, loans are processed in chunks of borrowId order,
+ * each chunk in its own short transaction, so locks are held for one chunk at a time rather
+ * than for the whole run. Because a user's loans all fall in one partition, workers never
+ * contend for the same user row. Chunks are locked with FOR UPDATE under a short lock
+ * timeout rather than SKIP LOCKED, because the keyset checkpoint would otherwise move past
+ * loans locked elsewhere and leave them unfined; a chunk that times out is retried, and a
+ * partition that keeps timing out fails and resumes on the next run.
+ * Progress is checkpointed per partition with every chunk, and a run that did not complete
+ * is resumed from its last committed chunk the next time the job starts. Checkpoints are
+ * named after the partition count, and those of a different count are deleted when a run
+ * starts, so changing the count starts a fresh run instead of resuming a stale one.
+ * Fines accrue incrementally: each loan records the time through which it has been fined,
+ * and a run charges only the whole days since then, so OVERDUE loans keep accruing fines
+ * and loans already charged for today are not read again.
+ * The job runs through {@link ScheduledJobRunner}, so when several API nodes fire the
+ * midnight trigger only one of them applies fines.
+ *
  * @author codematrix
  * @version 1.0
  */
 @Service
 public class OverdueBookScheduler {
 
+    /**
+     * Name of the job, also the prefix of its partition checkpoint names.
+     */
+    private static final String JOB_NAME = "overdue-fines";
+
+    /**
+     * Length of one day in milliseconds.
+     */
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Fine charged per overdue day, in rupees.
+     */
+    private static final double FINE_PER_DAY = 10;
+
+    /**
+     * Number of times a chunk is attempted when its rows stay locked past the lock timeout.
+     */
+    private static final int LOCK_ATTEMPTS = 3;
+
     /**
      * Repository for accessing and updating borrow records.
      */
@@ -34,61 +82,403 @@ public class OverdueBookScheduler {
      */
     private final UsersRepository userRepository;
 
+    /**
+     * Repository for batched fine updates.
+     */
+    private final BorrowBatchRepository borrowBatchRepository;
+
+    /**
+     * Repository for the daily borrowing rollup.
+     */
+    private final DailyRollupRepository dailyRollupRepository;
+
+    /**
+     * Service tracking overdue age percentiles, recomputed after each run.
+     */
+    private final DurationDigestService durationDigestService;
+
+    /**
+     * Service that debits fines and records them in the ledger.
+     */
+    private final LedgerService ledgerService;
+
+    /**
+     * Repository for job progress checkpoints.
+     */
+    private final JobCheckpointRepository jobCheckpointRepository;
+
+    /**
+     * Runner that makes sure only one node runs the job.
+     */
+    private final ScheduledJobRunner scheduledJobRunner;
+
+    /**
+     * Runs each chunk in its own transaction.
+     */
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Number of overdue loans processed per chunk.
+     */
+    private final int chunkSize;
+
+    /**
+     * Number of user partitions the work is split into.
+     */
+    private final int partitions;
+
+    /**
+     * Maximum number of partitions processed at the same time.
+     */
+    private final int workers;
+
+    /**
+     * Longest time a chunk waits for a locked loan, in milliseconds.
+     */
+    private final long lockTimeoutMillis;
+
+    /**
+     * Minimum time between successful scheduled runs, in milliseconds.
+     */
+    private final long minIntervalMillis;
+
     /**
      * Constructs a new OverdueBookScheduler with required repositories.
      *
      * @param borrowRepository Repository for borrow operations
      * @param userRepository Repository for user operations
+     * @param borrowBatchRepository Repository for batched fine updates
+     * @param dailyRollupRepository Repository for the daily borrowing rollup
+     * @param durationDigestService Service tracking overdue age percentiles
+     * @param ledgerService Service that debits fines and records them in the ledger
+     * @param jobCheckpointRepository Repository for job checkpoints
+     * @param scheduledJobRunner Runner that makes sure only one node runs the job
+     * @param transactionManager Transaction manager used for per-chunk transactions
+     * @param chunkSize Number of overdue loans processed per chunk
+     * @param partitions Number of user partitions the work is split into
+     * @param workers Maximum number of partitions processed at the same time
+     * @param lockTimeoutMillis Longest time a chunk waits for a locked loan, in milliseconds
+     * @param minIntervalHours Minimum time between successful scheduled runs, in hours
      */
-    public OverdueBookScheduler(BorrowRepository borrowRepository, UsersRepository userRepository) {
+    public OverdueBookScheduler(BorrowRepository borrowRepository, UsersRepository userRepository,
+                                BorrowBatchRepository borrowBatchRepository, DailyRollupRepository dailyRollupRepository,
+                                DurationDigestService durationDigestService,
+                                LedgerService ledgerService,
+                                JobCheckpointRepository jobCheckpointRepository,
+                                ScheduledJobRunner scheduledJobRunner,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${lms.overdue.chunk-size:500}") int chunkSize,
+                                @Value("${lms.overdue.partitions:8}") int partitions,
+                                @Value("${lms.overdue.workers:4}") int workers,
+                                @Value("${lms.overdue.lock-timeout-ms:5000}") long lockTimeoutMillis,
+                                @Value("${lms.overdue.min-interval-hours:12}") long minIntervalHours) {
         this.borrowRepository = borrowRepository;
         this.userRepository = userRepository;
+        this.borrowBatchRepository = borrowBatchRepository;
+        this.dailyRollupRepository = dailyRollupRepository;
+        this.durationDigestService = durationDigestService;
+        this.ledgerService = ledgerService;
+        this.jobCheckpointRepository = jobCheckpointRepository;
+        this.scheduledJobRunner = scheduledJobRunner;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+        this.partitions = Math.max(1, partitions);
+        this.workers = Math.max(1, Math.min(workers, this.partitions));
+        this.lockTimeoutMillis = lockTimeoutMillis;
+        this.minIntervalMillis = TimeUnit.HOURS.toMillis(minIntervalHours);
     }
 
     /**
-     * Scheduled task that runs daily at midnight to check for overdue books and apply fines.
-     * For each overdue book:
-     * 1. Calculates the number of overdue days
-     * 2. Calculates the fine amount (₹10 per day)
-     * 3. Deducts the fine from user's account balance if sufficient
-     * 4. Updates the book status to OVERDUE
-     * 
-     * This method is transactional to ensure data consistency.
+     * Registers the job with the runner so it can also be triggered manually.
+     */
+    @PostConstruct
+    public void registerJob() {
+        scheduledJobRunner.register(JOB_NAME, minIntervalMillis, this::markOverdueBooksAndDeductFine);
+    }
+
+    /**
+     * Scheduled trigger that runs daily at midnight on every node.
+     * Only the node that gets the job lock applies fines; the others record a skipped run.
      */
     @Scheduled(cron = "0 0 0 * * ?") // Runs every day at midnight
-    @Transactional
-    public void markOverdueBooksAndDeductFine() {
+    public void runNightly() {
+        scheduledJobRunner.run(JOB_NAME, ScheduledJobRunner.SCHEDULED);
+    }
+
+    /**
+     * Checks for overdue books and applies fines.
+     * For each unreturned overdue book:
+     * 1. Calculates the number of overdue days not yet fined, from the loan's fineAccruedThrough watermark
+     * 2. Calculates the fine amount for those days (₹10 per day)
+     * 3. Deducts the fine from user's account balance if sufficient
+     * 4. Updates the book status to OVERDUE, adds to its fine and advances the watermark
+     *
+     * Partitions run in parallel and each chunk is committed together with its partition's
+     * checkpoint, so an interrupted run resumes where it stopped. Wall-clock time and
+     * throughput are reported per partition.
+     *
+     * Call through {@link ScheduledJobRunner} rather than directly, so runs do not overlap across nodes.
+     *
+     * @return Number of loans that were fined
+     */
+    public long markOverdueBooksAndDeductFine() {
         Date today = new Date();
+        deleteStaleCheckpoints();
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<PartitionReport>> futures = new ArrayList<>();
+        try {
+            for (int partition = 0; partition < partitions; partition++) {
+                final int p = partition;
+                futures.add(pool.submit(() -> processPartition(p, today)));
+            }
+
+            long fined = 0;
+            int failed = 0;
+            for (int partition = 0; partition < futures.size(); partition++) {
+                try {
+                    PartitionReport report = futures.get(partition).get();
+                    fined += report.fined;
+                    System.out.println("Overdue fines partition " + partition + "/" + partitions + ": " + report.rows
+                            + " loans (" + report.fined + " fined) in " + report.millis + " ms, "
+                            + String.format("%.1f", report.rowsPerSecond()) + " rows/sec");
+                } catch (ExecutionException e) {
+                    failed++;
+                    System.out.println("Overdue fines partition " + partition + "/" + partitions + " failed: " + e.getCause());
+                }
+            }
+            try {
+                durationDigestService.rebuildOverdueAges(today);
+            } catch (RuntimeException e) {
+                System.out.println("Could not update overdue age percentiles: " + e);
+            }
+            if (failed > 0) {
+                throw new IllegalStateException(failed + " overdue fine partitions failed; they will resume on the next run");
+            }
+            return fined;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while applying overdue fines", e);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Processes all chunks of one partition.
+     *
+     * @param partition The partition to process
+     * @param today Reference time to use if this partition starts a new run
+     * @return Timing and row counts for the partition
+     */
+    private PartitionReport processPartition(int partition, Date today) {
+        String jobName = JOB_NAME + ":" + partition + "/" + partitions;
+        JobCheckpoint checkpoint = startOrResume(jobName, today);
+        Date cutoff = checkpoint.getRunCutoff();
+        PartitionReport report = new PartitionReport();
+        long start = System.nanoTime();
+
+        while (true) {
+            ChunkResult result = processChunkWithRetry(jobName, partition, cutoff, (int) checkpoint.getLastKey());
+            if (result.rows == 0) {
+                break;
+            }
+            report.rows += result.rows;
+            report.fined += result.fined;
+            checkpoint.setLastKey(result.lastBorrowId);
+            if (result.insufficient > 0 || result.missingUsers > 0) {
+                System.out.println("Overdue fines partition " + partition + ": " + result.insufficient
+                        + " loans with insufficient balance, " + result.missingUsers + " with missing users up to borrowId "
+                        + result.lastBorrowId);
+            }
+        }
+
+        checkpoint.setStatus("COMPLETED");
+        jobCheckpointRepository.save(checkpoint);
+        report.millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return report;
+    }
+
+    /**
+     * Deletes the partition checkpoints left by runs with a different partition count.
+     * Their key ranges do not match the current partitions, so they cannot be resumed.
+     */
+    private void deleteStaleCheckpoints() {
+        String suffix = "/" + partitions;
+        List<JobCheckpoint> stale = new ArrayList<>();
+        for (JobCheckpoint checkpoint : jobCheckpointRepository.findByJobNameStartingWith(JOB_NAME + ":")) {
+            if (!checkpoint.getJobName().endsWith(suffix)) {
+                stale.add(checkpoint);
+            }
+        }
+        if (!stale.isEmpty()) {
+            jobCheckpointRepository.deleteAll(stale);
+            System.out.println("Deleted " + stale.size() + " overdue fine checkpoints of another partition count");
+        }
+    }
+
+    /**
+     * Loads a partition's checkpoint, resuming an unfinished run or starting a new one.
+     *
+     * @param jobName Checkpoint name of the partition
+     * @param today Reference time for a new run
+     * @return The checkpoint for the current run
+     */
+    private JobCheckpoint startOrResume(String jobName, Date today) {
+        Optional<JobCheckpoint> existing = jobCheckpointRepository.findById(jobName);
+        if (existing.isPresent() && "RUNNING".equals(existing.get().getStatus())) {
+            System.out.println("Resuming " + jobName + " from borrowId " + existing.get().getLastKey());
+            return existing.get();
+        }
+        JobCheckpoint checkpoint = existing.orElseGet(JobCheckpoint::new);
+        checkpoint.setJobName(jobName);
+        checkpoint.setRunCutoff(today);
+        checkpoint.setLastKey(0);
+        checkpoint.setStatus("RUNNING");
+        return jobCheckpointRepository.save(checkpoint);
+    }
+
+    /**
+     * Fines specific loans that have just passed their due date, in one transaction.
+     * Used to apply fines as soon as a loan falls due rather than waiting for the nightly run.
+     * Loans that are no longer BORROWED, or are locked by a running job, are left alone.
+     *
+     * @param borrowIds IDs of the loans to fine
+     * @param today Reference time for the overdue days
+     * @return Number of loans that were fined
+     */
+    public int fineLoans(Collection<Integer> borrowIds, Date today) {
+        if (borrowIds.isEmpty()) {
+            return 0;
+        }
+        return transactionTemplate.execute(status -> fine(borrowRepository.lockBorrowedByIds(borrowIds), today).fined);
+    }
+
+    /**
+     * Processes one chunk in its own transaction, retrying it if its loans stay locked
+     * past the lock timeout. Nothing of a timed-out attempt is committed.
+     *
+     * @param jobName Checkpoint name of the partition
+     * @param partition The partition being processed
+     * @param today Reference time of the run
+     * @param afterId Last borrowId processed by the previous chunk
+     * @return Summary of the chunk
+     * @throws PessimisticLockingFailureException if every attempt timed out
+     */
+    private ChunkResult processChunkWithRetry(String jobName, int partition, Date today, int afterId) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transactionTemplate.execute(status -> processChunk(jobName, partition, today, afterId));
+            } catch (PessimisticLockingFailureException e) {
+                if (attempt >= LOCK_ATTEMPTS) {
+                    throw e;
+                }
+                System.out.println("Overdue fines partition " + partition + ": loans after borrowId " + afterId
+                        + " are locked, retrying (attempt " + (attempt + 1) + "/" + LOCK_ATTEMPTS + ")");
+            }
+        }
+    }
+
+    /**
+     * Fines one chunk of overdue loans and advances the checkpoint, inside one transaction.
+     *
+     * @param jobName Checkpoint name of the partition
+     * @param partition The partition being processed
+     * @param today Reference time of the run
+     * @param afterId Last borrowId processed by the previous chunk
+     * @return Summary of the chunk
+     */
+    private ChunkResult processChunk(String jobName, int partition, Date today, int afterId) {
+        Date accruedBefore = new Date(today.getTime() - DAY_MILLIS);
+        borrowBatchRepository.setLockTimeout(lockTimeoutMillis);
+        List<Borrow> chunk = borrowRepository.lockOverdueChunk(today, accruedBefore, partitions, partition, afterId, chunkSize);
+        if (chunk.isEmpty()) {
+            return new ChunkResult();
+        }
+        ChunkResult result = fine(chunk, today);
+        result.lastBorrowId = chunk.get(chunk.size() - 1).getBorrowId();
+
+        JobCheckpoint checkpoint = jobCheckpointRepository.findById(jobName).orElseThrow(IllegalStateException::new);
+        checkpoint.setLastKey(result.lastBorrowId);
+        jobCheckpointRepository.save(checkpoint);
+        return result;
+    }
+
+    /**
+     * Fines locked overdue loans in borrowId order.
+     * Users are prefetched with a single IN query, balances are debited with one
+     * conditional UPDATE per user, recorded as one ledger entry per fine, and loans are
+     * marked with one batched UPDATE.
+     * Must run inside the transaction that locked the loans.
+     *
+     * @param loans Overdue loans locked by the current transaction
+     * @param today Reference time of the run
+     * @return Summary of the loans processed
+     */
+    private ChunkResult fine(List<Borrow> loans, Date today) {
+        ChunkResult result = new ChunkResult();
+        Set<Integer> userIds = new HashSet<>();
+        for (Borrow borrow : loans) {
+            userIds.add(borrow.getUserId());
+        }
+        Map<Integer, Users> users = new HashMap<>();
+        for (Users user : userRepository.findAllById(userIds)) {
+            users.put(user.getUserId(), user);
+        }
+
+        // Decide fines in borrowId order against the balance remaining after earlier loans
+        Map<Integer, Double> remainingBalance = new HashMap<>();
+        Map<Integer, Map<Integer, Double>> chargeByUser = new LinkedHashMap<>();
+        Map<Integer, List<Borrow>> finedLoansByUser = new HashMap<>();
+        Map<Integer, Double> fineByBorrow = new HashMap<>();
+        Map<Integer, Date> accruedThroughByBorrow = new HashMap<>();
+        for (Borrow borrow : loans) {
+            Users user = users.get(borrow.getUserId());
+            if (user == null) {
+                result.missingUsers++;
+                continue;
+            }
+            // Only the whole days since the loan's watermark are charged
+            long overdueDays = calculateOverdueDays(borrow.getDueDate(), today);
+            long chargedDays = calculateChargedDays(borrow);
+            long newDays = Math.max(0, overdueDays - chargedDays);
+            double fine = newDays * FINE_PER_DAY; // ₹10 per day
+            double balance = remainingBalance.getOrDefault(user.getUserId(), user.getAccountBalance());
+            if (balance >= fine) {
+                remainingBalance.put(user.getUserId(), balance - fine);
+                if (fine > 0) {
+                    chargeByUser.computeIfAbsent(user.getUserId(), id -> new LinkedHashMap<>()).put(borrow.getBorrowId(), fine);
+                }
+                finedLoansByUser.computeIfAbsent(user.getUserId(), id -> new ArrayList<>()).add(borrow);
+                fineByBorrow.put(borrow.getBorrowId(), borrow.getFine() + fine);
+                accruedThroughByBorrow.put(borrow.getBorrowId(),
+                        new Date(borrow.getDueDate().getTime() + (chargedDays + newDays) * DAY_MILLIS));
+            } else {
+                result.insufficient++;
+            }
+        }
 
-        // Fetch all books that are overdue and still in "BORROWED" status
-        List<Borrow> overdueBooks = borrowRepository.findByDueDateBeforeAndReturnStatus(today, "BORROWED");
-
-        for (Borrow borrow : overdueBooks) {
-            Date dueDate = borrow.getDueDate();
-            long overdueDays = calculateOverdueDays(dueDate, today);
-            double fine = overdueDays * 10; // ₹10 per day
-
-            // Fetch user safely
-            Optional<Users> optionalUser = userRepository.findById(borrow.getUserId());
-            if (optionalUser.isPresent()) {
-                Users user = optionalUser.get();
-
-                // Deduct fine if balance is sufficient
-                if (user.getAccountBalance() >= fine) {
-                    user.setAccountBalance(user.getAccountBalance() - fine);
-                    borrow.setFine(fine);
-                    borrow.setReturnStatus("OVERDUE");
-
-                    userRepository.save(user);
-                    borrowRepository.save(borrow);
-                    System.out.println("Fine of ₹" + fine + " deducted from " + user.getUsername());
-                } else {
-                    System.out.println("Insufficient balance for " + user.getUsername() + " to deduct fine of ₹" + fine);
+        // Only update loans whose user was actually charged; the others keep their watermark for the next run
+        Set<Integer> charged = ledgerService.chargeFines(chargeByUser);
+        Map<Integer, Double> overdue = new HashMap<>();
+        List<Borrow> newlyOverdue = new ArrayList<>();
+        for (Map.Entry<Integer, List<Borrow>> entry : finedLoansByUser.entrySet()) {
+            if (charged.contains(entry.getKey()) || !chargeByUser.containsKey(entry.getKey())) {
+                for (Borrow borrow : entry.getValue()) {
+                    overdue.put(borrow.getBorrowId(), fineByBorrow.get(borrow.getBorrowId()));
+                    if ("BORROWED".equals(borrow.getReturnStatus())) {
+                        newlyOverdue.add(borrow);
+                    }
                 }
             } else {
-                System.out.println("User with ID " + borrow.getUserId() + " not found!");
+                result.insufficient += entry.getValue().size();
             }
         }
+        borrowBatchRepository.markOverdue(overdue, accruedThroughByBorrow);
+        dailyRollupRepository.addOverdues(newlyOverdue);
+
+        result.rows = loans.size();
+        result.fined = overdue.size();
+        return result;
     }
 
     /**
@@ -103,4 +493,46 @@ public class OverdueBookScheduler {
         long diffInMillies = today.getTime() - dueDate.getTime();
         return TimeUnit.DAYS.convert(diffInMillies, TimeUnit.MILLISECONDS);
     }
+
+    /**
+     * Calculates the number of overdue days already fined for a loan.
+     * Loans fined before the watermark existed were charged once for all their overdue
+     * days, so their charged days are recovered from the recorded fine.
+     *
+     * @param borrow The loan
+     * @return Number of overdue days already charged
+     */
+    private long calculateChargedDays(Borrow borrow) {
+        if (borrow.getFineAccruedThrough() != null) {
+            return calculateOverdueDays(borrow.getDueDate(), borrow.getFineAccruedThrough());
+        }
+        if ("OVERDUE".equals(borrow.getReturnStatus())) {
+            return Math.round(borrow.getFine() / FINE_PER_DAY);
+        }
+        return 0;
+    }
+
+    /**
+     * Counters for one processed chunk.
+     */
+    private static final class ChunkResult {
+        private int rows;
+        private int fined;
+        private int insufficient;
+        private int missingUsers;
+        private int lastBorrowId;
+    }
+
+    /**
+     * Timing and counters for one partition of a run.
+     */
+    private static final class PartitionReport {
+        private long rows;
+        private long fined;
+        private long millis;
+
+        private double rowsPerSecond() {
+            return millis == 0 ? rows : rows * 1000.0 / millis;
+        }
+    }
 }
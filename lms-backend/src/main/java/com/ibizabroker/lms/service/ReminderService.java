@@ -0,0 +1,277 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.ReminderRepository;
+import com.ibizabroker.lms.dto.Reminder;
+import com.ibizabroker.lms.enums.ReminderType;
+import com.ibizabroker.lms.util.TokenBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that reminds borrowers of loans that are due soon or overdue.
+ * A daily job selects loans due within the next few days and loans already overdue, in
+ * batches ordered by borrowId, and hands the messages to the configured {@link ReminderSink}.
+ * The due-date wheel also sends reminders for individual loans as their events fire.
+ *
+ * Each (loan, reminder type) is claimed in the reminder log before it is sent, so a reminder
+ * goes out at most once even if several triggers select it. Delivery is rate limited with a
+ * token bucket and retried with exponential backoff; reminders that still fail are released
+ * and picked up again on the next run. Each run reports its throughput.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class ReminderService {
+
+    /**
+     * Name of the reminder job.
+     */
+    private static final String JOB_NAME = "reminders";
+
+    /**
+     * Delay before the first retry of a failed delivery, doubled for each further retry.
+     */
+    private static final long INITIAL_BACKOFF_MILLIS = 200;
+
+    private final ReminderRepository reminderRepository;
+
+    private final ReminderSink reminderSink;
+
+    private final ScheduledJobRunner scheduledJobRunner;
+
+    /**
+     * Number of loans selected and claimed per batch.
+     */
+    private final int batchSize;
+
+    /**
+     * How far ahead DUE_SOON reminders look, in milliseconds.
+     */
+    private final long dueSoonMillis;
+
+    /**
+     * Maximum delivery attempts per reminder.
+     */
+    private final int maxAttempts;
+
+    /**
+     * Limits the rate at which reminders are handed to the sink.
+     */
+    private final TokenBucket rateLimiter;
+
+    /**
+     * Constructs a new ReminderService.
+     *
+     * @param reminderRepository Repository for selecting loans and recording reminders
+     * @param reminderSink Destination of the reminders
+     * @param scheduledJobRunner Runner for the reminder job
+     * @param batchSize Number of loans selected and claimed per batch
+     * @param dueSoonDays How many days ahead DUE_SOON reminders look
+     * @param ratePerSecond Maximum reminders delivered per second
+     * @param maxAttempts Maximum delivery attempts per reminder
+     */
+    public ReminderService(ReminderRepository reminderRepository, ReminderSink reminderSink,
+                           ScheduledJobRunner scheduledJobRunner,
+                           @Value("${lms.reminders.batch-size:200}") int batchSize,
+                           @Value("${lms.reminders.due-soon-days:2}") long dueSoonDays,
+                           @Value("${lms.reminders.rate-per-second:20}") double ratePerSecond,
+                           @Value("${lms.reminders.max-attempts:3}") int maxAttempts) {
+        this.reminderRepository = reminderRepository;
+        this.reminderSink = reminderSink;
+        this.scheduledJobRunner = scheduledJobRunner;
+        this.batchSize = batchSize;
+        this.dueSoonMillis = TimeUnit.DAYS.toMillis(dueSoonDays);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.rateLimiter = new TokenBucket(ratePerSecond, (int) Math.max(1, Math.ceil(ratePerSecond)));
+    }
+
+    /**
+     * Registers the job with the runner so it can also be triggered manually.
+     */
+    @PostConstruct
+    public void registerJob() {
+        scheduledJobRunner.register(JOB_NAME, TimeUnit.HOURS.toMillis(12), this::sendDueReminders);
+    }
+
+    /**
+     * Scheduled trigger for the reminder job, runs daily at 08:00.
+     */
+    @Scheduled(cron = "0 0 8 * * ?")
+    public void runDaily() {
+        scheduledJobRunner.run(JOB_NAME, ScheduledJobRunner.SCHEDULED);
+    }
+
+    /**
+     * Sends DUE_SOON reminders for loans due within the look-ahead window and OVERDUE
+     * reminders for loans past their due date. Call through {@link ScheduledJobRunner}.
+     *
+     * @return Number of reminders sent
+     */
+    public long sendDueReminders() {
+        Date now = new Date();
+        Date dueSoonEnd = new Date(now.getTime() + dueSoonMillis);
+        DispatchStats stats = new DispatchStats();
+
+        int afterId = 0;
+        List<Reminder> batch;
+        while (!(batch = reminderRepository.findDueBetween(now, dueSoonEnd, afterId, batchSize)).isEmpty()) {
+            dispatch(batch, ReminderType.DUE_SOON, stats);
+            afterId = batch.get(batch.size() - 1).getBorrowId();
+        }
+        afterId = 0;
+        while (!(batch = reminderRepository.findOverdue(now, afterId, batchSize)).isEmpty()) {
+            dispatch(batch, ReminderType.OVERDUE, stats);
+            afterId = batch.get(batch.size() - 1).getBorrowId();
+        }
+
+        stats.report("Reminder run");
+        return stats.sent;
+    }
+
+    /**
+     * Sends reminders of one type for specific loans, skipping any already sent.
+     *
+     * @param borrowIds IDs of the loans
+     * @param type Kind of reminder
+     * @return Number of reminders sent
+     */
+    public long sendReminders(Collection<Integer> borrowIds, ReminderType type) {
+        DispatchStats stats = new DispatchStats();
+        List<Integer> ids = new ArrayList<>(borrowIds);
+        for (int from = 0; from < ids.size(); from += batchSize) {
+            List<Integer> slice = ids.subList(from, Math.min(ids.size(), from + batchSize));
+            dispatch(reminderRepository.findByIds(slice, type), type, stats);
+        }
+        return stats.sent;
+    }
+
+    /**
+     * Claims, builds and delivers one batch of reminders, releasing those that fail.
+     */
+    private void dispatch(List<Reminder> batch, ReminderType type, DispatchStats stats) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Integer> borrowIds = new ArrayList<>(batch.size());
+        for (Reminder reminder : batch) {
+            borrowIds.add(reminder.getBorrowId());
+        }
+        Set<Integer> claimed = reminderRepository.claim(borrowIds, type);
+        stats.duplicates += batch.size() - claimed.size();
+
+        List<Integer> delivered = new ArrayList<>();
+        List<Integer> failed = new ArrayList<>();
+        for (Reminder reminder : batch) {
+            if (!claimed.contains(reminder.getBorrowId())) {
+                continue;
+            }
+            reminder.setMessage(buildMessage(reminder));
+            if (deliver(reminder)) {
+                delivered.add(reminder.getBorrowId());
+            } else {
+                failed.add(reminder.getBorrowId());
+            }
+        }
+        if (!delivered.isEmpty() && !flush()) {
+            failed.addAll(delivered);
+            delivered.clear();
+        }
+
+        reminderRepository.release(failed, type);
+        stats.sent += delivered.size();
+        stats.failed += failed.size();
+    }
+
+    /**
+     * Hands one reminder to the sink, retrying with exponential backoff.
+     *
+     * @return true if the sink accepted the reminder
+     */
+    private boolean deliver(Reminder reminder) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                rateLimiter.acquire();
+                reminderSink.send(reminder);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    System.out.println("Giving up on " + reminder.getType() + " reminder for loan "
+                            + reminder.getBorrowId() + " after " + attempt + " attempts: " + e);
+                    return false;
+                }
+                if (!backOff(attempt)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the sink, retrying with exponential backoff.
+     *
+     * @return true if the sink was flushed
+     */
+    private boolean flush() {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                reminderSink.flush();
+                return true;
+            } catch (Exception e) {
+                if (attempt >= maxAttempts) {
+                    System.out.println("Could not flush reminder batch after " + attempt + " attempts: " + e);
+                    return false;
+                }
+                if (!backOff(attempt)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    private boolean backOff(int attempt) {
+        try {
+            Thread.sleep(INITIAL_BACKOFF_MILLIS << (attempt - 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private String buildMessage(Reminder reminder) {
+        String dueDate = new SimpleDateFormat("dd MMM yyyy").format(reminder.getDueDate());
+        if (reminder.getType() == ReminderType.DUE_SOON) {
+            return "Dear " + reminder.getName() + ", \"" + reminder.getBookName() + "\" is due on " + dueDate
+                    + ". Please return it or request a return before then.";
+        }
+        return "Dear " + reminder.getName() + ", \"" + reminder.getBookName() + "\" was due on " + dueDate
+                + " and is now overdue. A fine of ₹10 per day applies until it is returned.";
+    }
+
+    /**
+     * Counters and timing for one dispatch run.
+     */
+    private static final class DispatchStats {
+        private final long start = System.nanoTime();
+        private long sent;
+        private long failed;
+        private long duplicates;
+
+        private void report(String label) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            double perSecond = millis == 0 ? sent : sent * 1000.0 / millis;
+            System.out.println(label + ": " + sent + " sent, " + failed + " failed, " + duplicates
+                    + " already sent, in " + millis + " ms (" + String.format("%.1f", perSecond) + " reminders/sec)");
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dto.Reminder;
+
+/**
+ * Destination for reminder messages.
+ * The active sink is chosen with the {@code lms.reminders.sink} property; adding a channel
+ * such as SMTP means adding another implementation.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public interface ReminderSink {
+
+    /**
+     * Delivers one reminder. Implementations may buffer until {@link #flush()}.
+     *
+     * @param reminder The reminder to deliver
+     * @throws Exception if the reminder could not be delivered; it will be retried
+     */
+    void send(Reminder reminder) throws Exception;
+
+    /**
+     * Completes delivery of any buffered reminders. Called after each batch.
+     *
+     * @throws Exception if buffered reminders could not be delivered
+     */
+    default void flush() throws Exception {
+    }
+}
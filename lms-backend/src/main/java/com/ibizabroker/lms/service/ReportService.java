@@ -0,0 +1,294 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.ReportExportRepository;
+import com.ibizabroker.lms.dao.ReportJobRepository;
+import com.ibizabroker.lms.entity.ReportJob;
+import com.ibizabroker.lms.enums.ReportStatus;
+import com.ibizabroker.lms.enums.ReportType;
+import com.ibizabroker.lms.exceptions.ConflictException;
+import com.ibizabroker.lms.exceptions.NotFoundException;
+import com.ibizabroker.lms.util.CsvWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Service exporting large reports as gzip-compressed CSV files in the background.
+ * A request is recorded as a job and answered at once; the export runs on a small pool
+ * of threads, streaming rows from a database cursor into a file on the local disk, so no
+ * request thread waits for the query and no report is held in memory. Admins poll the
+ * job and download the file once it is complete.
+ *
+ * Files are written under a temporary name and renamed when complete, so a download never
+ * sees a partial file. Each file stays on the node that wrote it; jobs and files are
+ * deleted by that node once they are older than the retention period.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class ReportService {
+
+    /**
+     * Size of the buffer in front of the compressor.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReportJobRepository reportJobRepository;
+
+    private final ReportExportRepository reportExportRepository;
+
+    /**
+     * Name of this node, recorded on every job it runs.
+     */
+    private final String nodeName;
+
+    /**
+     * Directory the report files are written to.
+     */
+    private final Path directory;
+
+    /**
+     * Time a finished job and its file are kept, in milliseconds.
+     */
+    private final long retentionMillis;
+
+    /**
+     * Threads running exports; the pool size is the number of exports run concurrently.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Constructs a new ReportService.
+     *
+     * @param reportJobRepository Repository for report jobs
+     * @param reportExportRepository Repository streaming the report rows
+     * @param scheduledJobRunner Runner providing the name of this node
+     * @param directory Directory the report files are written to
+     * @param maxConcurrent Number of exports run at the same time
+     * @param maxQueued Number of exports waiting for a thread before new requests are refused
+     * @param retentionHours Time a finished job and its file are kept, in hours
+     */
+    public ReportService(ReportJobRepository reportJobRepository,
+                         ReportExportRepository reportExportRepository,
+                         ScheduledJobRunner scheduledJobRunner,
+                         @Value("${lms.reports.dir:reports}") String directory,
+                         @Value("${lms.reports.max-concurrent:2}") int maxConcurrent,
+                         @Value("${lms.reports.max-queued:10}") int maxQueued,
+                         @Value("${lms.reports.retention-hours:24}") long retentionHours) {
+        this.reportJobRepository = reportJobRepository;
+        this.reportExportRepository = reportExportRepository;
+        this.nodeName = scheduledJobRunner.getNodeName();
+        this.directory = Paths.get(directory);
+        this.retentionMillis = TimeUnit.HOURS.toMillis(retentionHours);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxQueued), runnable -> {
+                    Thread thread = new Thread(runnable, "report-export-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Creates the report directory and fails the jobs this node left unfinished when it last stopped.
+     *
+     * @throws IOException if the directory cannot be created
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        Files.createDirectories(directory);
+        List<ReportJob> interrupted = reportJobRepository.findByNodeNameAndStatusIn(nodeName,
+                Arrays.asList(ReportStatus.QUEUED, ReportStatus.RUNNING));
+        for (ReportJob job : interrupted) {
+            if (job.getFileName() != null) {
+                Files.deleteIfExists(partFile(job));
+            }
+            fail(job, "Interrupted by a restart of " + nodeName);
+        }
+    }
+
+    /**
+     * Records a report request and queues its export.
+     *
+     * @param type The report to export
+     * @return The queued job
+     * @throws IllegalStateException if too many exports are already waiting
+     */
+    public ReportJob submit(ReportType type) {
+        ReportJob job = new ReportJob();
+        job.setReportType(type);
+        job.setStatus(ReportStatus.QUEUED);
+        job.setRequestedBy(currentUsername());
+        job.setNodeName(nodeName);
+        job.setRequestedAt(new Date());
+        job = reportJobRepository.save(job);
+        job.setFileName(type.name().toLowerCase().replace('_', '-') + "-" + job.getId() + ".csv.gz");
+        job = reportJobRepository.save(job);
+
+        Long id = job.getId();
+        try {
+            executor.execute(() -> export(id));
+        } catch (RejectedExecutionException e) {
+            reportJobRepository.delete(job);
+            throw new IllegalStateException("Too many reports are being exported; try again later");
+        }
+        return job;
+    }
+
+    /**
+     * Gets a report job.
+     *
+     * @param id ID of the job
+     * @return The job
+     * @throws NotFoundException if there is no such job
+     */
+    public ReportJob getJob(Long id) {
+        return reportJobRepository.findById(id)
+                .orElseThrow(() -> new NotFoundException("Report " + id + " not found"));
+    }
+
+    /**
+     * Gets the most recently requested report jobs.
+     *
+     * @return Up to 50 jobs, newest first
+     */
+    public List<ReportJob> getRecentJobs() {
+        return reportJobRepository.findTop50ByOrderByRequestedAtDesc();
+    }
+
+    /**
+     * Gets the file of a completed report.
+     *
+     * @param job The job
+     * @return Path of the compressed CSV file
+     * @throws ConflictException if the report is not complete or was written by another node
+     * @throws NotFoundException if the file has been deleted
+     */
+    public Path getFile(ReportJob job) {
+        if (job.getStatus() != ReportStatus.COMPLETED) {
+            throw new ConflictException("Report " + job.getId() + " is " + job.getStatus());
+        }
+        if (!nodeName.equals(job.getNodeName())) {
+            throw new ConflictException("Report " + job.getId() + " is stored on " + job.getNodeName());
+        }
+        Path file = directory.resolve(job.getFileName());
+        if (!Files.isRegularFile(file)) {
+            throw new NotFoundException("Report " + job.getId() + " has expired");
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the jobs this node finished longer ago than the retention period, and their files.
+     * Runs every hour.
+     */
+    @Scheduled(fixedDelay = 3600000, initialDelay = 60000)
+    public void deleteExpired() {
+        Date cutoff = new Date(System.currentTimeMillis() - retentionMillis);
+        int deleted = 0;
+        for (ReportJob job : reportJobRepository.findByNodeNameAndFinishedAtBefore(nodeName, cutoff)) {
+            try {
+                if (job.getFileName() != null) {
+                    Files.deleteIfExists(directory.resolve(job.getFileName()));
+                }
+                reportJobRepository.delete(job);
+                deleted++;
+            } catch (IOException e) {
+                System.out.println("Could not delete report file " + job.getFileName() + ": " + e.getMessage());
+            }
+        }
+        if (deleted > 0) {
+            System.out.println("Deleted " + deleted + " expired reports");
+        }
+    }
+
+    /**
+     * Stops running exports when the application shuts down; they are failed on the next start.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Writes a report to its file and records the outcome on the job.
+     */
+    private void export(Long id) {
+        ReportJob job = reportJobRepository.findById(id).orElse(null);
+        if (job == null) {
+            return;
+        }
+        job.setStatus(ReportStatus.RUNNING);
+        job.setStartedAt(new Date());
+        job = reportJobRepository.save(job);
+
+        Path part = partFile(job);
+        Path file = directory.resolve(job.getFileName());
+        long start = System.currentTimeMillis();
+        try {
+            long rows;
+            try (CsvWriter csv = new CsvWriter(new OutputStreamWriter(new GZIPOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(part), BUFFER_SIZE), BUFFER_SIZE),
+                    StandardCharsets.UTF_8))) {
+                rows = reportExportRepository.export(job.getReportType(), csv);
+            }
+            Files.move(part, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            job.setRowCount(rows);
+            job.setSizeBytes(Files.size(file));
+            job.setStatus(ReportStatus.COMPLETED);
+            job.setFinishedAt(new Date());
+            reportJobRepository.save(job);
+            System.out.println("Exported report " + id + " (" + job.getReportType() + "): " + rows + " rows, "
+                    + job.getSizeBytes() + " bytes in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException ignored) {
+                // The next restart or retention pass removes it
+            }
+            System.out.println("Report " + id + " failed: " + e.getMessage());
+            fail(job, e.getMessage());
+        }
+    }
+
+    private void fail(ReportJob job, String message) {
+        job.setStatus(ReportStatus.FAILED);
+        job.setFinishedAt(new Date());
+        job.setMessage(message == null ? null : message.substring(0, Math.min(message.length(), 1000)));
+        reportJobRepository.save(job);
+    }
+
+    private Path partFile(ReportJob job) {
+        return directory.resolve(job.getFileName() + ".part");
+    }
+
+    private String currentUsername() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication != null ? authentication.getName() : null;
+    }
+}
@@ -0,0 +1,295 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.JobRunRepository;
+import com.ibizabroker.lms.entity.JobRun;
+import com.ibizabroker.lms.enums.JobOutcome;
+import com.ibizabroker.lms.exceptions.NotFoundException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Service class that runs background jobs so that each run happens on only one node.
+ * Every API node fires the same @Scheduled triggers; before a job starts, this runner takes a
+ * PostgreSQL session-level advisory lock for it on a dedicated connection and holds it until
+ * the job ends. Nodes that cannot get the lock skip the trigger. If a node dies, its connection
+ * closes and the lock is released by the database.
+ *
+ * Scheduled triggers are also skipped if the job succeeded within its minimum interval, so a
+ * node whose clock is slightly behind does not repeat a run that another node just finished.
+ * Every run, including skipped ones, is recorded in the "job_runs" table.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class ScheduledJobRunner {
+
+    /**
+     * Trigger type of runs started by a @Scheduled method.
+     */
+    public static final String SCHEDULED = "SCHEDULED";
+
+    /**
+     * Trigger type of runs started by an administrator.
+     */
+    public static final String MANUAL = "MANUAL";
+
+    /**
+     * First key of the two-key advisory lock, reserving a lock namespace for this application.
+     */
+    private static final int LOCK_NAMESPACE = 0x4C4D5301;
+
+    /**
+     * Longest message stored with a run.
+     */
+    private static final int MAX_MESSAGE_LENGTH = 1000;
+
+    /**
+     * Source of the connections that hold the advisory locks.
+     */
+    private final DataSource dataSource;
+
+    /**
+     * Repository for job run history.
+     */
+    private final JobRunRepository jobRunRepository;
+
+    /**
+     * Name of this node, recorded with each run.
+     */
+    private final String nodeName;
+
+    /**
+     * Registered jobs by name.
+     */
+    private final Map<String, RegisteredJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Runs manually triggered jobs off the request thread.
+     */
+    private final ExecutorService manualRuns = Executors.newCachedThreadPool();
+
+    /**
+     * Constructs a new ScheduledJobRunner.
+     *
+     * @param dataSource Source of the connections that hold the advisory locks
+     * @param jobRunRepository Repository for job run history
+     * @param nodeName Name of this node; the host name is used when empty
+     */
+    public ScheduledJobRunner(DataSource dataSource, JobRunRepository jobRunRepository,
+                              @Value("${lms.node-name:}") String nodeName) {
+        this.dataSource = dataSource;
+        this.jobRunRepository = jobRunRepository;
+        this.nodeName = nodeName.isEmpty() ? hostName() : nodeName;
+    }
+
+    /**
+     * Registers a job so it can be run by name.
+     *
+     * @param jobName Unique name of the job
+     * @param minIntervalMillis Minimum time between successful scheduled runs
+     * @param work The job; returns the number of rows it processed
+     */
+    public void register(String jobName, long minIntervalMillis, LongSupplier work) {
+        jobs.put(jobName, new RegisteredJob(jobName, minIntervalMillis, work));
+    }
+
+    /**
+     * Gets the names of all registered jobs.
+     *
+     * @return Sorted job names
+     */
+    public Set<String> getJobNames() {
+        return new TreeSet<>(jobs.keySet());
+    }
+
+    /**
+     * Gets the name this node records on the work it does.
+     *
+     * @return The configured node name, or the host name
+     */
+    public String getNodeName() {
+        return nodeName;
+    }
+
+    /**
+     * Runs a job on the calling thread if no other node is running it.
+     * Errors thrown by the job are recorded on the run rather than rethrown.
+     *
+     * @param jobName Name of the job
+     * @param triggerType SCHEDULED or MANUAL; only scheduled runs honour the minimum interval
+     * @return The recorded run
+     * @throws NotFoundException if no job is registered under the name
+     */
+    public JobRun run(String jobName, String triggerType) {
+        RegisteredJob job = findJob(jobName);
+        try (Connection lockConnection = dataSource.getConnection()) {
+            if (!tryLock(lockConnection, jobName)) {
+                return recordSkipped(job, triggerType, "Job is already running on another node");
+            }
+            try {
+                if (SCHEDULED.equals(triggerType)) {
+                    Optional<JobRun> last = jobRunRepository.findFirstByJobNameAndOutcomeOrderByStartedAtDesc(
+                            jobName, JobOutcome.SUCCEEDED);
+                    if (last.isPresent()
+                            && System.currentTimeMillis() - last.get().getStartedAt().getTime() < job.minIntervalMillis) {
+                        return recordSkipped(job, triggerType,
+                                "Job already succeeded at " + last.get().getStartedAt() + " on " + last.get().getNodeName());
+                    }
+                }
+                return execute(job, triggerType);
+            } finally {
+                unlock(lockConnection, jobName);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not lock job " + jobName, e);
+        }
+    }
+
+    /**
+     * Starts a manual run of a job in the background.
+     *
+     * @param jobName Name of the job
+     * @throws NotFoundException if no job is registered under the name
+     */
+    public void trigger(String jobName) {
+        findJob(jobName);
+        manualRuns.submit(() -> run(jobName, MANUAL));
+    }
+
+    /**
+     * Gets the most recent runs, optionally of one job.
+     *
+     * @param jobName Name of the job, or null for all jobs
+     * @return Up to 50 runs, newest first
+     */
+    public List<JobRun> getRecentRuns(String jobName) {
+        return jobName == null
+                ? jobRunRepository.findTop50ByOrderByStartedAtDesc()
+                : jobRunRepository.findTop50ByJobNameOrderByStartedAtDesc(jobName);
+    }
+
+    /**
+     * Stops accepting manual runs when the application shuts down.
+     */
+    @PreDestroy
+    public void shutdown() {
+        manualRuns.shutdown();
+    }
+
+    /**
+     * Runs the job and records its duration, row count and outcome.
+     */
+    private JobRun execute(RegisteredJob job, String triggerType) {
+        JobRun run = newRun(job, triggerType);
+        run.setOutcome(JobOutcome.RUNNING);
+        run = jobRunRepository.save(run);
+        System.out.println("Starting job " + job.name + " (" + triggerType + ") on " + nodeName);
+
+        long start = System.nanoTime();
+        try {
+            run.setRowsProcessed(job.work.getAsLong());
+            run.setOutcome(JobOutcome.SUCCEEDED);
+        } catch (RuntimeException e) {
+            run.setOutcome(JobOutcome.FAILED);
+            run.setMessage(truncate(e.toString()));
+        }
+        run.setDurationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        run.setFinishedAt(new Date());
+        run = jobRunRepository.save(run);
+        System.out.println("Job " + job.name + " " + run.getOutcome() + " in " + run.getDurationMs() + " ms, "
+                + run.getRowsProcessed() + " rows" + (run.getMessage() != null ? ": " + run.getMessage() : ""));
+        return run;
+    }
+
+    private JobRun recordSkipped(RegisteredJob job, String triggerType, String reason) {
+        JobRun run = newRun(job, triggerType);
+        run.setFinishedAt(run.getStartedAt());
+        run.setDurationMs(0L);
+        run.setOutcome(JobOutcome.SKIPPED);
+        run.setMessage(reason);
+        System.out.println("Skipped job " + job.name + ": " + reason);
+        return jobRunRepository.save(run);
+    }
+
+    private JobRun newRun(RegisteredJob job, String triggerType) {
+        JobRun run = new JobRun();
+        run.setJobName(job.name);
+        run.setNodeName(nodeName);
+        run.setTriggerType(triggerType);
+        run.setStartedAt(new Date());
+        return run;
+    }
+
+    private RegisteredJob findJob(String jobName) {
+        RegisteredJob job = jobs.get(jobName);
+        if (job == null) {
+            throw new NotFoundException("Job not found: " + jobName);
+        }
+        return job;
+    }
+
+    private boolean tryLock(Connection connection, String jobName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_try_advisory_lock(?, ?)")) {
+            statement.setInt(1, LOCK_NAMESPACE);
+            statement.setInt(2, jobName.hashCode());
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Releases the lock before the connection goes back to the pool, since a session-level
+     * lock would otherwise stay with the pooled connection.
+     */
+    private void unlock(Connection connection, String jobName) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_advisory_unlock(?, ?)")) {
+            statement.setInt(1, LOCK_NAMESPACE);
+            statement.setInt(2, jobName.hashCode());
+            statement.execute();
+        }
+    }
+
+    private static String truncate(String message) {
+        return message.length() > MAX_MESSAGE_LENGTH ? message.substring(0, MAX_MESSAGE_LENGTH) : message;
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * A job known to the runner.
+     */
+    private static final class RegisteredJob {
+        private final String name;
+        private final long minIntervalMillis;
+        private final LongSupplier work;
+
+        private RegisteredJob(String name, long minIntervalMillis, LongSupplier work) {
+            this.name = name;
+            this.minIntervalMillis = minIntervalMillis;
+            this.work = work;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.util.SingleFlightCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived cache in front of the statistics queries.
+ * When many admins open the dashboard at once, each endpoint would otherwise run its query
+ * once per request. Here concurrent requests for the same statistic share one query, results
+ * are reused for the time-to-live, and a statistic that is read within the last part of its
+ * time-to-live is reloaded in the background so that readers keep getting cached results.
+ *
+ * Keys name the statistic and its parameters. Results backed by the statistics views should
+ * include the refresh time in their key, so a refresh is picked up immediately.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class StatisticsCache {
+
+    /**
+     * Threads reloading statistics in the background, separate from the web and scheduler threads.
+     */
+    private final ThreadPoolExecutor refreshExecutor;
+
+    private final SingleFlightCache<String, Object> cache;
+
+    /**
+     * Constructs a new StatisticsCache.
+     *
+     * @param ttlMillis Time a result is reused, in milliseconds
+     * @param refreshAheadMillis Time before expiry from which a read reloads the result in the background, in milliseconds
+     * @param refreshThreads Number of threads for background reloads
+     */
+    public StatisticsCache(@Value("${lms.statistics.cache.ttl-ms:60000}") long ttlMillis,
+                           @Value("${lms.statistics.cache.refresh-ahead-ms:15000}") long refreshAheadMillis,
+                           @Value("${lms.statistics.cache.refresh-threads:2}") int refreshThreads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.refreshExecutor = new ThreadPoolExecutor(refreshThreads, refreshThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(32), runnable -> {
+                    Thread thread = new Thread(runnable, "stats-cache-refresh-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        refreshExecutor.allowCoreThreadTimeOut(true);
+        this.cache = new SingleFlightCache<>(ttlMillis, ttlMillis - refreshAheadMillis, refreshExecutor);
+    }
+
+    /**
+     * Gets a statistic from the cache, computing it if it is missing or expired.
+     * The result is shared between callers and must not be modified.
+     *
+     * @param key Name of the statistic and its parameters
+     * @param loader Computes the statistic
+     * @param <T> Type of the statistic
+     * @return The statistic
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Supplier<T> loader) {
+        return (T) cache.get(key, loader::get);
+    }
+
+    /**
+     * Drops every cached statistic, so the next reads query the database.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Gets the cache's hit, miss and load-time counters.
+     *
+     * @return Map of counter name to value
+     */
+    public Map<String, Object> getStats() {
+        return cache.getStats();
+    }
+
+    /**
+     * Removes expired statistics, such as those keyed by an old view refresh. Runs every minute.
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public void evictExpired() {
+        cache.evictExpired();
+    }
+
+    /**
+     * Stops the background reload threads on shutdown.
+     */
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,418 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.BooksRepository;
+import com.ibizabroker.lms.dao.BorrowRepository;
+import com.ibizabroker.lms.dao.RequestedBookRepository;
+import com.ibizabroker.lms.dao.TableEstimateRepository;
+import com.ibizabroker.lms.dao.UsersRepository;
+import com.ibizabroker.lms.enums.DashboardMetric;
+import com.ibizabroker.lms.enums.ReturnReqStatus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Service that builds the admin dashboard summary.
+ * The summary's count queries are independent, so they are issued concurrently on a small
+ * dedicated thread pool and the response takes as long as the slowest query rather than the
+ * sum of all of them. Each query runs in its own read-only transaction with a server-side
+ * statement timeout; a query that fails, times out or finds the pool full is left out of
+ * the summary and listed under "unavailable" instead of failing the whole request.
+ *
+ * When a consistent summary is requested, one transaction exports a Postgres snapshot and
+ * every query imports it, so all counts describe the same moment.
+ *
+ * An approximate summary avoids counting the large tables. Table totals are read from the
+ * planner statistics, and the filtered loan counts are scaled up from a sample of the borrow
+ * table's pages, reported with a 95% margin of error. Tables smaller than a threshold are
+ * counted exactly, since counting them is cheap and their estimates are the least reliable.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class StatisticsSummaryService {
+
+    /**
+     * Format of the snapshot IDs returned by pg_export_snapshot, checked before they are
+     * inlined into SET TRANSACTION SNAPSHOT, which does not accept parameters.
+     */
+    private static final Pattern SNAPSHOT_ID = Pattern.compile("[0-9A-Fa-f-]+");
+
+    private final BooksRepository booksRepository;
+
+    private final UsersRepository usersRepository;
+
+    private final BorrowRepository borrowRepository;
+
+    private final RequestedBookRepository requestedBookRepository;
+
+    private final TableEstimateRepository tableEstimateRepository;
+
+    private final DataSource dataSource;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Read-only transaction for each query.
+     */
+    private final TransactionTemplate readOnlyTransaction;
+
+    /**
+     * Read-only repeatable read transaction for queries that import a snapshot.
+     */
+    private final TransactionTemplate snapshotTransaction;
+
+    /**
+     * Bounded pool the summary queries run on, separate from the web and scheduler threads.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Time allowed for the whole summary, and for each query on the server, in milliseconds.
+     */
+    private final long timeoutMillis;
+
+    /**
+     * Tables with fewer estimated rows than this are counted exactly in an approximate summary.
+     */
+    private final long exactThreshold;
+
+    /**
+     * Number of loans the borrow table sample aims to read.
+     */
+    private final long sampleRows;
+
+    /**
+     * Constructs a new StatisticsSummaryService.
+     *
+     * @param booksRepository Repository for book counts
+     * @param usersRepository Repository for user counts
+     * @param borrowRepository Repository for loan counts
+     * @param requestedBookRepository Repository for book request counts
+     * @param tableEstimateRepository Repository for estimated counts
+     * @param dataSource Source of the connection that exports the snapshot
+     * @param jdbcTemplate Template for session settings on the query transactions
+     * @param transactionManager Transaction manager for the query transactions
+     * @param threads Number of threads running summary queries
+     * @param queueCapacity Number of queries that may wait for a thread
+     * @param timeoutMillis Time allowed for the summary, in milliseconds
+     * @param exactThreshold Estimated row count below which an approximate summary counts a table exactly
+     * @param sampleRows Number of loans the borrow table sample aims to read
+     */
+    public StatisticsSummaryService(BooksRepository booksRepository, UsersRepository usersRepository,
+                                    BorrowRepository borrowRepository, RequestedBookRepository requestedBookRepository,
+                                    TableEstimateRepository tableEstimateRepository,
+                                    DataSource dataSource, JdbcTemplate jdbcTemplate,
+                                    PlatformTransactionManager transactionManager,
+                                    @Value("${lms.statistics.summary-threads:6}") int threads,
+                                    @Value("${lms.statistics.summary-queue:24}") int queueCapacity,
+                                    @Value("${lms.statistics.summary-timeout-ms:2000}") long timeoutMillis,
+                                    @Value("${lms.statistics.approximate.exact-threshold:100000}") long exactThreshold,
+                                    @Value("${lms.statistics.approximate.sample-rows:50000}") long sampleRows) {
+        this.booksRepository = booksRepository;
+        this.usersRepository = usersRepository;
+        this.borrowRepository = borrowRepository;
+        this.requestedBookRepository = requestedBookRepository;
+        this.tableEstimateRepository = tableEstimateRepository;
+        this.dataSource = dataSource;
+        this.jdbcTemplate = jdbcTemplate;
+        this.timeoutMillis = timeoutMillis;
+        this.exactThreshold = exactThreshold;
+        this.sampleRows = sampleRows;
+
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        snapshotTransaction.setReadOnly(true);
+        snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "stats-summary-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Builds the summary statistics.
+     *
+     * @param consistent Whether all counts should be taken from one database snapshot
+     * @return Map of count per metric, plus the names of any metrics that could not be computed
+     */
+    public Map<String, Object> getSummary(boolean consistent) {
+        return summary(consistent, null, null);
+    }
+
+    /**
+     * Builds the summary statistics from one database snapshot and runs an action at the
+     * moment the snapshot is taken. The lock is held while the snapshot is taken and the
+     * action runs, so a caller can keep the changes it tracks from committing in between
+     * and relate its own state to the counts exactly.
+     *
+     * @param lock Lock held while the snapshot is taken and the action runs
+     * @param atSnapshot Action run at the moment of the snapshot; not run if no snapshot could be taken
+     * @return Map of count per metric, plus the names of any metrics that could not be computed,
+     *         and "consistent": false if no snapshot could be taken
+     */
+    public Map<String, Object> getSummaryAtSnapshot(Lock lock, Runnable atSnapshot) {
+        return summary(true, lock, atSnapshot);
+    }
+
+    private Map<String, Object> summary(boolean consistent, Lock lock, Runnable atSnapshot) {
+        Map<String, LongSupplier> queries = new LinkedHashMap<>();
+        queries.put(DashboardMetric.TOTAL_BOOKS.getKey(), booksRepository::count);
+        queries.put(DashboardMetric.TOTAL_USERS.getKey(), usersRepository::count);
+        queries.put(DashboardMetric.BORROWED_BOOKS.getKey(), borrowRepository::countUnreturnedBooks);
+        queries.put(DashboardMetric.OVERDUE_BOOKS.getKey(), () -> borrowRepository.countOverdueBooks(ReturnReqStatus.APPROVED));
+        queries.put(DashboardMetric.REQUESTED_BOOKS.getKey(), requestedBookRepository::count);
+        queries.put(DashboardMetric.RETURN_REQUESTS.getKey(), () -> borrowRepository.countByReturnRequestStatus(ReturnReqStatus.PENDING));
+
+        if (!consistent) {
+            return fanOut(queries, null);
+        }
+        Connection exporter = null;
+        String snapshotId;
+        try {
+            exporter = dataSource.getConnection();
+            exporter.setAutoCommit(false);
+            exporter.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            exporter.setReadOnly(true);
+            if (lock == null) {
+                snapshotId = exportSnapshot(exporter);
+            } else {
+                lock.lock();
+                try {
+                    snapshotId = exportSnapshot(exporter);
+                    atSnapshot.run();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not export a snapshot for the statistics summary, counting without one: " + e);
+            release(exporter);
+            Map<String, Object> stats = fanOut(queries, null);
+            stats.put("consistent", false);
+            return stats;
+        }
+        try {
+            // The snapshot can be imported only while the exporting transaction stays open
+            return fanOut(queries, snapshotId);
+        } finally {
+            release(exporter);
+        }
+    }
+
+    /**
+     * Builds the summary statistics from estimates where the tables are large.
+     * Books, users and book requests are estimated from the planner statistics. Borrowed,
+     * overdue and return-requested loans are estimated from a sample of the borrow table,
+     * with their 95% margins of error under "margins"; the margins assume sampled pages hold
+     * independent loans, so they understate the error when similar loans sit together.
+     * Counts of tables below the threshold, or never analyzed, are exact.
+     *
+     * @return Map of count per metric, the source of each count ("exact", "table-statistics"
+     *         or "sample"), the sampled margins, and the names of any metrics that could not be computed
+     */
+    public Map<String, Object> getApproximateSummary() {
+        Map<String, LongSupplier> exact = new LinkedHashMap<>();
+        Map<String, Object> estimates = new HashMap<>();
+        Map<String, String> sources = new LinkedHashMap<>();
+        Map<String, Long> margins = new LinkedHashMap<>();
+
+        estimateTable(DashboardMetric.TOTAL_BOOKS, "books", booksRepository::count, exact, estimates, sources);
+        estimateTable(DashboardMetric.TOTAL_USERS, "users", usersRepository::count, exact, estimates, sources);
+        estimateTable(DashboardMetric.REQUESTED_BOOKS, "requested_books", requestedBookRepository::count,
+                exact, estimates, sources);
+
+        Map<String, LongSupplier> loanCounts = new LinkedHashMap<>();
+        loanCounts.put(DashboardMetric.BORROWED_BOOKS.getKey(), borrowRepository::countUnreturnedBooks);
+        loanCounts.put(DashboardMetric.OVERDUE_BOOKS.getKey(), () -> borrowRepository.countOverdueBooks(ReturnReqStatus.APPROVED));
+        loanCounts.put(DashboardMetric.RETURN_REQUESTS.getKey(), () -> borrowRepository.countByReturnRequestStatus(ReturnReqStatus.PENDING));
+        long loans = tableEstimateRepository.estimateRows("borrow");
+        TableEstimateRepository.BorrowSample sample = loans < exactThreshold ? null : sampleBorrow(loans);
+        if (sample == null || sample.getSampled() == 0) {
+            exact.putAll(loanCounts);
+        } else {
+            putSampled(DashboardMetric.BORROWED_BOOKS, sample.getUnreturned(), sample, loans, estimates, sources, margins);
+            putSampled(DashboardMetric.OVERDUE_BOOKS, sample.getOverdue(), sample, loans, estimates, sources, margins);
+            putSampled(DashboardMetric.RETURN_REQUESTS, sample.getPendingReturns(), sample, loans, estimates, sources, margins);
+        }
+
+        Map<String, Object> stats = exact.isEmpty() ? new HashMap<>() : fanOut(exact, null);
+        for (String metric : exact.keySet()) {
+            sources.put(metric, "exact");
+        }
+        stats.putAll(estimates);
+        stats.put("approximate", true);
+        stats.put("sources", sources);
+        if (!margins.isEmpty()) {
+            stats.put("margins", margins);
+        }
+        return stats;
+    }
+
+    /**
+     * Stops the summary threads.
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Submits every query, then collects the results that arrive before the deadline.
+     */
+    private Map<String, Object> fanOut(Map<String, LongSupplier> queries, String snapshotId) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        Map<String, Future<Long>> futures = new LinkedHashMap<>();
+        List<String> unavailable = new ArrayList<>();
+        for (Map.Entry<String, LongSupplier> query : queries.entrySet()) {
+            try {
+                futures.put(query.getKey(), executor.submit(() -> count(query.getValue(), snapshotId)));
+            } catch (RejectedExecutionException e) {
+                unavailable.add(query.getKey());
+            }
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        for (Map.Entry<String, Future<Long>> future : futures.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.nanoTime());
+                stats.put(future.getKey(), future.getValue().get(remaining, TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                future.getValue().cancel(true);
+                unavailable.add(future.getKey());
+            } catch (ExecutionException e) {
+                System.out.println("Statistics summary query " + future.getKey() + " failed: " + e.getCause());
+                unavailable.add(future.getKey());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.getValue().cancel(true);
+                unavailable.add(future.getKey());
+            }
+        }
+        if (!unavailable.isEmpty()) {
+            System.out.println("Statistics summary is partial, unavailable: " + unavailable);
+            stats.put("unavailable", unavailable);
+        }
+        if (snapshotId != null) {
+            stats.put("consistent", true);
+        }
+        return stats;
+    }
+
+    /**
+     * Runs one count in its own read-only transaction, importing the snapshot if there is one.
+     */
+    private long count(LongSupplier query, String snapshotId) {
+        TransactionTemplate transaction = snapshotId == null ? readOnlyTransaction : snapshotTransaction;
+        Long result = transaction.execute(status -> {
+            if (snapshotId != null) {
+                jdbcTemplate.execute("SET TRANSACTION SNAPSHOT '" + snapshotId + "'");
+            }
+            jdbcTemplate.execute("SET LOCAL statement_timeout = " + timeoutMillis);
+            return query.getAsLong();
+        });
+        return result == null ? 0 : result;
+    }
+
+    /**
+     * Uses the planner's estimate of a table's size, or counts the table if it is small or never analyzed.
+     */
+    private void estimateTable(DashboardMetric metric, String table, LongSupplier exactCount,
+                               Map<String, LongSupplier> exact, Map<String, Object> estimates, Map<String, String> sources) {
+        long rows = tableEstimateRepository.estimateRows(table);
+        if (rows < exactThreshold) {
+            exact.put(metric.getKey(), exactCount);
+        } else {
+            estimates.put(metric.getKey(), rows);
+            sources.put(metric.getKey(), "table-statistics");
+        }
+    }
+
+    /**
+     * Samples enough of the borrow table's pages to read about the configured number of loans.
+     *
+     * @return The sample, or null if it could not be taken in time
+     */
+    private TableEstimateRepository.BorrowSample sampleBorrow(long loans) {
+        double percent = Math.min(100.0, 100.0 * sampleRows / loans);
+        try {
+            return readOnlyTransaction.execute(status -> {
+                jdbcTemplate.execute("SET LOCAL statement_timeout = " + timeoutMillis);
+                return tableEstimateRepository.sampleBorrow(percent);
+            });
+        } catch (RuntimeException e) {
+            System.out.println("Could not sample the borrow table, counting exactly: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Scales a count in the sample up to the whole table and records its 95% margin of error.
+     */
+    private static void putSampled(DashboardMetric metric, long matched, TableEstimateRepository.BorrowSample sample,
+                                   long loans, Map<String, Object> estimates, Map<String, String> sources,
+                                   Map<String, Long> margins) {
+        double fraction = (double) matched / sample.getSampled();
+        double standardError = Math.sqrt(fraction * (1 - fraction) / sample.getSampled());
+        estimates.put(metric.getKey(), Math.round(fraction * loans));
+        sources.put(metric.getKey(), "sample");
+        margins.put(metric.getKey(), Math.round(1.96 * standardError * loans));
+    }
+
+    private static String exportSnapshot(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT pg_export_snapshot()")) {
+            resultSet.next();
+            String snapshotId = resultSet.getString(1);
+            if (snapshotId == null || !SNAPSHOT_ID.matcher(snapshotId).matches()) {
+                throw new SQLException("Unexpected snapshot ID: " + snapshotId);
+            }
+            return snapshotId;
+        }
+    }
+
+    /**
+     * Ends the exporting transaction and returns its connection to the pool.
+     */
+    private static void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.rollback();
+            connection.setReadOnly(false);
+            connection.setAutoCommit(true);
+        } catch (SQLException e) {
+            System.out.println("Could not end the statistics snapshot transaction: " + e);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                System.out.println("Could not close the statistics snapshot connection: " + e);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.BorrowRepository;
+import com.ibizabroker.lms.dao.JobRunRepository;
+import com.ibizabroker.lms.dao.StatisticsViewRepository;
+import com.ibizabroker.lms.entity.JobRun;
+import com.ibizabroker.lms.enums.JobOutcome;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Service that serves the borrowing statistics from Postgres materialized views.
+ * The most active users, most borrowed genres and books, and books borrowed per month
+ * each group the whole borrow table, so they are computed by a refresh job rather than
+ * on every dashboard load. The views are refreshed concurrently, so readers are never
+ * blocked, once the refresh interval has passed or once enough loans have been made on
+ * this node since the last refresh, whichever comes first.
+ *
+ * The refresh runs through {@link ScheduledJobRunner}, so only one node refreshes at a
+ * time, and every node reads the time of the last refresh from the job history. If the
+ * views could not be created, the statistics fall back to the live queries.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class StatisticsViewService {
+
+    /**
+     * Name of the refresh job.
+     */
+    private static final String JOB_NAME = "statistics-views";
+
+    private final StatisticsViewRepository statisticsViewRepository;
+
+    private final BorrowRepository borrowRepository;
+
+    private final JobRunRepository jobRunRepository;
+
+    private final ScheduledJobRunner scheduledJobRunner;
+
+    /**
+     * Maximum age of the views before they are refreshed, in milliseconds.
+     */
+    private final long refreshIntervalMillis;
+
+    /**
+     * Number of new loans on this node that triggers an early refresh.
+     */
+    private final long changeThreshold;
+
+    /**
+     * Loans made on this node since the views were last refreshed here.
+     */
+    private final LongAdder changesSinceRefresh = new LongAdder();
+
+    /**
+     * Whether the views exist and can be read.
+     */
+    private volatile boolean available;
+
+    /**
+     * Time of the last successful refresh on any node.
+     */
+    private volatile Date refreshedAt;
+
+    /**
+     * Constructs a new StatisticsViewService.
+     *
+     * @param statisticsViewRepository Repository for the materialized views
+     * @param borrowRepository Repository for the live queries used as a fallback
+     * @param jobRunRepository Repository for the refresh history
+     * @param scheduledJobRunner Runner for the refresh job
+     * @param refreshIntervalMinutes Maximum age of the views, in minutes
+     * @param changeThreshold Number of new loans that triggers an early refresh
+     */
+    public StatisticsViewService(StatisticsViewRepository statisticsViewRepository, BorrowRepository borrowRepository,
+                                 JobRunRepository jobRunRepository, ScheduledJobRunner scheduledJobRunner,
+                                 @Value("${lms.statistics.views.refresh-interval-minutes:15}") long refreshIntervalMinutes,
+                                 @Value("${lms.statistics.views.change-threshold:200}") long changeThreshold) {
+        this.statisticsViewRepository = statisticsViewRepository;
+        this.borrowRepository = borrowRepository;
+        this.jobRunRepository = jobRunRepository;
+        this.scheduledJobRunner = scheduledJobRunner;
+        this.refreshIntervalMillis = TimeUnit.MINUTES.toMillis(refreshIntervalMinutes);
+        this.changeThreshold = changeThreshold;
+    }
+
+    /**
+     * Registers the refresh job with the runner so it can also be triggered manually.
+     */
+    @PostConstruct
+    public void registerJob() {
+        scheduledJobRunner.register(JOB_NAME, TimeUnit.MINUTES.toMillis(1), this::refreshViews);
+    }
+
+    /**
+     * Creates any missing views. Until this succeeds the statistics use the live queries.
+     */
+    public void createViews() {
+        try {
+            statisticsViewRepository.createViews();
+        } catch (RuntimeException e) {
+            System.out.println("Could not create statistics views, using live queries: " + e.getMessage());
+            return;
+        }
+        // Views created just now are as fresh as a refresh
+        refreshedAt = lastRefresh().orElseGet(Date::new);
+        available = true;
+    }
+
+    /**
+     * Records a new loan, counting towards an early refresh.
+     */
+    public void recordChange() {
+        changesSinceRefresh.increment();
+    }
+
+    /**
+     * Refreshes the views if they are older than the refresh interval or enough loans have
+     * been made since the last refresh. Checks every 30 seconds.
+     */
+    @Scheduled(fixedDelay = 30000, initialDelay = 30000)
+    public void refreshIfStale() {
+        if (!available) {
+            return;
+        }
+        lastRefresh().ifPresent(last -> {
+            if (refreshedAt == null || last.after(refreshedAt)) {
+                refreshedAt = last;
+            }
+        });
+        boolean stale = refreshedAt == null || System.currentTimeMillis() - refreshedAt.getTime() >= refreshIntervalMillis;
+        if (stale || changesSinceRefresh.sum() >= changeThreshold) {
+            scheduledJobRunner.run(JOB_NAME, ScheduledJobRunner.SCHEDULED);
+        }
+    }
+
+    /**
+     * Refreshes every view concurrently. Call through {@link ScheduledJobRunner}.
+     *
+     * @return Number of views refreshed
+     */
+    public long refreshViews() {
+        Date started = new Date();
+        changesSinceRefresh.reset();
+        for (String view : StatisticsViewRepository.VIEWS) {
+            statisticsViewRepository.refreshConcurrently(view);
+        }
+        refreshedAt = started;
+        return StatisticsViewRepository.VIEWS.size();
+    }
+
+    /**
+     * Gets the time the statistics were last refreshed.
+     *
+     * @return Time of the last refresh, or null if the statistics are computed live
+     */
+    public Date getRefreshedAt() {
+        return available ? refreshedAt : null;
+    }
+
+    /**
+     * Retrieves the most active users based on borrowing activity.
+     *
+     * @return List of maps containing username and borrowCount
+     */
+    public List<Map<String, Object>> getMostActiveUsers() {
+        return available ? statisticsViewRepository.findMostActiveUsers() : borrowRepository.findMostActiveUsers();
+    }
+
+    /**
+     * Retrieves the most frequently borrowed genres.
+     *
+     * @return List of maps containing genre and count
+     */
+    public List<Map<String, Object>> getMostBorrowedGenres() {
+        return available ? statisticsViewRepository.findMostBorrowedGenres() : borrowRepository.findMostBorrowedGenres();
+    }
+
+    /**
+     * Retrieves the most frequently borrowed books.
+     *
+     * @return List of maps containing title and count
+     */
+    public List<Map<String, Object>> getMostBorrowedBooks() {
+        return available ? statisticsViewRepository.findMostBorrowedBooks() : borrowRepository.findMostBorrowedBooks();
+    }
+
+    /**
+     * Retrieves the number of books borrowed per month.
+     *
+     * @return List of maps containing month and count
+     */
+    public List<Map<String, Object>> getBooksBorrowedPerMonth() {
+        return available ? statisticsViewRepository.findBooksBorrowedPerMonth() : borrowRepository.findBooksBorrowedPerMonth();
+    }
+
+    private Optional<Date> lastRefresh() {
+        return jobRunRepository.findFirstByJobNameAndOutcomeOrderByStartedAtDesc(JOB_NAME, JobOutcome.SUCCEEDED)
+                .map(JobRun::getStartedAt);
+    }
+}
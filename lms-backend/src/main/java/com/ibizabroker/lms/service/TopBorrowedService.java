@@ -0,0 +1,209 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.StatisticsViewRepository;
+import com.ibizabroker.lms.util.SpaceSaving;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Service that tracks the most borrowed books and most active users with Space-Saving sketches.
+ * Each sketch keeps a fixed number of entries, so memory use and the size of the top-K
+ * responses stay constant however long the loan history grows.
+ *
+ * The sketches are seeded from the top rows of the statistics materialized views whenever
+ * those are refreshed, then fed by each checkout on this node. Checkouts on this node since
+ * the refresh started are kept and replayed into the new sketches, so none are lost while
+ * the views refresh. Every reported count is then an upper bound on the loans counted by
+ * the last refresh plus this node's checkouts since, and exceeds that by at most the
+ * reported error. Loans made on other nodes since the refresh are not included until the
+ * next one. Until the first seed the exact statistics are used.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class TopBorrowedService {
+
+    private final StatisticsViewRepository statisticsViewRepository;
+
+    private final StatisticsViewService statisticsViewService;
+
+    /**
+     * Number of entries kept per sketch.
+     */
+    private final int capacity;
+
+    /**
+     * Loans per book title. Guarded by this service's monitor.
+     */
+    private SpaceSaving<String> books;
+
+    /**
+     * Loans per username. Guarded by this service's monitor.
+     */
+    private SpaceSaving<String> users;
+
+    /**
+     * Refresh time of the views the sketches were seeded from, or null if not seeded yet.
+     */
+    private volatile Date seededAt;
+
+    /**
+     * Checkouts on this node since the views were last refreshed, oldest first, replayed
+     * into the sketches when they are re-seeded. Guarded by this service's monitor.
+     */
+    private final Deque<Checkout> recent = new ArrayDeque<>();
+
+    /**
+     * Constructs a new TopBorrowedService.
+     *
+     * @param statisticsViewRepository Repository for the views the sketches are seeded from
+     * @param statisticsViewService Service reporting when the views were last refreshed
+     * @param capacity Number of entries kept per sketch
+     */
+    public TopBorrowedService(StatisticsViewRepository statisticsViewRepository,
+                              StatisticsViewService statisticsViewService,
+                              @Value("${lms.statistics.top-k.capacity:500}") int capacity) {
+        this.statisticsViewRepository = statisticsViewRepository;
+        this.statisticsViewService = statisticsViewService;
+        this.capacity = capacity;
+        this.books = new SpaceSaving<>(capacity);
+        this.users = new SpaceSaving<>(capacity);
+    }
+
+    /**
+     * Counts a checkout. Call after the loan has been committed.
+     *
+     * @param username Username of the borrower
+     * @param bookName Title of the book
+     */
+    public synchronized void recordBorrow(String username, String bookName) {
+        if (statisticsViewService.getRefreshedAt() != null) {
+            recent.addLast(new Checkout(System.currentTimeMillis(), username, bookName));
+        }
+        offer(books, users, username, bookName);
+    }
+
+    /**
+     * Re-seeds the sketches once the statistics views have been refreshed, replaying the
+     * checkouts made on this node since the refresh started. Checks every 30 seconds.
+     */
+    @Scheduled(fixedDelay = 30000, initialDelay = 15000)
+    public void reseedIfRefreshed() {
+        Date refreshedAt = statisticsViewService.getRefreshedAt();
+        synchronized (this) {
+            // Checkouts before the latest refresh started are in the views, or will be
+            long keepFrom = refreshedAt == null ? Long.MAX_VALUE : refreshedAt.getTime();
+            while (!recent.isEmpty() && recent.peekFirst().at < keepFrom) {
+                recent.removeFirst();
+            }
+        }
+        if (refreshedAt == null || (seededAt != null && !refreshedAt.after(seededAt))) {
+            return;
+        }
+        SpaceSaving<String> seededBooks = new SpaceSaving<>(capacity);
+        for (Map<String, Object> row : statisticsViewRepository.findTopBorrowedBooks(capacity)) {
+            seed(seededBooks, (String) row.get("title"), row.get("count"));
+        }
+        SpaceSaving<String> seededUsers = new SpaceSaving<>(capacity);
+        for (Map<String, Object> row : statisticsViewRepository.findTopActiveUsers(capacity)) {
+            seed(seededUsers, (String) row.get("username"), row.get("borrowCount"));
+        }
+        synchronized (this) {
+            // Includes checkouts made while the views were read; some may also be in the
+            // views, which only overstates their counts
+            for (Checkout checkout : recent) {
+                if (checkout.at >= refreshedAt.getTime()) {
+                    offer(seededBooks, seededUsers, checkout.username, checkout.bookName);
+                }
+            }
+            books = seededBooks;
+            users = seededUsers;
+        }
+        seededAt = refreshedAt;
+    }
+
+    /**
+     * Checks whether the sketches have been seeded and can answer top-K queries.
+     *
+     * @return true if the sketches have been seeded
+     */
+    public boolean isReady() {
+        return seededAt != null;
+    }
+
+    /**
+     * Gets the capacity of the sketches, the largest top-K they can answer.
+     *
+     * @return Number of entries kept per sketch
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the most borrowed books.
+     *
+     * @param k Maximum number of books to return
+     * @return List of maps containing title, count and error, highest count first
+     */
+    public synchronized List<Map<String, Object>> getTopBooks(int k) {
+        return toRows(books.top(k), "title", "count");
+    }
+
+    /**
+     * Gets the users with the most loans.
+     *
+     * @param k Maximum number of users to return
+     * @return List of maps containing username, borrowCount and error, highest count first
+     */
+    public synchronized List<Map<String, Object>> getTopUsers(int k) {
+        return toRows(users.top(k), "username", "borrowCount");
+    }
+
+    private static void offer(SpaceSaving<String> books, SpaceSaving<String> users, String username, String bookName) {
+        if (username != null) {
+            users.offer(username, 1);
+        }
+        if (bookName != null) {
+            books.offer(bookName, 1);
+        }
+    }
+
+    private static void seed(SpaceSaving<String> sketch, String item, Object count) {
+        if (item != null && count instanceof Number && ((Number) count).longValue() > 0) {
+            sketch.offer(item, ((Number) count).longValue());
+        }
+    }
+
+    private static List<Map<String, Object>> toRows(List<SpaceSaving.Estimate<String>> estimates, String itemKey, String countKey) {
+        List<Map<String, Object>> rows = new ArrayList<>(estimates.size());
+        for (SpaceSaving.Estimate<String> estimate : estimates) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put(itemKey, estimate.getItem());
+            row.put(countKey, estimate.getCount());
+            row.put("error", estimate.getError());
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * A checkout on this node, kept until the views include it.
+     */
+    private static final class Checkout {
+
+        final long at;
+        final String username;
+        final String bookName;
+
+        Checkout(long at, String username, String bookName) {
+            this.at = at;
+            this.username = username;
+            this.bookName = bookName;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.BooksRepository;
+import com.ibizabroker.lms.dao.TrendingScoreRepository;
+import com.ibizabroker.lms.entity.Books;
+import com.ibizabroker.lms.util.IntDoubleHashMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service that ranks books by how much they are being borrowed right now.
+ * Each checkout adds one to the book's score and every score halves once per half-life,
+ * so recent loans outweigh older ones without scanning a window of the loan history.
+ *
+ * Scores are kept with forward decay: a loan at time t adds 2^((t - landmark) / halfLife),
+ * which leaves the ranking correct without touching every score as time passes. When the
+ * weights grow large, the landmark moves forward and all scores are rescaled once.
+ * The scores are saved to the "trending_scores" table every few minutes and loaded at
+ * startup; without a checkpoint they are seeded from recent loans. Each node counts its own
+ * checkouts, so with several nodes the ranking after a restart is that of the last node to save.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+@Service
+public class TrendingService {
+
+    /**
+     * Weight at which the landmark moves forward, keeping the weights well within double range.
+     */
+    private static final double RESCALE_WEIGHT = Math.pow(2, 40);
+
+    /**
+     * Decayed scores below this are dropped when saving.
+     */
+    private static final double MIN_SCORE = 0.01;
+
+    /**
+     * Loans older than this many half-lives are not read when seeding, as their weight is negligible.
+     */
+    private static final int SEED_HALF_LIVES = 8;
+
+    private final TrendingScoreRepository trendingScoreRepository;
+
+    private final BooksRepository booksRepository;
+
+    /**
+     * Half-life of the scores in milliseconds.
+     */
+    private final long halfLifeMillis;
+
+    /**
+     * Forward-decayed score per book ID, relative to the landmark. Guarded by this service's monitor.
+     */
+    private final IntDoubleHashMap scores = new IntDoubleHashMap(1024);
+
+    /**
+     * Time at which a loan has weight 1. Guarded by this service's monitor.
+     */
+    private long landmark = System.currentTimeMillis();
+
+    /**
+     * Constructs a new TrendingService.
+     *
+     * @param trendingScoreRepository Repository for saved scores
+     * @param booksRepository Repository for the details of trending books
+     * @param halfLifeHours Time after which a loan counts half as much, in hours
+     */
+    public TrendingService(TrendingScoreRepository trendingScoreRepository, BooksRepository booksRepository,
+                           @Value("${lms.trending.half-life-hours:72}") double halfLifeHours) {
+        this.trendingScoreRepository = trendingScoreRepository;
+        this.booksRepository = booksRepository;
+        this.halfLifeMillis = (long) (halfLifeHours * TimeUnit.HOURS.toMillis(1));
+    }
+
+    /**
+     * Loads the saved scores, or seeds them from recent loans if none were saved.
+     * Checkouts recorded before loading are kept.
+     */
+    public void load() {
+        Date now = new Date();
+        IntDoubleHashMap loaded = new IntDoubleHashMap(1024);
+        trendingScoreRepository.loadInto(halfLifeMillis, now, loaded);
+        String source = "checkpoint";
+        if (loaded.size() == 0) {
+            Date since = new Date(now.getTime() - SEED_HALF_LIVES * halfLifeMillis);
+            trendingScoreRepository.loadFromLoans(since, halfLifeMillis, now, loaded);
+            source = "recent loans";
+        }
+        synchronized (this) {
+            // Loaded scores are decayed to now; convert them to the landmark's scale
+            double weight = weight(now.getTime());
+            loaded.forEach((bookId, score) -> scores.addTo(bookId, score * weight));
+        }
+        System.out.println("Trending scores loaded for " + loaded.size() + " books from " + source);
+    }
+
+    /**
+     * Counts a checkout. Call after the loan has been committed.
+     *
+     * @param bookId The ID of the borrowed book
+     */
+    public synchronized void recordBorrow(Integer bookId) {
+        scores.addTo(bookId, weight(System.currentTimeMillis()));
+    }
+
+    /**
+     * Gets the current score of every book with one, most trending first.
+     *
+     * @param limit Maximum number of books to return
+     * @return Book IDs with their current decayed scores, highest first
+     */
+    public List<Map.Entry<Integer, Double>> getTopScores(int limit) {
+        PriorityQueue<Map.Entry<Integer, Double>> top = new PriorityQueue<>(Math.max(1, limit), Map.Entry.comparingByValue());
+        double decay;
+        synchronized (this) {
+            decay = 1 / weight(System.currentTimeMillis());
+            scores.forEach((bookId, score) -> {
+                if (top.size() < limit) {
+                    top.add(new AbstractMap.SimpleImmutableEntry<>(bookId, score));
+                } else if (score > top.peek().getValue()) {
+                    top.poll();
+                    top.add(new AbstractMap.SimpleImmutableEntry<>(bookId, score));
+                }
+            });
+        }
+        List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(top.size());
+        while (!top.isEmpty()) {
+            Map.Entry<Integer, Double> entry = top.poll();
+            ranked.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue() * decay));
+        }
+        Collections.reverse(ranked);
+        return ranked;
+    }
+
+    /**
+     * Gets the most trending books with their details.
+     *
+     * @param limit Maximum number of books to return
+     * @return List of maps containing bookId, title, author, genre and score, highest score first
+     */
+    public List<Map<String, Object>> getTrending(int limit) {
+        List<Map.Entry<Integer, Double>> ranked = getTopScores(limit);
+        Map<Integer, Books> books = new HashMap<>();
+        List<Integer> bookIds = new ArrayList<>(ranked.size());
+        for (Map.Entry<Integer, Double> entry : ranked) {
+            bookIds.add(entry.getKey());
+        }
+        for (Books book : booksRepository.findAllById(bookIds)) {
+            books.put(book.getBookId(), book);
+        }
+        List<Map<String, Object>> rows = new ArrayList<>(ranked.size());
+        for (Map.Entry<Integer, Double> entry : ranked) {
+            Books book = books.get(entry.getKey());
+            if (book == null) {
+                continue; // Deleted since it was borrowed
+            }
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("bookId", book.getBookId());
+            row.put("title", book.getBookName());
+            row.put("author", book.getBookAuthor());
+            row.put("genre", book.getBookGenre());
+            row.put("score", entry.getValue());
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Orders books by their current trending score, highest first. Books with equal scores keep their order.
+     *
+     * @param books The books to sort
+     * @return The books, most trending first
+     */
+    public List<Books> sortByTrending(List<Books> books) {
+        Map<Integer, Double> bookScores = new HashMap<>();
+        synchronized (this) {
+            for (Books book : books) {
+                bookScores.put(book.getBookId(), scores.get(book.getBookId()));
+            }
+        }
+        List<Books> sorted = new ArrayList<>(books);
+        sorted.sort(Comparator.comparing((Books book) -> bookScores.get(book.getBookId())).reversed());
+        return sorted;
+    }
+
+    /**
+     * Saves the current scores, dropping those that have decayed to almost nothing.
+     * Runs every five minutes by default.
+     */
+    @Scheduled(fixedDelayString = "${lms.trending.checkpoint-interval-ms:300000}", initialDelay = 300000)
+    public void checkpoint() {
+        Date now = new Date();
+        IntDoubleHashMap decayed;
+        synchronized (this) {
+            double weight = weight(now.getTime());
+            scores.removeBelow(MIN_SCORE * weight);
+            decayed = new IntDoubleHashMap(scores.size());
+            scores.forEach((bookId, score) -> decayed.addTo(bookId, score / weight));
+        }
+        trendingScoreRepository.replaceAll(decayed, now);
+    }
+
+    /**
+     * Gets the weight of a loan at the given time, moving the landmark forward first if the
+     * weight has grown too large. Callers must hold this service's monitor.
+     */
+    private double weight(long time) {
+        double weight = Math.pow(2, (double) (time - landmark) / halfLifeMillis);
+        if (weight > RESCALE_WEIGHT) {
+            scores.scale(1 / weight);
+            landmark = time;
+            weight = 1;
+        }
+        return weight;
+    }
+}
@@ -6,12 +6,14 @@ import com.ibizabroker.lms.dao.RoleRepository;
 import com.ibizabroker.lms.dao.BorrowRepository;
 import com.ibizabroker.lms.entity.Role;
 import com.ibizabroker.lms.entity.Users;
+import com.ibizabroker.lms.enums.DashboardMetric;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import javax.transaction.Transactional;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
@@ -57,6 +59,18 @@ public class UserService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
+    /**
+     * Service recording opening balances in the ledger.
+     */
+    @Autowired
+    private LedgerService ledgerService;
+
+    /**
+     * In-memory counts shown on the admin dashboard.
+     */
+    @Autowired
+    private DashboardCounters dashboardCounters;
+
     /**
      * Creates an admin user if one does not already exist in the system.
      * This method is used during system initialization to ensure there is always
@@ -100,12 +114,45 @@ public class UserService {
             adminUser.setRole(roles);
 
             usersRepository.save(adminUser);
+            ledgerService.openAccount(adminUser.getUserId(), adminUser.getAccountBalance());
+            dashboardCounters.add(DashboardMetric.TOTAL_USERS, 1);
             System.out.println("✅ Admin user created successfully!");
         } else {
             System.out.println("✅ Admin user already exists!");
         }
     }
 
+    /**
+     * Creates a new user with the "User" role and the default opening balance.
+     * The user and its opening ledger entry are saved in one transaction.
+     *
+     * @param user The user details to create
+     * @return The created user
+     */
+    @Transactional
+    public Users addUser(Users user) {
+        // Fetch or create the "User" role
+        Role userRole = roleRepository.findByRoleName("User")
+                .orElseGet(() -> {
+                    Role newRole = new Role();
+                    newRole.setRoleName("User");
+                    return roleRepository.save(newRole);
+                });
+
+        // Create and save the new user
+        Users newUser = new Users();
+        newUser.setUsername(user.getUsername());
+        newUser.setName(user.getName());
+        newUser.setPassword(passwordEncoder.encode(user.getPassword())); // Encode the password
+        newUser.setRole(Collections.singleton(userRole));
+        newUser.setAddress(user.getAddress());
+        newUser.setAccountBalance(500.0);
+        usersRepository.save(newUser);
+        ledgerService.openAccount(newUser.getUserId(), newUser.getAccountBalance());
+        dashboardCounters.add(DashboardMetric.TOTAL_USERS, 1);
+        return newUser;
+    }
+
     /**
      * Gets the total number of users in the system.
      *
@@ -0,0 +1,487 @@
+package com.ibizabroker.lms.util;
+
+import com.ibizabroker.lms.enums.AnalyticsDimension;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Immutable column-oriented copy of the borrow table, joined with book genres, for ad-hoc
+ * group-by queries in memory.
+ * Each attribute is a primitive array indexed by row. Genres, statuses, books and users are
+ * dictionary-encoded into dense codes, and the month, weekday and cohort of each loan are
+ * precomputed, so every dimension is an int column whose codes index the aggregate arrays
+ * directly. Dates are stored as epoch days.
+ *
+ * A query splits the rows into one range per core and scans the ranges in parallel. Within
+ * a range, rows are processed in blocks: each filter narrows a selection vector of row
+ * numbers in a tight loop over one column, then the selected rows are aggregated. The
+ * partial aggregates of the ranges are summed at the end. Each range holds aggregates for
+ * every group, so groupings with many groups are split into fewer ranges, which bounds the
+ * memory of a query whatever the number of cores.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public final class BorrowSnapshot {
+
+    /**
+     * Rows filtered and aggregated together.
+     */
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Largest number of groups a query may produce.
+     */
+    private static final int MAX_GROUPS = 1 << 18;
+
+    /**
+     * Largest number of groups times ranges a query aggregates into at once, 40 bytes each.
+     */
+    private static final int MAX_AGGREGATE_CELLS = 1 << 20;
+
+    /**
+     * Stored in the day columns when the date is missing.
+     */
+    private static final int NO_DAY = Integer.MAX_VALUE;
+
+    private static final AnalyticsDimension[] DIMENSIONS = AnalyticsDimension.values();
+
+    private final Date takenAt;
+
+    private final int size;
+
+    /**
+     * Day the snapshot was taken, for deciding which unreturned loans are overdue.
+     */
+    private final int today;
+
+    /**
+     * Code column per dimension, indexed by ordinal.
+     */
+    private final int[][] codes;
+
+    /**
+     * Label of each code, per dimension.
+     */
+    private final String[][] labels;
+
+    private final int[] issueDay;
+    private final int[] dueDay;
+    private final int[] returnDay;
+    private final double[] fine;
+
+    private BorrowSnapshot(Date takenAt, int size, int today, int[][] codes, String[][] labels,
+                           int[] issueDay, int[] dueDay, int[] returnDay, double[] fine) {
+        this.takenAt = takenAt;
+        this.size = size;
+        this.today = today;
+        this.codes = codes;
+        this.labels = labels;
+        this.issueDay = issueDay;
+        this.dueDay = dueDay;
+        this.returnDay = returnDay;
+        this.fine = fine;
+    }
+
+    /**
+     * Gets the time the snapshot was taken.
+     *
+     * @return The time the rows were read
+     */
+    public Date getTakenAt() {
+        return takenAt;
+    }
+
+    /**
+     * Gets the number of loans in the snapshot.
+     *
+     * @return The number of rows
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Groups the loans matching the filters and aggregates each group.
+     *
+     * @param groupBy Dimensions to group by, at most three; empty for a single total
+     * @param fromDay First issue date included, as an epoch day, or null
+     * @param toDay Last issue date included, as an epoch day, or null
+     * @param status Only loans with this return status if not null
+     * @param genre Only loans of books in this genre if not null
+     * @param limit Maximum number of groups returned, largest first
+     * @return Map containing matchedRows, groups and rows; each row holds the group's dimension
+     *         values, loans, returned, overdue, fines and avgLoanDays
+     * @throws IllegalArgumentException if the query would produce too many groups
+     */
+    public Map<String, Object> query(List<AnalyticsDimension> groupBy, Integer fromDay, Integer toDay,
+                                     String status, String genre, int limit) {
+        int[][] groupCodes = new int[groupBy.size()][];
+        int[] cardinalities = new int[groupBy.size()];
+        long groups = 1;
+        for (int d = 0; d < groupBy.size(); d++) {
+            groupCodes[d] = codes[groupBy.get(d).ordinal()];
+            cardinalities[d] = Math.max(1, labels[groupBy.get(d).ordinal()].length);
+            groups *= cardinalities[d];
+        }
+        if (groups > MAX_GROUPS) {
+            throw new IllegalArgumentException("Grouping by " + groupBy + " gives more than " + MAX_GROUPS + " groups");
+        }
+        Filter filter = new Filter(fromDay == null ? Integer.MIN_VALUE : fromDay, toDay == null ? NO_DAY - 1 : toDay,
+                codeOf(AnalyticsDimension.STATUS, status), codeOf(AnalyticsDimension.GENRE, genre));
+
+        int groupCount = (int) groups;
+        int parts = Math.min(Runtime.getRuntime().availableProcessors(), (size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        parts = Math.max(1, Math.min(parts, MAX_AGGREGATE_CELLS / groupCount));
+        int partSize = (size + parts - 1) / parts;
+        Aggregates total = IntStream.range(0, parts).parallel()
+                .mapToObj(p -> scan(p * partSize, Math.min(size, (p + 1) * partSize), filter, groupCodes, cardinalities, groupCount))
+                .reduce(Aggregates::add)
+                .orElseGet(() -> new Aggregates(groupCount));
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        long matched = 0;
+        for (int g = 0; g < groupCount; g++) {
+            if (total.loans[g] == 0) {
+                continue;
+            }
+            matched += total.loans[g];
+            Map<String, Object> row = new LinkedHashMap<>();
+            int remainder = g;
+            String[] values = new String[groupBy.size()];
+            for (int d = groupBy.size() - 1; d >= 0; d--) {
+                values[d] = labels[groupBy.get(d).ordinal()][remainder % cardinalities[d]];
+                remainder /= cardinalities[d];
+            }
+            for (int d = 0; d < groupBy.size(); d++) {
+                row.put(groupBy.get(d).name().toLowerCase(), values[d]);
+            }
+            row.put("loans", total.loans[g]);
+            row.put("returned", total.returned[g]);
+            row.put("overdue", total.overdue[g]);
+            row.put("fines", Math.round(total.fines[g] * 100) / 100.0);
+            row.put("avgLoanDays", total.returned[g] == 0 ? null
+                    : Math.round(total.loanDays[g] * 100.0 / total.returned[g]) / 100.0);
+            rows.add(row);
+        }
+        int groupsFound = rows.size();
+        rows.sort(Comparator.comparing((Map<String, Object> row) -> (Long) row.get("loans")).reversed());
+        if (rows.size() > limit) {
+            rows = new ArrayList<>(rows.subList(0, limit));
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("matchedRows", matched);
+        result.put("groups", groupsFound);
+        result.put("rows", rows);
+        return result;
+    }
+
+    /**
+     * Filters and aggregates one range of rows, a block at a time.
+     */
+    private Aggregates scan(int start, int end, Filter filter, int[][] groupCodes, int[] cardinalities, int groupCount) {
+        Aggregates aggregates = new Aggregates(groupCount);
+        int[] selection = new int[BLOCK_SIZE];
+        int[] statusCodes = codes[AnalyticsDimension.STATUS.ordinal()];
+        int[] genreCodes = codes[AnalyticsDimension.GENRE.ordinal()];
+        for (int blockStart = start; blockStart < end; blockStart += BLOCK_SIZE) {
+            int blockEnd = Math.min(end, blockStart + BLOCK_SIZE);
+            int selected = 0;
+            for (int i = blockStart; i < blockEnd; i++) {
+                if (issueDay[i] >= filter.fromDay && issueDay[i] <= filter.toDay) {
+                    selection[selected++] = i;
+                }
+            }
+            if (filter.statusCode != Filter.ANY) {
+                selected = narrow(selection, selected, statusCodes, filter.statusCode);
+            }
+            if (filter.genreCode != Filter.ANY) {
+                selected = narrow(selection, selected, genreCodes, filter.genreCode);
+            }
+            for (int k = 0; k < selected; k++) {
+                int i = selection[k];
+                int group = 0;
+                for (int d = 0; d < groupCodes.length; d++) {
+                    group = group * cardinalities[d] + groupCodes[d][i];
+                }
+                aggregates.loans[group]++;
+                aggregates.fines[group] += fine[i];
+                if (returnDay[i] != NO_DAY) {
+                    aggregates.returned[group]++;
+                    aggregates.loanDays[group] += returnDay[i] - issueDay[i];
+                }
+                if (dueDay[i] != NO_DAY && Math.min(returnDay[i], today) > dueDay[i]) {
+                    aggregates.overdue[group]++;
+                }
+            }
+        }
+        return aggregates;
+    }
+
+    /**
+     * Keeps the selected rows whose code in a column equals a value.
+     */
+    private static int narrow(int[] selection, int selected, int[] column, int code) {
+        int kept = 0;
+        for (int k = 0; k < selected; k++) {
+            if (column[selection[k]] == code) {
+                selection[kept++] = selection[k];
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Finds the code of a label, for filtering.
+     * Returns {@link Filter#ANY} for a null label and {@link Filter#NONE} for an unknown one.
+     */
+    private int codeOf(AnalyticsDimension dimension, String label) {
+        if (label == null) {
+            return Filter.ANY;
+        }
+        String[] dictionary = labels[dimension.ordinal()];
+        for (int code = 0; code < dictionary.length; code++) {
+            if (dictionary[code].equalsIgnoreCase(label)) {
+                return code;
+            }
+        }
+        return Filter.NONE;
+    }
+
+    /**
+     * Creates a builder that collects rows into columns.
+     *
+     * @param expectedRows Expected number of rows, for the initial column capacity
+     * @return An empty builder
+     */
+    public static Builder builder(int expectedRows) {
+        return new Builder(expectedRows);
+    }
+
+    /**
+     * Collects loans into growable columns, encoding dictionaries as it goes.
+     */
+    public static final class Builder {
+
+        private int size;
+        private int[] bookCodes;
+        private int[] userCodes;
+        private int[] genreCodes;
+        private int[] statusCodes;
+        private int[] issueDays;
+        private int[] dueDays;
+        private int[] returnDays;
+        private double[] fines;
+
+        private final IntIntHashMap bookDictionary = new IntIntHashMap(1024);
+        private final List<String> books = new ArrayList<>();
+        private final IntIntHashMap userDictionary = new IntIntHashMap(1024);
+        private final List<Integer> users = new ArrayList<>();
+        private final Map<String, Integer> genreDictionary = new HashMap<>();
+        private final List<String> genres = new ArrayList<>();
+        private final Map<String, Integer> statusDictionary = new HashMap<>();
+        private final List<String> statuses = new ArrayList<>();
+
+        private Builder(int expectedRows) {
+            int capacity = Math.max(16, expectedRows);
+            bookCodes = new int[capacity];
+            userCodes = new int[capacity];
+            genreCodes = new int[capacity];
+            statusCodes = new int[capacity];
+            issueDays = new int[capacity];
+            dueDays = new int[capacity];
+            returnDays = new int[capacity];
+            fines = new double[capacity];
+        }
+
+        /**
+         * Adds a loan.
+         *
+         * @param bookId ID of the book
+         * @param userId ID of the borrower
+         * @param genre Genre of the book, or null
+         * @param status Return status of the loan, or null
+         * @param issueDate Issue date
+         * @param dueDate Due date, or null
+         * @param returnDate Return date, or null if not returned
+         * @param fine Fine charged for the loan
+         */
+        public void add(int bookId, int userId, String genre, String status,
+                        LocalDate issueDate, LocalDate dueDate, LocalDate returnDate, double fine) {
+            if (size == issueDays.length) {
+                grow();
+            }
+            int bookCode = bookDictionary.get(bookId) - 1;
+            if (bookCode < 0) {
+                bookCode = books.size();
+                books.add(Integer.toString(bookId));
+                bookDictionary.addTo(bookId, bookCode + 1);
+            }
+            int userCode = userDictionary.get(userId) - 1;
+            if (userCode < 0) {
+                userCode = users.size();
+                users.add(userId);
+                userDictionary.addTo(userId, userCode + 1);
+            }
+            bookCodes[size] = bookCode;
+            userCodes[size] = userCode;
+            genreCodes[size] = encode(genre == null ? "" : genre, genreDictionary, genres);
+            statusCodes[size] = encode(status == null ? "" : status, statusDictionary, statuses);
+            issueDays[size] = (int) issueDate.toEpochDay();
+            dueDays[size] = dueDate == null ? NO_DAY : (int) dueDate.toEpochDay();
+            returnDays[size] = returnDate == null ? NO_DAY : (int) returnDate.toEpochDay();
+            fines[size] = fine;
+            size++;
+        }
+
+        /**
+         * Derives the month, weekday and cohort columns and builds the snapshot.
+         *
+         * @param takenAt Time the rows were read
+         * @return The snapshot
+         */
+        public BorrowSnapshot build(Date takenAt) {
+            int[] months = new int[size];
+            int[] weekdays = new int[size];
+            int[] cohorts = new int[size];
+            int firstMonth = Integer.MAX_VALUE;
+            int lastMonth = Integer.MIN_VALUE;
+            int[] userFirstMonth = new int[users.size()];
+            Arrays.fill(userFirstMonth, Integer.MAX_VALUE);
+            for (int i = 0; i < size; i++) {
+                LocalDate issued = LocalDate.ofEpochDay(issueDays[i]);
+                int month = issued.getYear() * 12 + issued.getMonthValue() - 1;
+                months[i] = month;
+                weekdays[i] = issued.getDayOfWeek().getValue() - 1;
+                firstMonth = Math.min(firstMonth, month);
+                lastMonth = Math.max(lastMonth, month);
+                userFirstMonth[userCodes[i]] = Math.min(userFirstMonth[userCodes[i]], month);
+            }
+            String[] monthLabels = new String[0];
+            if (size > 0) {
+                for (int i = 0; i < size; i++) {
+                    months[i] -= firstMonth;
+                    cohorts[i] = userFirstMonth[userCodes[i]] - firstMonth;
+                }
+                monthLabels = new String[lastMonth - firstMonth + 1];
+                for (int m = 0; m < monthLabels.length; m++) {
+                    int month = firstMonth + m;
+                    monthLabels[m] = String.format("%04d-%02d", month / 12, month % 12 + 1);
+                }
+            }
+            String[] weekdayLabels = new String[7];
+            for (DayOfWeek day : DayOfWeek.values()) {
+                weekdayLabels[day.getValue() - 1] = day.name();
+            }
+            String[] userLabels = new String[users.size()];
+            for (int u = 0; u < userLabels.length; u++) {
+                userLabels[u] = users.get(u).toString();
+            }
+
+            int[][] codes = new int[DIMENSIONS.length][];
+            String[][] labels = new String[DIMENSIONS.length][];
+            codes[AnalyticsDimension.GENRE.ordinal()] = Arrays.copyOf(genreCodes, size);
+            labels[AnalyticsDimension.GENRE.ordinal()] = genres.toArray(new String[0]);
+            codes[AnalyticsDimension.MONTH.ordinal()] = months;
+            labels[AnalyticsDimension.MONTH.ordinal()] = monthLabels;
+            codes[AnalyticsDimension.WEEKDAY.ordinal()] = weekdays;
+            labels[AnalyticsDimension.WEEKDAY.ordinal()] = weekdayLabels;
+            codes[AnalyticsDimension.COHORT.ordinal()] = cohorts;
+            labels[AnalyticsDimension.COHORT.ordinal()] = monthLabels;
+            codes[AnalyticsDimension.STATUS.ordinal()] = Arrays.copyOf(statusCodes, size);
+            labels[AnalyticsDimension.STATUS.ordinal()] = statuses.toArray(new String[0]);
+            codes[AnalyticsDimension.BOOK.ordinal()] = Arrays.copyOf(bookCodes, size);
+            labels[AnalyticsDimension.BOOK.ordinal()] = books.toArray(new String[0]);
+            codes[AnalyticsDimension.USER.ordinal()] = Arrays.copyOf(userCodes, size);
+            labels[AnalyticsDimension.USER.ordinal()] = userLabels;
+
+            int today = (int) LocalDate.now().toEpochDay();
+            return new BorrowSnapshot(takenAt, size, today, codes, labels, Arrays.copyOf(issueDays, size),
+                    Arrays.copyOf(dueDays, size), Arrays.copyOf(returnDays, size), Arrays.copyOf(fines, size));
+        }
+
+        private void grow() {
+            int capacity = issueDays.length * 2;
+            bookCodes = Arrays.copyOf(bookCodes, capacity);
+            userCodes = Arrays.copyOf(userCodes, capacity);
+            genreCodes = Arrays.copyOf(genreCodes, capacity);
+            statusCodes = Arrays.copyOf(statusCodes, capacity);
+            issueDays = Arrays.copyOf(issueDays, capacity);
+            dueDays = Arrays.copyOf(dueDays, capacity);
+            returnDays = Arrays.copyOf(returnDays, capacity);
+            fines = Arrays.copyOf(fines, capacity);
+        }
+
+        private static int encode(String value, Map<String, Integer> dictionary, List<String> values) {
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                code = values.size();
+                dictionary.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+    }
+
+    /**
+     * Row filters of a query, with dictionary values resolved to codes.
+     */
+    private static final class Filter {
+
+        /**
+         * Code meaning the filter is not applied.
+         */
+        static final int ANY = -1;
+
+        /**
+         * Code matching no row, for a value not in the dictionary.
+         */
+        static final int NONE = -2;
+
+        final int fromDay;
+        final int toDay;
+        final int statusCode;
+        final int genreCode;
+
+        Filter(int fromDay, int toDay, int statusCode, int genreCode) {
+            this.fromDay = fromDay;
+            this.toDay = toDay;
+            this.statusCode = statusCode;
+            this.genreCode = genreCode;
+        }
+    }
+
+    /**
+     * Aggregates per group over part of the rows.
+     */
+    private static final class Aggregates {
+
+        final long[] loans;
+        final long[] returned;
+        final long[] overdue;
+        final long[] loanDays;
+        final double[] fines;
+
+        Aggregates(int groups) {
+            loans = new long[groups];
+            returned = new long[groups];
+            overdue = new long[groups];
+            loanDays = new long[groups];
+            fines = new double[groups];
+        }
+
+        Aggregates add(Aggregates other) {
+            for (int g = 0; g < loans.length; g++) {
+                loans[g] += other.loans[g];
+                returned[g] += other.returned[g];
+                overdue[g] += other.overdue[g];
+                loanDays[g] += other.loanDays[g];
+                fines[g] += other.fines[g];
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.ibizabroker.lms.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes rows of values as RFC 4180 CSV lines.
+ * Values containing a comma, quote or line break are quoted, with quotes doubled. Text
+ * starting with =, +, - or @ is prefixed with an apostrophe so spreadsheets opening the
+ * file do not evaluate book names or addresses as formulas. Nulls are written as empty fields.
+ * Not thread-safe.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public class CsvWriter implements Closeable {
+
+    private final Writer writer;
+
+    private long rows;
+
+    /**
+     * Creates a CSV writer.
+     *
+     * @param writer Destination of the lines; closed when this writer is closed
+     */
+    public CsvWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Writes one row.
+     *
+     * @param values Values of the row; numbers and dates are written with toString
+     * @throws IOException if the destination cannot be written
+     */
+    public void writeRow(Object... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object value = values[i];
+            if (value == null) {
+                continue;
+            }
+            if (value instanceof CharSequence) {
+                writeText(value.toString());
+            } else {
+                writer.write(value.toString());
+            }
+        }
+        writer.write("\r\n");
+        rows++;
+    }
+
+    /**
+     * Gets the number of rows written, including any header.
+     *
+     * @return Number of rows
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    private void writeText(String text) throws IOException {
+        if (!text.isEmpty() && "=+-@".indexOf(text.charAt(0)) >= 0) {
+            text = "'" + text;
+        }
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        writer.write(text.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -0,0 +1,283 @@
+package com.ibizabroker.lms.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel holding timeouts far into the future at O(1) cost per insert,
+ * cancel and tick.
+ * Level 0 has one slot per tick; each higher level has slots as wide as a full turn of the
+ * level below it, so a few levels of 60 one-minute slots cover hours, days and months.
+ * When a higher-level slot comes round, its timeouts are moved down to the finer levels,
+ * and timeouts fire from level 0. Levels are added on demand for distant deadlines.
+ *
+ * Time only moves when {@link #advanceTo(long)} is called. This class is not thread-safe;
+ * callers must synchronize access.
+ *
+ * @param <T> Type of the payload carried by each timeout
+ * @author codematrix
+ * @version 1.0
+ */
+public class HierarchicalTimingWheel<T> {
+
+    /**
+     * Length of one tick in milliseconds.
+     */
+    private final long tickMillis;
+
+    /**
+     * Number of slots per level.
+     */
+    private final int wheelSize;
+
+    /**
+     * Levels, finest first. Level i has slots of wheelSize^i ticks.
+     */
+    private final List<Slot<T>[]> levels = new ArrayList<>();
+
+    /**
+     * Width of a slot in ticks, per level.
+     */
+    private final List<Long> slotTicks = new ArrayList<>();
+
+    /**
+     * Timeouts whose deadline had already passed when they were added.
+     */
+    private final Slot<T> due = new Slot<>();
+
+    /**
+     * Number of ticks processed since the epoch.
+     */
+    private long currentTick;
+
+    /**
+     * Number of pending timeouts.
+     */
+    private int size;
+
+    /**
+     * Creates a wheel starting at the given time.
+     *
+     * @param tickMillis Length of one tick in milliseconds
+     * @param wheelSize Number of slots per level
+     * @param startMillis Current time in milliseconds
+     */
+    public HierarchicalTimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis <= 0 || wheelSize < 2) {
+            throw new IllegalArgumentException("tickMillis must be positive and wheelSize at least 2");
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.currentTick = startMillis / tickMillis;
+        addLevel();
+    }
+
+    /**
+     * Adds a timeout. A deadline that has already passed fires on the next call to
+     * {@link #advanceTo(long)}.
+     *
+     * @param deadlineMillis Time at which the timeout should fire, in milliseconds
+     * @param payload Value returned when the timeout fires
+     * @return Handle that can be used to cancel the timeout
+     */
+    public Timeout<T> add(long deadlineMillis, T payload) {
+        Timeout<T> timeout = new Timeout<>(deadlineMillis, payload);
+        place(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Cancels a pending timeout.
+     *
+     * @param timeout The timeout to cancel
+     * @return true if the timeout was pending, false if it had already fired or been cancelled
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        if (timeout.slot == null) {
+            return false;
+        }
+        timeout.slot.remove(timeout);
+        size--;
+        return true;
+    }
+
+    /**
+     * Moves time forward, firing every timeout whose deadline is at or before the given time.
+     *
+     * @param nowMillis Current time in milliseconds
+     * @return Payloads of the fired timeouts
+     */
+    public List<T> advanceTo(long nowMillis) {
+        List<T> fired = new ArrayList<>();
+        drain(due, fired);
+        long targetTick = nowMillis / tickMillis;
+        while (currentTick < targetTick) {
+            if (size == 0) {
+                currentTick = targetTick;
+                break;
+            }
+            currentTick++;
+            // Coarser levels first, so their timeouts can land in finer slots that are due this tick
+            for (int level = levels.size() - 1; level > 0; level--) {
+                long width = slotTicks.get(level);
+                if (currentTick % width == 0) {
+                    Slot<T> slot = levels.get(level)[slotIndex(currentTick / width)];
+                    Timeout<T> timeout;
+                    while ((timeout = slot.poll()) != null) {
+                        place(timeout);
+                    }
+                }
+            }
+            drain(levels.get(0)[slotIndex(currentTick)], fired);
+            drain(due, fired);
+        }
+        return fired;
+    }
+
+    /**
+     * Gets the number of pending timeouts.
+     *
+     * @return Number of pending timeouts
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Puts a timeout in the finest level whose turn still reaches its deadline.
+     */
+    private void place(Timeout<T> timeout) {
+        // The tick at which the timeout fires is the first tick at or after its deadline
+        long fireTick = Math.floorDiv(timeout.deadline, tickMillis)
+                + (Math.floorMod(timeout.deadline, tickMillis) == 0 ? 0 : 1);
+        if (fireTick <= currentTick) {
+            due.append(timeout);
+            return;
+        }
+        int level = 0;
+        while (true) {
+            if (level == levels.size()) {
+                addLevel();
+            }
+            long width = slotTicks.get(level);
+            if (fireTick / width - currentTick / width < wheelSize) {
+                levels.get(level)[slotIndex(fireTick / width)].append(timeout);
+                return;
+            }
+            level++;
+        }
+    }
+
+    private void drain(Slot<T> slot, List<T> fired) {
+        Timeout<T> timeout;
+        while ((timeout = slot.poll()) != null) {
+            size--;
+            fired.add(timeout.payload);
+        }
+    }
+
+    private int slotIndex(long slotNumber) {
+        return (int) (slotNumber % wheelSize);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void addLevel() {
+        long width = levels.isEmpty() ? 1 : slotTicks.get(slotTicks.size() - 1) * wheelSize;
+        Slot<T>[] slots = new Slot[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            slots[i] = new Slot<>();
+        }
+        levels.add(slots);
+        slotTicks.add(width);
+    }
+
+    /**
+     * A pending timeout. Timeouts are linked into their slot so they can be removed in O(1).
+     *
+     * @param <T> Type of the payload
+     */
+    public static final class Timeout<T> {
+        private final long deadline;
+        private final T payload;
+        private Slot<T> slot;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        private Timeout(long deadline, T payload) {
+            this.deadline = deadline;
+            this.payload = payload;
+        }
+
+        /**
+         * Gets the time at which the timeout fires.
+         *
+         * @return Deadline in milliseconds
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        /**
+         * Gets the payload of the timeout.
+         *
+         * @return The payload
+         */
+        public T getPayload() {
+            return payload;
+        }
+
+        /**
+         * Checks whether the timeout is still waiting to fire.
+         *
+         * @return true if the timeout has neither fired nor been cancelled
+         */
+        public boolean isPending() {
+            return slot != null;
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts in one slot.
+     */
+    private static final class Slot<T> {
+        private Timeout<T> head;
+        private Timeout<T> tail;
+
+        private void append(Timeout<T> timeout) {
+            timeout.slot = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        private void remove(Timeout<T> timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.slot = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        private Timeout<T> poll() {
+            Timeout<T> timeout = head;
+            if (timeout != null) {
+                remove(timeout);
+            }
+            return timeout;
+        }
+    }
+}
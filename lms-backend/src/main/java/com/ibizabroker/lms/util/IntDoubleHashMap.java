@@ -0,0 +1,207 @@
+package com.ibizabroker.lms.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive {@code int} keys to {@code double} values.
+ * Intended for scores keyed by entity ID; a missing key reads as 0.
+ * Not thread-safe; callers must synchronize externally.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public class IntDoubleHashMap extends IntKeyTable {
+
+    private double[] values;
+    private boolean hasZeroKey;
+    private double zeroValue;
+
+    /**
+     * Creates a map sized for the given number of keys without resizing.
+     *
+     * @param expectedSize Expected number of keys
+     */
+    public IntDoubleHashMap(int expectedSize) {
+        super(expectedSize);
+        values = new double[capacity()];
+    }
+
+    /**
+     * Creates an empty map with a small default capacity.
+     */
+    public IntDoubleHashMap() {
+        this(16);
+    }
+
+    /**
+     * Gets the value for a key.
+     *
+     * @param key The key to look up
+     * @return The value, or 0 if the key is absent
+     */
+    public double get(int key) {
+        if (key == EMPTY) {
+            return zeroValue;
+        }
+        int slot = indexOf(key);
+        return slot < 0 ? 0 : values[slot];
+    }
+
+    /**
+     * Adds a delta to the value of a key, inserting the key if it is absent.
+     *
+     * @param key The key to update
+     * @param delta The amount to add
+     * @return The new value
+     */
+    public double addTo(int key, double delta) {
+        if (key == EMPTY) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue += delta;
+            return zeroValue;
+        }
+        int slot = probe(key);
+        if (keys[slot] == key) {
+            values[slot] += delta;
+            return values[slot];
+        }
+        values[slot] = delta;
+        insertAt(slot, key);
+        return delta;
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key The key to remove
+     * @return true if the key was present
+     */
+    public boolean remove(int key) {
+        if (key == EMPTY) {
+            if (!hasZeroKey) {
+                return false;
+            }
+            hasZeroKey = false;
+            zeroValue = 0;
+            size--;
+            return true;
+        }
+        int slot = indexOf(key);
+        if (slot < 0) {
+            return false;
+        }
+        removeAt(slot);
+        return true;
+    }
+
+    /**
+     * Multiplies every value by the same factor.
+     *
+     * @param factor The factor to multiply by
+     */
+    public void scale(double factor) {
+        zeroValue *= factor;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                values[i] *= factor;
+            }
+        }
+    }
+
+    /**
+     * Removes every key whose value is below a threshold.
+     *
+     * @param threshold Smallest value kept
+     * @return Number of keys removed
+     */
+    public int removeBelow(double threshold) {
+        int[] doomed = new int[size];
+        int count = 0;
+        if (hasZeroKey && zeroValue < threshold) {
+            doomed[count++] = EMPTY;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY && values[i] < threshold) {
+                doomed[count++] = keys[i];
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            remove(doomed[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Passes every key and value to a consumer, in no particular order.
+     *
+     * @param consumer Receives each entry
+     */
+    public void forEach(EntryConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(EMPTY, zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of keys.
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all keys, keeping the current capacity.
+     */
+    public void clear() {
+        clearKeys();
+        Arrays.fill(values, 0);
+        hasZeroKey = false;
+        zeroValue = 0;
+    }
+
+    @Override
+    void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    void clearValue(int slot) {
+        values[slot] = 0;
+    }
+
+    @Override
+    void relocateValues(int capacity, int[] target) {
+        double[] oldValues = values;
+        values = new double[capacity];
+        for (int i = 0; i < target.length; i++) {
+            if (target[i] >= 0) {
+                values[target[i]] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Receives the entries of the map.
+     */
+    @FunctionalInterface
+    public interface EntryConsumer {
+
+        /**
+         * Accepts one entry.
+         *
+         * @param key The key
+         * @param value The value
+         */
+        void accept(int key, double value);
+    }
+}
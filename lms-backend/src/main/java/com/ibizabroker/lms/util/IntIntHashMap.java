@@ -0,0 +1,124 @@
+package com.ibizabroker.lms.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive {@code int} keys to {@code int} values.
+ * Intended for counters keyed by entity ID, so a missing key reads as 0 and
+ * a key whose value drops to 0 is removed.
+ * Not thread-safe; callers must synchronize externally.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public class IntIntHashMap extends IntKeyTable {
+
+    private int[] values;
+    private int zeroValue;
+
+    /**
+     * Creates a map sized for the given number of keys without resizing.
+     *
+     * @param expectedSize Expected number of keys
+     */
+    public IntIntHashMap(int expectedSize) {
+        super(expectedSize);
+        values = new int[capacity()];
+    }
+
+    /**
+     * Creates an empty map with a small default capacity.
+     */
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Gets the value for a key.
+     *
+     * @param key The key to look up
+     * @return The value, or 0 if the key is absent
+     */
+    public int get(int key) {
+        if (key == EMPTY) {
+            return zeroValue;
+        }
+        int slot = indexOf(key);
+        return slot < 0 ? 0 : values[slot];
+    }
+
+    /**
+     * Adds a delta to the value of a key, removing the key if the result is 0.
+     *
+     * @param key The key to update
+     * @param delta The amount to add (may be negative)
+     * @return The new value
+     */
+    public int addTo(int key, int delta) {
+        if (key == EMPTY) {
+            if (zeroValue == 0 && delta != 0) {
+                size++;
+            }
+            zeroValue += delta;
+            if (zeroValue == 0 && delta != 0) {
+                size--;
+            }
+            return zeroValue;
+        }
+        int slot = probe(key);
+        if (keys[slot] == key) {
+            int value = values[slot] + delta;
+            if (value == 0) {
+                removeAt(slot);
+            } else {
+                values[slot] = value;
+            }
+            return value;
+        }
+        if (delta == 0) {
+            return 0;
+        }
+        values[slot] = delta;
+        insertAt(slot, key);
+        return delta;
+    }
+
+    /**
+     * Gets the number of keys with a non-zero value.
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all keys, keeping the current capacity.
+     */
+    public void clear() {
+        clearKeys();
+        Arrays.fill(values, 0);
+        zeroValue = 0;
+    }
+
+    @Override
+    void moveValue(int from, int to) {
+        values[to] = values[from];
+    }
+
+    @Override
+    void clearValue(int slot) {
+        values[slot] = 0;
+    }
+
+    @Override
+    void relocateValues(int capacity, int[] target) {
+        int[] oldValues = values;
+        values = new int[capacity];
+        for (int i = 0; i < target.length; i++) {
+            if (target[i] >= 0) {
+                values[target[i]] = oldValues[i];
+            }
+        }
+    }
+}
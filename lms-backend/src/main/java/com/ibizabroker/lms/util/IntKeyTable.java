@@ -0,0 +1,166 @@
+package com.ibizabroker.lms.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing table of primitive {@code int} keys with linear probing, shared by the
+ * primitive maps. Key 0 marks an empty slot, so subclasses keep the value of key 0 outside
+ * the table. Subclasses hold their values in a parallel array and move them when the table
+ * moves keys, on removal and on resize.
+ * Not thread-safe; callers must synchronize externally.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+abstract class IntKeyTable {
+
+    static final int EMPTY = 0;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    int[] keys;
+    int size;
+    private int mask;
+    private int resizeThreshold;
+
+    /**
+     * Creates a table sized for the given number of keys without resizing.
+     *
+     * @param expectedSize Expected number of keys
+     */
+    IntKeyTable(int expectedSize) {
+        allocate(LongHashSet.tableSizeFor((int) Math.ceil(Math.max(expectedSize, 4) / LOAD_FACTOR)));
+    }
+
+    /**
+     * Gets the number of slots, the length the value array must have.
+     *
+     * @return Number of slots
+     */
+    final int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Finds the slot holding a non-zero key.
+     *
+     * @param key The key, not 0
+     * @return The slot, or -1 if the key is absent
+     */
+    final int indexOf(int key) {
+        int slot = probe(key);
+        return keys[slot] == key ? slot : -1;
+    }
+
+    /**
+     * Finds the slot holding a non-zero key, or the empty slot where it would be inserted.
+     *
+     * @param key The key, not 0
+     * @return The slot
+     */
+    final int probe(int key) {
+        int slot = slot(key);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Puts a key in the empty slot returned by {@link #probe(int)}, whose value the caller
+     * has already set, and grows the table if it is now too full.
+     *
+     * @param slot The empty slot
+     * @param key The key, not 0
+     */
+    final void insertAt(int slot, int key) {
+        keys[slot] = key;
+        if (++size >= resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Removes the key in a slot, shifting back later keys of the same probe run so they
+     * stay reachable without tombstones.
+     *
+     * @param gap The slot to empty
+     */
+    final void removeAt(int gap) {
+        size--;
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            int key = keys[slot];
+            if (key == EMPTY) {
+                keys[gap] = EMPTY;
+                clearValue(gap);
+                return;
+            }
+            int home = slot(key);
+            boolean homeBetween = gap <= slot ? (gap < home && home <= slot) : (gap < home || home <= slot);
+            if (!homeBetween) {
+                keys[gap] = key;
+                moveValue(slot, gap);
+                gap = slot;
+            }
+        }
+    }
+
+    /**
+     * Empties every slot, keeping the current capacity.
+     */
+    final void clearKeys() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * Copies the value in one slot to another.
+     *
+     * @param from Slot the value is moved from
+     * @param to Slot the value is moved to
+     */
+    abstract void moveValue(int from, int to);
+
+    /**
+     * Resets the value in a slot that has been emptied.
+     *
+     * @param slot The emptied slot
+     */
+    abstract void clearValue(int slot);
+
+    /**
+     * Replaces the value array with one of a new capacity after a resize.
+     *
+     * @param capacity Length of the new value array
+     * @param target New slot of the value in each old slot, or -1 for an empty slot
+     */
+    abstract void relocateValues(int capacity, int[] target);
+
+    private int slot(int key) {
+        return (int) LongHashSet.mix(key) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] target = new int[oldKeys.length];
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == EMPTY) {
+                target[i] = -1;
+            } else {
+                int slot = probe(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                target[i] = slot;
+            }
+        }
+        relocateValues(capacity, target);
+    }
+}
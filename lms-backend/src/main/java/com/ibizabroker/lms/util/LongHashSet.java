@@ -0,0 +1,202 @@
+package com.ibizabroker.lms.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of primitive {@code long} values.
+ * Avoids boxing and per-entry objects, so millions of keys cost roughly 8-16 bytes each.
+ * Uses linear probing with backward-shift deletion, so no tombstones accumulate.
+ * Not thread-safe; callers must synchronize externally.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public class LongHashSet {
+
+    /**
+     * Marker for an empty slot. The key 0 itself is tracked separately in {@link #containsZero}.
+     */
+    private static final long EMPTY = 0L;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+    private int resizeThreshold;
+
+    /**
+     * Creates a set sized for the given number of keys without resizing.
+     *
+     * @param expectedSize Expected number of keys
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = tableSizeFor((int) Math.ceil(Math.max(expectedSize, 4) / LOAD_FACTOR));
+        allocate(capacity);
+    }
+
+    /**
+     * Creates an empty set with a small default capacity.
+     */
+    public LongHashSet() {
+        this(16);
+    }
+
+    /**
+     * Adds a key to the set.
+     *
+     * @param key The key to add
+     * @return true if the key was not already present
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        if (++size >= resizeThreshold) {
+            allocateAndRehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the set contains a key.
+     *
+     * @param key The key to look up
+     * @return true if the key is present
+     */
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return containsZero;
+        }
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Removes a key from the set.
+     *
+     * @param key The key to remove
+     * @return true if the key was present
+     */
+    public boolean remove(long key) {
+        if (key == EMPTY) {
+            if (!containsZero) {
+                return false;
+            }
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int slot = slot(key);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                shiftKeysBack(slot);
+                size--;
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of keys in the set.
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all keys, keeping the current capacity.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        containsZero = false;
+        size = 0;
+    }
+
+    /**
+     * Closes the gap left by a removed key by moving later keys of the same probe run back.
+     */
+    private void shiftKeysBack(int gap) {
+        int slot = gap;
+        while (true) {
+            slot = (slot + 1) & mask;
+            long key = keys[slot];
+            if (key == EMPTY) {
+                keys[gap] = EMPTY;
+                return;
+            }
+            int home = slot(key);
+            // Move the key into the gap unless its home slot lies cyclically in (gap, slot]
+            boolean homeBetween = gap <= slot ? (gap < home && home <= slot) : (gap < home || home <= slot);
+            if (!homeBetween) {
+                keys[gap] = key;
+                gap = slot;
+            }
+        }
+    }
+
+    private int slot(long key) {
+        return (int) mix(key) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void allocateAndRehash(int capacity) {
+        long[] old = keys;
+        allocate(capacity);
+        for (long key : old) {
+            if (key != EMPTY) {
+                int slot = slot(key);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    /**
+     * MurmurHash3 64-bit finalizer, spreading sequential IDs across the table.
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        return Math.max(n, 8);
+    }
+}
@@ -0,0 +1,249 @@
+package com.ibizabroker.lms.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cache of values that are expensive to compute, with a time-to-live per value.
+ * Concurrent misses for the same key share a single load: the first caller runs the loader
+ * and the others wait for its result, so a burst of requests costs one query. Once a value
+ * has been cached for longer than the refresh-ahead age, the next hit returns it and starts
+ * a reload in the background, so keys in steady use never expire in front of a caller.
+ * A failed load is not cached; every caller waiting on it receives the exception.
+ * Thread-safe.
+ *
+ * @param <K> Type of the keys
+ * @param <V> Type of the values
+ * @author codematrix
+ * @version 1.0
+ */
+public class SingleFlightCache<K, V> {
+
+    private final ConcurrentHashMap<K, Node<V>> nodes = new ConcurrentHashMap<>();
+
+    /**
+     * Age at which a value is no longer returned.
+     */
+    private final long ttlMillis;
+
+    /**
+     * Age at which a hit starts a background reload.
+     */
+    private final long refreshAfterMillis;
+
+    /**
+     * Runs background reloads.
+     */
+    private final Executor refreshExecutor;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    /**
+     * Creates an empty cache.
+     *
+     * @param ttlMillis Age at which a value expires, in milliseconds
+     * @param refreshAfterMillis Age at which a hit reloads the value in the background; at least ttlMillis disables refresh-ahead
+     * @param refreshExecutor Executor for background reloads
+     */
+    public SingleFlightCache(long ttlMillis, long refreshAfterMillis, Executor refreshExecutor) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive");
+        }
+        this.ttlMillis = ttlMillis;
+        this.refreshAfterMillis = Math.max(0, refreshAfterMillis);
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Gets the cached value for a key, loading it if it is missing or expired.
+     *
+     * @param key The key
+     * @param loader Computes the value; called at most once at a time per key
+     * @return The value
+     * @throws RuntimeException whatever the loader threw, if the load failed
+     */
+    public V get(K key, Supplier<V> loader) {
+        Node<V> node = nodes.computeIfAbsent(key, k -> new Node<>());
+        Loaded<V> loaded = node.loaded;
+        long now = System.currentTimeMillis();
+        if (loaded != null && now - loaded.loadedAt < ttlMillis) {
+            hits.increment();
+            if (now - loaded.loadedAt >= refreshAfterMillis) {
+                refreshAsync(node, loader);
+            }
+            return loaded.value;
+        }
+        misses.increment();
+        CompletableFuture<V> flight;
+        boolean leader = false;
+        synchronized (node) {
+            // Another caller may have finished loading since the check above
+            loaded = node.loaded;
+            if (loaded != null && System.currentTimeMillis() - loaded.loadedAt < ttlMillis) {
+                return loaded.value;
+            }
+            if (node.inFlight == null) {
+                node.inFlight = new CompletableFuture<>();
+                leader = true;
+            }
+            flight = node.inFlight;
+        }
+        if (leader) {
+            load(node, flight, loader);
+        } else {
+            coalesced.increment();
+        }
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Removes every value that has expired and is not being loaded.
+     *
+     * @return Number of keys removed
+     */
+    public int evictExpired() {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        for (Map.Entry<K, Node<V>> entry : nodes.entrySet()) {
+            Node<V> node = entry.getValue();
+            synchronized (node) {
+                Loaded<V> loaded = node.loaded;
+                if (node.inFlight == null && (loaded == null || now - loaded.loadedAt >= ttlMillis)
+                        && nodes.remove(entry.getKey(), node)) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes every value. Loads in progress still complete for the callers waiting on them.
+     */
+    public void invalidateAll() {
+        nodes.clear();
+    }
+
+    /**
+     * Gets the cache's counters.
+     *
+     * @return Map containing size, hits, misses, coalesced (misses that waited on another caller's load), hitRatio, loads, loadFailures, refreshes and averageLoadMillis
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long loadCount = loads.sum() + loadFailures.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("size", nodes.size());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("coalesced", coalesced.sum());
+        stats.put("hitRatio", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("loads", loads.sum());
+        stats.put("loadFailures", loadFailures.sum());
+        stats.put("refreshes", refreshes.sum());
+        stats.put("averageLoadMillis", loadCount == 0 ? 0.0
+                : (double) TimeUnit.NANOSECONDS.toMicros(loadNanos.sum()) / loadCount / 1000);
+        return stats;
+    }
+
+    /**
+     * Starts a background reload unless one is already running for the node.
+     */
+    private void refreshAsync(Node<V> node, Supplier<V> loader) {
+        CompletableFuture<V> flight;
+        synchronized (node) {
+            if (node.inFlight != null) {
+                return;
+            }
+            flight = new CompletableFuture<>();
+            node.inFlight = flight;
+        }
+        try {
+            refreshExecutor.execute(() -> load(node, flight, loader));
+            refreshes.increment();
+        } catch (RejectedExecutionException e) {
+            // Busy; a later hit will try again
+            synchronized (node) {
+                node.inFlight = null;
+            }
+        }
+    }
+
+    /**
+     * Runs the loader, publishes the value and releases the callers waiting on the flight.
+     */
+    private void load(Node<V> node, CompletableFuture<V> flight, Supplier<V> loader) {
+        long startedAt = System.currentTimeMillis();
+        long start = System.nanoTime();
+        try {
+            V value = loader.get();
+            node.loaded = new Loaded<>(value, startedAt);
+            loads.increment();
+            flight.complete(value);
+        } catch (RuntimeException | Error e) {
+            loadFailures.increment();
+            flight.completeExceptionally(e);
+        } finally {
+            loadNanos.add(System.nanoTime() - start);
+            synchronized (node) {
+                node.inFlight = null;
+            }
+        }
+    }
+
+    /**
+     * Cache slot for one key.
+     */
+    private static final class Node<V> {
+
+        /**
+         * Last loaded value, or null if none has loaded yet.
+         */
+        volatile Loaded<V> loaded;
+
+        /**
+         * Load in progress, or null. Guarded by the node's monitor.
+         */
+        CompletableFuture<V> inFlight;
+    }
+
+    /**
+     * A value with the time its load started.
+     */
+    private static final class Loaded<V> {
+
+        final V value;
+
+        final long loadedAt;
+
+        Loaded(V value, long loadedAt) {
+            this.value = value;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
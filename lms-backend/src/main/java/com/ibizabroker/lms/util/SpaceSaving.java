@@ -0,0 +1,182 @@
+package com.ibizabroker.lms.util;
+
+import java.util.*;
+
+/**
+ * Space-Saving sketch for finding the most frequent items in a stream with bounded memory.
+ * At most {@code capacity} items are tracked. When a new item arrives and the sketch is full,
+ * it replaces the item with the smallest count and inherits that count as its possible error.
+ * Every reported count is an upper bound on the item's true count and exceeds it by at most
+ * the reported error, and any item seen more than {@code total / capacity} times is tracked.
+ *
+ * Updates and evictions cost O(log capacity). This class is not thread-safe; callers must
+ * synchronize access.
+ *
+ * @param <K> Type of the items counted
+ * @author codematrix
+ * @version 1.0
+ */
+public class SpaceSaving<K> {
+
+    /**
+     * Maximum number of items tracked.
+     */
+    private final int capacity;
+
+    /**
+     * Tracked items by key.
+     */
+    private final Map<K, Counter<K>> counters = new HashMap<>();
+
+    /**
+     * Tracked items ordered by count, smallest first; ties are broken by insertion order.
+     */
+    private final TreeSet<Counter<K>> byCount = new TreeSet<>(
+            Comparator.<Counter<K>>comparingLong(c -> c.count).thenComparingLong(c -> c.sequence));
+
+    /**
+     * Sum of all counts offered.
+     */
+    private long total;
+
+    /**
+     * Source of the tie-breaking sequence numbers.
+     */
+    private long nextSequence;
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param capacity Maximum number of items tracked
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Counts occurrences of an item.
+     *
+     * @param item The item seen
+     * @param count Number of occurrences, at least 1
+     */
+    public void offer(K item, long count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("count must be at least 1");
+        }
+        total += count;
+        Counter<K> counter = counters.get(item);
+        if (counter != null) {
+            byCount.remove(counter);
+            counter.count += count;
+            byCount.add(counter);
+            return;
+        }
+        long error = 0;
+        if (counters.size() == capacity) {
+            Counter<K> evicted = byCount.pollFirst();
+            counters.remove(evicted.item);
+            error = evicted.count;
+        }
+        counter = new Counter<>(item, error + count, error, nextSequence++);
+        counters.put(item, counter);
+        byCount.add(counter);
+    }
+
+    /**
+     * Gets the items with the highest counts.
+     *
+     * @param k Maximum number of items to return
+     * @return Estimates ordered by count, highest first
+     */
+    public List<Estimate<K>> top(int k) {
+        List<Estimate<K>> top = new ArrayList<>(Math.min(k, counters.size()));
+        Iterator<Counter<K>> iterator = byCount.descendingIterator();
+        while (top.size() < k && iterator.hasNext()) {
+            Counter<K> counter = iterator.next();
+            top.add(new Estimate<>(counter.item, counter.count, counter.error));
+        }
+        return top;
+    }
+
+    /**
+     * Gets the sum of all counts offered.
+     *
+     * @return Total count
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Gets the number of items tracked.
+     *
+     * @return Number of tracked items
+     */
+    public int size() {
+        return counters.size();
+    }
+
+    /**
+     * Estimated count of one item.
+     *
+     * @param <K> Type of the item
+     */
+    public static final class Estimate<K> {
+        private final K item;
+        private final long count;
+        private final long error;
+
+        private Estimate(K item, long count, long error) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+        }
+
+        /**
+         * Gets the item.
+         *
+         * @return The item
+         */
+        public K getItem() {
+            return item;
+        }
+
+        /**
+         * Gets the estimated count, an upper bound on the true count.
+         *
+         * @return Estimated count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the maximum amount by which the estimate exceeds the true count.
+         *
+         * @return Maximum overestimate
+         */
+        public long getError() {
+            return error;
+        }
+    }
+
+    /**
+     * Count of one tracked item.
+     */
+    private static final class Counter<K> {
+        private final K item;
+        private final long error;
+        private final long sequence;
+        private long count;
+
+        private Counter(K item, long count, long error, long sequence) {
+            this.item = item;
+            this.count = count;
+            this.error = error;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.ibizabroker.lms.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Merging t-digest for estimating quantiles of a stream of values in bounded memory.
+ * Values are summarized as weighted centroids; centroids near the median may absorb many
+ * values while those near the tails stay small, so extreme quantiles such as p99 remain
+ * accurate. The number of centroids is about the compression factor regardless of how many
+ * values are added. Digests built separately can be merged, and serialize to a compact
+ * binary form of twelve bytes per centroid.
+ * Not thread-safe; callers must synchronize externally.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public class TDigest {
+
+    /**
+     * Version byte written at the start of the binary form.
+     */
+    private static final byte FORMAT_VERSION = 1;
+
+    private final double compression;
+
+    private double[] means;
+    private long[] weights;
+    private int centroids;
+
+    private double[] bufferValues;
+    private long[] bufferWeights;
+    private int buffered;
+
+    private long totalWeight;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates an empty digest.
+     *
+     * @param compression Accuracy parameter; about this many centroids are kept, 100 is typical
+     */
+    public TDigest(double compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("compression must be at least 10");
+        }
+        this.compression = compression;
+        int capacity = (int) Math.ceil(compression) * 2;
+        this.means = new double[capacity];
+        this.weights = new long[capacity];
+        this.bufferValues = new double[capacity * 4];
+        this.bufferWeights = new long[capacity * 4];
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value The value
+     */
+    public void add(double value) {
+        add(value, 1);
+    }
+
+    /**
+     * Adds a value with a weight, as if it were added that many times.
+     *
+     * @param value The value
+     * @param weight The weight, at least 1
+     */
+    public void add(double value, long weight) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Cannot add " + value);
+        }
+        if (weight <= 0) {
+            throw new IllegalArgumentException("weight must be positive");
+        }
+        if (buffered == bufferValues.length) {
+            compress();
+        }
+        bufferValues[buffered] = value;
+        bufferWeights[buffered] = weight;
+        buffered++;
+        totalWeight += weight;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds every value summarized by another digest.
+     *
+     * @param other The digest to merge in; it is not modified
+     */
+    public void add(TDigest other) {
+        other.compress();
+        for (int i = 0; i < other.centroids; i++) {
+            add(other.means[i], other.weights[i]);
+        }
+        if (other.totalWeight > 0) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+    }
+
+    /**
+     * Gets the number of values added.
+     *
+     * @return The total weight
+     */
+    public long size() {
+        return totalWeight;
+    }
+
+    /**
+     * Gets the smallest value added.
+     *
+     * @return The minimum, or NaN if the digest is empty
+     */
+    public double getMin() {
+        return totalWeight == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * Gets the largest value added.
+     *
+     * @return The maximum, or NaN if the digest is empty
+     */
+    public double getMax() {
+        return totalWeight == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Estimates a quantile.
+     *
+     * @param q The quantile, between 0 and 1
+     * @return Estimated value below which the fraction q of the values lie, or NaN if the digest is empty
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {
+            throw new IllegalArgumentException("q must be between 0 and 1");
+        }
+        compress();
+        if (centroids == 0) {
+            return Double.NaN;
+        }
+        if (centroids == 1) {
+            return means[0];
+        }
+        double index = q * totalWeight;
+        // Between the minimum and the centre of the first centroid
+        double firstHalf = weights[0] / 2.0;
+        if (index < firstHalf) {
+            return min + (means[0] - min) * index / firstHalf;
+        }
+        double cumulative = firstHalf;
+        for (int i = 0; i < centroids - 1; i++) {
+            double gap = (weights[i] + weights[i + 1]) / 2.0;
+            if (cumulative + gap > index) {
+                return means[i] + (means[i + 1] - means[i]) * (index - cumulative) / gap;
+            }
+            cumulative += gap;
+        }
+        // Between the centre of the last centroid and the maximum
+        double lastHalf = weights[centroids - 1] / 2.0;
+        double fraction = Math.min(1, (index - cumulative) / lastHalf);
+        return means[centroids - 1] + (max - means[centroids - 1]) * fraction;
+    }
+
+    /**
+     * Serializes the digest.
+     *
+     * @return The binary form
+     */
+    public byte[] toBytes() {
+        compress();
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 * 3 + 4 + centroids * 12);
+        buffer.put(FORMAT_VERSION);
+        buffer.putDouble(compression);
+        buffer.putDouble(min);
+        buffer.putDouble(max);
+        buffer.putInt(centroids);
+        for (int i = 0; i < centroids; i++) {
+            buffer.putDouble(means[i]);
+            buffer.putInt((int) Math.min(weights[i], Integer.MAX_VALUE));
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Deserializes a digest written by {@link #toBytes()}.
+     *
+     * @param bytes The binary form
+     * @return The digest
+     * @throws IllegalArgumentException if the bytes are not a serialized digest
+     */
+    public static TDigest fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < 29 || buffer.get() != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Unsupported t-digest format");
+        }
+        TDigest digest = new TDigest(buffer.getDouble());
+        double min = buffer.getDouble();
+        double max = buffer.getDouble();
+        int count = buffer.getInt();
+        if (count < 0 || buffer.remaining() != count * 12) {
+            throw new IllegalArgumentException("Truncated t-digest");
+        }
+        for (int i = 0; i < count; i++) {
+            digest.add(buffer.getDouble(), buffer.getInt());
+        }
+        if (count > 0) {
+            digest.min = min;
+            digest.max = max;
+        }
+        return digest;
+    }
+
+    /**
+     * Merges the buffered values into the centroids. Adjacent centroids are combined as long
+     * as the result stays within the size the k1 scale function allows at that quantile,
+     * which keeps centroids small near q = 0 and q = 1.
+     */
+    private void compress() {
+        if (buffered == 0) {
+            return;
+        }
+        int n = centroids + buffered;
+        double[] allMeans = Arrays.copyOf(means, n);
+        long[] allWeights = Arrays.copyOf(weights, n);
+        System.arraycopy(bufferValues, 0, allMeans, centroids, buffered);
+        System.arraycopy(bufferWeights, 0, allWeights, centroids, buffered);
+        buffered = 0;
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(allMeans[a], allMeans[b]));
+
+        double[] mergedMeans = new double[Math.max(means.length, n)];
+        long[] mergedWeights = new long[mergedMeans.length];
+        int count = 0;
+        long weightSoFar = 0;
+        double currentMean = allMeans[order[0]];
+        long currentWeight = allWeights[order[0]];
+        double limit = totalWeight * qForK(kForQ(0) + 1);
+        for (int i = 1; i < n; i++) {
+            int next = order[i];
+            if (weightSoFar + currentWeight + allWeights[next] <= limit) {
+                currentWeight += allWeights[next];
+                currentMean += (allMeans[next] - currentMean) * allWeights[next] / currentWeight;
+            } else {
+                mergedMeans[count] = currentMean;
+                mergedWeights[count] = currentWeight;
+                count++;
+                weightSoFar += currentWeight;
+                limit = totalWeight * qForK(kForQ((double) weightSoFar / totalWeight) + 1);
+                currentMean = allMeans[next];
+                currentWeight = allWeights[next];
+            }
+        }
+        mergedMeans[count] = currentMean;
+        mergedWeights[count] = currentWeight;
+        count++;
+
+        means = mergedMeans;
+        weights = mergedWeights;
+        centroids = count;
+    }
+
+    /**
+     * The k1 scale function, mapping a quantile to a centroid index.
+     */
+    private double kForQ(double q) {
+        return compression / (2 * Math.PI) * Math.asin(2 * Math.min(1, Math.max(0, q)) - 1);
+    }
+
+    /**
+     * The inverse of {@link #kForQ}.
+     */
+    private double qForK(double k) {
+        if (k >= compression / 4) {
+            return 1;
+        }
+        return (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+    }
+}
@@ -0,0 +1,70 @@
+package com.ibizabroker.lms.util;
+
+/**
+ * Token bucket rate limiter.
+ * Tokens are added continuously at a fixed rate up to the bucket's capacity, and each call
+ * to {@link #acquire()} takes one, waiting if none is available. A full bucket allows a
+ * short burst before the steady rate applies.
+ *
+ * @author codematrix
+ * @version 1.0
+ */
+public class TokenBucket {
+
+    /**
+     * Tokens added per nanosecond.
+     */
+    private final double tokensPerNano;
+
+    /**
+     * Maximum number of tokens held.
+     */
+    private final double capacity;
+
+    /**
+     * Tokens currently available.
+     */
+    private double tokens;
+
+    /**
+     * Time of the last refill, from System.nanoTime().
+     */
+    private long lastRefill;
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param permitsPerSecond Steady rate at which tokens are added
+     * @param capacity Maximum burst size
+     */
+    public TokenBucket(double permitsPerSecond, int capacity) {
+        if (permitsPerSecond <= 0 || capacity < 1) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive and capacity at least 1");
+        }
+        this.tokensPerNano = permitsPerSecond / 1_000_000_000.0;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes one token, waiting until one is available.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void acquire() throws InterruptedException {
+        refill();
+        while (tokens < 1) {
+            long waitNanos = (long) Math.ceil((1 - tokens) / tokensPerNano);
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            refill();
+        }
+        tokens -= 1;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
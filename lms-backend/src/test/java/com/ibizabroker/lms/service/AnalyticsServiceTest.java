@@ -0,0 +1,106 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.BorrowSnapshotRepository;
+import com.ibizabroker.lms.util.BorrowSnapshot;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnalyticsServiceTest {
+
+	private static final LocalDate JAN = LocalDate.of(2024, 1, 10);
+
+	@Test
+	void queryBeforeTheFirstSnapshotFails() {
+		AnalyticsService service = new AnalyticsService(new FixedRepository(), 100);
+		assertThrows(IllegalStateException.class, () -> service.query(Collections.emptyList(), null, null, null, null, 10));
+	}
+
+	@Test
+	void queryReportsTheSnapshotAndItsGroups() {
+		AnalyticsService service = new AnalyticsService(new FixedRepository(), 100);
+		service.refresh();
+		Map<String, Object> result = service.query(Collections.singletonList(" genre "), null, null, null, null, 10);
+		assertNotNull(result.get("snapshotAt"));
+		assertEquals(4, result.get("snapshotRows"));
+		assertNotNull(result.get("elapsedMillis"));
+		assertEquals(4L, result.get("matchedRows"));
+		assertEquals(2, result.get("groups"));
+		List<Map<String, Object>> rows = rows(result);
+		assertEquals("Fiction", rows.get(0).get("genre"));
+		assertEquals(3L, rows.get(0).get("loans"));
+	}
+
+	@Test
+	void dimensionNamesIgnoreCaseBlanksAndRepeats() {
+		AnalyticsService service = new AnalyticsService(new FixedRepository(), 100);
+		service.refresh();
+		Map<String, Object> result = service.query(Arrays.asList("Status", "", "STATUS", "genre"), null, null, null, null, 10);
+		Map<String, Object> first = rows(result).get(0);
+		assertEquals(new HashSet<>(Arrays.asList("status", "genre", "loans", "returned", "overdue", "fines", "avgLoanDays")),
+				first.keySet());
+	}
+
+	@Test
+	void invalidGroupingsAreRejected() {
+		AnalyticsService service = new AnalyticsService(new FixedRepository(), 100);
+		service.refresh();
+		assertThrows(IllegalArgumentException.class,
+				() -> service.query(Collections.singletonList("shelf"), null, null, null, null, 10));
+		assertThrows(IllegalArgumentException.class,
+				() -> service.query(Arrays.asList("genre", "month", "weekday", "user"), null, null, null, null, 10));
+	}
+
+	@Test
+	void dateFiltersIncludeBothEndDays() {
+		AnalyticsService service = new AnalyticsService(new FixedRepository(), 100);
+		service.refresh();
+		Date from = date(JAN.plusDays(1));
+		Date to = date(JAN.plusDays(2));
+		assertEquals(2L, service.query(Collections.emptyList(), from, to, null, null, 10).get("matchedRows"));
+		assertEquals(1L, service.query(Collections.emptyList(), from, to, null, "History", 10).get("matchedRows"));
+	}
+
+	@Test
+	void snapshotKeepsAtMostTheConfiguredRows() {
+		AnalyticsService service = new AnalyticsService(new FixedRepository(), 3);
+		service.refresh();
+		assertEquals(3, service.query(Collections.emptyList(), null, null, null, null, 10).get("snapshotRows"));
+	}
+
+	private static Date date(LocalDate day) {
+		// Late in the day, to check that only the calendar day counts
+		return Date.from(day.atTime(23, 30).atZone(ZoneId.systemDefault()).toInstant());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Map<String, Object>> rows(Map<String, Object> result) {
+		return (List<Map<String, Object>>) result.get("rows");
+	}
+
+	/**
+	 * Serves four loans, newest first, without a database.
+	 */
+	private static final class FixedRepository extends BorrowSnapshotRepository {
+
+		FixedRepository() {
+			super(new DriverManagerDataSource());
+		}
+
+		@Override
+		public int readInto(int maxRows, BorrowSnapshot.Builder builder) {
+			String[] genres = {"Fiction", "History", "Fiction", "Fiction"};
+			int rows = Math.min(maxRows, genres.length);
+			for (int i = 0; i < rows; i++) {
+				LocalDate issued = JAN.plusDays(genres.length - 1 - i);
+				builder.add(i + 1, 1, genres[i], "RETURNED", issued, issued.plusDays(14), issued.plusDays(3), 0);
+			}
+			return rows;
+		}
+	}
+}
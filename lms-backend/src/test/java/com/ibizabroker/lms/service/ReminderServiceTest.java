@@ -0,0 +1,244 @@
+package com.ibizabroker.lms.service;
+
+import com.ibizabroker.lms.dao.ReminderRepository;
+import com.ibizabroker.lms.dto.Reminder;
+import com.ibizabroker.lms.enums.ReminderType;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReminderServiceTest {
+
+	@Test
+	void claimedRemindersAreSentOnce() {
+		FakeRepository repository = new FakeRepository();
+		RecordingSink sink = new RecordingSink();
+		ReminderService service = service(repository, sink);
+
+		assertEquals(3, service.sendReminders(Arrays.asList(1, 2, 3), ReminderType.DUE_SOON));
+		assertEquals(Arrays.asList(1, 2, 3), sink.sent);
+		assertTrue(sink.messages.get(0).contains("\"Book 1\" is due on"));
+		assertEquals(new HashSet<>(Arrays.asList("1/DUE_SOON", "2/DUE_SOON", "3/DUE_SOON")), repository.log);
+
+		// Already logged, so neither selected nor sent again
+		assertEquals(0, service.sendReminders(Arrays.asList(1, 2, 3), ReminderType.DUE_SOON));
+		assertEquals(3, sink.sent.size());
+		// A different type is a different reminder
+		assertEquals(1, service.sendReminders(Collections.singletonList(1), ReminderType.OVERDUE));
+	}
+
+	@Test
+	void reminderClaimedElsewhereIsSkippedAndKeepsItsClaim() {
+		FakeRepository repository = new FakeRepository();
+		// Selected here while another trigger claims it
+		repository.log.add("2/OVERDUE");
+		repository.ignoreLogFor.add(2);
+		RecordingSink sink = new RecordingSink();
+
+		assertEquals(2, service(repository, sink).sendReminders(Arrays.asList(1, 2, 3), ReminderType.OVERDUE));
+		assertEquals(Arrays.asList(1, 3), sink.sent);
+		assertTrue(repository.log.contains("2/OVERDUE"));
+		assertEquals(Collections.emptyList(), repository.released);
+	}
+
+	@Test
+	void transientDeliveryFailureIsRetried() {
+		FakeRepository repository = new FakeRepository();
+		RecordingSink sink = new RecordingSink();
+		sink.failuresLeft.put(1, 1);
+
+		assertEquals(2, service(repository, sink).sendReminders(Arrays.asList(1, 2), ReminderType.DUE_SOON));
+		assertEquals(2, sink.attempts.get(1).intValue());
+		assertEquals(Arrays.asList(1, 2), sink.sent);
+		assertEquals(Collections.emptyList(), repository.released);
+	}
+
+	@Test
+	void failedDeliveryIsReleasedForTheNextRun() {
+		FakeRepository repository = new FakeRepository();
+		RecordingSink sink = new RecordingSink();
+		sink.failuresLeft.put(2, Integer.MAX_VALUE);
+		ReminderService service = service(repository, sink);
+
+		assertEquals(2, service.sendReminders(Arrays.asList(1, 2, 3), ReminderType.DUE_SOON));
+		// Tried up to the attempt limit, then released
+		assertEquals(2, sink.attempts.get(2).intValue());
+		assertEquals(Collections.singletonList(2), repository.released);
+		assertFalse(repository.log.contains("2/DUE_SOON"));
+
+		sink.failuresLeft.clear();
+		assertEquals(1, service.sendReminders(Arrays.asList(1, 2, 3), ReminderType.DUE_SOON));
+		assertEquals(Arrays.asList(1, 3, 2), sink.sent);
+	}
+
+	@Test
+	void failedFlushReleasesTheWholeBatch() {
+		FakeRepository repository = new FakeRepository();
+		RecordingSink sink = new RecordingSink();
+		sink.flushFailuresLeft = Integer.MAX_VALUE;
+
+		assertEquals(0, service(repository, sink).sendReminders(Arrays.asList(1, 2, 3), ReminderType.DUE_SOON));
+		assertEquals(Arrays.asList(1, 2, 3), repository.released);
+		assertEquals(Collections.emptySet(), repository.log);
+	}
+
+	@Test
+	void flushIsRetriedBeforeGivingUp() {
+		FakeRepository repository = new FakeRepository();
+		RecordingSink sink = new RecordingSink();
+		sink.flushFailuresLeft = 1;
+
+		assertEquals(2, service(repository, sink).sendReminders(Arrays.asList(1, 2), ReminderType.DUE_SOON));
+		assertEquals(Collections.emptyList(), repository.released);
+	}
+
+	@Test
+	void dailyRunPagesThroughDueSoonAndOverdueLoans() {
+		FakeRepository repository = new FakeRepository();
+		repository.dueSoon.addAll(Arrays.asList(1, 2, 3, 4, 5));
+		repository.overdue.addAll(Arrays.asList(6, 7, 8));
+		RecordingSink sink = new RecordingSink();
+
+		assertEquals(8, service(repository, sink).sendDueReminders());
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8), sink.sent);
+		assertTrue(repository.log.contains("5/DUE_SOON"));
+		assertTrue(repository.log.contains("6/OVERDUE"));
+	}
+
+	private static ReminderService service(FakeRepository repository, ReminderSink sink) {
+		// Two loans per batch, a fast rate and two attempts keep the tests short
+		return new ReminderService(repository, sink, null, 2, 2, 1000, 2);
+	}
+
+	private static Reminder reminder(int borrowId, ReminderType type) {
+		Reminder reminder = new Reminder();
+		reminder.setBorrowId(borrowId);
+		reminder.setType(type);
+		reminder.setUserId(100 + borrowId);
+		reminder.setName("User " + borrowId);
+		reminder.setBookName("Book " + borrowId);
+		reminder.setDueDate(new Date());
+		return reminder;
+	}
+
+	/**
+	 * Selects loans from in-memory lists, and keeps the reminder log in a set through a JDBC
+	 * template that answers the claim and release batches.
+	 */
+	private static final class FakeRepository extends ReminderRepository {
+
+		final Set<String> log;
+		final List<Integer> released;
+		final Set<Integer> ignoreLogFor = new HashSet<>();
+		final List<Integer> dueSoon = new ArrayList<>();
+		final List<Integer> overdue = new ArrayList<>();
+
+		FakeRepository() {
+			this(new LogTemplate());
+		}
+
+		private FakeRepository(LogTemplate template) {
+			super(template);
+			this.log = template.log;
+			this.released = template.released;
+		}
+
+		@Override
+		public List<Reminder> findByIds(Collection<Integer> borrowIds, ReminderType type) {
+			List<Reminder> reminders = new ArrayList<>();
+			for (Integer borrowId : borrowIds) {
+				if (ignoreLogFor.contains(borrowId) || !log.contains(borrowId + "/" + type)) {
+					reminders.add(reminder(borrowId, type));
+				}
+			}
+			return reminders;
+		}
+
+		@Override
+		public List<Reminder> findDueBetween(Date from, Date to, int afterId, int limit) {
+			return page(dueSoon, ReminderType.DUE_SOON, afterId, limit);
+		}
+
+		@Override
+		public List<Reminder> findOverdue(Date now, int afterId, int limit) {
+			return page(overdue, ReminderType.OVERDUE, afterId, limit);
+		}
+
+		private List<Reminder> page(List<Integer> borrowIds, ReminderType type, int afterId, int limit) {
+			List<Reminder> reminders = new ArrayList<>();
+			for (Integer borrowId : borrowIds) {
+				if (borrowId > afterId && reminders.size() < limit && !log.contains(borrowId + "/" + type)) {
+					reminders.add(reminder(borrowId, type));
+				}
+			}
+			return reminders;
+		}
+	}
+
+	/**
+	 * Answers the reminder log batches: an insert succeeds unless the pair is logged, a
+	 * delete removes it.
+	 */
+	private static final class LogTemplate extends JdbcTemplate {
+
+		final Set<String> log = new HashSet<>();
+		final List<Integer> released = new ArrayList<>();
+
+		@Override
+		public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+			int[] counts = new int[batchArgs.size()];
+			for (int i = 0; i < counts.length; i++) {
+				Object[] args = batchArgs.get(i);
+				String key = args[0] + "/" + args[1];
+				if (sql.startsWith("INSERT")) {
+					counts[i] = log.add(key) ? 1 : 0;
+				} else {
+					counts[i] = log.remove(key) ? 1 : 0;
+					released.add((Integer) args[0]);
+				}
+			}
+			return counts;
+		}
+	}
+
+	private static final class RecordingSink implements ReminderSink {
+
+		final List<Integer> sent = new ArrayList<>();
+		final List<String> messages = new ArrayList<>();
+		final Map<Integer, Integer> attempts = new HashMap<>();
+		final Map<Integer, Integer> failuresLeft = new HashMap<>();
+		int flushFailuresLeft;
+
+		/**
+		 * Delivered since the last flush; moved to sent when the flush succeeds.
+		 */
+		private final List<Reminder> buffered = new ArrayList<>();
+
+		@Override
+		public void send(Reminder reminder) throws Exception {
+			attempts.merge(reminder.getBorrowId(), 1, Integer::sum);
+			Integer failures = failuresLeft.get(reminder.getBorrowId());
+			if (failures != null && failures > 0) {
+				failuresLeft.put(reminder.getBorrowId(), failures - 1);
+				throw new Exception("sink unavailable");
+			}
+			buffered.add(reminder);
+		}
+
+		@Override
+		public void flush() throws Exception {
+			if (flushFailuresLeft > 0) {
+				flushFailuresLeft--;
+				throw new Exception("flush failed");
+			}
+			for (Reminder reminder : buffered) {
+				sent.add(reminder.getBorrowId());
+				messages.add(reminder.getMessage());
+			}
+			buffered.clear();
+		}
+	}
+}
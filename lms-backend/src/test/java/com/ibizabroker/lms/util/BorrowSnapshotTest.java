@@ -0,0 +1,192 @@
+package com.ibizabroker.lms.util;
+
+import com.ibizabroker.lms.enums.AnalyticsDimension;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BorrowSnapshotTest {
+
+	private static final LocalDate JAN = LocalDate.of(2024, 1, 10);
+
+	private static final Date TAKEN_AT = new Date(0);
+
+	@Test
+	void emptySnapshotMatchesNothing() {
+		BorrowSnapshot snapshot = BorrowSnapshot.builder(0).build(TAKEN_AT);
+		assertEquals(0, snapshot.size());
+		Map<String, Object> result = snapshot.query(Collections.singletonList(AnalyticsDimension.GENRE), null, null, null, null, 10);
+		assertEquals(0L, result.get("matchedRows"));
+		assertEquals(Collections.emptyList(), result.get("rows"));
+	}
+
+	@Test
+	void totalWithoutGroupingAggregatesEveryLoan() {
+		BorrowSnapshot.Builder builder = BorrowSnapshot.builder(4);
+		builder.add(1, 1, "Fiction", "RETURNED", JAN, JAN.plusDays(14), JAN.plusDays(4), 0);
+		builder.add(2, 1, "Fiction", "RETURNED", JAN, JAN.plusDays(14), JAN.plusDays(20), 6.5);
+		builder.add(3, 2, "History", null, JAN, JAN.plusDays(14), null, 0);
+		BorrowSnapshot snapshot = builder.build(TAKEN_AT);
+		assertSame(TAKEN_AT, snapshot.getTakenAt());
+
+		Map<String, Object> result = snapshot.query(Collections.emptyList(), null, null, null, null, 10);
+		assertEquals(3L, result.get("matchedRows"));
+		Map<String, Object> total = rows(result).get(0);
+		assertEquals(3L, total.get("loans"));
+		assertEquals(2L, total.get("returned"));
+		// Returned late, and never returned while long past due
+		assertEquals(2L, total.get("overdue"));
+		assertEquals(6.5, total.get("fines"));
+		assertEquals(12.0, total.get("avgLoanDays"));
+	}
+
+	@Test
+	void groupsAreLabelledAndOrderedByLoans() {
+		BorrowSnapshot.Builder builder = BorrowSnapshot.builder(4);
+		builder.add(1, 1, "History", "RETURNED", JAN, null, JAN.plusDays(1), 0);
+		builder.add(2, 1, "Fiction", "RETURNED", JAN, null, JAN.plusDays(1), 0);
+		builder.add(3, 2, "Fiction", "RETURNED", JAN, null, JAN.plusDays(1), 0);
+		builder.add(4, 2, null, "RETURNED", JAN, null, null, 0);
+		Map<String, Object> result = builder.build(TAKEN_AT)
+				.query(Collections.singletonList(AnalyticsDimension.GENRE), null, null, null, null, 10);
+		List<Map<String, Object>> rows = rows(result);
+		assertEquals(3, result.get("groups"));
+		assertEquals("Fiction", rows.get(0).get("genre"));
+		assertEquals(2L, rows.get(0).get("loans"));
+		Set<Object> rest = new HashSet<>(Arrays.asList(rows.get(1).get("genre"), rows.get(2).get("genre")));
+		// A book without a genre is grouped under the empty genre
+		assertEquals(new HashSet<>(Arrays.asList("History", "")), rest);
+		for (Map<String, Object> row : rows) {
+			// No loan without a genre was returned, so it has no average
+			assertEquals("".equals(row.get("genre")) ? null : 1.0, row.get("avgLoanDays"));
+		}
+	}
+
+	@Test
+	void limitKeepsTheLargestGroupsAndReportsHowManyThereWere() {
+		BorrowSnapshot.Builder builder = BorrowSnapshot.builder(16);
+		for (int book = 1; book <= 5; book++) {
+			for (int copy = 0; copy < book; copy++) {
+				builder.add(book, copy, "Fiction", "RETURNED", JAN, null, null, 0);
+			}
+		}
+		Map<String, Object> result = builder.build(TAKEN_AT)
+				.query(Collections.singletonList(AnalyticsDimension.BOOK), null, null, null, null, 2);
+		assertEquals(5, result.get("groups"));
+		assertEquals(15L, result.get("matchedRows"));
+		List<Map<String, Object>> rows = rows(result);
+		assertEquals(2, rows.size());
+		assertEquals("5", rows.get(0).get("book"));
+		assertEquals("4", rows.get(1).get("book"));
+	}
+
+	@Test
+	void filtersByIssueDateStatusAndGenre() {
+		BorrowSnapshot.Builder builder = BorrowSnapshot.builder(4);
+		builder.add(1, 1, "Fiction", "RETURNED", JAN, null, null, 0);
+		builder.add(2, 1, "Fiction", "OVERDUE", JAN.plusDays(1), null, null, 0);
+		builder.add(3, 1, "History", "RETURNED", JAN.plusDays(2), null, null, 0);
+		builder.add(4, 1, "History", "RETURNED", JAN.plusDays(3), null, null, 0);
+		BorrowSnapshot snapshot = builder.build(TAKEN_AT);
+		List<AnalyticsDimension> none = Collections.emptyList();
+		int day = (int) JAN.toEpochDay();
+
+		assertEquals(2L, snapshot.query(none, day + 1, day + 2, null, null, 10).get("matchedRows"));
+		assertEquals(3L, snapshot.query(none, null, null, "returned", null, 10).get("matchedRows"));
+		assertEquals(1L, snapshot.query(none, null, null, "RETURNED", "fiction", 10).get("matchedRows"));
+		assertEquals(0L, snapshot.query(none, null, null, null, "Poetry", 10).get("matchedRows"));
+	}
+
+	@Test
+	void monthWeekdayAndCohortAreDerivedFromTheIssueDate() {
+		BorrowSnapshot.Builder builder = BorrowSnapshot.builder(4);
+		// User 7 first borrowed in January, so the March loan belongs to the January cohort
+		builder.add(1, 7, "Fiction", "RETURNED", LocalDate.of(2024, 1, 1), null, null, 0);
+		builder.add(2, 7, "Fiction", "RETURNED", LocalDate.of(2024, 3, 6), null, null, 0);
+		builder.add(3, 8, "Fiction", "RETURNED", LocalDate.of(2024, 3, 7), null, null, 0);
+		BorrowSnapshot snapshot = builder.build(TAKEN_AT);
+
+		List<Map<String, Object>> rows = rows(snapshot.query(Arrays.asList(AnalyticsDimension.MONTH, AnalyticsDimension.COHORT),
+				null, null, null, null, 10));
+		Map<String, Long> loans = new HashMap<>();
+		for (Map<String, Object> row : rows) {
+			loans.put(row.get("month") + "/" + row.get("cohort"), (Long) row.get("loans"));
+		}
+		Map<String, Long> expected = new HashMap<>();
+		expected.put("2024-01/2024-01", 1L);
+		expected.put("2024-03/2024-01", 1L);
+		expected.put("2024-03/2024-03", 1L);
+		assertEquals(expected, loans);
+
+		rows = rows(snapshot.query(Collections.singletonList(AnalyticsDimension.WEEKDAY), null, null, null, null, 10));
+		Set<Object> weekdays = new HashSet<>();
+		for (Map<String, Object> row : rows) {
+			weekdays.add(row.get("weekday"));
+		}
+		assertEquals(new HashSet<>(Arrays.asList("MONDAY", "WEDNESDAY", "THURSDAY")), weekdays);
+	}
+
+	@Test
+	void groupingWithTooManyGroupsIsRejected() {
+		BorrowSnapshot.Builder builder = BorrowSnapshot.builder(100);
+		for (int i = 0; i < 100; i++) {
+			builder.add(i, i, "Fiction", "RETURNED", JAN.plusMonths(i % 30), null, null, 0);
+		}
+		BorrowSnapshot snapshot = builder.build(TAKEN_AT);
+		// 100 books x 100 users x 30 months
+		assertThrows(IllegalArgumentException.class, () -> snapshot.query(
+				Arrays.asList(AnalyticsDimension.BOOK, AnalyticsDimension.USER, AnalyticsDimension.MONTH), null, null, null, null, 10));
+	}
+
+	@Test
+	void parallelScanMatchesASequentialCount() {
+		String[] genres = {"Fiction", "History", "Science", null};
+		String[] statuses = {"RETURNED", "OVERDUE", "BORROWED"};
+		Random random = new Random(17);
+		BorrowSnapshot.Builder builder = BorrowSnapshot.builder(16);
+		Map<String, long[]> expected = new HashMap<>();
+		LocalDate from = JAN.plusDays(30);
+		LocalDate to = JAN.plusDays(300);
+		for (int i = 0; i < 100000; i++) {
+			String genre = genres[random.nextInt(genres.length)];
+			String status = statuses[random.nextInt(statuses.length)];
+			LocalDate issued = JAN.plusDays(random.nextInt(365));
+			LocalDate returned = random.nextBoolean() ? issued.plusDays(random.nextInt(30)) : null;
+			builder.add(1 + random.nextInt(500), 1 + random.nextInt(400), genre, status, issued,
+					issued.plusDays(14), returned, random.nextInt(3));
+			if (!issued.isBefore(from) && !issued.isAfter(to) && !"BORROWED".equals(status)) {
+				long[] counts = expected.computeIfAbsent((genre == null ? "" : genre) + "/" + status, key -> new long[2]);
+				counts[0]++;
+				counts[1] += returned == null ? 0 : 1;
+			}
+		}
+		BorrowSnapshot snapshot = builder.build(TAKEN_AT);
+		int fromDay = (int) from.toEpochDay();
+		int toDay = (int) to.toEpochDay();
+
+		for (String status : new String[]{"RETURNED", "OVERDUE"}) {
+			List<Map<String, Object>> rows = rows(snapshot.query(
+					Collections.singletonList(AnalyticsDimension.GENRE), fromDay, toDay, status, null, 10));
+			for (Map<String, Object> row : rows) {
+				long[] counts = expected.remove(row.get("genre") + "/" + status);
+				assertNotNull(counts, "unexpected group " + row);
+				assertEquals(counts[0], ((Long) row.get("loans")).longValue());
+				assertEquals(counts[1], ((Long) row.get("returned")).longValue());
+			}
+		}
+		assertEquals(Collections.emptyMap(), expected);
+
+		// 500 books x 400 users: few enough ranges to stay within the aggregate memory cap
+		Map<String, Object> result = snapshot.query(Arrays.asList(AnalyticsDimension.BOOK, AnalyticsDimension.USER),
+				null, null, null, null, 1);
+		assertEquals(100000L, result.get("matchedRows"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Map<String, Object>> rows(Map<String, Object> result) {
+		return (List<Map<String, Object>>) result.get("rows");
+	}
+}
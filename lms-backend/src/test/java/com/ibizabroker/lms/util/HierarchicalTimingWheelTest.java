@@ -0,0 +1,141 @@
+package com.ibizabroker.lms.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HierarchicalTimingWheelTest {
+
+	private static final long TICK = 1000;
+
+	private static final int SLOTS = 8;
+
+	@Test
+	void timeoutFiresAtTheFirstTickAtOrAfterItsDeadline() {
+		HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, SLOTS, 0);
+		wheel.add(2500, "a");
+		assertEquals(Collections.emptyList(), wheel.advanceTo(2999));
+		assertEquals(Collections.singletonList("a"), wheel.advanceTo(3000));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	void pastDeadlineFiresOnTheNextAdvance() {
+		HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, SLOTS, 10000);
+		wheel.add(5000, "late");
+		assertEquals(Collections.singletonList("late"), wheel.advanceTo(10000));
+	}
+
+	@Test
+	void cascadedTimeoutFiresOnItsTickAndNotBefore() {
+		HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, SLOTS, 0);
+		// Beyond the first turn: placed in level 1 and moved down when its slot comes round
+		long deadline = (3L * SLOTS + 5) * TICK;
+		wheel.add(deadline, "cascaded");
+		for (long now = TICK; now < deadline; now += TICK) {
+			assertEquals(Collections.emptyList(), wheel.advanceTo(now), "fired early at " + now);
+		}
+		assertEquals(Collections.singletonList("cascaded"), wheel.advanceTo(deadline));
+	}
+
+	@Test
+	void timeoutOnASlotBoundaryCascadesIntoTheSlotDueThatTick() {
+		HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, SLOTS, 0);
+		long deadline = 2L * SLOTS * TICK;
+		wheel.add(deadline, "boundary");
+		assertEquals(Collections.emptyList(), wheel.advanceTo(deadline - TICK));
+		assertEquals(Collections.singletonList("boundary"), wheel.advanceTo(deadline));
+	}
+
+	@Test
+	void distantDeadlineAddsLevelsAndFiresOnTime() {
+		HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, SLOTS, 0);
+		// Several turns of the third level, so the wheel must grow to a fourth
+		long deadline = (3L * SLOTS * SLOTS * SLOTS + 7L * SLOTS + 2) * TICK;
+		wheel.add(deadline, "far");
+		wheel.add(3 * TICK, "near");
+		assertEquals(Collections.singletonList("near"), wheel.advanceTo(3 * TICK));
+		assertEquals(Collections.emptyList(), wheel.advanceTo(deadline - TICK));
+		assertEquals(1, wheel.size());
+		assertEquals(Collections.singletonList("far"), wheel.advanceTo(deadline));
+	}
+
+	@Test
+	void deadlineBeyondLongRangeOfTicksDoesNotOverflow() {
+		HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, SLOTS, 0);
+		HierarchicalTimingWheel.Timeout<String> timeout = wheel.add(Long.MAX_VALUE, "never");
+		assertEquals(Collections.emptyList(), wheel.advanceTo(100 * TICK));
+		assertTrue(timeout.isPending());
+		assertTrue(wheel.cancel(timeout));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	void cancelRemovesATimeoutEvenAfterItCascaded() {
+		HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, SLOTS, 0);
+		long deadline = (SLOTS + 3L) * TICK;
+		HierarchicalTimingWheel.Timeout<String> cancelled = wheel.add(deadline, "cancelled");
+		wheel.add(deadline, "kept");
+		wheel.advanceTo(SLOTS * TICK);
+		assertTrue(wheel.cancel(cancelled));
+		assertFalse(wheel.cancel(cancelled));
+		assertFalse(cancelled.isPending());
+		assertEquals(Collections.singletonList("kept"), wheel.advanceTo(deadline));
+	}
+
+	@Test
+	void cancelAfterFiringReturnsFalse() {
+		HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(TICK, SLOTS, 0);
+		HierarchicalTimingWheel.Timeout<String> timeout = wheel.add(TICK, "a");
+		wheel.advanceTo(TICK);
+		assertFalse(wheel.cancel(timeout));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	void largeJumpFiresEverythingDue() {
+		HierarchicalTimingWheel<Integer> wheel = new HierarchicalTimingWheel<>(TICK, SLOTS, 0);
+		for (int i = 1; i <= 200; i++) {
+			wheel.add(i * 37L * TICK, i);
+		}
+		List<Integer> fired = wheel.advanceTo(100 * 37L * TICK);
+		assertEquals(100, fired.size());
+		for (int i = 0; i < fired.size(); i++) {
+			assertEquals(i + 1, fired.get(i).intValue());
+		}
+		assertEquals(100, wheel.size());
+	}
+
+	@Test
+	void randomTimeoutsFireOnTheSameTicksAsAReference() {
+		Random random = new Random(42);
+		long start = 12345;
+		HierarchicalTimingWheel<Long> wheel = new HierarchicalTimingWheel<>(TICK, SLOTS, start);
+		List<Long> deadlines = new ArrayList<>();
+		for (int i = 0; i < 2000; i++) {
+			long deadline = start + (long) (random.nextDouble() * 5000 * TICK);
+			deadlines.add(deadline);
+			wheel.add(deadline, deadline);
+		}
+		long now = start;
+		while (wheel.size() > 0) {
+			long previous = now;
+			now += (1 + random.nextInt(40)) * TICK;
+			List<Long> fired = wheel.advanceTo(now);
+			for (Long deadline : fired) {
+				assertTrue(deadline <= now - now % TICK, "fired before its tick: " + deadline + " at " + now);
+				assertTrue(deadline > previous - previous % TICK, "fired late: " + deadline + " at " + now);
+			}
+			for (Long deadline : fired) {
+				assertTrue(deadlines.remove(deadline));
+			}
+		}
+		assertEquals(Collections.emptyList(), deadlines);
+		assertEquals(Collections.emptyList(), wheel.advanceTo(now + 100 * TICK));
+	}
+}
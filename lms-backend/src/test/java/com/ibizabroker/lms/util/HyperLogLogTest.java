@@ -0,0 +1,145 @@
+package com.ibizabroker.lms.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HyperLogLogTest {
+
+	@Test
+	void emptySketchEstimatesZero() {
+		assertEquals(0, new HyperLogLog(10).estimate());
+	}
+
+	@Test
+	void smallCountsAreNearlyExact() {
+		HyperLogLog sketch = new HyperLogLog(10);
+		for (long id = 1; id <= 50; id++) {
+			sketch.add(id);
+		}
+		// Linear counting with few collisions among 1024 registers
+		assertEquals(50, sketch.estimate(), 2);
+	}
+
+	@Test
+	void relativeErrorStaysWithinTheStandardErrorAcrossCardinalities() {
+		int precision = 12;
+		double standardError = 1.04 / Math.sqrt(1 << precision);
+		for (int count : new int[]{1000, 10000, 100000, 1000000}) {
+			HyperLogLog sketch = new HyperLogLog(precision);
+			// Sequential IDs, like user and book IDs
+			for (long id = 1; id <= count; id++) {
+				sketch.add(id);
+			}
+			double error = Math.abs(sketch.estimate() - count) / (double) count;
+			assertTrue(error < 3 * standardError, "count " + count + ": relative error " + error);
+		}
+	}
+
+	@Test
+	void rootMeanSquareErrorMatchesTheStandardError() {
+		int precision = 10;
+		int trials = 50;
+		int count = 20000;
+		Random random = new Random(11);
+		double sumOfSquares = 0;
+		for (int trial = 0; trial < trials; trial++) {
+			HyperLogLog sketch = new HyperLogLog(precision);
+			for (int i = 0; i < count; i++) {
+				sketch.add(random.nextLong());
+			}
+			double error = (sketch.estimate() - count) / (double) count;
+			sumOfSquares += error * error;
+		}
+		double rmse = Math.sqrt(sumOfSquares / trials);
+		assertTrue(rmse < 1.3 * 1.04 / Math.sqrt(1 << precision), "RMS relative error " + rmse);
+	}
+
+	@Test
+	void repeatedIdsAreCountedOnce() {
+		HyperLogLog once = new HyperLogLog(10);
+		HyperLogLog repeated = new HyperLogLog(10);
+		for (long id = 1; id <= 5000; id++) {
+			once.add(id);
+			for (int i = 0; i < 3; i++) {
+				repeated.add(id);
+			}
+		}
+		assertEquals(once.estimate(), repeated.estimate());
+	}
+
+	@Test
+	void mergeOfOverlappingSketchesEstimatesTheUnion() {
+		HyperLogLog first = new HyperLogLog(12);
+		HyperLogLog second = new HyperLogLog(12);
+		HyperLogLog union = new HyperLogLog(12);
+		for (long id = 1; id <= 60000; id++) {
+			first.add(id);
+			union.add(id);
+		}
+		for (long id = 40001; id <= 100000; id++) {
+			second.add(id);
+			union.add(id);
+		}
+		first.merge(second);
+		// Merging loses nothing: the registers are those of the sketch of the union
+		assertArrayEquals(union.toBytes(), first.toBytes());
+		double error = Math.abs(first.estimate() - 100000) / 100000.0;
+		assertTrue(error < 3 * 1.04 / Math.sqrt(1 << 12), "relative error " + error);
+	}
+
+	@Test
+	void mergeIsIdempotentAndLeavesTheOtherSketchUnchanged() {
+		HyperLogLog sketch = new HyperLogLog(8);
+		HyperLogLog other = new HyperLogLog(8);
+		for (long id = 1; id <= 1000; id++) {
+			(id % 2 == 0 ? sketch : other).add(id);
+		}
+		byte[] otherBefore = other.toBytes();
+		sketch.merge(other);
+		long estimate = sketch.estimate();
+		sketch.merge(other);
+		assertEquals(estimate, sketch.estimate());
+		assertArrayEquals(otherBefore, other.toBytes());
+	}
+
+	@Test
+	void mergeRejectsADifferentPrecision() {
+		HyperLogLog sketch = new HyperLogLog(10);
+		assertThrows(IllegalArgumentException.class, () -> sketch.merge(new HyperLogLog(11)));
+	}
+
+	@Test
+	void sparseAndDenseFormsRoundTrip() {
+		HyperLogLog small = new HyperLogLog(10);
+		for (long id = 1; id <= 20; id++) {
+			small.add(id);
+		}
+		byte[] sparse = small.toBytes();
+		assertTrue(sparse.length < 2 + 1024, "small sketch not sparse: " + sparse.length);
+		assertEquals(small.estimate(), HyperLogLog.fromBytes(sparse).estimate());
+
+		HyperLogLog large = new HyperLogLog(10);
+		for (long id = 1; id <= 100000; id++) {
+			large.add(id);
+		}
+		byte[] dense = large.toBytes();
+		assertEquals(2 + 1024, dense.length);
+		HyperLogLog copy = HyperLogLog.fromBytes(dense);
+		assertEquals(10, copy.getPrecision());
+		assertEquals(large.estimate(), copy.estimate());
+		assertArrayEquals(dense, copy.toBytes());
+	}
+
+	@Test
+	void rejectsInvalidArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(3));
+		assertThrows(IllegalArgumentException.class, () -> new HyperLogLog(17));
+		assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[1]));
+		assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{1, 10, 0}));
+		assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{2, 10, 0, 0, 0, 1}));
+		assertThrows(IllegalArgumentException.class, () -> HyperLogLog.fromBytes(new byte[]{2, 4, 0, 0, 0, 1, 0, 16, 1}));
+	}
+}
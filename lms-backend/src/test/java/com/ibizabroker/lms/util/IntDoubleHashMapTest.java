@@ -0,0 +1,129 @@
+package com.ibizabroker.lms.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntDoubleHashMapTest {
+
+	@Test
+	void addToInsertsAndAccumulates() {
+		IntDoubleHashMap map = new IntDoubleHashMap();
+		assertEquals(0.0, map.get(7));
+		assertEquals(1.5, map.addTo(7, 1.5));
+		assertEquals(4.0, map.addTo(7, 2.5));
+		assertEquals(1, map.size());
+		// Unlike the int map, a key whose value reaches 0 is kept
+		assertEquals(0.0, map.addTo(7, -4.0));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	void zeroKeyIsStoredOutsideTheTable() {
+		IntDoubleHashMap map = new IntDoubleHashMap();
+		map.addTo(0, 2.0);
+		assertEquals(2.0, map.get(0));
+		assertEquals(1, map.size());
+		assertTrue(map.remove(0));
+		assertFalse(map.remove(0));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	void removingFromTheMiddleOfAProbeRunKeepsLaterKeysReachable() {
+		IntDoubleHashMap map = new IntDoubleHashMap(4);
+		List<Long> keys = LongHashSetTest.collidingKeys(8, 3);
+		for (int i = 0; i < keys.size(); i++) {
+			map.addTo(keys.get(i).intValue(), i + 1);
+		}
+		assertTrue(map.remove(keys.get(0).intValue()));
+		assertFalse(map.remove(keys.get(0).intValue()));
+		assertEquals(0.0, map.get(keys.get(0).intValue()));
+		assertEquals(2.0, map.get(keys.get(1).intValue()));
+		assertEquals(3.0, map.get(keys.get(2).intValue()));
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	void resizeKeepsEveryValue() {
+		IntDoubleHashMap map = new IntDoubleHashMap(4);
+		for (int key = 1; key <= 10000; key++) {
+			map.addTo(key, key / 2.0);
+		}
+		assertEquals(10000, map.size());
+		for (int key = 1; key <= 10000; key++) {
+			assertEquals(key / 2.0, map.get(key));
+		}
+	}
+
+	@Test
+	void scaleAndRemoveBelow() {
+		IntDoubleHashMap map = new IntDoubleHashMap();
+		map.addTo(0, 4.0);
+		map.addTo(1, 1.0);
+		map.addTo(2, 8.0);
+		map.scale(0.5);
+		assertEquals(2.0, map.get(0));
+		assertEquals(0.5, map.get(1));
+		assertEquals(4.0, map.get(2));
+		assertEquals(2, map.removeBelow(2.5));
+		assertEquals(1, map.size());
+		assertEquals(4.0, map.get(2));
+	}
+
+	@Test
+	void forEachVisitsEveryEntry() {
+		IntDoubleHashMap map = new IntDoubleHashMap();
+		for (int key = -50; key <= 50; key++) {
+			map.addTo(key, key * 3.0);
+		}
+		Map<Integer, Double> seen = new HashMap<>();
+		map.forEach((key, value) -> assertNull(seen.put(key, value)));
+		assertEquals(101, seen.size());
+		for (int key = -50; key <= 50; key++) {
+			assertEquals(key * 3.0, seen.get(key).doubleValue());
+		}
+	}
+
+	@Test
+	void clearKeepsTheMapUsable() {
+		IntDoubleHashMap map = new IntDoubleHashMap();
+		for (int key = 0; key < 100; key++) {
+			map.addTo(key, 1.0);
+		}
+		map.clear();
+		assertEquals(0, map.size());
+		assertEquals(0.0, map.get(0));
+		assertEquals(0.0, map.get(50));
+		map.addTo(50, 2.0);
+		assertEquals(2.0, map.get(50));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	void matchesHashMapUnderRandomOperations() {
+		Random random = new Random(13);
+		IntDoubleHashMap map = new IntDoubleHashMap(4);
+		Map<Integer, Double> expected = new HashMap<>();
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt(1000) - 500;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key) != null, map.remove(key));
+			} else {
+				double delta = random.nextInt(9) - 4;
+				double value = expected.getOrDefault(key, 0.0) + delta;
+				expected.put(key, value);
+				assertEquals(value, map.addTo(key, delta));
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		for (int key = -500; key < 500; key++) {
+			assertEquals(expected.getOrDefault(key, 0.0).doubleValue(), map.get(key));
+		}
+	}
+}
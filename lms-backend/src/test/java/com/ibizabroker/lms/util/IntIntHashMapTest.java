@@ -0,0 +1,92 @@
+package com.ibizabroker.lms.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IntIntHashMapTest {
+
+	@Test
+	void missingKeysReadAsZero() {
+		IntIntHashMap map = new IntIntHashMap();
+		assertEquals(0, map.get(5));
+		assertEquals(0, map.get(0));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	void addToAccumulatesAndRemovesAtZero() {
+		IntIntHashMap map = new IntIntHashMap();
+		assertEquals(3, map.addTo(5, 3));
+		assertEquals(5, map.addTo(5, 2));
+		assertEquals(1, map.size());
+		assertEquals(0, map.addTo(5, -5));
+		assertEquals(0, map.size());
+		assertEquals(0, map.get(5));
+		assertEquals(0, map.addTo(6, 0));
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	void zeroKeyIsCounted() {
+		IntIntHashMap map = new IntIntHashMap();
+		map.addTo(0, 4);
+		assertEquals(4, map.get(0));
+		assertEquals(1, map.size());
+		map.addTo(0, -4);
+		assertEquals(0, map.size());
+	}
+
+	@Test
+	void removingFromTheMiddleOfAProbeRunKeepsLaterKeysReachable() {
+		IntIntHashMap map = new IntIntHashMap(4);
+		List<Long> keys = LongHashSetTest.collidingKeys(8, 3);
+		for (int i = 0; i < keys.size(); i++) {
+			map.addTo(keys.get(i).intValue(), i + 1);
+		}
+		map.addTo(keys.get(0).intValue(), -1);
+		assertEquals(0, map.get(keys.get(0).intValue()));
+		assertEquals(2, map.get(keys.get(1).intValue()));
+		assertEquals(3, map.get(keys.get(2).intValue()));
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	void resizeKeepsEveryValue() {
+		IntIntHashMap map = new IntIntHashMap(4);
+		for (int key = 1; key <= 10000; key++) {
+			map.addTo(key, key);
+		}
+		assertEquals(10000, map.size());
+		for (int key = 1; key <= 10000; key++) {
+			assertEquals(key, map.get(key));
+		}
+	}
+
+	@Test
+	void matchesHashMapUnderRandomOperations() {
+		Random random = new Random(11);
+		IntIntHashMap map = new IntIntHashMap(4);
+		Map<Integer, Integer> expected = new HashMap<>();
+		for (int i = 0; i < 200000; i++) {
+			int key = random.nextInt(1000) - 500;
+			int delta = random.nextInt(5) - 2;
+			int value = expected.getOrDefault(key, 0) + delta;
+			if (value == 0) {
+				expected.remove(key);
+			} else {
+				expected.put(key, value);
+			}
+			assertEquals(value, map.addTo(key, delta));
+			assertEquals(expected.size(), map.size());
+		}
+		for (int key = -500; key < 500; key++) {
+			assertEquals(expected.getOrDefault(key, 0).intValue(), map.get(key));
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.ibizabroker.lms.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongHashSetTest {
+
+	/**
+	 * Finds keys whose home slot in a table of the given capacity is the same.
+	 */
+	static List<Long> collidingKeys(int capacity, int count) {
+		List<Long> keys = new ArrayList<>();
+		int home = -1;
+		for (long key = 1; keys.size() < count; key++) {
+			int slot = (int) LongHashSet.mix(key) & (capacity - 1);
+			if (home < 0) {
+				home = slot;
+			}
+			if (slot == home) {
+				keys.add(key);
+			}
+		}
+		return keys;
+	}
+
+	@Test
+	void addContainsAndRemove() {
+		LongHashSet set = new LongHashSet();
+		assertTrue(set.add(42));
+		assertFalse(set.add(42));
+		assertTrue(set.contains(42));
+		assertFalse(set.contains(43));
+		assertTrue(set.remove(42));
+		assertFalse(set.remove(42));
+		assertFalse(set.contains(42));
+		assertEquals(0, set.size());
+	}
+
+	@Test
+	void zeroKeyIsTrackedSeparately() {
+		LongHashSet set = new LongHashSet();
+		assertFalse(set.contains(0));
+		assertTrue(set.add(0));
+		assertFalse(set.add(0));
+		assertTrue(set.contains(0));
+		assertEquals(1, set.size());
+		assertTrue(set.remove(0));
+		assertFalse(set.contains(0));
+		assertEquals(0, set.size());
+	}
+
+	@Test
+	void collidingKeysShareAProbeRun() {
+		// Four expected keys give a table of 8 slots, which grows on the fourth key
+		LongHashSet set = new LongHashSet(4);
+		List<Long> keys = collidingKeys(8, 3);
+		for (long key : keys) {
+			assertTrue(set.add(key));
+		}
+		for (long key : keys) {
+			assertTrue(set.contains(key), "missing " + key);
+		}
+	}
+
+	@Test
+	void removingFromTheMiddleOfAProbeRunKeepsLaterKeysReachable() {
+		LongHashSet set = new LongHashSet(4);
+		List<Long> keys = collidingKeys(8, 3);
+		keys.forEach(set::add);
+
+		assertTrue(set.remove(keys.get(0)));
+		assertFalse(set.contains(keys.get(0)));
+		assertTrue(set.contains(keys.get(1)));
+		assertTrue(set.contains(keys.get(2)));
+		assertTrue(set.remove(keys.get(1)));
+		assertTrue(set.contains(keys.get(2)));
+
+		// Backward shifting leaves no tombstone, so removed keys can be added back
+		assertTrue(set.add(keys.get(0)));
+		assertTrue(set.add(keys.get(1)));
+		assertEquals(3, set.size());
+	}
+
+	@Test
+	void resizeKeepsEveryKey() {
+		LongHashSet set = new LongHashSet(4);
+		for (long key = -5000; key <= 5000; key++) {
+			set.add(key * 7919);
+		}
+		assertEquals(10001, set.size());
+		for (long key = -5000; key <= 5000; key++) {
+			assertTrue(set.contains(key * 7919));
+		}
+		assertFalse(set.contains(1));
+	}
+
+	@Test
+	void clearRemovesEverything() {
+		LongHashSet set = new LongHashSet();
+		for (long key = 0; key < 100; key++) {
+			set.add(key);
+		}
+		set.clear();
+		assertEquals(0, set.size());
+		assertFalse(set.contains(0));
+		assertFalse(set.contains(50));
+	}
+
+	@Test
+	void matchesHashSetUnderRandomOperations() {
+		Random random = new Random(7);
+		LongHashSet set = new LongHashSet(4);
+		Set<Long> expected = new HashSet<>();
+		for (int i = 0; i < 200000; i++) {
+			// A small key range forces long probe runs, many removals and repeated resizes
+			long key = random.nextInt(2000) - 1000;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), set.remove(key));
+			} else {
+				assertEquals(expected.add(key), set.add(key));
+			}
+			assertEquals(expected.size(), set.size());
+		}
+		for (long key = -1000; key < 1000; key++) {
+			assertEquals(expected.contains(key), set.contains(key));
+		}
+	}
+}
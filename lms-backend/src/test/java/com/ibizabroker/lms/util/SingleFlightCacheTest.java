@@ -0,0 +1,145 @@
+package com.ibizabroker.lms.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightCacheTest {
+
+	private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+	@Test
+	void hitsReturnTheCachedValueWithoutLoading() {
+		SingleFlightCache<String, Integer> cache = new SingleFlightCache<>(HOUR, HOUR, Runnable::run);
+		AtomicInteger loads = new AtomicInteger();
+		assertEquals(1, cache.get("k", loads::incrementAndGet).intValue());
+		assertEquals(1, cache.get("k", loads::incrementAndGet).intValue());
+		assertEquals(1, loads.get());
+		assertEquals(2, cache.get("other", loads::incrementAndGet).intValue());
+	}
+
+	@Test
+	void concurrentMissesShareOneLoad() throws Exception {
+		int callers = 8;
+		SingleFlightCache<String, Integer> cache = new SingleFlightCache<>(HOUR, HOUR, Runnable::run);
+		AtomicInteger loads = new AtomicInteger();
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int i = 0; i < callers; i++) {
+				results.add(pool.submit(() -> cache.get("k", () -> {
+					loads.incrementAndGet();
+					loading.countDown();
+					await(release);
+					return 42;
+				})));
+			}
+			assertTrue(loading.await(5, TimeUnit.SECONDS));
+			waitForCoalesced(cache, callers - 1);
+			release.countDown();
+			for (Future<Integer> result : results) {
+				assertEquals(42, result.get(5, TimeUnit.SECONDS).intValue());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(1, loads.get());
+		assertEquals(1L, cache.getStats().get("loads"));
+	}
+
+	@Test
+	void loadFailureReachesEveryWaitingCallerAndIsNotCached() throws Exception {
+		int callers = 4;
+		SingleFlightCache<String, Integer> cache = new SingleFlightCache<>(HOUR, HOUR, Runnable::run);
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(callers);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int i = 0; i < callers; i++) {
+				results.add(pool.submit(() -> cache.get("k", () -> {
+					loading.countDown();
+					await(release);
+					throw new IllegalStateException("database down");
+				})));
+			}
+			assertTrue(loading.await(5, TimeUnit.SECONDS));
+			waitForCoalesced(cache, callers - 1);
+			release.countDown();
+			for (Future<Integer> result : results) {
+				ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+				assertTrue(e.getCause() instanceof IllegalStateException);
+				assertEquals("database down", e.getCause().getMessage());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+		assertEquals(1L, cache.getStats().get("loadFailures"));
+		assertEquals(7, cache.get("k", () -> 7).intValue());
+	}
+
+	@Test
+	void expiredValueIsLoadedAgain() throws InterruptedException {
+		SingleFlightCache<String, Integer> cache = new SingleFlightCache<>(20, 20, Runnable::run);
+		AtomicInteger loads = new AtomicInteger();
+		cache.get("k", loads::incrementAndGet);
+		Thread.sleep(40);
+		assertEquals(2, cache.get("k", loads::incrementAndGet).intValue());
+		Thread.sleep(40);
+		assertEquals(1, cache.evictExpired());
+		assertEquals(0, cache.getStats().get("size"));
+	}
+
+	@Test
+	void hitPastRefreshAgeReturnsTheOldValueAndReloads() {
+		SingleFlightCache<String, Integer> cache = new SingleFlightCache<>(HOUR, 0, Runnable::run);
+		AtomicInteger loads = new AtomicInteger();
+		assertEquals(1, cache.get("k", loads::incrementAndGet).intValue());
+		// The refresh runs on the calling thread here, after the old value was chosen
+		assertEquals(1, cache.get("k", loads::incrementAndGet).intValue());
+		assertEquals(2, cache.get("k", loads::incrementAndGet).intValue());
+		assertEquals(3, loads.get());
+		assertEquals(2L, cache.getStats().get("refreshes"));
+	}
+
+	@Test
+	void invalidateAllForcesALoad() {
+		SingleFlightCache<String, Integer> cache = new SingleFlightCache<>(HOUR, HOUR, Runnable::run);
+		AtomicInteger loads = new AtomicInteger();
+		cache.get("k", loads::incrementAndGet);
+		cache.invalidateAll();
+		assertEquals(0, cache.getStats().get("size"));
+		assertEquals(2, cache.get("k", loads::incrementAndGet).intValue());
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			if (!latch.await(5, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("timed out");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void waitForCoalesced(SingleFlightCache<?, ?> cache, long expected) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ((Long) cache.getStats().get("coalesced") < expected) {
+			assertTrue(System.nanoTime() < deadline, "callers did not join the load");
+			Thread.sleep(1);
+		}
+	}
+}
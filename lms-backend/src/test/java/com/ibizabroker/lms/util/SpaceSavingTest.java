@@ -0,0 +1,99 @@
+package com.ibizabroker.lms.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpaceSavingTest {
+
+	@Test
+	void countsAreExactWhileEveryItemFits() {
+		SpaceSaving<String> sketch = new SpaceSaving<>(3);
+		sketch.offer("a", 5);
+		sketch.offer("b", 1);
+		sketch.offer("a", 2);
+		sketch.offer("c", 3);
+		List<SpaceSaving.Estimate<String>> top = sketch.top(10);
+		assertEquals(3, top.size());
+		assertEquals("a", top.get(0).getItem());
+		assertEquals(7, top.get(0).getCount());
+		assertEquals("c", top.get(1).getItem());
+		assertEquals("b", top.get(2).getItem());
+		for (SpaceSaving.Estimate<String> estimate : top) {
+			assertEquals(0, estimate.getError());
+		}
+		assertEquals(11, sketch.total());
+	}
+
+	@Test
+	void newItemInheritsTheSmallestCountAsItsError() {
+		SpaceSaving<String> sketch = new SpaceSaving<>(2);
+		sketch.offer("a", 4);
+		sketch.offer("b", 2);
+		sketch.offer("c", 1);
+		assertEquals(2, sketch.size());
+		List<SpaceSaving.Estimate<String>> top = sketch.top(2);
+		assertEquals("a", top.get(0).getItem());
+		assertEquals("c", top.get(1).getItem());
+		assertEquals(3, top.get(1).getCount());
+		assertEquals(2, top.get(1).getError());
+	}
+
+	@Test
+	void estimatesStayWithinTheirErrorBoundsOnASkewedStream() {
+		int capacity = 50;
+		SpaceSaving<Integer> sketch = new SpaceSaving<>(capacity);
+		Map<Integer, Long> exact = new HashMap<>();
+		Random random = new Random(7);
+		for (int i = 0; i < 200000; i++) {
+			// Zipf-like: small item IDs are far more frequent
+			int item = (int) Math.floor(Math.pow(10000, random.nextDouble()));
+			long count = 1 + random.nextInt(3);
+			sketch.offer(item, count);
+			exact.merge(item, count, Long::sum);
+		}
+
+		long total = sketch.total();
+		Set<Integer> tracked = new HashSet<>();
+		for (SpaceSaving.Estimate<Integer> estimate : sketch.top(capacity)) {
+			long trueCount = exact.get(estimate.getItem());
+			assertTrue(estimate.getCount() >= trueCount, "underestimated " + estimate.getItem());
+			assertTrue(estimate.getCount() - estimate.getError() <= trueCount, "error too small for " + estimate.getItem());
+			assertTrue(estimate.getError() <= total / capacity, "error above total / capacity");
+			tracked.add(estimate.getItem());
+		}
+		for (Map.Entry<Integer, Long> entry : exact.entrySet()) {
+			if (entry.getValue() > total / capacity) {
+				assertTrue(tracked.contains(entry.getKey()), "frequent item " + entry.getKey() + " not tracked");
+			}
+		}
+	}
+
+	@Test
+	void topIsOrderedByCount() {
+		SpaceSaving<Integer> sketch = new SpaceSaving<>(20);
+		Random random = new Random(3);
+		for (int i = 0; i < 10000; i++) {
+			sketch.offer(random.nextInt(100), 1);
+		}
+		List<SpaceSaving.Estimate<Integer>> top = sketch.top(5);
+		assertEquals(5, top.size());
+		for (int i = 1; i < top.size(); i++) {
+			assertTrue(top.get(i - 1).getCount() >= top.get(i).getCount());
+		}
+	}
+
+	@Test
+	void rejectsInvalidArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new SpaceSaving<String>(0));
+		SpaceSaving<String> sketch = new SpaceSaving<>(1);
+		assertThrows(IllegalArgumentException.class, () -> sketch.offer("a", 0));
+	}
+}
@@ -0,0 +1,173 @@
+package com.ibizabroker.lms.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TDigestTest {
+
+	private static final double[] QUANTILES = {0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999};
+
+	@Test
+	void quantilesOfAUniformStreamMatchTheSortedValues() {
+		Random random = new Random(1);
+		double[] values = new double[100000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextDouble() * 1000;
+		}
+		TDigest digest = new TDigest(100);
+		for (double value : values) {
+			digest.add(value);
+		}
+		assertRankErrors(digest, values);
+	}
+
+	@Test
+	void quantilesOfASkewedStreamMatchTheSortedValues() {
+		// Log-normal, like loan durations: most loans are short and a few run very long
+		Random random = new Random(2);
+		double[] values = new double[100000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Math.exp(2 + random.nextGaussian());
+		}
+		TDigest digest = new TDigest(100);
+		for (double value : values) {
+			digest.add(value);
+		}
+		assertRankErrors(digest, values);
+	}
+
+	@Test
+	void mergedDigestsMatchTheWholeStream() {
+		Random random = new Random(3);
+		double[] values = new double[100000];
+		TDigest[] parts = new TDigest[10];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = new TDigest(100);
+		}
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Math.exp(random.nextGaussian());
+			// Each part sees a different range, as each node sees different loans
+			parts[(int) (values[i] * 10) % parts.length].add(values[i]);
+		}
+		TDigest merged = new TDigest(100);
+		for (TDigest part : parts) {
+			merged.add(part);
+		}
+		assertEquals(values.length, merged.size());
+		assertRankErrors(merged, values);
+	}
+
+	@Test
+	void extremeQuantilesAreTheMinimumAndMaximum() {
+		TDigest digest = new TDigest(50);
+		for (int i = 1; i <= 1000; i++) {
+			digest.add(i);
+		}
+		assertEquals(1.0, digest.getMin());
+		assertEquals(1000.0, digest.getMax());
+		assertEquals(1.0, digest.quantile(0));
+		assertEquals(1000.0, digest.quantile(1));
+	}
+
+	@Test
+	void weightedValueCountsAsRepeatedValues() {
+		TDigest weighted = new TDigest(100);
+		TDigest repeated = new TDigest(100);
+		for (int i = 0; i < 100; i++) {
+			weighted.add(i, 3);
+			for (int j = 0; j < 3; j++) {
+				repeated.add(i);
+			}
+		}
+		assertEquals(repeated.size(), weighted.size());
+		for (double q : QUANTILES) {
+			assertEquals(repeated.quantile(q), weighted.quantile(q), 1.0, "q=" + q);
+		}
+	}
+
+	@Test
+	void emptyAndSingleValueDigests() {
+		TDigest digest = new TDigest(100);
+		assertEquals(0, digest.size());
+		assertTrue(Double.isNaN(digest.quantile(0.5)));
+		assertTrue(Double.isNaN(digest.getMin()));
+		digest.add(4.5);
+		assertEquals(4.5, digest.quantile(0.01));
+		assertEquals(4.5, digest.quantile(0.99));
+	}
+
+	@Test
+	void sizeStaysBoundedByTheCompression() {
+		TDigest digest = new TDigest(100);
+		Random random = new Random(4);
+		for (int i = 0; i < 1000000; i++) {
+			digest.add(random.nextGaussian());
+		}
+		// Header plus twelve bytes per centroid, and at most twice the compression of them
+		assertTrue(digest.toBytes().length <= 29 + 12 * 200, "too many centroids: " + digest.toBytes().length);
+	}
+
+	@Test
+	void bytesRoundTripKeepsTheEstimates() {
+		TDigest digest = new TDigest(100);
+		Random random = new Random(5);
+		for (int i = 0; i < 10000; i++) {
+			digest.add(random.nextDouble() * 30);
+		}
+		TDigest copy = TDigest.fromBytes(digest.toBytes());
+		assertEquals(digest.size(), copy.size());
+		assertEquals(digest.getMin(), copy.getMin());
+		assertEquals(digest.getMax(), copy.getMax());
+		for (double q : QUANTILES) {
+			assertEquals(digest.quantile(q), copy.quantile(q), 1e-9, "q=" + q);
+		}
+	}
+
+	@Test
+	void rejectsInvalidArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new TDigest(5));
+		TDigest digest = new TDigest(100);
+		assertThrows(IllegalArgumentException.class, () -> digest.add(Double.NaN));
+		assertThrows(IllegalArgumentException.class, () -> digest.add(Double.POSITIVE_INFINITY));
+		assertThrows(IllegalArgumentException.class, () -> digest.add(1.0, 0));
+		assertThrows(IllegalArgumentException.class, () -> digest.quantile(1.5));
+		assertThrows(IllegalArgumentException.class, () -> TDigest.fromBytes(new byte[10]));
+		byte[] bytes = digest.toBytes();
+		bytes[0]++;
+		assertThrows(IllegalArgumentException.class, () -> TDigest.fromBytes(bytes));
+	}
+
+	/**
+	 * Checks that the rank of each estimate in the sorted values is near the requested
+	 * quantile: within 0.35% of rank at the median, narrowing to 0.1% at the tails.
+	 */
+	private static void assertRankErrors(TDigest digest, double[] values) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		for (double q : QUANTILES) {
+			double estimate = digest.quantile(q);
+			double rank = rank(sorted, estimate);
+			double tolerance = 0.001 + 0.01 * q * (1 - q);
+			assertEquals(q, rank, tolerance, "q=" + q + " estimate=" + estimate);
+		}
+	}
+
+	/**
+	 * Fraction of the sorted values below a value, counting ties as half.
+	 */
+	private static double rank(double[] sorted, double value) {
+		int below = 0;
+		while (below < sorted.length && sorted[below] < value) {
+			below++;
+		}
+		int atOrBelow = below;
+		while (atOrBelow < sorted.length && sorted[atOrBelow] == value) {
+			atOrBelow++;
+		}
+		return (below + atOrBelow) / 2.0 / sorted.length;
+	}
+}
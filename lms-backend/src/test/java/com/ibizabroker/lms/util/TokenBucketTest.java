@@ -0,0 +1,72 @@
+package com.ibizabroker.lms.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+	@Test
+	void fullBucketAllowsABurstWithoutWaiting() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(1, 5);
+		long start = System.nanoTime();
+		for (int i = 0; i < 5; i++) {
+			bucket.acquire();
+		}
+		assertTrue(elapsedMillis(start) < 100, "burst waited " + elapsedMillis(start) + " ms");
+	}
+
+	@Test
+	void acquiresBeyondTheBurstArePacedAtTheRate() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(50, 1);
+		bucket.acquire();
+		long start = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			bucket.acquire();
+		}
+		// Ten tokens at 50 per second take 200 ms to refill
+		long millis = elapsedMillis(start);
+		assertTrue(millis >= 190, "too fast: " + millis + " ms");
+		assertTrue(millis < 1000, "too slow: " + millis + " ms");
+	}
+
+	@Test
+	void idleTimeRefillsUpToTheCapacityOnly() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(20, 2);
+		bucket.acquire();
+		bucket.acquire();
+		Thread.sleep(200);
+		long start = System.nanoTime();
+		bucket.acquire();
+		bucket.acquire();
+		assertTrue(elapsedMillis(start) < 25, "refilled tokens were not available");
+		// The pause was worth four tokens, but only two were kept, so the next one takes 50 ms
+		start = System.nanoTime();
+		bucket.acquire();
+		assertTrue(elapsedMillis(start) >= 40, "took a token beyond the capacity");
+	}
+
+	@Test
+	void interruptStopsTheWait() throws InterruptedException {
+		TokenBucket bucket = new TokenBucket(0.1, 1);
+		bucket.acquire();
+		Thread.currentThread().interrupt();
+		try {
+			assertThrows(InterruptedException.class, bucket::acquire);
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	@Test
+	void rejectsInvalidArguments() {
+		assertThrows(IllegalArgumentException.class, () -> new TokenBucket(0, 1));
+		assertThrows(IllegalArgumentException.class, () -> new TokenBucket(1, 0));
+	}
+
+	private static long elapsedMillis(long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+}